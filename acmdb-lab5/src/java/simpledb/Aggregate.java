@@ -1,16 +1,67 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, grouped by any number of columns, are
+ * computed in a single pass over the child; see {@link MultiAggregator} for
+ * the layout of the result tuples.
+ * <p>
+ * Aggregate is a hash aggregation with a bounded number of groups in memory.
+ * Tuples whose group is already in memory, or that still fits, are merged
+ * right away; tuples of any further group are hash-partitioned into
+ * temporary spill files. Once the in-memory groups are returned, each spill
+ * partition is aggregated the same way, one at a time, re-partitioning with a
+ * different hash if it still has too many groups. If the input is already
+ * ordered on the group field, {@link SortAggregate} needs no group table at
+ * all.
+ * <p>
+ * The child is read a batch at a time, see {@link Aggregator#mergeBatch};
+ * a batch that could hold more new groups than still fit in memory is
+ * merged tuple by tuple instead.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default memory budget, in pages, for the in-memory group table. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Number of partitions overflowing groups are spilled into per pass. */
+    private static final int SPILL_FANOUT = 16;
+
+    /**
+     * Past this many levels of re-partitioning a partition is aggregated in
+     * memory regardless of the budget, so that groups whose values all hash
+     * alike cannot recurse forever.
+     */
+    private static final int MAX_SPILL_DEPTH = 8;
+
+    private DbIterator child, aggIterator;
+    private Aggregator aggResult;
+    int[] afields, gfields;
+    Aggregator.Op[] aops;
+    private int memoryPages;
+    private int maxGroups;
+    private LinkedList<Partition> pending = new LinkedList<Partition>();
+    /** The spill partitions of the current pass, and its depth. */
+    private transient TempTupleFile[] parts;
+    private int passDepth;
+    private int numSpills;
+
+    /** A spilled partition waiting to be aggregated. */
+    private static class Partition {
+        final TempTupleFile file;
+        final int depth;
+
+        Partition(TempTupleFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
     /**
      * Constructor.
      * 
@@ -29,15 +80,50 @@ public class Aggregate extends Operator {
      * @param aop
      *            The aggregation operator to use
      */
-    private DbIterator child, aggIterator;
-    private Aggregator aggResult;
-    int afield, gfield;
-    Aggregator.Op aop;
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            the number of pages the in-memory group table may use; each
+     *            group is charged the size of its output tuple. Must be at
+     *            least 1.
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop,
+            int memoryPages) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop }, memoryPages);
+    }
+
+    /**
+     * Creates an Aggregate computing several aggregates at once.
+     *
+     * @param afields
+     *            the column of each aggregate
+     * @param gfields
+     *            the columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            the operator of each aggregate
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_PAGES);
+    }
+
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops, int memoryPages) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("Aggregate needs at least 1 page of memory");
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
         this.child = child;
+        this.memoryPages = memoryPages;
     }
 
     /**
@@ -46,7 +132,12 @@ public class Aggregate extends Operator {
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /** @return the group by field indexes in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -55,15 +146,20 @@ public class Aggregate extends Operator {
      *         null;
      * */
     public String groupFieldName() {
-        if (gfield == -1) return null;
-        return child.getTupleDesc().getFieldName(gfield);
+        if (gfields.length == 0) return null;
+        return child.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
      * @return the aggregate field
      * */
     public int aggregateField() {
-        return afield;
+        return afields[0];
+    }
+
+    /** @return the aggregate field of each aggregate */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
@@ -71,68 +167,266 @@ public class Aggregate extends Operator {
      *         tuples
      * */
     public String aggregateFieldName() {
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
      * @return return the aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-        return aop;
+        return aops[0];
+    }
+
+    /** @return the operator of each aggregate */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
 
+    /**
+     * @return a fresh Aggregator for the given aggregates over tuples of td.
+     */
+    static Aggregator newAggregator(TupleDesc td, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        return new MultiAggregator(td, gfields, afields, aops);
+    }
+
+    /** @return the memory budget of this aggregate, in pages */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /**
+     * @return the number of spill partitions written since the last
+     *         open/rewind, including re-partitioned ones.
+     */
+    public int numSpills() {
+        return numSpills;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
         child.open();
-	    switch (child.getTupleDesc().getFieldType(afield)) {
-            case INT_TYPE: {
-                if (gfield == Aggregator.NO_GROUPING) aggResult = new IntegerAggregator(gfield, null, afield, aop);
-                else aggResult = new IntegerAggregator(gfield, child.getTupleDesc().getFieldType(gfield),
-                        afield, aop);
-	            break;
+        computeMaxGroups();
+        startAggregation();
+        super.open();
+    }
+
+    private void computeMaxGroups() {
+        TupleDesc td = child.getTupleDesc();
+        int groupSize = MultiAggregator.outputTupleDesc(td, gfields, afields, aops).getSize();
+        maxGroups = Math.max(1, memoryPages * (BufferPool.getPageSize() / groupSize));
+    }
+
+    /** Set up the aggregation of the (open) child from its first tuple. */
+    protected void startAggregation() throws DbException, TransactionAbortedException {
+        releaseSpillState();
+        numSpills = 0;
+        aggIterator = aggregatePass(null, 0);
+    }
+
+    /**
+     * Open this aggregate to have the tuples of its child pushed into it by
+     * {@link #push} instead of reading them itself, e.g. by
+     * {@link PushEngine}; the child is not opened. Once {@link #finishPush}
+     * is called the groups are returned as usual.
+     */
+    void openPushed() {
+        computeMaxGroups();
+        releaseSpillState();
+        numSpills = 0;
+        beginPass(0);
+    }
+
+    /** Aggregate a tuple of the child, see {@link #openPushed}. */
+    void push(Tuple t) throws DbException {
+        try {
+            add(t);
+        } catch (IOException e) {
+            abortPass();
+            throw new DbException("error spilling aggregate partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finish aggregating the tuples pushed since {@link #openPushed}.
+     */
+    void finishPush() throws DbException, TransactionAbortedException {
+        aggIterator = endPass();
+        super.open();
+    }
+
+    /**
+     * Aggregate the tuples of source, or of the child if source is null,
+     * spilling tuples of groups that do not fit in memory into new pending
+     * partitions.
+     *
+     * @return an open iterator over the groups that were aggregated in memory
+     */
+    private DbIterator aggregatePass(DbFileIterator source, int depth)
+            throws DbException, TransactionAbortedException {
+        beginPass(depth);
+        try {
+            if (source == null) {
+                TupleBatch batch;
+                while ((batch = TupleBatch.next(child)) != null) {
+                    if (isUnbounded() || aggResult.numGroups() + batch.size() <= maxGroups) {
+                        aggResult.mergeBatch(batch);
+                        continue;
+                    }
+                    for (int r = 0; r < batch.size(); r++)
+                        mergeOrSpill(batch.getTuple(r));
+                }
+            } else {
+                while (source.hasNext())
+                    add(source.next());
             }
-            case STRING_TYPE: {
-                aggResult = new StringAggregator(gfield, child.getTupleDesc().getFieldType(gfield),
-                        afield, aop);
-	            break;
+        } catch (IOException e) {
+            abortPass();
+            throw new DbException("error spilling aggregate partition: " + e.getMessage());
+        }
+        return endPass();
+    }
+
+    /** Start a pass over tuples of groups spilled depth times. */
+    private void beginPass(int depth) {
+        aggResult = newAggregator(child.getTupleDesc(), afields, gfields, aops);
+        parts = new TempTupleFile[SPILL_FANOUT];
+        passDepth = depth;
+    }
+
+    /**
+     * @return true if the current pass keeps all of its groups in memory,
+     *         because there is a single one or it spilled too often already
+     */
+    private boolean isUnbounded() {
+        return gfields.length == 0 || passDepth >= MAX_SPILL_DEPTH;
+    }
+
+    private void add(Tuple t) throws IOException {
+        if (isUnbounded())
+            aggResult.mergeTupleIntoGroup(t);
+        else
+            mergeOrSpill(t);
+    }
+
+    /**
+     * Finish the current pass: its spill partitions become pending.
+     *
+     * @return an open iterator over the groups that were aggregated in memory
+     */
+    private DbIterator endPass() throws DbException, TransactionAbortedException {
+        try {
+            for (TempTupleFile f : parts) {
+                if (f == null)
+                    continue;
+                f.finish();
+                pending.add(new Partition(f, passDepth + 1));
             }
+        } catch (IOException e) {
+            abortPass();
+            throw new DbException("error spilling aggregate partition: " + e.getMessage());
         }
-        while (this.child.hasNext()) {
-            aggResult.mergeTupleIntoGroup(this.child.next());
+        parts = null;
+        DbIterator it = aggResult.iterator();
+        it.open();
+        return it;
+    }
+
+    private void abortPass() {
+        for (TempTupleFile f : parts) {
+            if (f != null)
+                f.delete();
         }
-        aggIterator = aggResult.iterator();
-        aggIterator.open();
-        super.open();
+        parts = null;
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Merge t into its group if the group is in memory or still fits, or
+     * else add it to its spill partition of the current pass.
+     */
+    private void mergeOrSpill(Tuple t) throws IOException {
+        if (aggResult.numGroups() < maxGroups || aggResult.hasGroup(t)) {
+            aggResult.mergeTupleIntoGroup(t);
+            return;
+        }
+        int p = partitionOf(t, passDepth);
+        if (parts[p] == null) {
+            parts[p] = new TempTupleFile(child.getTupleDesc());
+            numSpills++;
+        }
+        parts[p].add(t);
+    }
+
+    /** @return the spill partition of the group of t at the given depth */
+    private int partitionOf(Tuple t, int depth) {
+        int h = 0;
+        for (int g : gfields)
+            h = h * 31 + t.getField(g).hashCode();
+        // murmur3 finalizer, seeded per depth so a partition that is spilled
+        // again splits differently
+        h += depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % SPILL_FANOUT;
+    }
+
+    private void releaseSpillState() {
+        for (Partition p : pending)
+            p.file.delete();
+        pending.clear();
+        if (aggIterator != null)
+            aggIterator.close();
+        aggIterator = null;
+        aggResult = null;
+    }
+
+    /**
+     * Returns the next tuple. The group by fields come first, in the order
+     * given, followed by the result of each aggregate. Should return null if
+     * there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-	    if (aggIterator.hasNext()) {
-	        return aggIterator.next();
+        while (!aggIterator.hasNext()) {
+            if (pending.isEmpty())
+                return null;
+            Partition p = pending.removeFirst();
+            aggIterator.close();
+            DbFileIterator it = p.file.iterator();
+            it.open();
+            try {
+                aggIterator = aggregatePass(it, p.depth);
+            } finally {
+                it.close();
+                p.file.delete();
+            }
         }
-	    return null;
+        return aggIterator.next();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-	    child.rewind();
-	    aggIterator.rewind();
+        if (numSpills == 0) {
+            aggIterator.rewind();
+            return;
+        }
+        // spilled partitions are deleted as they are consumed, so start over
+        child.rewind();
+        startAggregation();
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return TupleBatch.fromRows(this);
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by one column per aggregate.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -140,11 +434,13 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        return child.getTupleDesc();
+        return MultiAggregator.outputTupleDesc(child.getTupleDesc(), gfields, afields, aops);
     }
 
     public void close() {
 	    super.close();
+        releaseSpillState();
+        child.close();
     }
 
     @Override
@@ -76,6 +76,23 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every tuple of a batch, as {@link #mergeTupleIntoGroup} does.
+     */
+    public default void mergeBatch(TupleBatch batch) {
+        for (int r = 0; r < batch.size(); r++)
+            mergeTupleIntoGroup(batch.getTuple(r));
+    }
+
+    /** @return the number of distinct groups merged so far */
+    public int numGroups();
+
+    /**
+     * @return true if a tuple of the same group as tup has already been
+     *         merged.
+     */
+    public boolean hasGroup(Tuple tup);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,454 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * BTreeBulkLoader builds a B+ tree bottom-up from a stream of tuples that is
+ * already sorted on the key field, e.g. the output of an {@link OrderBy} over
+ * a {@link HeapFile}. This is much cheaper than inserting the tuples one at a
+ * time: every page is laid out once and written straight to disk, nearly in
+ * file order, without going through the BufferPool.
+ * <p>
+ * The loader never holds more than about two pages worth of tuples, plus two
+ * pages worth of child pointers for each internal level. A page is only laid
+ * out once enough items have arrived after it to be sure the pages that
+ * follow it on the same level can be filled at least half full; whatever is
+ * left at the end is split over one or two pages. Pages are filled up to a
+ * fill factor, so that some inserts can be made after loading before the
+ * pages start to split.
+ * <p>
+ * Since a page is written before its parent is laid out, its parent pointer
+ * is filled in afterwards, by overwriting just that pointer in place.
+ * <p>
+ * The tree is built in a file next to that of the tree, which only takes its
+ * place once the whole input has been loaded, so a load that fails, e.g. on
+ * unsorted input, leaves the tree as it was.
+ * <p>
+ * The loader does not lock the pages it writes or log them, so the tree must
+ * not be used by any transaction while it is being loaded.
+ */
+public class BTreeBulkLoader {
+
+    /** The fraction of each page filled by default. */
+    public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+    private final BTreeFile bf;
+    private final int tableid;
+    private final int keyField;
+    private final TupleDesc td;
+    private final Type[] typeAr;
+    private final double fillFactor;
+
+    // the most, the fewest and the targeted number of tuples per leaf page
+    // and children per internal page, or bytes of tuples per slotted leaf
+    // page and of entries per internal page if the keys vary in length
+    private int leafMax, leafMin, leafTarget;
+    private int internalMax, internalMin, internalTarget;
+    private BTreeLeafPage leaf;
+    private BTreeInternalPage internal;
+    private boolean variableTuples;
+    private boolean variableKeys;
+
+    private RandomAccessFile rf;
+    private int nextPageNo;
+    private LeafLevel leaves;
+    private ArrayList<InternalLevel> levels;
+
+    /**
+     * Create a loader for the specified B+ tree, which must be registered in
+     * the Catalog.
+     *
+     * @param bf         the B+ tree to load
+     * @param fillFactor the fraction of each page to fill, in (0, 1]. Pages are
+     *                   never filled less than half, so the tree still meets
+     *                   the minimum occupancy invariants.
+     */
+    public BTreeBulkLoader(BTreeFile bf, double fillFactor) {
+        if (!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        this.bf = bf;
+        this.tableid = bf.getId();
+        this.keyField = bf.keyField();
+        this.td = bf.getTupleDesc();
+        this.typeAr = new Type[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++)
+            typeAr[i] = td.getFieldType(i);
+        this.fillFactor = fillFactor;
+    }
+
+    /**
+     * @return the number of items per page for the fill factor, no less than min
+     */
+    private int target(int max, int min) {
+        return Math.max(min, Math.min(max, (int) (fillFactor * max)));
+    }
+
+    /**
+     * @return true if n items left at the end of a level should be split over
+     * two pages: if they do not fit on one page, or if they are more than the
+     * fill factor allows and both halves are still at least half full
+     */
+    private static boolean splitLast(int n, int max, int min, int target) {
+        return n > max || (n > target && n / 2 >= min);
+    }
+
+    /**
+     * Load the tuples of the iterator, which must be sorted on the key field of
+     * the tree, into the tree. The tree must be empty. The iterator is opened
+     * and closed by this method.
+     *
+     * @param sorted the tuples to load, in ascending order of their key field
+     * @throws DbException if the tree is not empty, or the tuples do not match
+     *                     the tree or are not sorted
+     */
+    public void load(DbIterator sorted) throws DbException, IOException, TransactionAbortedException {
+        TupleDesc sortedTd = sorted.getTupleDesc();
+        if (sortedTd.numFields() != td.numFields())
+            throw new DbException("tuples do not match the B+ tree");
+        for (int i = 0; i < typeAr.length; i++) {
+            if (sortedTd.getFieldType(i) != typeAr[i])
+                throw new DbException("tuples do not match the B+ tree");
+        }
+        checkEmpty();
+
+        leaf = new BTreeLeafPage(new BTreePageId(tableid, 1, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData(), keyField);
+        variableTuples = BTreeLeafPage.hasVariableFields(td);
+        leafMax = leaf.getCapacity();
+        leafMin = leafMax / 2;
+        leafTarget = target(leafMax, (leafMax + 1) / 2);
+        internal = new BTreeInternalPage(new BTreePageId(tableid, 1, BTreePageId.INTERNAL),
+                BTreeInternalPage.createEmptyPageData(), keyField);
+        variableKeys = internal.hasVariableKeys();
+        if (variableKeys) {
+            internalMax = internal.getCapacity();
+            internalMin = internalMax / 2;
+        } else {
+            internalMax = internal.getMaxEntries() + 1;
+            internalMin = internal.getMaxEntries() / 2 + 1;
+        }
+        internalTarget = target(internalMax, internalMin);
+
+        File loading = new File(bf.getFile().getPath() + ".load");
+        boolean loaded = false;
+        rf = new RandomAccessFile(loading, "rw");
+        try {
+            rf.setLength(0);
+            nextPageNo = 1;
+            leaves = new LeafLevel();
+            levels = new ArrayList<InternalLevel>();
+
+            sorted.open();
+            try {
+                while (sorted.hasNext())
+                    leaves.add(sorted.next());
+            } finally {
+                sorted.close();
+            }
+            finish();
+            rf.close();
+            Files.move(loading.toPath(), bf.getFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            loaded = true;
+        } finally {
+            rf.close();
+            rf = null;
+            if (!loaded)
+                loading.delete();
+        }
+
+        // drop any copies of the pages of the empty tree
+        BufferPool bp = Database.getBufferPool();
+        bp.discardPage(BTreeRootPtrPage.getId(tableid));
+        for (int i = 1; i < nextPageNo; i++) {
+            bp.discardPage(new BTreePageId(tableid, i, BTreePageId.LEAF));
+            bp.discardPage(new BTreePageId(tableid, i, BTreePageId.INTERNAL));
+        }
+    }
+
+    /**
+     * @throws DbException if the tree has a root page. The root pointer is read
+     *                     through the BufferPool, so that a tree with inserts
+     *                     that are not committed yet is not taken for empty.
+     */
+    private void checkEmpty() throws DbException {
+        if (bf.getFile().length() == 0)
+            return;
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool()
+                .fetchPage(BTreeRootPtrPage.getId(tableid));
+        if (rootPtr.getRootId() != null)
+            throw new DbException("bulk loading requires an empty B+ tree");
+    }
+
+    /**
+     * Lay out the pages left on every level, bottom-up, then point the root
+     * pointer at the single page on the top level. If there were no tuples,
+     * the file is left empty, just like that of a new tree.
+     */
+    private void finish() throws DbException, IOException {
+        BTreePageId root = leaves.finish();
+        for (int depth = 0; depth < levels.size(); depth++)
+            root = levels.get(depth).finish();
+        if (root == null)
+            return;
+
+        rf.seek(0);
+        rf.write(BTreeFileEncoder.convertToRootPtrPage(root.pageNumber(), root.pgcateg(), 0));
+    }
+
+    private void write(BTreePage page) throws IOException {
+        rf.seek(BTreeFile.pageOffset(page.getId().pageNumber()));
+        rf.write(page.getPageData());
+    }
+
+    /**
+     * Record that the child page belongs to the given parent. The parent
+     * pointer comes first on both leaf and internal pages.
+     */
+    private void setParent(int childPageNo, int parentPageNo) throws IOException {
+        rf.seek(BTreeFile.pageOffset(childPageNo));
+        rf.writeInt(parentPageNo);
+    }
+
+    /**
+     * Add a page to the level above the given depth, to the right of the
+     * previous page on that level. If there is no such level yet, it is
+     * started with the previous page as its first child.
+     *
+     * @param depth     the depth of the level above, counting up from 0 for
+     *                  the first level above the leaves
+     * @param separator the key separating the new page from the previous one
+     * @param previous  the previous page, which has just been written
+     * @param pageNo    the new page, which is still being filled
+     */
+    private void addChild(int depth, Field separator, int previous, int pageNo)
+            throws DbException, IOException {
+        if (depth == levels.size())
+            levels.add(new InternalLevel(depth, previous));
+        levels.get(depth).add(separator, pageNo);
+    }
+
+    /**
+     * The tuples of the leaf pages that have not been written yet. Pages are
+     * filled by the space their tuples take on the page, which is the number
+     * of tuples unless the tuples vary in length.
+     */
+    private class LeafLevel {
+        private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        private int space;
+        private int pageNo = nextPageNo++;
+        private int leftSibling;
+        private Field lastKey;
+
+        void add(Tuple t) throws DbException, IOException {
+            Field key = t.getField(keyField);
+            if (lastKey != null && key.compare(Predicate.Op.LESS_THAN, lastKey))
+                throw new DbException("tuples are not sorted on the key field");
+            lastKey = key;
+            tuples.add(t);
+            space += leaf.getTupleSpace(t);
+            if (space > 2 * leafTarget)
+                writePage(fit(leafTarget), false);
+        }
+
+        /**
+         * @return the most tuples, at least one, that the first page can take
+         * in the given space, leaving at least one for the pages after it
+         */
+        private int fit(int bytes) {
+            int n = 1;
+            int used = leaf.getTupleSpace(tuples.get(0));
+            while (n + 1 < tuples.size()) {
+                used += leaf.getTupleSpace(tuples.get(n));
+                if (used > bytes)
+                    break;
+                n++;
+            }
+            return n;
+        }
+
+        /**
+         * Write out the first n tuples as a page.
+         *
+         * @param last true if this is the last page on the leaf level
+         */
+        private void writePage(int n, boolean last) throws DbException, IOException {
+            ArrayList<Tuple> pageTuples = new ArrayList<Tuple>(tuples.subList(0, n));
+            tuples.subList(0, n).clear();
+            BTreePageId pid = new BTreePageId(tableid, pageNo, BTreePageId.LEAF);
+            BTreeLeafPage page;
+            if (variableTuples) {
+                // slotted pages are laid out by the page itself, from copies
+                // of the tuples in the description of the tree
+                page = new BTreeLeafPage(pid, BTreeLeafPage.createEmptyPageData(), keyField);
+                for (Tuple t : pageTuples) {
+                    Tuple copy = new Tuple(td);
+                    for (int i = 0; i < typeAr.length; i++)
+                        copy.setField(i, t.getField(i));
+                    page.insertTuple(copy);
+                }
+            } else {
+                byte[] data = BTreeFileEncoder.convertToLeafPage(pageTuples, BufferPool.getPageSize(),
+                        typeAr.length, typeAr, keyField);
+                page = new BTreeLeafPage(pid, data, keyField);
+            }
+            for (Tuple t : pageTuples)
+                space -= leaf.getTupleSpace(t);
+            if (leftSibling != 0)
+                page.setLeftSiblingId(new BTreePageId(tableid, leftSibling, BTreePageId.LEAF));
+            int written = pageNo;
+            Field separator = null;
+            if (!last) {
+                separator = BTreePage.separator(pageTuples.get(n - 1).getField(keyField),
+                        tuples.get(0).getField(keyField));
+                pageNo = nextPageNo++;
+                page.setRightSiblingId(new BTreePageId(tableid, pageNo, BTreePageId.LEAF));
+                page.setHighKey(separator);
+            }
+            write(page);
+            leftSibling = written;
+            if (!last)
+                addChild(0, separator, written, pageNo);
+        }
+
+        /**
+         * Write out the remaining tuples.
+         *
+         * @return the root page if the leaf level is the top level, null if the
+         * tree is empty
+         */
+        BTreePageId finish() throws DbException, IOException {
+            if (tuples.isEmpty())
+                return null;
+            while (splitLast(space, leafMax, leafMin, leafTarget))
+                writePage(fit(Math.min(leafTarget, space / 2)), false);
+            int written = pageNo;
+            writePage(tuples.size(), true);
+            return new BTreePageId(tableid, written, BTreePageId.LEAF);
+        }
+    }
+
+    /**
+     * The child pointers of the pages of one internal level that have not been
+     * written yet. The key before each child separates it from the previous
+     * one; the key before the first child has already been pushed up to the
+     * level above (or there is none, for the first page on the level).
+     * <p>
+     * With variable-length keys, pages are filled by the space their entries
+     * take rather than by the number of children.
+     */
+    private class InternalLevel {
+        private final int depth;
+        private final ArrayList<Field> keys = new ArrayList<Field>();
+        private final ArrayList<Integer> children = new ArrayList<Integer>();
+        private int pageNo = nextPageNo++;
+
+        InternalLevel(int depth, int firstChild) {
+            this.depth = depth;
+            keys.add(null);
+            children.add(firstChild);
+        }
+
+        /**
+         * Add a child. All children but the one added last are already on
+         * disk, so their parent pointers can be set if a page is written.
+         */
+        void add(Field separator, int child) throws DbException, IOException {
+            keys.add(separator);
+            children.add(child);
+            if (variableKeys) {
+                // measured up to the last key, so that the prefix it shares
+                // with the first one is left out
+                if (space(children.size() - 1) > 2 * internalTarget)
+                    writePage(fit(internalTarget), false);
+            } else if (children.size() > 2 * internalTarget)
+                writePage(internalTarget, false);
+        }
+
+        /**
+         * @return the bytes taken by the entries of a page of the first n
+         * children, between the key before them and the key after them
+         */
+        private int space(int n) {
+            return internal.getSpaceFor(keys.subList(1, n), keys.get(0),
+                    n < keys.size() ? keys.get(n) : null);
+        }
+
+        /**
+         * @return the most children, at least two, that the first page can
+         * take for its entries to fit in the given number of bytes, leaving at
+         * least two for the pages after it
+         */
+        private int fit(int bytes) {
+            int n = 2;
+            while (n + 2 < children.size() && space(n + 1) <= bytes)
+                n++;
+            return n;
+        }
+
+        /**
+         * Write out the first n children as a page.
+         *
+         * @param last true if this is the last page on this level
+         */
+        private void writePage(int n, boolean last) throws DbException, IOException {
+            int childCategory = depth == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+            ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+            for (int i = 1; i < n; i++) {
+                entries.add(new BTreeEntry(keys.get(i),
+                        new BTreePageId(tableid, children.get(i - 1), childCategory),
+                        new BTreePageId(tableid, children.get(i), childCategory)));
+            }
+            BTreePageId pid = new BTreePageId(tableid, pageNo, BTreePageId.INTERNAL);
+            BTreeInternalPage page;
+            if (variableKeys) {
+                // the entries are stored relative to the low and high keys, so
+                // those are set first
+                page = new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), keyField);
+                page.setLowKey(keys.get(0));
+            } else {
+                byte[] data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+                        typeAr[keyField], childCategory);
+                page = new BTreeInternalPage(pid, data, keyField);
+            }
+            int written = pageNo;
+            Field separator = null;
+            if (!last) {
+                separator = keys.get(n);
+                pageNo = nextPageNo++;
+                page.setRightSiblingId(new BTreePageId(tableid, pageNo, BTreePageId.INTERNAL));
+                page.setHighKey(separator);
+            }
+            if (variableKeys) {
+                for (BTreeEntry e : entries)
+                    page.insertEntry(e);
+            }
+            write(page);
+            for (int i = 0; i < n; i++)
+                setParent(children.get(i), written);
+            keys.subList(0, n).clear();
+            children.subList(0, n).clear();
+            if (!last)
+                addChild(depth + 1, separator, written, pageNo);
+        }
+
+        /**
+         * Write out the remaining children.
+         *
+         * @return the root page if this is the top level
+         */
+        BTreePageId finish() throws DbException, IOException {
+            if (variableKeys) {
+                // the last page has no high key, so its keys are stored whole
+                while (splitLast(space(children.size()), internalMax, internalMin, internalTarget))
+                    writePage(fit(Math.min(internalTarget, space(children.size()) / 2)), false);
+            } else if (splitLast(children.size(), internalMax, internalMin, internalTarget))
+                writePage(children.size() / 2, false);
+            int written = pageNo;
+            writePage(children.size(), true);
+            return new BTreePageId(tableid, written, BTreePageId.INTERNAL);
+        }
+    }
+}
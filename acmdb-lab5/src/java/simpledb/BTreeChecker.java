@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -51,8 +52,8 @@ public class BTreeChecker {
     /**
      * checks the integrity of the tree:
      * 1) parent pointers.
-     * 2) sibling pointers.
-     * 3) range invariants.
+     * 2) sibling pointers, and right links between internal pages.
+     * 3) range invariants, including high keys.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
      */
@@ -68,6 +69,34 @@ public class BTreeChecker {
                     rtptr.getRootId(), null, null, rtptr.getId(), checkOccupancy, 0);
             assert (res.ptrLeft == null);
             assert (res.ptrRight == null);
+            checkRightLinks(bt, tid, dirtypages, rtptr.getRootId());
+        }
+    }
+
+    /**
+     * checks that on every level of internal pages, each page links to the next one to its
+     * right, and the right-most page to none.
+     */
+    static void checkRightLinks(BTreeFile bt, TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                BTreePageId rootId) throws
+            TransactionAbortedException, DbException {
+        ArrayList<BTreePageId> level = new ArrayList<BTreePageId>();
+        level.add(rootId);
+        while (level.get(0).pgcateg() == BTreePageId.INTERNAL) {
+            ArrayList<BTreePageId> below = new ArrayList<BTreePageId>();
+            for (int i = 0; i < level.size(); i++) {
+                BTreeInternalPage ipage = (BTreeInternalPage) bt.getPage(tid, dirtypages, level.get(i),
+                        Permissions.READ_ONLY);
+                BTreePageId next = i + 1 < level.size() ? level.get(i + 1) : null;
+                assert(next == null ? ipage.getRightSiblingId() == null : next.equals(ipage.getRightSiblingId()));
+                Iterator<BTreeEntry> it = ipage.iterator();
+                BTreeEntry e = it.next();
+                below.add(e.getLeftChild());
+                below.add(e.getRightChild());
+                while (it.hasNext())
+                    below.add(it.next().getRightChild());
+            }
+            level = below;
         }
     }
 
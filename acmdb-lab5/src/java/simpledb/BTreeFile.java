@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.Predicate.Op;
 
@@ -25,6 +26,37 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private int keyField;
+    private final LatchManager latches = new LatchManager();
+    /** Incremented whenever a deletion moves keys between pages or frees a page. */
+    private final AtomicLong restructures = new AtomicLong();
+    /** Incremented whenever a transaction that changed pages of this file rolls back. */
+    private final AtomicLong rollbacks = new AtomicLong();
+
+    /** If set, deletes leave underfull leaves for {@link #compact(TransactionId)} to merge. */
+    private volatile boolean deferMerges = false;
+    /** The leaves deletes have left less than half full while merging was deferred. */
+    private final Set<BTreePageId> underfull = Collections.newSetFromMap(
+            new java.util.concurrent.ConcurrentHashMap<BTreePageId, Boolean>());
+    /**
+     * The leaves each transaction has taken out of underfull, which go back
+     * in if it rolls back. A transaction holds locks on its leaves until it
+     * completes, so the entries of those that hold none are dropped.
+     */
+    private final Map<TransactionId, Set<BTreePageId>> compacted =
+            new java.util.concurrent.ConcurrentHashMap<TransactionId, Set<BTreePageId>>();
+
+    /*
+     * The free pages of the file, as the header pages listed them when last
+     * read and updated by later allocations and frees, so that finding a
+     * free page does not scan the header pages. Entries may be stale: a
+     * transaction that freed the page may still roll back, so each is checked
+     * against its header page before it is used. The cache is read again
+     * after any abort, which may have returned pages to the free list.
+     */
+    private final TreeSet<Integer> freePages = new TreeSet<Integer>();
+    private final ArrayList<BTreePageId> headerIds = new ArrayList<BTreePageId>();
+    private BufferPool freePagesPool = null;
+    private long freePagesAborts;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -98,8 +130,7 @@ public class BTreeFile implements DbFile {
                 return p;
             } else {
                 byte pageBuf[] = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) {
+                if (bis.skip(pageOffset(id.pageNumber())) != pageOffset(id.pageNumber())) {
                     throw new IllegalArgumentException(
                             "Unable to seek to correct place in BTreeFile");
                 }
@@ -151,12 +182,20 @@ public class BTreeFile implements DbFile {
             rf.write(data);
             rf.close();
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber() - 1) * BufferPool.getPageSize());
+            rf.seek(pageOffset(page.getId().pageNumber()));
             rf.write(data);
             rf.close();
         }
     }
 
+    /**
+     * Returns the offset in the file of the page with the given number. The
+     * root pointer page comes first, followed by the other pages in order.
+     */
+    static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
@@ -173,54 +212,154 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * Finds and locks the leaf page in the B+ tree corresponding to the left-most page possibly
+     * containing the key field f, and locks the leaf page with permission perm.
+     * <p>
+     * The internal pages on the way down are not locked, and only one of them is latched (shared)
+     * at a time. Every page carries a high key and a link to its right neighbour on the same
+     * level, so a search that reaches a page after it was split, and whose key now lies beyond
+     * the page's high key, simply moves right instead of having to hold the parent while it
+     * looks at the child. The leaf is locked with no latch held, so readers never wait for a
+     * lock while blocking a split, and then checked for a move right the same way.
+     * <p>
+     * Splits are the only changes this handles by itself. The search starts over if a deletion
+     * redistributed or freed pages of this file, or a transaction that changed it aborted, while
+     * it was under way, since the pages it saw may since have been reused or rolled back. It
+     * checks for that before locking the leaf, and gives up the locks it took if it has to start
+     * over after all.
      * <p>
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-     * @param pid        - the current page being searched
      * @param perm       - the permissions with which to lock the leaf page
      * @param f          - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
+     * @return the left-most leaf page possibly containing the key field f, or null if the tree
+     * has no root page yet
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, dirtypages, perm, f, false);
+    }
+
+    /**
+     * Finds and locks the left-most or the right-most leaf page possibly containing the key
+     * field f, as {@link #findLeafPage(TransactionId, HashMap, Permissions, Field)} does. The
+     * right-most one is found by descending right of the keys equal to f, and moving right
+     * past pages whose high key is equal to f, since tuples with key f may follow them.
+     *
+     * @param last - true to find the right-most leaf page, or the right-most leaf of the tree
+     *             if f is null
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+                                       Field f, boolean last)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        search:
+        while (true) {
+            long version = structureVersion();
+            BTreePageId pid;
+            latches.latchShared(rootPtrId);
+            try {
+                pid = ((BTreeRootPtrPage) bp.fetchPage(rootPtrId)).getRootId();
+            } finally {
+                latches.unlatchShared(rootPtrId);
+            }
+            if (pid == null)
+                return null;
+            // descend to the child left of the first key >= f (or the left-most
+            // child if f is null), moving right past pages split meanwhile. The
+            // right-most leaf is found the other way round.
+            while (pid.pgcateg() == BTreePageId.INTERNAL) {
+                BTreePageId next;
+                latches.latchShared(pid);
+                try {
+                    if (structureVersion() != version)
+                        continue search;
+                    BTreeInternalPage page = (BTreeInternalPage) bp.fetchPage(pid);
+                    if (last)
+                        next = page.movesRightPast(f) ? page.getRightSiblingId() : page.findLastChild(f);
+                    else
+                        next = page.movesRight(f) ? page.getRightSiblingId() : page.findChild(f);
+                } finally {
+                    latches.unlatchShared(pid);
+                }
+                if (next == null)
+                    throw new DbException("internal page " + pid + " has no children");
+                pid = next;
+            }
+            // only lock the leaf if the path to it still holds; a search that has to start
+            // over after locking gives up the locks it took on the way
+            if (structureVersion() != version)
+                continue;
+            ArrayList<PageId> taken = new ArrayList<PageId>();
+            BTreeLeafPage leaf = (BTreeLeafPage) lockSearched(tid, dirtypages, pid, perm, taken);
+            while (last ? leaf.movesRightPast(f) : leaf.movesRight(f))
+                leaf = (BTreeLeafPage) lockSearched(tid, dirtypages, leaf.getRightSiblingId(), perm, taken);
+            if (structureVersion() == version)
+                return leaf;
+            for (PageId abandoned : taken) {
+                dirtypages.remove(abandoned);
+                bp.releasePage(tid, abandoned);
+            }
+        }
+    }
+
+    /**
+     * Lock a page a search passes, adding it to taken if the transaction held no lock on it
+     * before, so that the search can give the lock up again if it has to start over. It has
+     * neither read nor changed the page then.
      */
-    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+    private Page lockSearched(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+                              Permissions perm, ArrayList<PageId> taken)
             throws DbException, TransactionAbortedException {
-		if (f != null) {
-			Page curPage = getPage(tid, dirtypages, pid, perm);
-			if (curPage instanceof BTreeLeafPage) {
-				BTreeLeafPage leafPage = ((BTreeLeafPage) curPage);
-				return leafPage;
-			} else if (curPage instanceof BTreeInternalPage) {
-				BTreeInternalPage internalPage = (BTreeInternalPage) curPage;
-				Iterator<BTreeEntry> pageIterator = internalPage.iterator();
-				while (pageIterator.hasNext()) {
-					BTreeEntry entry = pageIterator.next();
-					if (entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-						return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-					}
-					if (!pageIterator.hasNext()) {
-					    return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
-                    }
-				}
-			} else {
- 				// no other situations should happen
-			}
-		} else {
-			// return the leftmost leafpage
-			Page curPage = getPage(tid, dirtypages, pid, perm);
-			if (curPage instanceof BTreeLeafPage) {
-				return ((BTreeLeafPage) curPage);
-			} else if (curPage instanceof BTreeInternalPage) {
-				BTreeEntry entry = ((BTreeInternalPage) curPage).iterator().next();
-				return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, null);
-			}
-		}
-		return null;
+        if (!dirtypages.containsKey(pid) && !Database.getBufferPool().holdsLock(tid, pid))
+            taken.add(pid);
+        return getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * @return a counter that changes whenever pages a search has passed may no longer lead to
+     * the leaf it is looking for, other than by a split
+     */
+    private long structureVersion() {
+        return rollbacks.get() + restructures.get();
+    }
+
+    /**
+     * Called by the buffer pool when a transaction that changed pages of this file rolls back,
+     * after the pages are discarded but before its locks are released: searches that passed the
+     * discarded pages, and the free page cache, may no longer be valid, and the leaves it took
+     * out of the underfull ones are underfull again.
+     */
+    void rolledBack(TransactionId tid) {
+        rollbacks.incrementAndGet();
+        Set<BTreePageId> taken = compacted.remove(tid);
+        if (taken != null)
+            underfull.addAll(taken);
+    }
+
+    /**
+     * Take a leaf out of underfull for a transaction, to put it back if the
+     * transaction rolls back.
+     */
+    private void takeUnderfull(TransactionId tid, BTreePageId pid) {
+        if (underfull.remove(pid))
+            compacted.computeIfAbsent(tid, t -> Collections.newSetFromMap(
+                    new java.util.concurrent.ConcurrentHashMap<BTreePageId, Boolean>())).add(pid);
+    }
+
+    /** Forget the leaves of the transactions that have completed. */
+    private void pruneCompacted() {
+        BufferPool bp = Database.getBufferPool();
+        compacted.entrySet().removeIf(e -> {
+            for (BTreePageId pid : e.getValue()) {
+                if (bp.holdsLock(e.getKey(), pid))
+                    return false;
+            }
+            return true;
+        });
     }
 
     /**
@@ -228,22 +367,111 @@ public class BTreeFile implements DbFile {
      * Used by the BTreeFile iterator.
      *
      * @param tid  - the transaction id
-     * @param pid  - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
      * @param f    - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+     * @return the left-most leaf page possibly containing the key field f, or null if the tree
+     * has no root page yet
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field)
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f);
+    }
+
+    /**
+     * Convenience method to find the right-most leaf page possibly containing the key field f,
+     * or the right-most leaf page if f is null, when there is no dirtypages HashMap. Used by
+     * the descending iterators.
+     *
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
+     */
+    BTreeLeafPage findLastLeafPage(TransactionId tid, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, true);
+    }
+
+    /**
+     * Lock and latch the ancestors of a page that a split (inserting) or a merge or
+     * redistribution (deleting) starting at that page may modify: its parent, then the parent's
+     * parent for as long as the parent may have to split or underflow in turn, and the root
+     * pointer page if the root may be replaced. Pages above the first ancestor that is safe
+     * from such changes are left alone, so concurrent operations elsewhere in the tree only
+     * contend on the part of the path that is actually restructured.
+     * <p>
+     * The ancestors are locked bottom-up by following parent pointers, and only then latched
+     * exclusively top-down, the same order in which searches take their shared latches. The
+     * other pages the modification reaches (siblings, children and new pages) lie beside or
+     * below these and are latched by getPage as they are fetched.
+     * <p>
+     * The thread may already hold exclusive latches when it gets here: on the root pointer
+     * page when the first insert creates the root, and on the internal pages an earlier round
+     * of {@link #compact(TransactionId)} latched. So it can wait for a lock while holding a
+     * latch. This cannot deadlock: a page is only latched exclusively once the transaction
+     * holds its write lock, so two writers never wait for each other's latches, and shared
+     * latches are never held across a lock wait. A writer waiting for a lock therefore only
+     * holds up searchers, and the lock wait itself is bounded: it ends in a
+     * TransactionAbortedException, and the operation then releases all its latches.
+     *
+     * @param tid        - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page       - the page the modification starts at
+     * @param inserting  - true for a split, false for a merge or redistribution
+     */
+    private void latchAncestors(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePage page,
+                                boolean inserting)
+            throws DbException, TransactionAbortedException {
+        ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+        BTreePage child = page;
+        while (true) {
+            BTreePageId parentId = child.getParentId();
+            if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+                // splitting the root, or deleting the last entry of an internal root,
+                // replaces the root
+                if (inserting || child instanceof BTreeInternalPage) {
+                    lockForUpdate(tid, dirtypages, parentId);
+                    path.add(parentId);
+                }
+                break;
+            }
+            BTreeInternalPage parent = (BTreeInternalPage) lockForUpdate(tid, dirtypages, parentId);
+            path.add(parentId);
+            if (inserting ? parent.getNumEmptySlots() > 0 : !mayUnderflow(parent))
+                break;
+            child = parent;
+        }
+        for (int i = path.size() - 1; i >= 0; i--)
+            latches.latchExclusive(path.get(i));
+    }
+
+    /**
+     * @return true if deleting one entry from the internal page would leave it below minimum
+     * occupancy, or leave it empty if it is the root
+     */
+    private boolean mayUnderflow(BTreeInternalPage page) {
+        if (page.getParentId().pgcateg() == BTreePageId.ROOT_PTR)
+            return page.getNumEntries() <= 1;
+        return page.getUsedSpace() - page.getMaxEntrySpace() < page.getCapacity() / 2;
+    }
+
+    /**
+     * Lock a page with read-write permission and add it to the dirtypages cache, without
+     * latching it.
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-                               Field f)
+    private Page lockForUpdate(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid)
             throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+        Page p = dirtypages.get(pid);
+        if (p == null) {
+            p = Database.getBufferPool().getPageForUpdate(tid, pid);
+            dirtypages.put(pid, p);
+        }
+        return p;
     }
 
     /**
      * Split a leaf page to make room for new tuples and recursively split the parent node
      * as needed to accommodate a new entry. The new entry should have a key matching the key field
-     * of the first tuple in the right-hand page (the key is "copied up"), and child pointers
+     * of the first tuple in the right-hand page (the key is "copied up"; string keys are cut
+     * down to the shortest prefix that still separates the pages), and child pointers
      * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent
      * pointers as needed.
      * <p>
@@ -271,26 +499,28 @@ public class BTreeFile implements DbFile {
         BTreeLeafPage sibling = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
         // split parent if necessary
         BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
-        // move tuples to sibling
+        // move half of the tuples, or of their space, to sibling
         Iterator<Tuple> removeIterator = page.reverseIterator();
         while (removeIterator.hasNext()) {
             Tuple removedTuple = removeIterator.next();
             page.deleteTuple(removedTuple);
             sibling.insertTuple(removedTuple);
-            if (sibling.getNumTuples() == sibling.getMaxTuples() / 2) break;
+            if (sibling.getUsedSpace() >= page.getUsedSpace() - 1) break;
         }
         // update pointers
         if (page.getRightSiblingId() != null) {
-            BTreeLeafPage originalRight = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_ONLY);
+            BTreeLeafPage originalRight = (BTreeLeafPage) getPage(tid, dirtypages, page.getRightSiblingId(), Permissions.READ_WRITE);
             originalRight.setLeftSiblingId(sibling.getId());
             sibling.setRightSiblingId(originalRight.getId());
-            dirtypages.replace(originalRight.pid, originalRight);
         }
         sibling.setLeftSiblingId(page.getId());
         sibling.setParentId(parent.getId());
         page.setRightSiblingId(sibling.getId());
         // update parent entry
-        Field entryKey = sibling.getTuple(0).getField(keyField);
+        Field entryKey = BTreePage.separator(page.reverseIterator().next().getField(keyField),
+                sibling.getTuple(0).getField(keyField));
+        sibling.setHighKey(page.getHighKey());
+        page.setHighKey(entryKey);
         BTreeEntry newEntry = new BTreeEntry(entryKey, page.getId(), sibling.getId());
         updateParentPointer(tid, dirtypages, parent.pid, sibling.pid);
         parent.insertEntry(newEntry);
@@ -298,7 +528,7 @@ public class BTreeFile implements DbFile {
         // update dirty pages
         dirtypages.put(sibling.pid, sibling);
         dirtypages.replace(page.pid, page);
-        if (sibling.getTuple(0).getField(keyField).compare(Op.GREATER_THAN, field)) {
+        if (field.compare(Op.LESS_THAN, entryKey)) {
             return page;
         } else return sibling;
     }
@@ -329,14 +559,19 @@ public class BTreeFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         BTreeInternalPage sibling = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
         BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
-        // move entries from page to sibling
+        // the sibling takes over the range of keys of the page, so that its
+        // variable-length keys are stored as compactly while they move
+        sibling.setRightSiblingId(page.getRightSiblingId());
+        sibling.setHighKey(page.getHighKey());
+        sibling.setLowKey(page.getLowKey());
+        // move half of the entries, or of their space, from page to sibling
         Iterator<BTreeEntry> removeIterator = page.reverseIterator();
         Field middleKey = null;
         while (removeIterator.hasNext()) {
             BTreeEntry entry = removeIterator.next();
             page.deleteKeyAndRightChild(entry);
 
-            if (sibling.getNumEntries() == sibling.getMaxEntries() / 2) {
+            if (sibling.getUsedSpace() >= page.getUsedSpace()) {
                 middleKey = entry.getKey();
                 break;
             }
@@ -346,11 +581,16 @@ public class BTreeFile implements DbFile {
         updateParentPointers(tid, dirtypages, sibling);
         // update pointers
         sibling.setParentId(parent.pid);
+        sibling.setLowKey(middleKey);
+        page.setRightSiblingId(sibling.pid);
+        page.setHighKey(middleKey);
         // push the middle key to parent's entry list
         BTreeEntry newEntry = new BTreeEntry(middleKey, page.pid, sibling.pid);
         parent.insertEntry(newEntry);
         parent.updateEntry(newEntry);
-        if (field.compare(Op.LESS_THAN, sibling.getKey(1))) {
+        // a search for field goes left of a key equal to it, and so does the
+        // entry to be inserted for the child being split
+        if (field.compare(Op.LESS_THAN_OR_EQ, middleKey)) {
             return page;
         } else return sibling;
     }
@@ -462,6 +702,11 @@ public class BTreeFile implements DbFile {
      * <p>
      * This method is needed to ensure that page updates are not lost if the same pages are
      * accessed multiple times.
+     * <p>
+     * Since searches read internal pages and the root pointer page without locking them, such a
+     * page fetched with read-write permission is marked dirty right away, so it cannot be evicted
+     * and re-read from disk while it is being updated. Internal pages are also latched exclusively
+     * until the insert or delete ends.
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -477,14 +722,50 @@ public class BTreeFile implements DbFile {
         if (dirtypages.containsKey(pid)) {
             return dirtypages.get(pid);
         } else {
-            Page p = Database.getBufferPool().getPage(tid, pid, perm);
-            if (perm == Permissions.READ_WRITE) {
+            Page p;
+            if (perm == Permissions.READ_WRITE && (pid.pgcateg() == BTreePageId.INTERNAL
+                    || pid.pgcateg() == BTreePageId.ROOT_PTR)) {
+                p = Database.getBufferPool().getPageForUpdate(tid, pid);
                 dirtypages.put(pid, p);
+                if (pid.pgcateg() == BTreePageId.INTERNAL && latches.inOperation()) {
+                    latches.latchExclusive(pid);
+                }
+            } else {
+                p = Database.getBufferPool().getPage(tid, pid, perm);
+                if (perm == Permissions.READ_WRITE) {
+                    dirtypages.put(pid, p);
+                }
             }
             return p;
         }
     }
 
+    /**
+     * Mark the pages an insert or delete has modified dirty, so the buffer pool does not evict
+     * them before the caller gets to see them, and return them.
+     */
+    private ArrayList<Page> markDirty(TransactionId tid, HashMap<PageId, Page> dirtypages) {
+        ArrayList<Page> dirtyPagesArr = new ArrayList<Page>(dirtypages.values());
+        for (Page p : dirtyPagesArr) {
+            p.markDirty(true, tid);
+        }
+        return dirtyPagesArr;
+    }
+
+    /**
+     * Load this empty B+ tree from tuples sorted on its key field, building it bottom-up
+     * instead of inserting the tuples one by one. Must not be called while any transaction
+     * is using the tree.
+     *
+     * @param sorted     - the tuples to load, in ascending order of the key field
+     * @param fillFactor - the fraction of each page to fill, in (0, 1]
+     * @see BTreeBulkLoader
+     */
+    public void bulkLoad(DbIterator sorted, double fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        new BTreeBulkLoader(this, fillFactor).load(sorted);
+    }
+
     /**
      * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
      * May cause pages to split if the page where tuple t belongs is full.
@@ -498,30 +779,35 @@ public class BTreeFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+        createIfEmpty();
 
-        // get a read lock on the root pointer page and use it to locate the root page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId rootId = rootPtr.getRootId();
+        latches.beginOperation();
+        try {
+            // find and lock the left-most leaf page corresponding to the key field
+            BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+            if (leafPage == null) { // the root has just been created, so set the root pointer to point to it
+                BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) lockForUpdate(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
+                latches.latchExclusive(rootPtr.getId());
+                if (rootPtr.getRootId() == null) {
+                    rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+                }
+                leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+            }
 
-        if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
-        }
+            // split the leaf page if there are no more slots available. Only then
+            // are any of its ancestors locked and latched.
+            if (leafPage.getNumEmptySlots() == 0) {
+                latchAncestors(tid, dirtypages, leafPage, true);
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+            }
 
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            // insert the tuple into the leaf page
+            leafPage.insertTuple(t);
+            return markDirty(tid, dirtypages);
+        } finally {
+            latches.endOperation();
         }
-
-        // insert the tuple into the leaf page
-        leafPage.insertTuple(t);
-
-        ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-        dirtyPagesArr.addAll(dirtypages.values());
-        return dirtyPagesArr;
     }
 
     /**
@@ -540,6 +826,8 @@ public class BTreeFile implements DbFile {
      */
     private void handleMinOccupancyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePage page)
             throws DbException, IOException, TransactionAbortedException {
+        // searches that have already passed the affected pages must start over
+        restructures.incrementAndGet();
         BTreePageId parentId = page.getParentId();
         BTreeEntry leftEntry = null;
         BTreeEntry rightEntry = null;
@@ -550,16 +838,11 @@ public class BTreeFile implements DbFile {
         // the page and siblings
         if (parentId.pgcateg() != BTreePageId.ROOT_PTR) {
             parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
-            Iterator<BTreeEntry> ite = parent.iterator();
-            while (ite.hasNext()) {
-                BTreeEntry e = ite.next();
-                if (e.getLeftChild().equals(page.getId())) {
-                    rightEntry = e;
-                    break;
-                } else if (e.getRightChild().equals(page.getId())) {
-                    leftEntry = e;
-                }
-            }
+            int child = parent.indexOfChild(page.getId());
+            if (child > 0)
+                leftEntry = parent.getEntryAt(child - 1);
+            if (child >= 0 && child < parent.getNumEntries())
+                rightEntry = parent.getEntryAt(child);
         }
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
@@ -594,12 +877,12 @@ public class BTreeFile implements DbFile {
         if (leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
         if (rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 
-        int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
+        int halfFull = page.getCapacity() / 2;
         if (leftSiblingId != null) {
             BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
             // if the left sibling is at minimum occupancy, merge with it. Otherwise
             // steal some tuples from it
-            if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+            if (leftSibling.getUsedSpace() <= halfFull) {
                 mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
@@ -608,7 +891,7 @@ public class BTreeFile implements DbFile {
             BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
             // if the right sibling is at minimum occupancy, merge with it. Otherwise
             // steal some tuples from it
-            if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+            if (rightSibling.getUsedSpace() <= halfFull) {
                 mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
             } else {
                 stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
@@ -619,7 +902,8 @@ public class BTreeFile implements DbFile {
     /**
      * Steal tuples from a sibling and copy them to the given page so that both pages are at least
      * half full.  Update the parent's entry so that the key matches the key field of the first
-     * tuple in the right-hand page.
+     * tuple in the right-hand page, or the shortest prefix of it that separates the pages for
+     * string keys.
      *
      * @param page           - the leaf page which is less than half full
      * @param sibling        - the sibling which has tuples to spare
@@ -634,33 +918,46 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
         // that the tuples are evenly distributed. Be sure to update
         // the corresponding parent entry.
-        Field newEntryKey = null;
-        int totalTuples = (page.getNumTuples() + sibling.getNumTuples());
-        if (isRightSibling) {
-            Iterator<Tuple> stealIterator = sibling.iterator();
-            while (stealIterator.hasNext()) {
-                Tuple stealedTuple = stealIterator.next();
-                sibling.deleteTuple(stealedTuple);
-                page.insertTuple(stealedTuple);
-                if (page.getNumTuples() == totalTuples / 2) {
-                    newEntryKey = stealedTuple.getField(keyField);
-                    break;
-                }
-            }
-        } else {
-            Iterator<Tuple> stealIterator = sibling.reverseIterator();
-            while (stealIterator.hasNext()) {
-                Tuple stealedTuple = stealIterator.next();
-                sibling.deleteTuple(stealedTuple);
-                page.insertTuple(stealedTuple);
-                if (page.getNumTuples() == totalTuples / 2) {
-                    newEntryKey = stealedTuple.getField(keyField);
-                    break;
-                }
-            }
+        int steal = tuplesToSteal(page, sibling, isRightSibling);
+        if (steal <= 0)
+            return;
+        // the tuples on either side of the new boundary between the pages
+        int boundary = isRightSibling ? steal : sibling.getNumTuples() - steal;
+        Field newEntryKey = BTreePage.separator(sibling.getTupleAt(boundary - 1).getField(keyField),
+                sibling.getTupleAt(boundary).getField(keyField));
+        // a longer string key may not fit in the parent, and then the page stays as it is
+        if (!parent.canUpdateKey(entry, newEntryKey))
+            return;
+        Iterator<Tuple> stealIterator = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+        for (int i = 0; i < steal; i++) {
+            Tuple stealedTuple = stealIterator.next();
+            sibling.deleteTuple(stealedTuple);
+            page.insertTuple(stealedTuple);
         }
         entry.setKey(newEntryKey);
         parent.updateEntry(entry);
+        (isRightSibling ? page : sibling).setHighKey(newEntryKey);
+    }
+
+    /**
+     * @return the number of tuples to move from the sibling to the page so that
+     * they take about the same space, moving a tuple only if that brings the two
+     * pages closer together
+     */
+    private int tuplesToSteal(BTreeLeafPage page, BTreeLeafPage sibling, boolean isRightSibling) {
+        int pageSpace = page.getUsedSpace();
+        int siblingSpace = sibling.getUsedSpace();
+        int n = sibling.getNumTuples();
+        int steal = 0;
+        while (steal < n - 1) {
+            int space = sibling.getTupleSpace(sibling.getTupleAt(isRightSibling ? steal : n - 1 - steal));
+            if (space >= siblingSpace - pageSpace)
+                break;
+            pageSpace += space;
+            siblingSpace -= space;
+            steal++;
+        }
+        return steal;
     }
 
     /**
@@ -689,13 +986,17 @@ public class BTreeFile implements DbFile {
         if (leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
         if (rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 
-        int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries() / 2; // ceiling
+        int halfFull = page.getCapacity() / 2;
         if (leftSiblingId != null) {
             BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
             // if the left sibling is at minimum occupancy, merge with it. Otherwise
-            // steal some entries from it
-            if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+            // steal some entries from it. With variable-length keys, the pages may not
+            // fit on one once their keys lose the prefix they share on each page, and
+            // then the smaller one takes some entries from the other.
+            if (leftSibling.getUsedSpace() <= halfFull && leftSibling.canMergeWith(page, leftEntry.getKey())) {
                 mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
+            } else if (leftSibling.getUsedSpace() < page.getUsedSpace()) {
+                stealFromRightInternalPage(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
             }
@@ -703,8 +1004,10 @@ public class BTreeFile implements DbFile {
             BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
             // if the right sibling is at minimum occupancy, merge with it. Otherwise
             // steal some entries from it
-            if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+            if (rightSibling.getUsedSpace() <= halfFull && page.canMergeWith(rightSibling, rightEntry.getKey())) {
                 mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+            } else if (rightSibling.getUsedSpace() < page.getUsedSpace()) {
+                stealFromLeftInternalPage(tid, dirtypages, rightSibling, page, parent, rightEntry);
             } else {
                 stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
             }
@@ -731,8 +1034,10 @@ public class BTreeFile implements DbFile {
     protected void stealFromLeftInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
                                              BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
                                              BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
+        int steal = entriesToSteal(page, leftSibling, parent, parentEntry, false);
+        if (steal < 0)
+            return;
         Iterator<BTreeEntry> stealIterator = leftSibling.reverseIterator();
-        int totalEntryNum = leftSibling.getNumEntries() + page.getNumEntries();
         Field pulledKey = parentEntry.getKey();
         Field pushedKey = null;
         BTreeEntry middleEntry = new BTreeEntry(pulledKey, leftSibling.reverseIterator().next().getRightChild(),
@@ -742,7 +1047,7 @@ public class BTreeFile implements DbFile {
         while (stealIterator.hasNext()) {
             BTreeEntry entry = stealIterator.next();
             leftSibling.deleteKeyAndRightChild(entry);
-            if (page.getNumEntries() == totalEntryNum / 2) {
+            if (steal-- == 0) {
                 pushedKey = entry.getKey();
                 break;
             }
@@ -754,6 +1059,59 @@ public class BTreeFile implements DbFile {
         updateParentPointers(tid, dirtypages, leftSibling);
         parentEntry.setKey(pushedKey);
         parent.updateEntry(parentEntry);
+        leftSibling.setHighKey(pushedKey);
+        page.setLowKey(pushedKey);
+    }
+
+    /**
+     * Work out how to redistribute the entries of an internal page that is less than half full
+     * and one of its siblings, so that the page ends up about half of the space of the two. With
+     * fixed-size keys this is a matter of counting entries; with variable-length keys the pages
+     * must also have space for the keys they get, compressed by the prefix of their new low and
+     * high keys, and the parent for the key that is pushed up.
+     *
+     * @param page             - the internal page which is less than half full
+     * @param sibling          - its left or right sibling
+     * @param parent           - the parent of the two internal pages
+     * @param parentEntry      - the entry in the parent pointing to the two internal pages
+     * @param isRightSibling   - whether the sibling is a right-sibling
+     * @return the number of entries to move from the sibling besides the parent key pulled down,
+     * before the next one is pushed up to the parent, or -1 if the pages cannot be balanced
+     */
+    private int entriesToSteal(BTreeInternalPage page, BTreeInternalPage sibling, BTreeInternalPage parent,
+                               BTreeEntry parentEntry, boolean isRightSibling) {
+        int totalEntryNum = sibling.getNumEntries() + page.getNumEntries();
+        if (!page.hasVariableKeys())
+            return Math.max(0, totalEntryNum / 2 - page.getNumEntries() - 1);
+
+        // the keys of the sibling in the order they are taken, and those the page ends up with
+        ArrayList<Field> siblingKeys = sibling.keyList();
+        if (!isRightSibling)
+            Collections.reverse(siblingKeys);
+        ArrayList<Field> pageKeys = page.keyList();
+        pageKeys.add(parentEntry.getKey());
+        int best = -1;
+        for (int steal = 0; steal < siblingKeys.size() - 1; steal++) {
+            Field pushedKey = siblingKeys.get(steal);
+            List<Field> kept = siblingKeys.subList(steal + 1, siblingKeys.size());
+            int pageSpace, siblingSpace;
+            if (isRightSibling) {
+                pageSpace = page.getSpaceFor(pageKeys, page.getLowKey(), pushedKey);
+                siblingSpace = sibling.getSpaceFor(kept, pushedKey, sibling.getHighKey());
+            } else {
+                pageSpace = page.getSpaceFor(pageKeys, pushedKey, page.getHighKey());
+                siblingSpace = sibling.getSpaceFor(kept, sibling.getLowKey(), pushedKey);
+            }
+            // the page only grows as it takes more entries
+            if (pageSpace > page.getCapacity())
+                break;
+            if (parent.canUpdateKey(parentEntry, pushedKey))
+                best = steal;
+            if (pageSpace >= siblingSpace && best >= 0)
+                break;
+            pageKeys.add(pushedKey);
+        }
+        return best;
     }
 
     /**
@@ -780,8 +1138,10 @@ public class BTreeFile implements DbFile {
         // that the entries are evenly distributed. Be sure to update
         // the corresponding parent entry. Be sure to update the parent
         // pointers of all children in the entries that were moved.
+        int steal = entriesToSteal(page, rightSibling, parent, parentEntry, true);
+        if (steal < 0)
+            return;
         Iterator<BTreeEntry> stealIterator = rightSibling.iterator();
-        int totalEntryNum = rightSibling.getNumEntries() + page.getNumEntries();
         Field pulledKey = parentEntry.getKey();
         Field pushedKey = null;
         BTreeEntry middleEntry = new BTreeEntry(pulledKey, page.reverseIterator().next().getRightChild(),
@@ -791,7 +1151,7 @@ public class BTreeFile implements DbFile {
         while (stealIterator.hasNext()) {
             BTreeEntry entry = stealIterator.next();
             rightSibling.deleteKeyAndLeftChild(entry);
-            if (page.getNumEntries() == totalEntryNum / 2) {
+            if (steal-- == 0) {
                 pushedKey = entry.getKey();
                 break;
             }
@@ -803,6 +1163,8 @@ public class BTreeFile implements DbFile {
         updateParentPointers(tid, dirtypages, rightSibling);
         parentEntry.setKey(pushedKey);
         parent.updateEntry(parentEntry);
+        page.setHighKey(pushedKey);
+        rightSibling.setLowKey(pushedKey);
     }
 
     /**
@@ -836,6 +1198,7 @@ public class BTreeFile implements DbFile {
             leftPage.insertTuple(mergedTuple);
 
         }
+        leftPage.setHighKey(rightPage.getHighKey());
         leftPage.setRightSiblingId(null);
         if (rightPage.getRightSiblingId() != null) {
             BTreeLeafPage rightRightPage = (BTreeLeafPage) getPage(tid, dirtypages, rightPage.getRightSiblingId(), Permissions.READ_WRITE);
@@ -890,6 +1253,8 @@ public class BTreeFile implements DbFile {
             leftPage.updateEntry(mergedEntry);
         }
         assert (rightPage.getNumEntries() == 0);
+        leftPage.setHighKey(rightPage.getHighKey());
+        leftPage.setRightSiblingId(rightPage.getRightSiblingId());
         updateParentPointers(tid, dirtypages, leftPage);
         setEmptyPage(tid, dirtypages, rightPage.pid.pageNumber());
         deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
@@ -920,8 +1285,7 @@ public class BTreeFile implements DbFile {
         // the parent is below minimum occupancy, get some tuples from its siblings
         // or merge with one of the siblings
         parent.deleteKeyAndRightChild(parentEntry);
-        int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries() / 2; // ceiling
-        if (parent.getNumEmptySlots() == parent.getMaxEntries()) {
+        if (parent.getNumEntries() == 0) {
             // This was the last entry in the parent.
             // In this case, the parent (root node) should be deleted, and the merged
             // page will become the new root
@@ -935,7 +1299,7 @@ public class BTreeFile implements DbFile {
 
             // release the parent page for reuse
             setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
-        } else if (parent.getNumEmptySlots() > maxEmptySlots) {
+        } else if (parent.getUsedSpace() < parent.getCapacity() / 2) {
             handleMinOccupancyPage(tid, dirtypages, parent);
         }
     }
@@ -943,7 +1307,7 @@ public class BTreeFile implements DbFile {
     /**
      * Delete a tuple from this BTreeFile.
      * May cause pages to merge or redistribute entries/tuples if the pages
-     * become less than half full.
+     * become less than half full, unless merging is deferred.
      *
      * @param tid - the transaction id
      * @param t   - the tuple to delete
@@ -957,19 +1321,87 @@ public class BTreeFile implements DbFile {
 
         BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
                 BTreePageId.LEAF);
-        BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
 
-        // if the page is below minimum occupancy, get some tuples from its siblings
-        // or merge with one of the siblings
-        int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
-        if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+        latches.beginOperation();
+        try {
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+            page.deleteTuple(t);
+
+            // if the page is below minimum occupancy, get some tuples from its siblings
+            // or merge with one of the siblings, unless that is left for later
+            if (page.getUsedSpace() < page.getCapacity() / 2) {
+                if (deferMerges) {
+                    underfull.add(pageId);
+                } else {
+                    latchAncestors(tid, dirtypages, page, false);
+                    handleMinOccupancyPage(tid, dirtypages, page);
+                }
+            }
+            return markDirty(tid, dirtypages);
+        } finally {
+            latches.endOperation();
         }
+    }
 
-        ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-        dirtyPagesArr.addAll(dirtypages.values());
-        return dirtyPagesArr;
+    /**
+     * Defer the merging of the leaves that deletes leave less than half full
+     * to {@link #compact(TransactionId)}, so that a job deleting many tuples
+     * does not rebalance the tree after each of them. Searches and scans work
+     * on the underfull and even empty leaves as usual.
+     * <p>
+     * The underfull leaves are kept in memory only: those a transaction that
+     * rolls back had merged are merged by the next compact, but they are
+     * forgotten when the file is opened again.
+     *
+     * @param defer - true to defer merges, false to merge on each delete again
+     */
+    public void setDeferredMerging(boolean defer) {
+        deferMerges = defer;
+    }
+
+    /**
+     * Merge or rebalance the leaves that deletes left less than half full
+     * while merging was deferred, in one pass in page order.
+     *
+     * @param tid - the transaction id
+     * @return a list of all pages that were dirtied by this operation
+     * @see #setDeferredMerging(boolean)
+     */
+    public ArrayList<Page> compact(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        pruneCompacted();
+        ArrayList<BTreePageId> pending = new ArrayList<BTreePageId>(underfull);
+        Collections.sort(pending, new Comparator<BTreePageId>() {
+            public int compare(BTreePageId a, BTreePageId b) {
+                return Integer.compare(a.pageNumber(), b.pageNumber());
+            }
+        });
+        for (BTreePageId pid : pending) {
+            // leaves merged away earlier in the pass are gone from the set
+            if (!underfull.contains(pid))
+                continue;
+            latches.beginOperation();
+            try {
+                BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+                // its sibling may be underfull too, so that stealing from it
+                // or merging with it still leaves the page underfull. Keep at
+                // it until the page is half full, merged away or the root, or
+                // no tuple can be moved.
+                int used = -1;
+                while (underfull.contains(pid) && page.getUsedSpace() < page.getCapacity() / 2
+                        && page.getUsedSpace() != used
+                        && page.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+                    used = page.getUsedSpace();
+                    latchAncestors(tid, dirtypages, page, false);
+                    handleMinOccupancyPage(tid, dirtypages, page);
+                }
+            } finally {
+                latches.endOperation();
+            }
+            takeUnderfull(tid, pid);
+        }
+        return markDirty(tid, dirtypages);
     }
 
     /**
@@ -984,6 +1416,16 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        createIfEmpty();
+
+        // get a read lock on the root pointer page
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Create the root pointer page and the root page if the file is still empty.
+     */
+    private void createIfEmpty() throws IOException {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
@@ -996,9 +1438,6 @@ public class BTreeFile implements DbFile {
                 bw.close();
             }
         }
-
-        // get a read lock on the root pointer page
-        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
     }
 
     /**
@@ -1020,26 +1459,24 @@ public class BTreeFile implements DbFile {
         int emptyPageNo = 0;
 
         if (headerId != null) {
-            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-            int headerPageCount = 0;
-            // try to find a header page with an empty slot
-            while (headerPage != null && headerPage.getEmptySlot() == -1) {
-                headerId = headerPage.getNextPageId();
-                if (headerId != null) {
-                    headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-                    headerPageCount++;
-                } else {
-                    headerPage = null;
+            if (freePagesStale())
+                loadFreePages(tid, dirtypages, headerId);
+            headerId = null;
+            Integer pageNo;
+            while (headerId == null && (pageNo = takeFreePage()) != null) {
+                int headerPageCount = pageNo / BTreeHeaderPage.getNumSlots();
+                BTreePageId id = headerPageId(headerPageCount);
+                if (id == null)
+                    break;
+                // the page is free unless the transaction that freed it rolled back
+                BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+                int emptySlot = pageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+                if (!headerPage.isSlotUsed(emptySlot)) {
+                    headerPage.markSlotUsed(emptySlot, true);
+                    headerId = id;
+                    emptyPageNo = pageNo;
                 }
             }
-
-            // if headerPage is not null, it must have an empty slot
-            if (headerPage != null) {
-                headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-                int emptySlot = headerPage.getEmptySlot();
-                headerPage.markSlotUsed(emptySlot, true);
-                emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
-            }
         }
 
         // at this point if headerId is null, either there are no header pages
@@ -1059,6 +1496,67 @@ public class BTreeFile implements DbFile {
         return emptyPageNo;
     }
 
+    /**
+     * @return true if the free page cache has to be read from the header pages
+     *         again, because it never was or a transaction that changed the file
+     *         rolled back since
+     */
+    private boolean freePagesStale() {
+        BufferPool pool = Database.getBufferPool();
+        synchronized (freePages) {
+            return freePagesPool != pool || freePagesAborts != rollbacks.get();
+        }
+    }
+
+    /**
+     * Read the free pages listed by the header pages into the free page cache.
+     *
+     * @param headerId - the id of the first header page
+     */
+    private void loadFreePages(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId headerId)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        long aborts = rollbacks.get();
+        TreeSet<Integer> free = new TreeSet<Integer>();
+        ArrayList<BTreePageId> ids = new ArrayList<BTreePageId>();
+        while (headerId != null) {
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            int first = ids.size() * BTreeHeaderPage.getNumSlots();
+            for (int i = headerPage.getEmptySlot(); i >= 0; i = headerPage.getEmptySlot(i + 1))
+                free.add(first + i);
+            ids.add(headerId);
+            headerId = headerPage.getNextPageId();
+        }
+        synchronized (freePages) {
+            freePages.clear();
+            freePages.addAll(free);
+            headerIds.clear();
+            headerIds.addAll(ids);
+            freePagesPool = pool;
+            freePagesAborts = aborts;
+        }
+    }
+
+    /**
+     * @return the lowest page number in the free page cache, removed from it,
+     *         or null if there is none
+     */
+    private Integer takeFreePage() {
+        synchronized (freePages) {
+            return freePages.pollFirst();
+        }
+    }
+
+    /**
+     * @return the id of the header page with the given index in the list of
+     *         header pages, or null if the cache does not know it
+     */
+    private BTreePageId headerPageId(int index) {
+        synchronized (freePages) {
+            return index < headerIds.size() ? headerIds.get(index) : null;
+        }
+    }
+
     /**
      * Method to encapsulate the process of creating a new page.  It reuses old pages if possible,
      * and creates a new page if none are available.  It wipes the page on disk and in the cache and
@@ -1128,6 +1626,8 @@ public class BTreeFile implements DbFile {
 //			}
 //		}
 
+        takeUnderfull(tid, new BTreePageId(tableid, emptyPageNo, BTreePageId.LEAF));
+
         // otherwise, get a read lock on the root pointer page and use it to locate
         // the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
@@ -1144,6 +1644,7 @@ public class BTreeFile implements DbFile {
             headerId = headerPage.getId();
             headerPage.init();
             rootPtr.setHeaderId(headerId);
+            invalidateFreePages();
         }
 
         // iterate through all the existing header pages to find the one containing the slot
@@ -1166,6 +1667,7 @@ public class BTreeFile implements DbFile {
             headerPage.init();
             headerPage.setPrevPageId(prevId);
             prevPage.setNextPageId(headerId);
+            invalidateFreePages();
 
             headerPageCount++;
             prevId = headerId;
@@ -1176,6 +1678,19 @@ public class BTreeFile implements DbFile {
         BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
         int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
         headerPage.markSlotUsed(emptySlot, false);
+        synchronized (freePages) {
+            freePages.add(emptyPageNo);
+        }
+    }
+
+    /**
+     * Make the next allocation read the free page cache from the header pages
+     * again, after the list of header pages changed.
+     */
+    private void invalidateFreePages() {
+        synchronized (freePages) {
+            freePagesPool = null;
+        }
     }
 
     /**
@@ -1189,7 +1704,36 @@ public class BTreeFile implements DbFile {
      * @return an iterator for the filtered tuples
      */
     public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-        return new BTreeSearchIterator(this, tid, ipred);
+        IndexRange range = IndexRange.of(ipred);
+        if (range == null)
+            return new BTreeSearchIterator(this, tid, IndexRange.ALL, false, ipred);
+        return new BTreeSearchIterator(this, tid, range, false, null);
+    }
+
+    /**
+     * Get the tuples whose key field lies in the given range, in ascending or descending order
+     * of the key, on behalf of the specified transaction. The scan starts at the leaf holding
+     * the first key of the range in that order, follows the right or left sibling pointers
+     * and stops at the first key past the range, so it only locks the leaves the range covers.
+     *
+     * @param tid        - the transaction id
+     * @param range      - the range of keys to return
+     * @param descending - true to return the tuples in descending order of the key
+     * @return an iterator for the tuples in the range
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexRange range, boolean descending) {
+        return new BTreeSearchIterator(this, tid, range, descending, null);
+    }
+
+    /**
+     * Get an iterator for all tuples in this B+ tree file in descending order of the key,
+     * following the left sibling pointers from the right-most leaf.
+     *
+     * @param tid - the transaction id
+     * @return an iterator for all the tuples in this file, from the greatest key down
+     */
+    public DbFileIterator reverseIterator(TransactionId tid) {
+        return indexIterator(tid, IndexRange.ALL, true);
     }
 
     /**
@@ -1232,11 +1776,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-        it = curp.iterator();
+        curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+        it = curp == null ? null : curp.iterator();
     }
 
     /**
@@ -1288,7 +1829,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File: the tuples whose keys lie in a range, in ascending or
+ * descending order, optionally filtered by an index predicate the range
+ * cannot express
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
@@ -1297,43 +1840,60 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     TransactionId tid;
     BTreeFile f;
-    IndexPredicate ipred;
+    IndexRange range;
+    boolean descending;
+    IndexPredicate filter;
 
     /**
      * Constructor for this iterator
      *
-     * @param f     - the BTreeFile containing the tuples
-     * @param tid   - the transaction id
-     * @param ipred - the predicate to filter on
+     * @param f          - the BTreeFile containing the tuples
+     * @param tid        - the transaction id
+     * @param range      - the range of keys to return
+     * @param descending - true to return the tuples from the greatest key down
+     * @param filter     - a predicate the returned tuples must also match, or null
      */
-    public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+    public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexRange range, boolean descending,
+                               IndexPredicate filter) {
         this.f = f;
         this.tid = tid;
-        this.ipred = ipred;
+        this.range = range;
+        this.descending = descending;
+        this.filter = filter;
     }
 
     /**
-     * Open this iterator by getting an iterator on the first leaf page applicable
-     * for the given predicate operation
+     * Open this iterator by getting an iterator on the leaf page holding the first key of the
+     * range, in the order of the scan, positioned at that key by binary search. A scan down
+     * from an inclusive upper bound, or up from an exclusive lower bound, starts at the
+     * right-most leaf that may hold the bound, since the keys equal to it are at the
+     * wrong end of the scan or not in the range at all.
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
-                || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+        if (descending) {
+            Field high = range.getHigh();
+            curp = range.isHighInclusive() || high == null
+                    ? f.findLastLeafPage(tid, Permissions.READ_ONLY, high)
+                    : f.findLeafPage(tid, Permissions.READ_ONLY, high);
+            if (curp != null)
+                it = high == null ? curp.reverseIterator() : curp.reverseIterator(
+                        range.isHighInclusive() ? curp.upperBound(high) : curp.lowerBound(high));
         } else {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+            Field low = range.getLow();
+            curp = range.isLowInclusive() || low == null
+                    ? f.findLeafPage(tid, Permissions.READ_ONLY, low)
+                    : f.findLastLeafPage(tid, Permissions.READ_ONLY, low);
+            if (curp != null)
+                it = low == null ? curp.iterator() : curp.iterator(
+                        range.isLowInclusive() ? curp.lowerBound(low) : curp.upperBound(low));
         }
-        it = curp.iterator();
     }
 
     /**
-     * Read the next tuple either from the current page if it has more tuples matching
-     * the predicate or from the next page by following the right sibling pointer.
+     * Read the next tuple either from the current page if it has more tuples in the range or
+     * from the next page by following the right (or left) sibling pointer.
      *
-     * @return the next tuple matching the predicate, or null if none exists
+     * @return the next tuple in the range matching the filter, or null if none exists
      */
     @Override
     protected Tuple readNext() throws TransactionAbortedException, DbException,
@@ -1342,28 +1902,22 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
             while (it.hasNext()) {
                 Tuple t = it.next();
-                if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-                    return t;
-                } else if (ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-                    // if the predicate was not satisfied and the operation is less than, we have
-                    // hit the end
-                    return null;
-                } else if (ipred.getOp() == Op.EQUALS &&
-                        t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-                    // if the tuple is now greater than the field passed in and the operation
-                    // is equals, we have reached the end
+                Field key = t.getField(f.keyField());
+                // the first key past the range ends the scan
+                if (descending ? range.isBelow(key) : range.isAbove(key))
                     return null;
-                }
+                if (filter == null || key.compare(filter.getOp(), filter.getField()))
+                    return t;
             }
 
-            BTreePageId nextp = curp.getRightSiblingId();
-            // if there are no more pages to the right, end the iteration
+            BTreePageId nextp = descending ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+            // if there are no more pages in the direction of the scan, end the iteration
             if (nextp == null) {
                 return null;
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
-                it = curp.iterator();
+                it = descending ? curp.reverseIterator() : curp.iterator();
             }
         }
 
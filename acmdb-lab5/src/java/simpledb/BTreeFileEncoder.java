@@ -224,13 +224,14 @@ public class BTreeFileEncoder {
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + keyType.getLen();
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, right sibling pointer,
+		// child page category, high key
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keyType.getLen();
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
@@ -330,6 +331,7 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
+		setHighKeys(bf, new BTreePageId(tableid, root, rootCategory), null, 0, new ArrayList<BTreeInternalPage>());
 
 		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
 		return bf;
@@ -355,6 +357,56 @@ public class BTreeFileEncoder {
 		}
 	}
 
+	/**
+	 * Recursive function to set the high keys of all pages and the right sibling
+	 * pointers of the internal pages. The pages of each level are visited from left
+	 * to right, so each internal page is linked to the last one visited on its level.
+	 * Must run after the leaf sibling pointers are set, since a leaf only stores its
+	 * high key if it has a right sibling.
+	 * 
+	 * @param bf - the BTreeFile
+	 * @param pid - the id of the page to update
+	 * @param highKey - the high key of the page, null for the right-most page of a level
+	 * @param depth - the depth of the page in the tree
+	 * @param lastAtDepth - the last internal page visited so far at each depth. An
+	 * internal page only stores its high key once it has a right sibling, so these are
+	 * kept in memory rather than read back when their right sibling is set.
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	private static void setHighKeys(BTreeFile bf, BTreePageId pid, Field highKey, int depth,
+			ArrayList<BTreeInternalPage> lastAtDepth) throws IOException, DbException {
+		if(pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
+			if(lastAtDepth.size() > depth) {
+				BTreeInternalPage left = lastAtDepth.get(depth);
+				left.setRightSiblingId(pid);
+				bf.writePage(left);
+				lastAtDepth.set(depth, page);
+			}
+			else {
+				lastAtDepth.add(page);
+			}
+			page.setHighKey(highKey);
+			bf.writePage(page);
+
+			Iterator<BTreeEntry> it = page.iterator();
+			BTreeEntry e = null;
+			while(it.hasNext()) {
+				e = it.next();
+				setHighKeys(bf, e.getLeftChild(), e.getKey(), depth + 1, lastAtDepth);
+			}
+			if(e != null) {
+				setHighKeys(bf, e.getRightChild(), highKey, depth + 1, lastAtDepth);
+			}
+		}
+		else { // pid.pgcateg() == BTreePageId.LEAF
+			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+			page.setHighKey(highKey);
+			bf.writePage(page);
+		}
+	}
+
 	/**
 	 * Recursive function to set all the parent pointers
 	 * 
@@ -510,8 +562,8 @@ public class BTreeFileEncoder {
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
-		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
-		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer, high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + typeAr[keyField].getLen();
 		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		//  per record, we need one bit; there are nrecords per page, so we need
@@ -537,6 +589,7 @@ public class BTreeFileEncoder {
 		dos.writeInt(0); // parent pointer
 		dos.writeInt(0); // left sibling pointer
 		dos.writeInt(0); // right sibling pointer
+		dos.write(new byte[typeAr[keyField].getLen()]); // high key
 
 		int i = 0;
 		byte headerbyte = 0;
@@ -625,8 +678,9 @@ public class BTreeFileEncoder {
 			Type keyType, int childPageCategory)
 					throws IOException {
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, right sibling pointer,
+		// child page category, high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keyType.getLen();
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		//  per entry, we need one bit; there are nentries per page, so we need
@@ -649,7 +703,9 @@ public class BTreeFileEncoder {
 			entrycount = nentries;
 
 		dos.writeInt(0); // parent pointer
+		dos.writeInt(0); // right sibling pointer
 		dos.writeByte((byte) childPageCategory);
+		dos.write(new byte[keyType.getLen()]); // high key
 
 		int i = 0;
 		byte headerbyte = 0;
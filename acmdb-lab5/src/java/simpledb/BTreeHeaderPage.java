@@ -292,10 +292,20 @@ public class BTreeHeaderPage implements Page {
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-			if((int) header[i] != 0xFF) {
+		return getEmptySlot(0);
+	}
+
+	/**
+	 * get the index of the first empty slot at or after a given slot
+	 * @param from - the slot to start looking at
+	 * @return the index of the first empty slot from there on or -1 if none exists
+	 */
+	public int getEmptySlot(int from) {
+		for (int i=from/8; i<header.length; i++) {
+			// skip the bytes of slots that are all used
+			if(header[i] != (byte) 0xFF) {
 				for(int j = 0; j < 8; j++) {
-					if(!isSlotUsed(i*8 + j)) {
+					if(i*8 + j >= from && !isSlotUsed(i*8 + j)) {
 						return i*8 + j;
 					}
 				}
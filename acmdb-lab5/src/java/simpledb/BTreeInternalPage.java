@@ -18,8 +18,20 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	// the used slots in key order, rebuilt lazily after the header changes.
+	// The first one only holds the left-most child pointer.
+	private volatile int[] usedSlots;
+	// the space taken by the entries, or -1 to compute it again
+	private volatile int usedSpace = -1;
 	
 	private int childCategory; // either leaf or internal
+	private int rightSibling; // internal node or 0
+	private Field lowKey; // only kept with variable-length keys
+
+	// on pages with variable-length keys, each of the low and high keys is
+	// stored in an area of one length byte (0 for none, else the length plus
+	// one) followed by room for the longest string
+	private static final int FENCE_SIZE = 1 + Type.STRING_LEN;
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -36,7 +48,15 @@ public class BTreeInternalPage extends BTreePage {
 			assert(prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 		}
 
-		if (checkOccupancy && depth > 0) {
+		assert(null == upperBound ? null == getHighKey() : upperBound.equals(getHighKey()));
+
+		if (hasVariableKeys()) {
+			assert(null == lowerBound ? null == lowKey : lowerBound.equals(lowKey));
+			assert(getUsedSpace() <= getCapacity());
+		}
+		// pages with variable-length keys may be left less than half full
+		// when neither sibling can give or take entries
+		else if (checkOccupancy && depth > 0) {
 			assert (getNumEntries() >= getMaxEntries() / 2);
 		}
 	}
@@ -45,9 +65,20 @@ public class BTreeInternalPage extends BTreePage {
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of entry slots, and extra
-	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
-	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * bytes for the parent and right sibling pointers, one extra child pointer (a
+	 * node with m entries has m+1 pointers to children), the category of all child
+	 * pages (either leaf or internal) and the high key.
+	 * <p>
+	 * Pages of an index on a string field are laid out differently, so that
+	 * each key only takes the space of its characters: after the pointers and
+	 * child category come the low and high keys of the page, the length of the
+	 * prefix they share, the header, and then the entries of the used slots,
+	 * in slot order. Each entry is a child pointer followed, except for the
+	 * first slot, by the length and characters of its key with the shared
+	 * prefix left out. The number of slots is computed as below with the
+	 * smallest possible entry, and entries are inserted as long as their keys
+	 * fit in the space of the page.
+	 * <p>
 	 *  Specifically, the number of entries is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
@@ -78,15 +109,40 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// read the right sibling pointer
+		try {
+			Field f = Type.INT_TYPE.parse(dis);
+			this.rightSibling = ((IntField) f).getValue();
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+		}
+
 		// read the child page category
 		childCategory = (int) dis.readByte();
 
+		// read the low and high keys
+		int prefixLength = 0;
+		if (hasVariableKeys()) {
+			lowKey = readFence(dis);
+			highKey = readFence(dis);
+			prefixLength = dis.readUnsignedByte();
+		}
+		else
+			readHighKey(dis);
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (hasVariableKeys()) {
+			readVariableEntries(dis, prefixLength);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -98,7 +154,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,15 +170,32 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
+		if (hasVariableKeys()) {
+			// the smallest entry is a child pointer and an empty key
+			int bitsPerEntryIncludingHeader = (INDEX_SIZE + 1) * 8 + 1;
+			int extraBits = getFixedVariableSize() * 8 + 1;
+			return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
-		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		// extraBits are: one parent pointer, one right sibling pointer, 1 byte for child page category,
+		// the high key, one extra child pointer (node with m entries has m+1 pointers to children),
+		// 1 bit for extra header
+		int extraBits = 3 * INDEX_SIZE * 8 + 8 + keySize * 8 + 1;
 		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
 
+	/**
+	 * @return the bytes taken on a page with variable-length keys by everything
+	 *         but the header and entries: one parent pointer, one right sibling
+	 *         pointer, 1 byte for child page category, the low and high keys,
+	 *         1 byte for the prefix length and one extra child pointer
+	 */
+	private static int getFixedVariableSize() {
+		return 3 * INDEX_SIZE + 2 + 2 * FENCE_SIZE;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -220,6 +292,74 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
+	/**
+	 * Read a low or high key of a page with variable-length keys.
+	 */
+	private static Field readFence(DataInputStream dis) throws IOException {
+		byte[] area = new byte[FENCE_SIZE];
+		dis.readFully(area);
+		if (area[0] == 0)
+			return null;
+		return new StringField(new String(area, 1, (area[0] & 0xFF) - 1), Type.STRING_LEN);
+	}
+
+	/**
+	 * Read the entries of a page with variable-length keys, whose keys all
+	 * start with the first prefixLength characters of the low key.
+	 */
+	private void readVariableEntries(DataInputStream dis, int prefixLength) throws IOException {
+		String prefix = prefixLength == 0 ? "" : ((StringField) lowKey).getValue().substring(0, prefixLength);
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			if (i > 0) {
+				byte[] suffix = new byte[dis.readUnsignedByte()];
+				dis.readFully(suffix);
+				keys[i] = new StringField(prefix + new String(suffix), Type.STRING_LEN);
+			}
+		}
+	}
+
+	private static void writeFence(DataOutputStream dos, Field key) throws IOException {
+		byte[] area = new byte[FENCE_SIZE];
+		if (key != null) {
+			String s = ((StringField) key).getValue();
+			area[0] = (byte) (s.length() + 1);
+			for (int i=0; i<s.length(); i++)
+				area[i + 1] = (byte) s.charAt(i);
+		}
+		dos.write(area);
+	}
+
+	/**
+	 * Write the part of a page with variable-length keys after the child
+	 * page category.
+	 */
+	private void writeVariablePage(DataOutputStream dos) throws IOException {
+		writeFence(dos, lowKey);
+		writeFence(dos, getHighKey());
+		int prefixLength = prefixLength(keyList(), lowKey, getHighKey());
+		dos.writeByte(prefixLength);
+		dos.write(header);
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			dos.writeInt(children[i]);
+			if (i > 0) {
+				String suffix = ((StringField) keys[i]).getValue().substring(prefixLength);
+				dos.writeByte(suffix.length());
+				dos.writeBytes(suffix);
+			}
+		}
+		int zerolen = BufferPool.getPageSize() - dos.size();
+		if (zerolen < 0)
+			throw new IllegalStateException("entries overflow page " + pid.pageNumber());
+		dos.write(new byte[zerolen]);
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -236,10 +376,16 @@ public class BTreeInternalPage extends BTreePage {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
-		// write out the parent pointer
+		// write out the parent and right sibling pointers
 		try {
 			dos.writeInt(parent);
 
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			dos.writeInt(rightSibling);
+
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -252,6 +398,23 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (hasVariableKeys()) {
+			try {
+				writeVariablePage(dos);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
+		// write out the high key
+		try {
+			writeHighKey(dos);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -315,8 +478,8 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+		int zerolen = BufferPool.getPageSize() - (2 * INDEX_SIZE + 1 + td.getFieldType(keyField).getLen() + header.length +
+				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -409,6 +572,8 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to update null entry.");
+		if (hasVariableKeys() && !canUpdateKey(e, e.getKey()))
+			throw new DbException("not enough space on page to update entry with key " + e.getKey());
 		
 		for(int i = rid.tupleno() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -431,12 +596,14 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
 		keys[rid.tupleno()] = e.getKey();
+		usedSpace = -1;
 	}
 
 	/**
 	 * Adds the specified entry to the page; the entry's recordId should be updated to 
 	 * reflect that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or key field type,
+	 * @throws DbException if the page is full (no empty slots, or no space for
+	 *         a variable-length key) or key field type,
 	 *         table id, or child page category is a mismatch, or the entry is invalid
 	 * @param e The entry to add.
 	 */
@@ -456,8 +623,15 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if (hasVariableKeys()) {
+			ArrayList<Field> newKeys = keyList();
+			newKeys.add(e.getKey());
+			if (getSpaceFor(newKeys, lowKey, getHighKey()) > getCapacity())
+				throw new DbException("called insertEntry on page with no space for key " + e.getKey());
+		}
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().pageNumber();
 			children[1] = e.getRightChild().pageNumber();
 			keys[1] = e.getKey();
@@ -558,17 +732,87 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Get the id of the right sibling of this page
+	 * @return the id of the right sibling
+	 */
+	public BTreePageId getRightSiblingId() {
+		if(rightSibling == 0) {
+			return null;
+		}
+		return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.INTERNAL);
+	}
+
+	/**
+	 * Set the right sibling id of this page
+	 * @param id - the new right sibling id
+	 * @throws DbException if the id is not valid
+	 */
+	public void setRightSiblingId(BTreePageId id) throws DbException {
+		if(id == null) {
+			rightSibling = 0;
+		}
+		else {
+			if(id.getTableId() != pid.getTableId()) {
+				throw new DbException("table id mismatch in setRightSiblingId");
+			}
+			if(id.pgcateg() != BTreePageId.INTERNAL) {
+				throw new DbException("rightSibling must be an internal node");
+			}
+			rightSibling = id.pageNumber();
+		}
+		usedSpace = -1;
+	}
+
+	public void setHighKey(Field key) {
+		super.setHighKey(key);
+		usedSpace = -1;
+	}
+
+	/**
+	 * Get the low key of this page, the high key of its left sibling. Only
+	 * pages with variable-length keys keep it, to know the prefix that all
+	 * keys that may be inserted share with the high key.
+	 * @return the low key, or null if this page is the left-most one or the
+	 *         keys of the index have a fixed length
+	 */
+	public Field getLowKey() {
+		return lowKey;
+	}
+
+	/**
+	 * Set the low key of this page; ignored if the keys of the index have a
+	 * fixed length
+	 * @param key - the new low key, or null if the page is the left-most one
+	 */
+	public void setLowKey(Field key) {
+		if (hasVariableKeys()) {
+			lowKey = key;
+			usedSpace = -1;
+		}
+	}
+
 	/**
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		return numSlots - countEmptySlots() - 1;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. On a page with
+	 * variable-length keys, this is the number of entries with keys of the
+	 * longest length that can still be inserted.
 	 */
 	public int getNumEmptySlots() {
+		if (hasVariableKeys()) {
+			int free = getCapacity() - getUsedSpace();
+			return Math.min(countEmptySlots(), free / getMaxEntrySpace());
+		}
+		return countEmptySlots();
+	}
+
+	private int countEmptySlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -599,6 +843,218 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		usedSlots = null;
+		usedSpace = -1;
+	}
+
+	/**
+	 * Returns the space entries can take on this page: the number of entries
+	 * if the keys have a fixed length, otherwise the number of bytes.
+	 */
+	public int getCapacity() {
+		if (hasVariableKeys())
+			return BufferPool.getPageSize() - getFixedVariableSize() - getHeaderSize();
+		return getMaxEntries();
+	}
+
+	/**
+	 * Returns the space taken by the entries on this page, in the units of
+	 * {@link #getCapacity}.
+	 */
+	public int getUsedSpace() {
+		if (!hasVariableKeys())
+			return getNumEntries();
+		int used = usedSpace;
+		if (used < 0) {
+			used = getSpaceFor(keyList(), lowKey, getHighKey());
+			usedSpace = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the most space one entry can take on this page.
+	 */
+	public int getMaxEntrySpace() {
+		if (hasVariableKeys())
+			return INDEX_SIZE + 1 + Type.STRING_LEN;
+		return 1;
+	}
+
+	/**
+	 * Compute the space entries with the given keys would take on a page of
+	 * this index with the given low and high keys. With variable-length keys,
+	 * the keys are stored without the prefix the low and high keys share, as
+	 * far as all the keys share it too.
+	 * @param keys - the keys of the entries, in any order
+	 * @return the space, in the units of {@link #getCapacity}
+	 */
+	public int getSpaceFor(List<Field> keys, Field lowKey, Field highKey) {
+		if (!hasVariableKeys())
+			return keys.size();
+		int prefixLength = prefixLength(keys, lowKey, highKey);
+		int space = 0;
+		for (Field key : keys)
+			space += INDEX_SIZE + 1 + ((StringField) key).getValue().length() - prefixLength;
+		return space;
+	}
+
+	private static int prefixLength(List<Field> keys, Field lowKey, Field highKey) {
+		if (lowKey == null || highKey == null)
+			return 0;
+		int prefixLength = commonPrefixLength(lowKey, highKey);
+		for (Field key : keys)
+			prefixLength = Math.min(prefixLength, commonPrefixLength(key, lowKey));
+		return prefixLength;
+	}
+
+	/**
+	 * @return the keys of the entries on this page, in key order
+	 */
+	public ArrayList<Field> keyList() {
+		ArrayList<Field> list = new ArrayList<Field>();
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				list.add(keys[i]);
+		return list;
+	}
+
+	/**
+	 * @return true if the key of the given entry on this page can be replaced
+	 *         by the given key without running out of space
+	 */
+	public boolean canUpdateKey(BTreeEntry e, Field key) {
+		ArrayList<Field> newKeys = new ArrayList<Field>();
+		for (int i=1; i<numSlots; i++)
+			if (isSlotUsed(i))
+				newKeys.add(i == e.getRecordId().tupleno() ? key : keys[i]);
+		return getSpaceFor(newKeys, lowKey, getHighKey()) <= getCapacity();
+	}
+
+	/**
+	 * @return true if the entries of the given right sibling, and one with the
+	 *         given key between them, fit on this page along with its own
+	 */
+	public boolean canMergeWith(BTreeInternalPage right, Field key) {
+		ArrayList<Field> newKeys = keyList();
+		newKeys.add(key);
+		newKeys.addAll(right.keyList());
+		return getSpaceFor(newKeys, lowKey, right.getHighKey()) <= getCapacity();
+	}
+
+	private int[] usedSlots() {
+		int[] used = usedSlots;
+		if (used == null) {
+			// like the iterators, treat a page without a left-most child as empty
+			used = isSlotUsed(0) ? collectUsedSlots(numSlots) : new int[0];
+			usedSlots = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Binary search for the first entry on this page whose key is greater
+	 * than or equal to key. Entries are numbered from 0 in key order; entry i
+	 * sits between child i and child i+1.
+	 * @return the index of that entry, or getNumEntries() if there is none
+	 */
+	public int lowerBound(Field key) {
+		int[] used = usedSlots();
+		int lo = 1, hi = used.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareKeys(keys[used[mid]], key) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return Math.max(lo - 1, 0);
+	}
+
+	/**
+	 * Binary search for the first entry on this page whose key is strictly
+	 * greater than key.
+	 * @return the index of that entry, or getNumEntries() if there is none
+	 * @see #lowerBound
+	 */
+	public int upperBound(Field key) {
+		int[] used = usedSlots();
+		int lo = 1, hi = used.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareKeys(keys[used[mid]], key) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return Math.max(lo - 1, 0);
+	}
+
+	/**
+	 * @param i - the index of an entry, between 0 and getNumEntries() - 1
+	 * @return the key of that entry
+	 */
+	public Field getKeyAt(int i) {
+		return keys[usedSlots()[i + 1]];
+	}
+
+	/**
+	 * @param i - the index of a child, between 0 and getNumEntries()
+	 * @return the id of that child page
+	 */
+	public BTreePageId getChildAt(int i) {
+		return new BTreePageId(pid.getTableId(), children[usedSlots()[i]], childCategory);
+	}
+
+	/**
+	 * @param i - the index of an entry, between 0 and getNumEntries() - 1
+	 * @return that entry, with its record id set
+	 */
+	public BTreeEntry getEntryAt(int i) {
+		int[] used = usedSlots();
+		BTreeEntry e = new BTreeEntry(keys[used[i + 1]],
+				new BTreePageId(pid.getTableId(), children[used[i]], childCategory),
+				new BTreePageId(pid.getTableId(), children[used[i + 1]], childCategory));
+		e.setRecordId(new RecordId(pid, used[i + 1]));
+		return e;
+	}
+
+	/**
+	 * @return the index of the given child page among the children of this
+	 *         page, or -1 if it is not a child of this page
+	 */
+	public int indexOfChild(BTreePageId child) {
+		if (child.getTableId() != pid.getTableId() || child.pgcateg() != childCategory)
+			return -1;
+		int[] used = usedSlots();
+		for (int i = 0; i < used.length; i++) {
+			if (children[used[i]] == child.pageNumber())
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the child page to descend into to find the left-most tuple with
+	 *         the given key, or the left-most child if key is null. Returns
+	 *         null if the page has no children.
+	 */
+	public BTreePageId findChild(Field key) {
+		if (usedSlots().length == 0)
+			return null;
+		return getChildAt(key == null ? 0 : lowerBound(key));
+	}
+
+	/**
+	 * @return the child page to descend into to find the right-most tuple
+	 *         with the given key, or the right-most child if key is null.
+	 *         Returns null if the page has no children.
+	 */
+	public BTreePageId findLastChild(Field key) {
+		int[] used = usedSlots();
+		if (used.length == 0)
+			return null;
+		return getChildAt(key == null ? used.length - 1 : upperBound(key));
 	}
 
 	/**
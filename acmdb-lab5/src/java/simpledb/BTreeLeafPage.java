@@ -15,6 +15,14 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
+	// the size of an entry of the slot directory of a slotted page
+	private static final int SLOT_SIZE = 2;
+	// the used slots in key order, rebuilt lazily after the header changes
+	private volatile int[] usedSlots;
+	// true for a slotted page, whose tuples vary in length
+	private final boolean variableTuples;
+	// the space taken by the tuples, or -1 to compute it again
+	private volatile int usedSpace = -1;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -35,7 +43,14 @@ public class BTreeLeafPage extends BTreePage {
 			assert(prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
 		}
 
-		if (checkoccupancy && depth > 0) {
+		assert(null == upperBound ? null == getHighKey() : upperBound.equals(getHighKey()));
+
+		if (variableTuples) {
+			assert(getUsedSpace() <= getCapacity());
+		}
+		// slotted pages may be left less than half full, since tuples of
+		// different lengths cannot always be divided evenly between pages
+		else if (checkoccupancy && depth > 0) {
 			assert(getNumTuples() >= getMaxTuples()/2);
 		}
 	}
@@ -44,7 +59,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers and the
+	 * high key.
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -53,6 +69,17 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * Pages of a table with string fields are slotted pages instead, so that
+	 * each tuple only takes the space of its values: after the pointers and
+	 * the high key come the number of tuples and a slot directory of their
+	 * 2-byte offsets in the page, in key order, and the tuples themselves are
+	 * packed at the end of the page. Each string of a tuple is stored as its
+	 * length in one byte followed by its characters. The number of slots is
+	 * computed as for the smallest possible tuple, and tuples are inserted as
+	 * long as they fit in the space of the page. Slots emptied by deletes are
+	 * only reclaimed when the page is written, so the tuples of a page read
+	 * back from disk are always in its first slots.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -63,6 +90,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		this.variableTuples = hasVariableFields(td);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -88,35 +116,70 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		// read the high key
+		readHighKey(dis);
 
+		header = new byte[getHeaderSize()];
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		if (variableTuples) {
+			readSlottedTuples(dis, data);
+		} else {
+			// read the header slots of this page
+			for (int i=0; i<header.length; i++)
+				header[i] = dis.readByte();
+
+			try{
+				// allocate and read the actual records of this page
+				for (int i=0; i<tuples.length; i++)
+					tuples[i] = readNextTuple(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
 		setBeforeImage();
 	}
 
+	/**
+	 * @return true if tuples of the given description vary in length, so
+	 *         that they are stored on slotted pages
+	 */
+	static boolean hasVariableFields(TupleDesc td) {
+		for (int i=0; i<td.numFields(); i++) {
+			if (td.getFieldType(i) == Type.STRING_TYPE)
+				return true;
+		}
+		return false;
+	}
+
 	/** 
-	 * Retrieve the maximum number of tuples this page can hold.
+	 * Retrieve the maximum number of tuples this page can hold. On a slotted
+	 * page, this is the number of the smallest possible tuples that fit.
 	 */
 	public int getMaxTuples() {        
+		if (variableTuples) {
+			int minTupleSize = 0;
+			for (int i=0; i<td.numFields(); i++)
+				minTupleSize += td.getFieldType(i) == Type.STRING_TYPE ? 1 : td.getFieldType(i).getLen();
+			return getCapacity() / (SLOT_SIZE + minTupleSize);
+		}
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8; 
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer, high key
+		int extraBits = 3 * INDEX_SIZE * 8 + td.getFieldType(keyField).getLen() * 8;
 		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
 
+	/**
+	 * @return the bytes of a slotted page before its slot directory: the
+	 *         parent and sibling pointers, the high key and the number of
+	 *         tuples
+	 */
+	private int getFixedSlottedSize() {
+		return 3 * INDEX_SIZE + td.getFieldType(keyField).getLen() + SLOT_SIZE;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
 	 */
@@ -187,6 +250,78 @@ public class BTreeLeafPage extends BTreePage {
 		return t;
 	}
 
+	/**
+	 * Read the slot directory of a slotted page, and the tuples it points to
+	 * into the first slots of this page.
+	 */
+	private void readSlottedTuples(DataInputStream dis, byte[] data) throws IOException {
+		int n = dis.readUnsignedShort();
+		for (int i=0; i<n; i++) {
+			int offset = dis.readUnsignedShort();
+			DataInputStream tis = new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+			Tuple t = new Tuple(td);
+			t.setRecordId(new RecordId(pid, i));
+			for (int j=0; j<td.numFields(); j++) {
+				if (td.getFieldType(j) == Type.STRING_TYPE) {
+					byte[] s = new byte[tis.readUnsignedByte()];
+					tis.readFully(s);
+					t.setField(j, new StringField(new String(s), Type.STRING_LEN));
+				} else {
+					try {
+						t.setField(j, td.getFieldType(j).parse(tis));
+					} catch (java.text.ParseException e) {
+						e.printStackTrace();
+						throw new NoSuchElementException("parsing error!");
+					}
+				}
+			}
+			tuples[i] = t;
+			markSlotUsed(i, true);
+		}
+	}
+
+	/**
+	 * Write the part of a slotted page after the high key. The used slots are
+	 * written to the directory in order, leaving out the empty ones.
+	 */
+	private void writeSlottedTuples(DataOutputStream dos) throws IOException {
+		int[] used = usedSlots();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream tos = new DataOutputStream(baos);
+		int[] offsets = new int[used.length];
+		for (int i=0; i<used.length; i++) {
+			offsets[i] = tos.size();
+			Tuple t = tuples[used[i]];
+			for (int j=0; j<td.numFields(); j++) {
+				Field f = t.getField(j);
+				if (td.getFieldType(j) == Type.STRING_TYPE) {
+					String s = stringOf(f);
+					tos.writeByte(s.length());
+					tos.writeBytes(s);
+				} else {
+					f.serialize(tos);
+				}
+			}
+		}
+		int start = BufferPool.getPageSize() - tos.size();
+		dos.writeShort(used.length);
+		for (int offset : offsets)
+			dos.writeShort(start + offset);
+		int zerolen = start - dos.size();
+		if (zerolen < 0)
+			throw new IllegalStateException("tuples overflow page " + pid.pageNumber());
+		dos.write(new byte[zerolen]);
+		baos.writeTo(dos);
+	}
+
+	/**
+	 * @return the characters of a string field that are stored on a page
+	 */
+	private static String stringOf(Field f) {
+		String s = ((StringField) f).getValue();
+		return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -223,6 +358,23 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// write out the high key
+		try {
+			writeHighKey(dos);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (variableTuples) {
+			try {
+				writeSlottedTuples(dos);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -262,7 +414,8 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE
+				+ td.getFieldType(keyField).getLen()); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -302,13 +455,16 @@ public class BTreeLeafPage extends BTreePage {
 	 * Adds the specified tuple to the page such that all records remain in sorted order;  
 	 * the tuple should be updated to reflect
 	 *  that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or tupledesc
-	 *         is mismatch.
+	 * @throws DbException if the page is full (no empty slots, or not enough
+	 *         space left for the tuple on a slotted page) or tupledesc is
+	 *         mismatch.
 	 * @param t The tuple to add.
 	 */
 	public void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
+		if (variableTuples && getTupleSpace(t) > getCapacity() - getUsedSpace())
+			throw new DbException("called addTuple on page with no space for the tuple.");
 
 		// find the first empty slot 
 		int emptySlot = -1;
@@ -323,16 +479,8 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int upper = upperBound(t.getField(keyField));
+		int lessOrEqKey = upper == 0 ? -1 : usedSlots()[upper - 1];
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -438,18 +586,79 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		return usedSlots().length;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. On a slotted page, this
+	 * is the number of tuples of the greatest length that can still be
+	 * inserted.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		int empty = numSlots - usedSlots().length;
+		if (variableTuples)
+			return Math.min(empty, (getCapacity() - getUsedSpace()) / getMaxTupleSpace());
+		return empty;
+	}
+
+	/**
+	 * Returns the space tuples can take on this page: the number of tuples if
+	 * they have a fixed length, otherwise the number of bytes.
+	 */
+	public int getCapacity() {
+		if (variableTuples)
+			return BufferPool.getPageSize() - getFixedSlottedSize();
+		return getMaxTuples();
+	}
+
+	/**
+	 * Returns the space taken by the tuples on this page, in the units of
+	 * {@link #getCapacity}.
+	 */
+	public int getUsedSpace() {
+		if (!variableTuples)
+			return getNumTuples();
+		int used = usedSpace;
+		if (used < 0) {
+			used = 0;
+			for (int i : usedSlots())
+				used += getTupleSpace(tuples[i]);
+			usedSpace = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the space the given tuple takes on this page, in the units of
+	 * {@link #getCapacity}: its slot and its values on a slotted page.
+	 */
+	public int getTupleSpace(Tuple t) {
+		if (!variableTuples)
+			return 1;
+		int space = SLOT_SIZE;
+		for (int i=0; i<td.numFields(); i++) {
+			if (td.getFieldType(i) == Type.STRING_TYPE)
+				space += 1 + stringOf(t.getField(i)).length();
+			else
+				space += td.getFieldType(i).getLen();
+		}
+		return space;
+	}
+
+	/**
+	 * Returns the most space one tuple can take on this page.
+	 */
+	public int getMaxTupleSpace() {
+		if (!variableTuples)
+			return 1;
+		int space = SLOT_SIZE;
+		for (int i=0; i<td.numFields(); i++) {
+			if (td.getFieldType(i) == Type.STRING_TYPE)
+				space += 1 + Type.STRING_LEN;
+			else
+				space += td.getFieldType(i).getLen();
+		}
+		return space;
 	}
 
 	/**
@@ -473,6 +682,63 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		usedSlots = null;
+		usedSpace = -1;
+	}
+
+	private int[] usedSlots() {
+		int[] used = usedSlots;
+		if (used == null) {
+			used = collectUsedSlots(numSlots);
+			usedSlots = used;
+		}
+		return used;
+	}
+
+	/**
+	 * Binary search for the first tuple on this page whose key is greater
+	 * than or equal to key.
+	 * @return the position, in key order, of that tuple, or getNumTuples()
+	 *         if there is none
+	 */
+	public int lowerBound(Field key) {
+		int[] used = usedSlots();
+		int lo = 0, hi = used.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareKeys(tuples[used[mid]].getField(keyField), key) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Binary search for the first tuple on this page whose key is strictly
+	 * greater than key.
+	 * @return the position, in key order, of that tuple, or getNumTuples()
+	 *         if there is none
+	 */
+	public int upperBound(Field key) {
+		int[] used = usedSlots();
+		int lo = 0, hi = used.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compareKeys(tuples[used[mid]].getField(keyField), key) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param pos - a position in key order, between 0 and getNumTuples() - 1
+	 * @return the tuple at that position
+	 */
+	public Tuple getTupleAt(int pos) {
+		return tuples[usedSlots()[pos]];
 	}
 
 	/**
@@ -483,6 +749,16 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param pos - a position in key order, as returned by {@link #lowerBound}
+	 *        or {@link #upperBound}
+	 * @return an iterator over the tuples on this page starting at pos
+	 */
+	public Iterator<Tuple> iterator(int pos) {
+		int[] used = usedSlots();
+		return new BTreeLeafPageIterator(this, pos < used.length ? used[pos] : numSlots);
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -491,6 +767,15 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @param pos - a position in key order, as returned by {@link #lowerBound}
+	 *        or {@link #upperBound}
+	 * @return a reverse iterator over the tuples on this page before pos
+	 */
+	public Iterator<Tuple> reverseIterator(int pos) {
+		return new BTreeLeafPageReverseIterator(this, pos > 0 ? usedSlots()[pos - 1] : -1);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -529,6 +814,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -578,6 +868,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -24,6 +24,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	protected Field highKey; // upper bound of the keys in this page, null if there is no right sibling
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
 
@@ -112,6 +113,85 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * Get the id of the right sibling of this page, the next page on the same
+	 * level of the tree, even if it has a different parent
+	 * @return the id of the right sibling, or null if this is the right-most page
+	 */
+	public abstract BTreePageId getRightSiblingId();
+
+	/**
+	 * Get the high key of this page: every key in this page is less than or
+	 * equal to it, and every key in the pages to its right greater than or
+	 * equal to it. It is the key separating this page from its right sibling
+	 * in their lowest common ancestor.
+	 * @return the high key, or null if this page has no right sibling
+	 */
+	public Field getHighKey() {
+		return getRightSiblingId() == null ? null : highKey;
+	}
+
+	/**
+	 * Set the high key of this page
+	 * @param key - the new high key, ignored while the page has no right sibling
+	 */
+	public void setHighKey(Field key) {
+		highKey = key;
+	}
+
+	/**
+	 * Read the high key, which is stored in the space of one key right after
+	 * the pointers of the page.
+	 */
+	protected void readHighKey(DataInputStream dis) throws IOException {
+		Type keyType = td.getFieldType(keyField);
+		if (getRightSiblingId() == null) {
+			dis.readFully(new byte[keyType.getLen()]);
+			highKey = null;
+			return;
+		}
+		try {
+			highKey = keyType.parse(dis);
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			highKey = null;
+		}
+	}
+
+	/**
+	 * Write the high key, or zeroes if the page has no right sibling.
+	 */
+	protected void writeHighKey(DataOutputStream dos) throws IOException {
+		Field key = getHighKey();
+		if (key == null)
+			dos.write(new byte[td.getFieldType(keyField).getLen()]);
+		else
+			key.serialize(dos);
+	}
+
+	/**
+	 * @return true if a search for key f must continue at the right sibling
+	 *         of this page because f is greater than its high key. This
+	 *         happens when the page split after its parent was read.
+	 */
+	public boolean movesRight(Field f) {
+		Field key = getHighKey();
+		return f != null && key != null && compareKeys(f, key) > 0;
+	}
+
+	/**
+	 * @return true if a search for the right-most tuple with key f, or for
+	 *         the right-most tuple of the tree if f is null, must continue at
+	 *         the right sibling of this page, since keys equal to f may
+	 *         follow there
+	 */
+	public boolean movesRightPast(Field f) {
+		Field key = getHighKey();
+		if (getRightSiblingId() == null || key == null)
+			return false;
+		return f == null || compareKeys(f, key) >= 0;
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -141,5 +221,76 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * @return the slots in use on a page with numSlots slots, in slot order.
+	 *         Since entries are kept sorted by slot, this is also key order.
+	 */
+	protected int[] collectUsedSlots(int numSlots) {
+		int[] used = new int[numSlots];
+		int n = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i))
+				used[n++] = i;
+		}
+		return Arrays.copyOf(used, n);
+	}
+
+	/**
+	 * Compare two keys of this index, with a fast path for int keys.
+	 * @return a negative number, zero or a positive number as a is less
+	 *         than, equal to or greater than b
+	 */
+	protected static int compareKeys(Field a, Field b) {
+		if (a instanceof IntField && b instanceof IntField)
+			return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+		if (a.compare(Op.LESS_THAN, b))
+			return -1;
+		return a.compare(Op.EQUALS, b) ? 0 : 1;
+	}
+
+	/**
+	 * @return true if the keys of this index vary in length, so that pages
+	 *         can store them in less space than the full width of the type
+	 */
+	protected boolean hasVariableKeys() {
+		return td.getFieldType(keyField) == Type.STRING_TYPE;
+	}
+
+	/**
+	 * @return the length of the longest common prefix of two string keys, or
+	 *         0 if either of them is null
+	 */
+	protected static int commonPrefixLength(Field a, Field b) {
+		if (a == null || b == null)
+			return 0;
+		String s = ((StringField) a).getValue();
+		String t = ((StringField) b).getValue();
+		int n = Math.min(s.length(), t.length());
+		int i = 0;
+		while (i < n && s.charAt(i) == t.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Compute the key to separate two adjacent pages in their parent. For
+	 * string keys this is the shortest prefix of right that is still greater
+	 * than left, which keeps the keys of the internal pages short (suffix
+	 * truncation); other keys are separated by right itself.
+	 * @param left - the greatest key on the left-hand page
+	 * @param right - the least key on the right-hand page
+	 * @return a key greater than left, unless left equals right, and less
+	 *         than or equal to right
+	 */
+	public static Field separator(Field left, Field right) {
+		if (!(right instanceof StringField) || left == null)
+			return right;
+		String r = ((StringField) right).getValue();
+		int lcp = commonPrefixLength(left, right);
+		if (lcp + 1 >= r.length())
+			return right;
+		return new StringField(r.substring(0, lcp + 1), Type.STRING_LEN);
+	}
+
 }
 
@@ -4,7 +4,8 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate, either from a table stored as a BTreeFile or
+ * from a HeapFile through one of its secondary indexes
  */
 public class BTreeScan implements DbIterator {
 
@@ -14,9 +15,13 @@ public class BTreeScan implements DbIterator {
 	private TransactionId tid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
+	private IndexRange range = null;
+	private boolean descending = false;
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private SecondaryIndex index = null;
+	private int tableid;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -43,6 +48,74 @@ public class BTreeScan implements DbIterator {
 		reset(tableid,tableAlias);
 	}
 
+	/**
+	 * Creates a scan over a HeapFile table through a secondary index on it,
+	 * returning the table's tuples in order of the indexed field.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the secondary index to scan; its table is the one scanned
+	 * @param tableAlias
+	 *            the alias of the table, as in the other constructor
+	 * @param ipred
+	 *            The predicate on the indexed field to match. May not be null.
+	 */
+	public BTreeScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.ipred = ipred;
+		this.index = index;
+		reset(index.getTableId(), tableAlias);
+	}
+
+	/**
+	 * Creates a B+ tree scan over the specified table that returns the tuples
+	 * whose key lies in a range, in ascending or descending order of the key.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of the table, as in the other constructors
+	 * @param range
+	 *            The range of keys to return; {@link IndexRange#ALL} for all
+	 *            tuples
+	 * @param descending
+	 *            true to return the tuples from the greatest key down
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexRange range, boolean descending) {
+		this.tid = tid;
+		this.range = range;
+		this.descending = descending;
+		reset(tableid,tableAlias);
+	}
+
+	/**
+	 * Creates a scan over a HeapFile table through a secondary index on it,
+	 * returning the table's tuples whose indexed field lies in a range, in
+	 * ascending or descending order of that field.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the secondary index to scan; its table is the one scanned
+	 * @param tableAlias
+	 *            the alias of the table, as in the other constructors
+	 * @param range
+	 *            The range of the indexed field to return
+	 * @param descending
+	 *            true to return the tuples from the greatest value down
+	 */
+	public BTreeScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexRange range,
+			boolean descending) {
+		this.tid = tid;
+		this.range = range;
+		this.descending = descending;
+		this.index = index;
+		reset(index.getTableId(), tableAlias);
+	}
+
 	/**
 	 * @return
 	 *       return the table name of the table the operator scans. This should
@@ -60,6 +133,61 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/** @return the id of the table this operator scans */
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	/**
+	 * @return the index predicate this scan matches, or null if it returns
+	 *         all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	/**
+	 * @return the range of keys this scan returns: the range it was created
+	 *         with, or the one its index predicate selects, or
+	 *         {@link IndexRange#ALL} if it returns all tuples. Returns null if
+	 *         the index predicate does not select a range.
+	 */
+	public IndexRange getIndexRange() {
+		if (range != null)
+			return range;
+		return ipred == null ? IndexRange.ALL : IndexRange.of(ipred);
+	}
+
+	/**
+	 * @return true if the tuples are returned in descending order of the key
+	 */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * @return a scan of the same tuples in the opposite order of the key, or
+	 *         null if the tuples this scan returns are not a range of keys
+	 */
+	public BTreeScan reversed() {
+		IndexRange r = getIndexRange();
+		if (r == null)
+			return null;
+		if (index != null)
+			return new BTreeScan(tid, index, alias, r, !descending);
+		return new BTreeScan(tid, tableid, alias, r, !descending);
+	}
+
+	/**
+	 * @return the index of the field the scanned tuples are ordered on and
+	 *         the index predicate applies to
+	 */
+	public int getKeyField() {
+		if (index != null)
+			return index.keyField();
+		return ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).keyField();
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -75,8 +203,18 @@ public class BTreeScan implements DbIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
+		if(range != null) {
+			if(index != null)
+				this.it = index.iterator(tid, range, descending);
+			else
+				this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, range, descending);
+		}
+		else if(index != null) {
+			this.it = index.iterator(tid, ipred);
+		}
+		else if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
@@ -0,0 +1,24 @@
+package simpledb;
+
+/**
+ * BatchIterator is a DbIterator that can also return its tuples a batch at a
+ * time, in column vectors, so that operators work through a whole batch in a
+ * loop instead of making a call per tuple. Operators read their children
+ * with {@link TupleBatch#next(DbIterator)}, which falls back to reading rows
+ * from children that are not BatchIterators.
+ * <p>
+ * Between open (or rewind) and close an iterator is read either with
+ * next/hasNext or with nextBatch, not both.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch belongs to the caller,
+     * which may change it; the iterator does not use it again.
+     *
+     * @return the next batch, which holds at least one tuple, or null if
+     *         there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
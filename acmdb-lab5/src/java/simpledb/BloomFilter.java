@@ -0,0 +1,84 @@
+package simpledb;
+
+/**
+ * BloomFilter is a set of keys that may answer that it holds a key it was
+ * not given, but never that it does not hold one it was. Each key sets
+ * {@link #HASHES} bits of a bit array chosen from a hash of the key, and a
+ * key may be in the set only if all of its bits are set. An int key and the
+ * IntField holding it set the same bits.
+ *
+ * @see JoinFilter
+ */
+public class BloomFilter {
+
+    /** The number of bits each key sets. */
+    public static final int HASHES = 3;
+    /** The number of bits of the array per key the filter is sized for. */
+    public static final int BITS_PER_KEY = 10;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * Creates an empty filter for about the given number of keys, with a
+     * power of two number of bits, at least 64.
+     */
+    public BloomFilter(int keys) {
+        long wanted = Math.max(64L, (long) keys * BITS_PER_KEY);
+        int size = 64;
+        while (size < wanted && size < (1 << 30))
+            size <<= 1;
+        bits = new long[size / 64];
+        mask = size - 1;
+    }
+
+    /** @return a hash of the key with all of its bits mixed into each bit */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Add a key with the given hash code. */
+    private void addHash(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /** @return false if no key with the given hash code was added */
+    private boolean mightContainHash(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public void add(int key) {
+        addHash(key);
+    }
+
+    public void add(Field key) {
+        addHash(key.hashCode());
+    }
+
+    /** @return false if the key was certainly not added */
+    public boolean mightContain(int key) {
+        return mightContainHash(key);
+    }
+
+    /** @return false if the key was certainly not added */
+    public boolean mightContain(Field key) {
+        return mightContainHash(key.hashCode());
+    }
+}
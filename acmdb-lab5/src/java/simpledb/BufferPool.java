@@ -5,6 +5,8 @@ import java.io.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -84,7 +86,39 @@ public class BufferPool {
         } else if (perm == Permissions.READ_ONLY) {
             lockManager.getLock(tid, pid, true);
         }
+        return fetchPage(pid);
+    }
 
+    /**
+     * Like getPage with READ_WRITE permission, but also marks the page dirty
+     * before returning it. A clean page may be evicted at any time, so an
+     * access method whose readers do not lock every page they read must mark
+     * a page dirty before changing it; otherwise a reader could re-read the
+     * old version from disk while the page is being updated.
+     *
+     * @param tid the ID of the transaction that is about to update the page
+     * @param pid the ID of the requested page
+     */
+    Page getPageForUpdate(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        lockManager.getLock(tid, pid, false);
+        return fetchDirty(tid, pid);
+    }
+
+    private synchronized Page fetchDirty(TransactionId tid, PageId pid) throws DbException {
+        Page p = fetchPage(pid);
+        p.markDirty(true, tid);
+        return p;
+    }
+
+    /**
+     * Retrieve the specified page without acquiring any lock on it. Only
+     * meant for access methods that protect the page by other means, like
+     * the page latches BTreeFile takes on internal pages.
+     *
+     * @param pid the ID of the requested page
+     */
+    Page fetchPage(PageId pid) throws DbException {
         synchronized (this) {
             if (bufferContents.containsKey(pid)) {
                 if (!pageUseTime.containsKey(pid)) pageUseTime.put(pid, 1);
@@ -147,7 +181,23 @@ public class BufferPool {
             this.flushPages(tid);
         } else {
             if (lockManager.holdsOneLock(tid)) {
-                lockManager.getExLockedPids(tid).forEach(this::discardPage);
+                HashSet<Integer> tables = new HashSet<Integer>();
+                for (PageId pid : lockManager.getExLockedPids(tid)) {
+                    discardPage(pid);
+                    tables.add(pid.getTableId());
+                }
+                // B+ trees read pages without locking them, so they have to
+                // know their pages were rolled back before the locks go
+                for (int tableid : tables) {
+                    DbFile file;
+                    try {
+                        file = Database.getCatalog().getDatabaseFile(tableid);
+                    } catch (NoSuchElementException e) {
+                        continue;
+                    }
+                    if (file instanceof BTreeFile)
+                        ((BTreeFile) file).rolledBack(tid);
+                }
             }
         }
 
@@ -170,6 +220,8 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Also adds an entry for the tuple to every secondary index on the table.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -186,6 +238,9 @@ public class BufferPool {
                 } else bufferContents.replace(page.getId(), page);
             }
         }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insertTuple(tid, t);
+        }
     }
 
     /**
@@ -197,6 +252,7 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * Also removes the tuple's entry from every secondary index on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -205,12 +261,32 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile bTreeFile = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> dirtyPages = bTreeFile.deleteTuple(tid, t);
-        synchronized (this) {
-            for (Page page : dirtyPages) {
-                page.markDirty(true, tid);
-                bufferContents.replace(page.getId(), page);
-            }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.deleteTuple(tid, t);
+        }
+        putDirtyPages(tid, bTreeFile.deleteTuple(tid, t));
+    }
+
+    /**
+     * Merge the leaves of a B+ tree table that deletes left less than half
+     * full while its merges were deferred, on behalf of transaction tid.
+     *
+     * @param tid the transaction merging the pages
+     * @param tableId the B+ tree table to compact
+     * @see BTreeFile#setDeferredMerging(boolean)
+     */
+    public void compact(TransactionId tid, int tableId)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeFile bTreeFile = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+        putDirtyPages(tid, bTreeFile.compact(tid));
+    }
+
+    private synchronized void putDirtyPages(TransactionId tid, ArrayList<Page> dirtyPages) {
+        for (Page page : dirtyPages) {
+            page.markDirty(true, tid);
+            // a page changed early in a long operation may have been
+            // evicted while still clean; put it back rather than lose it
+            bufferContents.put(page.getId(), page);
         }
     }
 
@@ -32,9 +32,11 @@ public class Catalog {
     }
 
     private ArrayList<CatalogEntry> catalogContents;
+    private ArrayList<SecondaryIndex> indexContents;
 
     public Catalog() {
         catalogContents = new ArrayList<>();
+        indexContents = new ArrayList<>();
     }
 
     /**
@@ -55,6 +57,52 @@ public class Catalog {
         catalogContents.add(new CatalogEntry(file, name, pkeyField));
     }
 
+    /**
+     * Add a secondary index on a table already in the catalog. The index file
+     * can then be found with getDatabaseFile and getTupleDesc, but is not
+     * listed by tableIdIterator.
+     * @param index the index to add; replaces any index on the same field of the table
+     * @throws NoSuchElementException if the indexed table isn't in the catalog
+     */
+    public void addIndex(SecondaryIndex index) throws NoSuchElementException {
+        getDatabaseFile(index.getTableId());
+        for (int i = 0; i < indexContents.size(); i++) {
+            SecondaryIndex other = indexContents.get(i);
+            if (other.getTableId() == index.getTableId() && other.keyField() == index.keyField()) {
+                indexContents.set(i, index);
+                return;
+            }
+        }
+        indexContents.add(index);
+    }
+
+    /**
+     * Return the secondary indexes on the table with the specified id; the
+     * list is empty if the table has none.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        ArrayList<SecondaryIndex> indexes = new ArrayList<>();
+        for (SecondaryIndex index : indexContents) {
+            if (index.getTableId() == tableid) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Return the secondary index on the given field of the table with the
+     * specified id, or null if there is none.
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : indexContents) {
+            if (index.getTableId() == tableid && index.keyField() == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -82,6 +130,11 @@ public class Catalog {
                 return entry.file.getTupleDesc();
             }
         }
+        for (SecondaryIndex index : indexContents) {
+            if (index.getFile().getId() == tableid) {
+                return index.getFile().getTupleDesc();
+            }
+        }
         throw new NoSuchElementException();
     }
 
@@ -91,6 +144,11 @@ public class Catalog {
                 return entry.file;
             }
         }
+        for (SecondaryIndex index : indexContents) {
+            if (index.getFile().getId() == tableid) {
+                return index.getFile();
+            }
+        }
         throw new NoSuchElementException();
     }
 
@@ -122,6 +180,7 @@ public class Catalog {
 
     public void clear() {
         catalogContents.clear();
+        indexContents.clear();
     }
     
     /**
@@ -135,14 +194,20 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [columnar|slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                if (!storage.isEmpty() && !storage.equals("columnar") && !storage.equals("slotted")) {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -154,11 +219,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("idx"))
+                            indexed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -166,13 +233,37 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                if (storage.equals("columnar")) {
+                    if (!indexed.isEmpty()) {
+                        System.out.println("Indexes are only supported on heap tables: " + name);
+                        System.exit(0);
+                    }
+                    addTable(new ColumnFile(new File(baseFolder+"/"+name + ".dat"), t),name,primaryKey);
+                    System.out.println("Added columnar table : " + name + " with schema " + t);
+                    continue;
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, storage.equals("slotted"));
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    File idxFile = new File(baseFolder+"/"+name + "." + namesAr[field] + ".idx");
+                    SecondaryIndex index = new SecondaryIndex(tabHf, field, idxFile);
+                    addIndex(index);
+                    if (idxFile.length() == 0 && tabHf.numPages() > 0) {
+                        // build a missing index from the table's current contents
+                        TransactionId tid = new TransactionId();
+                        index.build(tid);
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                    System.out.println("Added index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
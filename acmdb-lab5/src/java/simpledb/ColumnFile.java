@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table apart from the others, so that a scan of some of the columns only
+ * reads their pages. The tuples are split into row groups, in the order they
+ * were written, and each row group is a run of pages: a header page with the
+ * number of tuples in the group and the number of pages of each column,
+ * then the pages of its first column, then those of its second column, and
+ * so on. Each page records how its values are encoded, so a file may be
+ * compressed or not, as {@link ColumnFileEncoder} wrote it; the formats are
+ * described in {@link ColumnPage}.
+ * <p>
+ * A scan may be given predicates, which it applies to the encoded values of
+ * their columns a row group at a time, before it builds the tuples of the
+ * rows that satisfy all of them.
+ * <p>
+ * A ColumnFile is written once, by {@link ColumnFileEncoder}, and is
+ * read-only afterwards: inserting or deleting tuples fails.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash of the
+     * absolute name of its file, as for a HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples of a scan of the given columns, in
+     *         the given order
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid.pageNumber() + " is not in the file");
+        }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+            raf.readFully(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new ColumnPage((HeapPageId) pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw");
+        randomAccessFile.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+        randomAccessFile.write(page.getPageData(), 0, BufferPool.getPageSize());
+        randomAccessFile.close();
+    }
+
+    /**
+     * Returns the number of pages in this ColumnFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("cannot insert into ColumnFile " + f.getName() + ": it is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("cannot delete from ColumnFile " + f.getName() + ": it is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        return iterator(tid, columns);
+    }
+
+    /**
+     * Returns an iterator over the given columns of the tuples of this file,
+     * which only reads the pages of these columns. Its tuples have the
+     * TupleDesc returned by {@link #getTupleDesc(int[])}.
+     *
+     * @param columns the columns to read, in the order the tuples have them;
+     *                there must be at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the given columns of the tuples of this file
+     * that satisfy all of the given predicates.
+     *
+     * @param columns the columns to read, in the order the tuples have them;
+     *                there must be at least one
+     * @param predicates the predicates, on the fields of the tuples of the
+     *                iterator
+     * @see #iterator(TransactionId, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        return new ColumnFileIterator(tid, columns, predicates);
+    }
+
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] columns;
+        private final List<Predicate> predicates;
+        private final TupleDesc projected;
+        /** The page number of the header of the current row group, and of the next one. */
+        private int groupStart, nextGroup;
+        /** The number of tuples in the current row group, and the next row to read. */
+        private int rows, row;
+        /** The first page of each column of the table in the current row group. */
+        private int[] firstPage;
+        /** The rows of the current row group that satisfy the predicates. */
+        private boolean[] selected;
+        /** The page of each column read holding the current row, and its first row. */
+        private ColumnPage[] pages;
+        private int[] pageNo, pageFirstRow;
+
+        ColumnFileIterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+            this.tid = tid;
+            this.columns = columns;
+            this.predicates = predicates;
+            this.projected = getTupleDesc(columns);
+        }
+
+        public void open() {
+            pages = new ColumnPage[columns.length];
+            pageNo = new int[columns.length];
+            pageFirstRow = new int[columns.length];
+            firstPage = new int[td.numFields()];
+            nextGroup = 0;
+            rows = 0;
+            row = 0;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            pages = null;
+        }
+
+        private ColumnPage getPage(int pgNo) throws DbException, TransactionAbortedException {
+            return (ColumnPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo),
+                    Permissions.READ_ONLY);
+        }
+
+        /**
+         * Move to the next row group, and find the rows of it that satisfy
+         * the predicates.
+         *
+         * @return false if there is none
+         */
+        private boolean nextGroup() throws DbException, TransactionAbortedException {
+            if (nextGroup >= numPages()) return false;
+            groupStart = nextGroup;
+            ColumnPage header = getPage(groupStart);
+            rows = header.getInt(0);
+            int start = groupStart + 1;
+            for (int c = 0; c < firstPage.length; c++) {
+                firstPage[c] = start;
+                start += header.getInt(1 + c);
+            }
+            nextGroup = start;
+            row = 0;
+            for (int i = 0; i < columns.length; i++) {
+                pages[i] = null;
+                pageNo[i] = firstPage[columns[i]] - 1;
+                pageFirstRow[i] = 0;
+            }
+            selected = null;
+            if (predicates.isEmpty()) return true;
+            selected = new boolean[rows];
+            Arrays.fill(selected, true);
+            for (Predicate p : predicates) {
+                int c = columns[p.getField()];
+                for (int pgNo = firstPage[c], offset = 0; offset < rows; pgNo++) {
+                    ColumnPage page = getPage(pgNo);
+                    page.select(p.getOp(), p.getOperand(), selected, offset);
+                    offset += page.numValues();
+                }
+            }
+            return true;
+        }
+
+        /** @return the value of the ith column read in the current row */
+        private Field value(int i) throws DbException, TransactionAbortedException {
+            while (pages[i] == null || row >= pageFirstRow[i] + pages[i].numValues()) {
+                if (pages[i] != null) pageFirstRow[i] += pages[i].numValues();
+                pages[i] = getPage(++pageNo[i]);
+            }
+            return pages[i].getField(row - pageFirstRow[i]);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (pages == null) return null;
+            while (true) {
+                for (; row < rows; row++) {
+                    if (selected != null && !selected[row]) continue;
+                    Tuple t = new Tuple(projected);
+                    for (int i = 0; i < columns.length; i++) {
+                        t.setField(i, value(i));
+                    }
+                    t.setRecordId(new RecordId(new HeapPageId(getId(), groupStart), row));
+                    row++;
+                    return t;
+                }
+                if (!nextGroup()) return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * ColumnFileEncoder reads a comma delimited text file or accepts a list of
+ * tuples and writes it as the pages of a {@link ColumnFile}. Each row group
+ * of tuples is collected in memory, then written out a column at a time.
+ * <p>
+ * The pages of a compressed file are filled with as many values as fit in
+ * the smallest of the encodings of {@link ColumnPage.Encoding} for them:
+ * a dictionary for strings, and plain ints, a frame of reference or runs
+ * for ints. The pages of other files store their values as they are.
+ */
+public class ColumnFileEncoder {
+
+    /**
+     * The number of pages the narrowest column of a compressed file would
+     * take in a row group without compression.
+     */
+    public static final int COMPRESSED_GROUP_PAGES = 16;
+
+    /**
+     * Convert the specified tuple list (with only integer fields) into a
+     * ColumnFile.
+     *
+     * @param tuples the tuples - a list of tuples, each represented by a list
+     *        of integers that are the field values for that tuple.
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input tuple
+     * @throws IOException if the output file can't be written
+     */
+    public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes,
+            int numFields) throws IOException {
+        convert(tuples, outFile, npagebytes, numFields, false);
+    }
+
+    /**
+     * Convert the specified tuple list (with only integer fields) into a
+     * ColumnFile, compressed or not.
+     *
+     * @see #convert(ArrayList, File, int, int)
+     */
+    public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes,
+            int numFields, boolean compress) throws IOException {
+        TupleDesc td = Utility.getTupleDesc(numFields);
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.size() != numFields) {
+                throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                        Utility.listToString(tuple) + ")");
+            }
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < numFields; i++) {
+                t.setField(i, new IntField(tuple.get(i)));
+            }
+            ts.add(t);
+        }
+        convert(ts.iterator(), td, outFile, npagebytes, compress);
+    }
+
+    /**
+     * Convert the specified input text file into a ColumnFile that is not
+     * compressed.
+     *
+     * @see #convert(File, File, int, int, Type[], char, boolean)
+     */
+    public static void convert(File inFile, File outFile, int npagebytes, int numFields,
+            Type[] typeAr, char fieldSeparator) throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+    }
+
+    /**
+     * Convert the specified input text file, in the format read by
+     * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)},
+     * into a ColumnFile.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param numFields the number of fields in each input line/output tuple
+     * @param typeAr the types of the fields
+     * @param fieldSeparator the character between the fields of a line
+     * @param compress whether to compress the pages
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes, int numFields,
+            Type[] typeAr, char fieldSeparator, boolean compress) throws IOException {
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        GroupWriter out = new GroupWriter(td, outFile, npagebytes, compress);
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+            if (values.length != numFields) {
+                br.close();
+                out.close();
+                throw new IOException("BAD LINE : " + line);
+            }
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < numFields; i++) {
+                String s = values[i].trim();
+                if (typeAr[i] == Type.INT_TYPE) {
+                    try {
+                        t.setField(i, new IntField(Integer.parseInt(s)));
+                    } catch (NumberFormatException e) {
+                        br.close();
+                        out.close();
+                        throw new IOException("BAD LINE : " + line);
+                    }
+                } else {
+                    t.setField(i, new StringField(s, Type.STRING_LEN));
+                }
+            }
+            out.add(t);
+        }
+        br.close();
+        out.close();
+    }
+
+    /**
+     * @return the number of tuples in a full row group of a ColumnFile with
+     *         the given schema and page size: as many as fit on one page of
+     *         the narrowest column, times {@link #COMPRESSED_GROUP_PAGES} if
+     *         the file is compressed, so that compressed columns fill pages
+     */
+    public static int rowsPerGroup(TupleDesc td, int npagebytes, boolean compress) {
+        int rows = 1;
+        for (int i = 0; i < td.numFields(); i++) {
+            rows = Math.max(rows, ColumnPage.capacity(td.getFieldType(i), npagebytes));
+        }
+        return compress ? rows * COMPRESSED_GROUP_PAGES : rows;
+    }
+
+    /**
+     * Write the given tuples, in order, as a ColumnFile.
+     *
+     * @param tuples the tuples to write
+     * @param td the TupleDesc of the tuples
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param compress whether to compress the pages
+     * @throws IOException if the output file can't be written
+     */
+    public static void convert(Iterator<Tuple> tuples, TupleDesc td, File outFile, int npagebytes,
+            boolean compress) throws IOException {
+        GroupWriter out = new GroupWriter(td, outFile, npagebytes, compress);
+        while (tuples.hasNext()) {
+            out.add(tuples.next());
+        }
+        out.close();
+    }
+
+    /**
+     * Collects the tuples of a row group, and writes its pages once it is
+     * full: the header of the group, then the pages of each column.
+     */
+    private static class GroupWriter {
+        private final TupleDesc td;
+        private final int npagebytes;
+        private final boolean compress;
+        private final Field[][] group;
+        private final OutputStream os;
+        private int n;
+
+        GroupWriter(TupleDesc td, File outFile, int npagebytes, boolean compress) throws IOException {
+            this.td = td;
+            this.npagebytes = npagebytes;
+            this.compress = compress;
+            this.group = new Field[td.numFields()][rowsPerGroup(td, npagebytes, compress)];
+            this.os = new BufferedOutputStream(new FileOutputStream(outFile));
+        }
+
+        void add(Tuple t) throws IOException {
+            for (int i = 0; i < group.length; i++) {
+                group[i][n] = t.getField(i);
+            }
+            if (++n == group[0].length) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            ArrayList<byte[]> pages = new ArrayList<byte[]>();
+            int[] header = new int[1 + group.length];
+            header[0] = n;
+            for (int i = 0; i < group.length; i++) {
+                int before = pages.size();
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    int[] values = new int[n];
+                    for (int r = 0; r < n; r++) {
+                        values[r] = ((IntField) group[i][r]).getValue();
+                    }
+                    encodeInts(values, n, npagebytes, compress, pages);
+                } else {
+                    encodeStrings(group[i], n, npagebytes, compress, pages);
+                }
+                header[1 + i] = pages.size() - before;
+            }
+            os.write(convertToColumnPage(ColumnPage.Encoding.GROUP_HEADER, header, header.length, npagebytes));
+            for (byte[] page : pages) {
+                os.write(page);
+            }
+            n = 0;
+        }
+
+        void close() throws IOException {
+            if (n > 0) {
+                write();
+            }
+            os.close();
+        }
+    }
+
+    /** @return the number of bits needed to store every value from 0 to range */
+    private static int bits(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /**
+     * Add the pages holding the first n values to pages, each filled with as
+     * many values as fit in the smallest encoding for them if compress is
+     * true, or in INT_PLAIN otherwise.
+     */
+    static void encodeInts(int[] values, int n, int npagebytes, boolean compress, List<byte[]> pages) {
+        int room = npagebytes - ColumnPage.HEADER_SIZE;
+        for (int from = 0; from < n; ) {
+            ColumnPage.Encoding best = ColumnPage.Encoding.INT_PLAIN;
+            int count = 0, runs = 0, min = 0, max = 0;
+            for (int k = 1; from + k <= n; k++) {
+                int v = values[from + k - 1];
+                if (k == 1 || v != values[from + k - 2]) runs++;
+                min = k == 1 ? v : Math.min(min, v);
+                max = k == 1 ? v : Math.max(max, v);
+                ColumnPage.Encoding fits = null;
+                int size = Integer.MAX_VALUE;
+                if (4 * k <= room) {
+                    fits = ColumnPage.Encoding.INT_PLAIN;
+                    size = 4 * k;
+                }
+                if (compress) {
+                    int frame = 5 + ColumnPage.packedSize(k, bits((long) max - min));
+                    if (frame <= room && frame < size) {
+                        fits = ColumnPage.Encoding.INT_FRAME;
+                        size = frame;
+                    }
+                    int run = 4 + 8 * runs;
+                    if (run <= room && run < size) {
+                        fits = ColumnPage.Encoding.INT_RUNS;
+                    }
+                }
+                if (fits == null) break;
+                best = fits;
+                count = k;
+            }
+            pages.add(convertToColumnPage(best, Arrays.copyOfRange(values, from, from + count), count, npagebytes));
+            from += count;
+        }
+    }
+
+    /**
+     * Add the pages holding the first n values to pages, each filled with as
+     * many values as fit in STRING_DICTIONARY if compress is true, or in
+     * STRING_PLAIN otherwise.
+     */
+    static void encodeStrings(Field[] values, int n, int npagebytes, boolean compress, List<byte[]> pages) {
+        int room = npagebytes - ColumnPage.HEADER_SIZE;
+        for (int from = 0; from < n; ) {
+            int count = 0;
+            if (!compress) {
+                count = Math.min(n - from, ColumnPage.capacity(Type.STRING_TYPE, npagebytes));
+            } else {
+                HashSet<String> distinct = new HashSet<String>();
+                int dictionaryBytes = 0;
+                for (int k = 1; from + k <= n; k++) {
+                    String s = ((StringField) values[from + k - 1]).getValue();
+                    int added = distinct.contains(s) ? 0 : 1 + s.length();
+                    int size = 2 + dictionaryBytes + added + 1
+                            + ColumnPage.packedSize(k, bits(distinct.size() + (added > 0 ? 1 : 0) - 1));
+                    if (size > room || distinct.size() == 0xFFFF) break;
+                    if (added > 0) {
+                        distinct.add(s);
+                        dictionaryBytes += added;
+                    }
+                    count = k;
+                }
+            }
+            pages.add(convertToColumnPage(values, from, from + count, npagebytes, compress));
+            from += count;
+        }
+    }
+
+    /**
+     * @return the bytes of a ColumnPage of the given size holding the first
+     *         n of the given ints in the given encoding, one of the encodings
+     *         of ints or GROUP_HEADER
+     */
+    public static byte[] convertToColumnPage(ColumnPage.Encoding encoding, int[] values, int n,
+            int npagebytes) {
+        byte[] page = new byte[npagebytes];
+        writeInt(page, 0, n);
+        page[4] = (byte) encoding.ordinal();
+        int pos = ColumnPage.HEADER_SIZE;
+        switch (encoding) {
+            case GROUP_HEADER:
+            case INT_PLAIN:
+                for (int i = 0; i < n; i++, pos += 4) {
+                    writeInt(page, pos, values[i]);
+                }
+                break;
+            case INT_FRAME: {
+                int min = values[0], max = values[0];
+                for (int i = 1; i < n; i++) {
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+                int bits = bits((long) max - min);
+                int[] offsets = new int[n];
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = values[i] - min;
+                }
+                writeInt(page, pos, min);
+                page[pos + 4] = (byte) bits;
+                ColumnPage.pack(offsets, n, bits, page, pos + 5);
+                break;
+            }
+            case INT_RUNS: {
+                int runs = 0;
+                for (int i = 0; i < n; runs++) {
+                    int j = i;
+                    while (j < n && values[j] == values[i]) j++;
+                    writeInt(page, pos + 4 + 8 * runs, values[i]);
+                    writeInt(page, pos + 8 + 8 * runs, j - i);
+                    i = j;
+                }
+                writeInt(page, pos, runs);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("not an encoding of ints: " + encoding);
+        }
+        return page;
+    }
+
+    /**
+     * @return the bytes of a ColumnPage of the given size holding the strings
+     *         from index from to index to, exclusive, of the given array, in
+     *         STRING_DICTIONARY if compress is true, or in STRING_PLAIN
+     *         otherwise
+     */
+    public static byte[] convertToColumnPage(Field[] values, int from, int to, int npagebytes,
+            boolean compress) {
+        byte[] page = new byte[npagebytes];
+        int n = to - from;
+        writeInt(page, 0, n);
+        int pos = ColumnPage.HEADER_SIZE;
+        if (!compress) {
+            page[4] = (byte) ColumnPage.Encoding.STRING_PLAIN.ordinal();
+            for (int i = from; i < to; i++, pos += Type.STRING_TYPE.getLen()) {
+                String s = ((StringField) values[i]).getValue();
+                writeInt(page, pos, s.length());
+                writeBytes(page, pos + 4, s);
+            }
+            return page;
+        }
+        page[4] = (byte) ColumnPage.Encoding.STRING_DICTIONARY.ordinal();
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int[] codes = new int[n];
+        for (int i = 0; i < n; i++) {
+            String s = ((StringField) values[from + i]).getValue();
+            Integer code = dictionary.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(s, code);
+            }
+            codes[i] = code;
+        }
+        page[pos] = (byte) (dictionary.size() >> 8);
+        page[pos + 1] = (byte) dictionary.size();
+        pos += 2;
+        for (String s : dictionary.keySet()) {
+            page[pos] = (byte) s.length();
+            writeBytes(page, pos + 1, s);
+            pos += 1 + s.length();
+        }
+        int bits = bits(dictionary.size() - 1);
+        page[pos] = (byte) bits;
+        ColumnPage.pack(codes, n, bits, page, pos + 1);
+        return page;
+    }
+
+    private static void writeInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    /** Write the low byte of each char of s, as DataOutputStream.writeBytes does. */
+    private static void writeBytes(byte[] b, int pos, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            b[pos + i] = (byte) s.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Each instance of ColumnPage stores the values of one column of a row group
+ * of a ColumnFile, or the header of a row group, and implements the Page
+ * interface that is used by BufferPool.
+ *
+ * @see ColumnFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    /** The ways the values of a page can be stored. */
+    public enum Encoding {
+        /**
+         * The header of a row group: the number of tuples in the group,
+         * followed by the number of pages of each column, stored as ints.
+         */
+        GROUP_HEADER,
+        /** Each int in 4 bytes. */
+        INT_PLAIN,
+        /**
+         * Frame of reference: the smallest value, as an int, and a number of
+         * bits, as a byte, followed by each value minus the smallest one,
+         * packed in that many bits.
+         */
+        INT_FRAME,
+        /**
+         * Run lengths: the number of runs, as an int, then each run of equal
+         * values as the value and the length of the run, both ints.
+         */
+        INT_RUNS,
+        /** Each string as {@link StringField#serialize} writes it. */
+        STRING_PLAIN,
+        /**
+         * A dictionary: the number of distinct strings, as a short, and each
+         * of them as its length in a byte and its bytes, then a number of
+         * bits, as a byte, followed by the position in the dictionary of
+         * each value, packed in that many bits.
+         */
+        STRING_DICTIONARY
+    }
+
+    /** The number of bytes before the values: their number and encoding. */
+    static final int HEADER_SIZE = 5;
+
+    final HeapPageId pid;
+    /** The bytes the page was read from, which the values are decoded from. */
+    final byte data[];
+    final Encoding encoding;
+    final int numValues;
+    private TransactionId lastTid;
+    private boolean isdirty;
+
+    /** The decoded values, created when they are first asked for. */
+    private int[] ints;
+    private Field[] fields;
+
+    byte[] oldData;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     * The format of a ColumnPage is the number of values it holds, as an
+     * int, and the ordinal of its {@link Encoding}, as a byte, followed by
+     * the values in that encoding.
+     */
+    public ColumnPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data;
+        this.numValues = readInt(data, 0);
+        this.encoding = Encoding.values()[data[4]];
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of values of the given type that fit on a page of
+     *         the given size, when they are not compressed
+     */
+    public static int capacity(Type type, int pageSize) {
+        return (pageSize - HEADER_SIZE) / type.getLen();
+    }
+
+    /** @return the number of values on this page */
+    public int numValues() {
+        return numValues;
+    }
+
+    /** @return the encoding of the values of this page */
+    public Encoding encoding() {
+        return encoding;
+    }
+
+    /** @return true if the page is the header of a row group */
+    public boolean isGroupHeader() {
+        return encoding == Encoding.GROUP_HEADER;
+    }
+
+    /**
+     * @return value i of this page, which must be of an INT_TYPE column or
+     *         a group header, without creating an IntField for it
+     */
+    public int getInt(int i) {
+        return ints()[i];
+    }
+
+    /** @return value i of this page */
+    public Field getField(int i) {
+        if (encoding == Encoding.STRING_PLAIN || encoding == Encoding.STRING_DICTIONARY) {
+            return fields()[i];
+        }
+        return new IntField(ints()[i]);
+    }
+
+    /** @return the values of an int page, decoded */
+    private synchronized int[] ints() {
+        if (ints != null) return ints;
+        int[] values = new int[numValues];
+        int pos = HEADER_SIZE;
+        switch (encoding) {
+            case GROUP_HEADER:
+            case INT_PLAIN:
+                for (int i = 0; i < numValues; i++, pos += 4) {
+                    values[i] = readInt(data, pos);
+                }
+                break;
+            case INT_FRAME:
+                int min = readInt(data, pos);
+                unpack(data, pos + 5, data[pos + 4], values, numValues);
+                for (int i = 0; i < numValues; i++) {
+                    values[i] += min;
+                }
+                break;
+            case INT_RUNS:
+                int runs = readInt(data, pos);
+                int n = 0;
+                for (int r = 0; r < runs; r++) {
+                    int value = readInt(data, pos + 4 + 8 * r);
+                    int length = readInt(data, pos + 8 + 8 * r);
+                    for (int i = 0; i < length; i++) {
+                        values[n++] = value;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("not a page of ints: " + encoding);
+        }
+        ints = values;
+        return ints;
+    }
+
+    /**
+     * @return the values of a string page; the equal values of a dictionary
+     *         page are the same StringField
+     */
+    private synchronized Field[] fields() {
+        if (fields != null) return fields;
+        Field[] values = new Field[numValues];
+        int pos = HEADER_SIZE;
+        if (encoding == Encoding.STRING_PLAIN) {
+            for (int i = 0; i < numValues; i++, pos += Type.STRING_TYPE.getLen()) {
+                values[i] = new StringField(new String(data, pos + 4, readInt(data, pos)), Type.STRING_LEN);
+            }
+        } else {
+            Field[] dictionary = dictionary();
+            int[] codes = new int[numValues];
+            unpack(data, codesOffset(), data[codesOffset() - 1], codes, numValues);
+            for (int i = 0; i < numValues; i++) {
+                values[i] = dictionary[codes[i]];
+            }
+        }
+        fields = values;
+        return fields;
+    }
+
+    /** @return the distinct strings of a dictionary page */
+    private Field[] dictionary() {
+        int size = readShort(data, HEADER_SIZE);
+        Field[] dictionary = new Field[size];
+        int pos = HEADER_SIZE + 2;
+        for (int k = 0; k < size; k++) {
+            int len = data[pos] & 0xFF;
+            dictionary[k] = new StringField(new String(data, pos + 1, len), Type.STRING_LEN);
+            pos += 1 + len;
+        }
+        return dictionary;
+    }
+
+    /** @return the offset of the packed codes of a dictionary page */
+    private int codesOffset() {
+        int size = readShort(data, HEADER_SIZE);
+        int pos = HEADER_SIZE + 2;
+        for (int k = 0; k < size; k++) {
+            pos += 1 + (data[pos] & 0xFF);
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Apply a predicate to the values of this page, on their encoding where
+     * it saves comparisons: once per run, once per string of the dictionary,
+     * or not at all for the values of a frame if the predicate holds for all
+     * or none of the values the frame can hold.
+     *
+     * @param op the operator of the predicate
+     * @param operand the value the values are compared to, as by
+     *        {@link Field#compare}
+     * @param selected set to false at offset + i if value i does not satisfy
+     *        the predicate
+     * @param offset the position in selected of the first value of the page
+     */
+    public void select(Predicate.Op op, Field operand, boolean[] selected, int offset) {
+        switch (encoding) {
+            case INT_RUNS: {
+                int runs = readInt(data, HEADER_SIZE);
+                int n = offset;
+                for (int r = 0; r < runs; r++) {
+                    int value = readInt(data, HEADER_SIZE + 4 + 8 * r);
+                    int length = readInt(data, HEADER_SIZE + 8 + 8 * r);
+                    if (!new IntField(value).compare(op, operand)) {
+                        Arrays.fill(selected, n, n + length, false);
+                    }
+                    n += length;
+                }
+                return;
+            }
+            case INT_FRAME:
+                if (operand instanceof IntField) {
+                    long min = readInt(data, HEADER_SIZE);
+                    long max = min + (1L << data[HEADER_SIZE + 4]) - 1;
+                    int c = ((IntField) operand).getValue();
+                    boolean none, all;
+                    if (op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE) {
+                        none = c < min || c > max;
+                        all = false;
+                    } else if (op == Predicate.Op.NOT_EQUALS) {
+                        none = false;
+                        all = c < min || c > max;
+                    } else {
+                        boolean atMin = Tuple.matches(op, Long.compare(min, c));
+                        boolean atMax = Tuple.matches(op, Long.compare(max, c));
+                        none = !atMin && !atMax;
+                        all = atMin && atMax;
+                    }
+                    if (none) {
+                        Arrays.fill(selected, offset, offset + numValues, false);
+                    }
+                    if (none || all) {
+                        return;
+                    }
+                }
+                break;
+            case STRING_DICTIONARY: {
+                Field[] dictionary = dictionary();
+                boolean[] matches = new boolean[dictionary.length];
+                for (int k = 0; k < dictionary.length; k++) {
+                    matches[k] = dictionary[k].compare(op, operand);
+                }
+                int[] codes = new int[numValues];
+                unpack(data, codesOffset(), data[codesOffset() - 1], codes, numValues);
+                for (int i = 0; i < numValues; i++) {
+                    if (!matches[codes[i]]) selected[offset + i] = false;
+                }
+                return;
+            }
+            default:
+                break;
+        }
+        if (encoding == Encoding.STRING_PLAIN || !(operand instanceof IntField)) {
+            Field[] values = fields();
+            for (int i = 0; i < numValues; i++) {
+                if (!values[i].compare(op, operand)) selected[offset + i] = false;
+            }
+            return;
+        }
+        int[] values = ints();
+        int c = ((IntField) operand).getValue();
+        for (int i = 0; i < numValues; i++) {
+            if (!Tuple.matches(op, Integer.compare(values[i], c))) selected[offset + i] = false;
+        }
+    }
+
+    /**
+     * Write the low bits of each of the first n values, one after the other,
+     * from the first bit of data at pos on.
+     */
+    static void pack(int[] values, int n, int bits, byte[] data, int pos) {
+        long acc = 0;
+        int held = 0;
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < n; i++) {
+            acc |= (values[i] & mask) << held;
+            held += bits;
+            while (held >= 8) {
+                data[pos++] = (byte) acc;
+                acc >>>= 8;
+                held -= 8;
+            }
+        }
+        if (held > 0) data[pos] = (byte) acc;
+    }
+
+    /**
+     * Read n values of the given number of bits written by {@link #pack}
+     * into values.
+     */
+    static void unpack(byte[] data, int pos, int bits, int[] values, int n) {
+        long acc = 0;
+        int held = 0;
+        long mask = (1L << bits) - 1;
+        for (int i = 0; i < n; i++) {
+            while (held < bits) {
+                acc |= (data[pos++] & 0xFFL) << held;
+                held += 8;
+            }
+            values[i] = (int) (acc & mask);
+            acc >>>= bits;
+            held -= bits;
+        }
+    }
+
+    /** @return the number of bytes n values packed in the given number of bits take */
+    static int packedSize(int n, int bits) {
+        return (int) (((long) n * bits + 7) / 8);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private static int readShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        return new ColumnPage(pid, oldData);
+    }
+
+    public void setBeforeImage() {
+        // the values of the page never change
+        oldData = data;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the ColumnPage constructor to get an identical page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        isdirty = dirty;
+        lastTid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (isdirty) {
+            return lastTid;
+        } else return null;
+    }
+}
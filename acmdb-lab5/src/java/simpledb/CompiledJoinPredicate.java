@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * CompiledJoinPredicate is a JoinPredicate compiled for tuples of two given
+ * schemas, the way {@link CompiledPredicate} is for a Predicate.
+ *
+ * @see JoinPredicate#compile
+ */
+public interface CompiledJoinPredicate {
+
+    /**
+     * @return true if t1 and t2 satisfy the predicate
+     */
+    public boolean test(Tuple t1, Tuple t2);
+}
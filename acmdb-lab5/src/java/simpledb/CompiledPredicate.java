@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * CompiledPredicate is a Predicate, or a conjunction of them, compiled for
+ * tuples of one schema: an int field compared to an int operand becomes an
+ * evaluator for that operator alone, which reads the field with
+ * {@link Tuple#getInt}, so testing a tuple neither switches on the operator
+ * nor creates or casts a Field.
+ *
+ * @see Predicate#compile
+ */
+public interface CompiledPredicate {
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    public boolean test(Tuple t);
+
+    /**
+     * @return a predicate that is true if all of the given ones are, tested
+     *         in the given order
+     */
+    public static CompiledPredicate and(List<CompiledPredicate> preds) {
+        switch (preds.size()) {
+            case 0:
+                return t -> true;
+            case 1:
+                return preds.get(0);
+            case 2: {
+                CompiledPredicate a = preds.get(0), b = preds.get(1);
+                return t -> a.test(t) && b.test(t);
+            }
+            default: {
+                CompiledPredicate[] all = preds.toArray(new CompiledPredicate[preds.size()]);
+                return t -> {
+                    for (CompiledPredicate p : all) {
+                        if (!p.test(t)) return false;
+                    }
+                    return true;
+                };
+            }
+        }
+    }
+}
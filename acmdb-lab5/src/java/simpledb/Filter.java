@@ -3,13 +3,25 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Read a batch at
+ * a time, it filters each batch of its child in place.
+ * <p>
+ * When it is opened, a Filter fuses with the Filters right below it, which is
+ * how the predicates on a table are stacked by LogicalPlan: it reads the
+ * child of the lowest of them itself and tests each tuple with the
+ * conjunction of all their predicates, compiled for the schema of the child.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private DbIterator child;
+    private transient int[] rows;
+    /** The child of the lowest Filter fused into this one. */
+    private transient DbIterator source;
+    /** The predicates of the fused Filters, the lowest first. */
+    private transient Predicate[] preds;
+    private transient CompiledPredicate compiled;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -36,6 +48,20 @@ public class Filter extends Operator {
             TransactionAbortedException {
         super.open();
         child.open();
+        ArrayList<Predicate> chain = new ArrayList<>();
+        chain.add(p);
+        source = child;
+        while (source instanceof Filter) {
+            chain.add(0, ((Filter) source).p);
+            source = ((Filter) source).child;
+        }
+        preds = chain.toArray(new Predicate[chain.size()]);
+        TupleDesc td = source.getTupleDesc();
+        ArrayList<CompiledPredicate> compiledPreds = new ArrayList<>();
+        for (Predicate pred : preds) {
+            compiledPreds.add(pred.compile(td));
+        }
+        compiled = CompiledPredicate.and(compiledPreds);
     }
 
     public void close() {
@@ -54,13 +80,32 @@ public class Filter extends Operator {
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see Predicate#compile
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
-            Tuple candidate = child.next();
-            if (p.filter(candidate)) return candidate;
+        while (source.hasNext()) {
+            Tuple candidate = source.next();
+            if (compiled.test(candidate)) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the tuples of the next batches of the child that pass the
+     * predicates, skipping batches where none do.
+     *
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(source)) != null) {
+            if (rows == null || rows.length < batch.size()) rows = new int[batch.capacity()];
+            for (Predicate pred : preds) {
+                batch.select(rows, pred.filter(batch, rows));
+                if (batch.size() == 0) break;
+            }
+            if (batch.size() > 0) return batch;
         }
         return null;
     }
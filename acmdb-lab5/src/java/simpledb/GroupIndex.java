@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * GroupIndex assigns every distinct group-by value a dense slot number
+ * 0, 1, 2, ... in order of first appearance, so aggregators can keep their
+ * per-group running state in flat arrays indexed by slot.
+ * <p>
+ * A group value is made of zero or more fields. A single INT_TYPE field is
+ * looked up in an {@link IntIntHashMap}, which avoids boxing and per-entry
+ * objects; any other single field falls back to a HashMap keyed by the Field
+ * itself, and composite values to a HashMap keyed by the list of their
+ * fields. Without grouping there is a single slot 0.
+ */
+public class GroupIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Type[] gbTypes;
+    private IntIntHashMap intSlots;
+    private int[] intKeys;
+    private HashMap<Object, Integer> fieldSlots;
+    private ArrayList<Object> fieldKeys;
+    private int size;
+
+    /**
+     * @param gbType
+     *            the type of the group-by field, or null if there is no
+     *            grouping
+     */
+    public GroupIndex(Type gbType) {
+        this(gbType == null ? new Type[0] : new Type[] { gbType });
+    }
+
+    /**
+     * @param gbTypes
+     *            the types of the group-by fields, empty if there is no
+     *            grouping
+     */
+    public GroupIndex(Type[] gbTypes) {
+        this.gbTypes = gbTypes.clone();
+        clear();
+    }
+
+    private boolean isIntKey() {
+        return gbTypes.length == 1 && gbTypes[0] == Type.INT_TYPE;
+    }
+
+    /**
+     * @return the slot of the given group value, allocating a new slot if
+     *         the value has not been seen before. Ignored if there is no
+     *         grouping.
+     * @throws IllegalStateException if group values have several fields
+     */
+    public int slotOf(Field key) {
+        if (gbTypes.length > 1)
+            throw new IllegalStateException("composite group values need slotOf(Tuple, int[])");
+        if (gbTypes.length == 0) {
+            if (size == 0)
+                size = 1;
+            return 0;
+        }
+        if (isIntKey())
+            return slotOf(((IntField) key).getValue());
+        return genericSlotOf(key);
+    }
+
+    /**
+     * @return the slot of the given value of a single INT_TYPE group-by
+     *         field, allocating a new slot if the value has not been seen
+     *         before
+     */
+    public int slotOf(int k) {
+        int slot = intSlots.get(k);
+        if (slot == IntIntHashMap.NO_VALUE) {
+            slot = size++;
+            intSlots.put(k, slot);
+            if (slot == intKeys.length)
+                intKeys = Arrays.copyOf(intKeys, slot * 2);
+            intKeys[slot] = k;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot of the group value made of the given fields of tup,
+     *         allocating a new slot if the value has not been seen before.
+     */
+    public int slotOf(Tuple tup, int[] fields) {
+        if (fields.length <= 1)
+            return slotOf(fields.length == 0 ? null : tup.getField(fields[0]));
+        return genericSlotOf(compositeKey(tup, fields));
+    }
+
+    private int genericSlotOf(Object key) {
+        Integer slot = fieldSlots.get(key);
+        if (slot == null) {
+            slot = size++;
+            fieldSlots.put(key, slot);
+            fieldKeys.add(key);
+        }
+        return slot;
+    }
+
+    private static List<Field> compositeKey(Tuple tup, int[] fields) {
+        Field[] key = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            key[i] = tup.getField(fields[i]);
+        return Arrays.asList(key);
+    }
+
+    /** @return true if the given group value already has a slot */
+    public boolean contains(Field key) {
+        if (gbTypes.length == 0)
+            return size > 0;
+        if (isIntKey())
+            return intSlots.get(((IntField) key).getValue()) != IntIntHashMap.NO_VALUE;
+        return fieldSlots.containsKey(key);
+    }
+
+    /**
+     * @return true if the group value made of the given fields of tup
+     *         already has a slot
+     */
+    public boolean contains(Tuple tup, int[] fields) {
+        if (fields.length <= 1)
+            return contains(fields.length == 0 ? null : tup.getField(fields[0]));
+        return fieldSlots.containsKey(compositeKey(tup, fields));
+    }
+
+    /** @return the group value of a slot, or null if there is no grouping */
+    public Field keyOf(int slot) {
+        return gbTypes.length == 0 ? null : keyOf(slot, 0);
+    }
+
+    /** @return field i of the group value of a slot */
+    public Field keyOf(int slot, int i) {
+        if (isIntKey())
+            return new IntField(intKeys[slot]);
+        Object key = fieldKeys.get(slot);
+        if (gbTypes.length == 1)
+            return (Field) key;
+        return (Field) ((List<?>) key).get(i);
+    }
+
+    /** @return the number of groups seen so far */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        intSlots = null;
+        fieldSlots = null;
+        if (isIntKey()) {
+            intSlots = new IntIntHashMap();
+            intKeys = new int[16];
+        } else if (gbTypes.length > 0) {
+            fieldSlots = new HashMap<Object, Integer>();
+            fieldKeys = new ArrayList<Object>();
+        }
+    }
+}
@@ -4,16 +4,45 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin reads the left child into a hash table on its join field when
+ * it is opened, then probes it with the right child a batch at a time. The
+ * tuples of the left child with equal keys are chained by their position, so
+ * the table is an {@link IntIntHashMap} from each int key to the first of
+ * them. Other predicates than EQUALS compare each probe tuple to every tuple
+ * of the left child.
+ * <p>
+ * Once the table is built, an equi-join pushes a Bloom filter of its keys
+ * into the scan its right child reads the probe keys from, through Filters,
+ * Projects and other joins, so that the scan drops the tuples that cannot
+ * join. The right child is only opened after that.
+ *
+ * @see JoinFilter
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The chain position meaning there is no further match. */
+    private static final int NO_MATCH = -1;
+
     private JoinPredicate jp;
     private DbIterator child1, child2;
     private TupleDesc mergedTD;
-    private Tuple t1, t2;
-    private ArrayList<Tuple> joinedArray;
-    private Iterator<Tuple> joinedIterator;
+    private transient ArrayList<Tuple> build;
+    private transient int[] chain;
+    private transient IntIntHashMap intHeads;
+    private transient HashMap<Field, Integer> fieldHeads;
+    private transient boolean comparable;
+    private transient CompiledJoinPredicate compiled;
+    private transient TupleBatch probe, out;
+    private transient Tuple probeTuple;
+    private transient int probeRow, match, outRow;
+    private boolean runtimeFilter = true;
+    /** The filter pushed into the probe side, once it has been. */
+    private transient JoinFilter joinFilter;
+    private transient boolean joinFilterPushed;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -45,50 +74,236 @@ public class HashEquiJoin extends Operator {
         return child2.getTupleDesc().getFieldName(jp.getField2());
     }
 
+    /**
+     * Set whether the join pushes a filter of its keys into its probe side,
+     * which it does by default; it takes effect when the join is next opened.
+     */
+    public void setRuntimeFilter(boolean runtimeFilter) {
+        this.runtimeFilter = runtimeFilter;
+    }
+
+    /**
+     * @return the filter this join pushed into the scan of its probe side,
+     *         or null if it did not push one
+     */
+    public JoinFilter getJoinFilter() {
+        return joinFilter;
+    }
+
+    private boolean isEqui() {
+        return jp.getOperator() == Predicate.Op.EQUALS;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
         child1.open();
-        child2.open();
-        joinedArray = new ArrayList<>();
-        ArrayList<Tuple> tmp = new ArrayList<>();
-        while (child1.hasNext()) {
-            tmp.add(child1.next());
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(child1)) != null) {
+            for (int r = 0; r < batch.size(); r++) {
+                tuples.add(batch.getTuple(r));
+            }
         }
-        while (child2.hasNext()) {
-            Tuple t2 = child2.next();
-            for (Tuple t : tmp) {
-                if (jp.filter(t, t2)) {
-                    joinedArray.add(Tuple.merge(mergedTD, t, t2));
+        buildTable(tuples);
+        child2.open();
+        startProbe();
+    }
+
+    /**
+     * Find the scan the right child reads field from, following the field
+     * through the operators that keep it as it is.
+     *
+     * @return the scan, with the field of its tuples in field[0], or null if
+     *         the field does not come straight from a scan
+     */
+    private static SeqScan probeScan(DbIterator node, int[] field) {
+        while (true) {
+            if (node instanceof SeqScan) {
+                return (SeqScan) node;
+            } else if (node instanceof Filter) {
+                node = ((Filter) node).getChildren()[0];
+            } else if (node instanceof Project) {
+                field[0] = ((Project) node).fieldIds()[field[0]];
+                node = ((Project) node).getChildren()[0];
+            } else if (node instanceof HashEquiJoin || node instanceof Join) {
+                DbIterator[] children = ((Operator) node).getChildren();
+                int leftWidth = children[0].getTupleDesc().numFields();
+                if (field[0] < leftWidth) {
+                    node = children[0];
+                } else {
+                    field[0] -= leftWidth;
+                    node = children[1];
                 }
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Set the filter of the probe side to the keys of the table, pushing it
+     * down the first time.
+     */
+    private void pushJoinFilter() {
+        if (!runtimeFilter) {
+            if (joinFilter != null) joinFilter.setKeys(null);
+            return;
+        }
+        if (!joinFilterPushed) {
+            joinFilterPushed = true;
+            if (!isEqui() || !comparable) return;
+            int[] field = { jp.getField2() };
+            SeqScan scan = probeScan(child2, field);
+            if (scan == null) return;
+            joinFilter = new JoinFilter(field[0], child2.getTupleDesc().getFieldType(jp.getField2()));
+            scan.addJoinFilter(joinFilter);
+        }
+        if (joinFilter == null) return;
+        BloomFilter keys = new BloomFilter(build.size());
+        int f1 = jp.getField1();
+        for (Tuple t : build) {
+            if (intHeads != null) {
+                keys.add(t.getInt(f1));
+            } else {
+                keys.add(t.getField(f1));
+            }
+        }
+        joinFilter.setKeys(keys);
+    }
+
+    /**
+     * Build the hash table over the tuples of the left child, and push the
+     * filter of its keys into the probe side.
+     */
+    void buildTable(ArrayList<Tuple> tuples) {
+        build = tuples;
+        int f1 = jp.getField1();
+        Type keyType = child1.getTupleDesc().getFieldType(f1);
+        comparable = keyType == child2.getTupleDesc().getFieldType(jp.getField2());
+        compiled = jp.compile(child1.getTupleDesc(), child2.getTupleDesc());
+        chain = new int[build.size()];
+        intHeads = null;
+        fieldHeads = null;
+        if (isEqui() && keyType == Type.INT_TYPE) {
+            intHeads = new IntIntHashMap(build.size());
+        } else if (isEqui()) {
+            fieldHeads = new HashMap<>();
+        }
+        // insert from the end, so that each chain is in the order of the child
+        for (int i = build.size() - 1; i >= 0; i--) {
+            if (intHeads != null) {
+                int k = build.get(i).getInt(f1);
+                chain[i] = intHeads.get(k);
+                intHeads.put(k, i);
+            } else if (fieldHeads != null) {
+                Integer head = fieldHeads.put(build.get(i).getField(f1), i);
+                chain[i] = head == null ? NO_MATCH : head;
             }
         }
-        joinedIterator = joinedArray.iterator();
+        pushJoinFilter();
+    }
+
+    /**
+     * Push the joins of a tuple of the right child with the tuples of the
+     * left child to out, once the table is built; used by {@link PushEngine}.
+     */
+    void probe(Tuple right, TupleSink out) throws DbException, TransactionAbortedException {
+        if (!isEqui()) {
+            for (Tuple left : build) {
+                if (compiled.test(left, right)) out.push(Tuple.merge(mergedTD, left, right));
+            }
+            return;
+        }
+        if (!comparable) return;
+        int f2 = jp.getField2();
+        int m;
+        if (intHeads != null) {
+            m = intHeads.get(right.getInt(f2));
+        } else {
+            Integer head = fieldHeads.get(right.getField(f2));
+            m = head == null ? NO_MATCH : head;
+        }
+        for (; m != NO_MATCH; m = chain[m]) {
+            out.push(Tuple.merge(mergedTD, build.get(m), right));
+        }
+    }
+
+    private void startProbe() {
+        probe = null;
+        probeTuple = null;
+        out = null;
+        match = NO_MATCH;
     }
 
     public void close() {
         this.child1.close();
         this.child2.close();
-
+        build = null;
+        chain = null;
+        intHeads = null;
+        fieldHeads = null;
+        startProbe();
         super.close();
-
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
         child2.rewind();
-        joinedIterator = joinedArray.iterator();
-        t1 = null;
-        t2 = null;
+        startProbe();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * @return the position in build of the first tuple that may join the
+     *         probe tuple in probeRow, or NO_MATCH
+     */
+    private int firstMatch() {
+        if (!isEqui()) {
+            probeTuple = probe.getTuple(probeRow);
+            return build.isEmpty() ? NO_MATCH : 0;
+        }
+        if (!comparable) return NO_MATCH;
+        int f2 = jp.getField2();
+        if (intHeads != null) {
+            return intHeads.get(probe.intColumn(f2)[probeRow]);
+        }
+        Integer head = fieldHeads.get(probe.getField(probeRow, f2));
+        return head == null ? NO_MATCH : head;
+    }
+
+    /**
+     * Returns the next batch of joined tuples. Each batch of the right child
+     * is looked up row by row in the hash table, and the tuples joined with
+     * each row are added to the result until it is full.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch result = new TupleBatch(mergedTD);
+        while (!result.isFull()) {
+            if (match != NO_MATCH) {
+                Tuple left = build.get(match);
+                if (isEqui()) {
+                    match = chain[match];
+                    result.addJoined(left, probe, probeRow);
+                } else {
+                    match = match + 1 < build.size() ? match + 1 : NO_MATCH;
+                    if (compiled.test(left, probeTuple)) result.addJoined(left, probe, probeRow);
+                }
+                continue;
+            }
+            if (probe == null || ++probeRow == probe.size()) {
+                probe = TupleBatch.next(child2);
+                if (probe == null) break;
+                probeRow = 0;
+            }
+            match = firstMatch();
+        }
+        return result.size() == 0 ? null : result;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate; the tuples are taken from the batches of
+     * {@link #nextBatch}.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -103,28 +318,12 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (joinedIterator.hasNext()) {
-            return joinedIterator.next();
+        if (out == null || outRow == out.size()) {
+            out = nextBatch();
+            outRow = 0;
+            if (out == null) return null;
         }
-        return null;
-        /*if (t1 == null && t2 == null) {
-            t1 = child1.next();
-            t2 = child2.next();
-            if (jp.filter(t1, t2)) return Tuple.merge(mergedTD, t1, t2);
-        }
-        while (true) {
-            if (child2.hasNext()) {
-                t2 = child2.next();
-                if (jp.filter(t1, t2)) return Tuple.merge(mergedTD, t1, t2);
-            } else {
-                if (child1.hasNext()) {
-                    t1 = child1.next();
-                    child2.rewind();
-                    t2 = child2.next();
-                    if (jp.filter(t1, t2)) return Tuple.merge(mergedTD, t1, t2);
-                } else return null;
-            }
-        }*/
+        return out.getTuple(outRow++);
     }
 
     @Override
@@ -137,6 +336,10 @@ public class HashEquiJoin extends Operator {
 
     @Override
     public void setChildren(DbIterator[] children) {
+        // the old probe side passes all of its tuples again
+        if (joinFilter != null) joinFilter.setKeys(null);
+        joinFilter = null;
+        joinFilterPushed = false;
         this.child1 = children[0];
         this.child2 = children[1];
     }
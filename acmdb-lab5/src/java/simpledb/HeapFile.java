@@ -9,6 +9,15 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile may be created as slotted, for tables with string fields: its
+ * pages then store each tuple in the space its values take, rather than in
+ * a slot the size of the largest possible tuple, so short strings pack many
+ * more tuples per page.
+ * <p>
+ * A HeapFile keeps a {@link ZoneMap} of its pages, the range of the values
+ * of each field on each page, which a scan with predicates uses to skip the
+ * pages that cannot hold a tuple satisfying them.
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
@@ -18,10 +27,30 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    private final boolean slotted;
+    private final ZoneMap zones;
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param slotted true if the pages of the file are slotted pages, whose
+     *                tuples vary in length
+     * @see HeapPage#HeapPage
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
         this.f = f;
         this.td = td;
+        this.slotted = slotted;
+        this.zones = new ZoneMap(ZoneMap.zoneFile(f), td);
+    }
+
+    /**
+     * @return true if the pages of this file are slotted pages
+     */
+    public boolean isSlotted() {
+        return slotted;
     }
 
     public File getFile() {
@@ -65,8 +94,18 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * @return the zones of the pages of this file
+     */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
+        // the zone is written first, so that it covers the page on disk even
+        // if the page is not written
+        zones.update((HeapPage) page);
         byte[] pageData = page.getPageData();
         RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw");
         randomAccessFile.seek(page.getId().pageNumber() * BufferPool.getPageSize());
@@ -91,6 +130,7 @@ public class HeapFile implements DbFile {
             HeapPage tmpPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             try {
                 tmpPage.insertTuple(t);
+                zones.include(i, t);
                 dirtyPages.add(tmpPage);
                 return dirtyPages;
             } catch (DbException e) {
@@ -100,6 +140,7 @@ public class HeapFile implements DbFile {
         writePage(newPage);
         newPage = (HeapPage)Database.getBufferPool().getPage(tid, newPage.getId(), Permissions.READ_WRITE);
         newPage.insertTuple(t);
+        zones.include(pageNum, t);
         dirtyPages.add(newPage);
         return dirtyPages;
     }
@@ -119,5 +160,18 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of the pages of this file that may
+     * hold tuples satisfying all of the given predicates, according to the
+     * zones of the pages; the others are not read. The tuples of the pages
+     * read are all returned, whether they satisfy the predicates or not.
+     *
+     * @param predicates the predicates, on the fields of the tuples of the file
+     * @see ZoneMap#mayMatch
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(this, tid, predicates);
+    }
+
 }
 
@@ -2,13 +2,16 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. The pages are fixed-slot pages, or slotted pages if asked
+ * for.
  */
 
 public class HeapFileEncoder {
@@ -66,6 +69,74 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /** Convert the specified input text file into a binary page file of
+   * fixed-slot pages, or of slotted pages, in the format described in
+   * HeapPage, for a HeapFile created as slotted.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   * @see HeapFile#isSlotted
+   * @param slotted whether to write slotted pages
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean slotted)
+      throws IOException {
+      if (!slotted) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      int maxSlots = HeapPage.getMaxSlots(td, npagebytes);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      ZoneMap.zoneFile(outFile).delete();
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int space = HeapPage.SLOTTED_HEADER_SIZE;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (values.length != numFields) {
+              br.close();
+              os.close();
+              throw new IOException("BAD LINE : " + line);
+          }
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++) {
+              String s = values[i].trim();
+              if (typeAr[i] == Type.INT_TYPE) {
+                  try {
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  } catch (NumberFormatException e) {
+                      br.close();
+                      os.close();
+                      throw new IOException("BAD LINE : " + line);
+                  }
+              } else {
+                  t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          }
+          int size = HeapPage.SLOT_SIZE + HeapPage.getSlottedSize(td, t);
+          // start a new page when the tuple does not fit on this one
+          if (page.size() == maxSlots || space + size > npagebytes) {
+              os.write(HeapPage.createSlottedPageData(td, page, npagebytes));
+              npages++;
+              page.clear();
+              space = HeapPage.SLOTTED_HEADER_SIZE;
+          }
+          page.add(t);
+          space += size;
+      }
+      // write the last page, or an empty page if the file is empty
+      if (!page.isEmpty() || npages == 0)
+          os.write(HeapPage.createSlottedPageData(td, page, npagebytes));
+      br.close();
+      os.close();
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -106,6 +177,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the zones of the pages the file had are not those of the new ones
+    ZoneMap.zoneFile(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -1,6 +1,8 @@
 package simpledb;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HeapFileIterator implements DbFileIterator {
@@ -8,12 +10,25 @@ public class HeapFileIterator implements DbFileIterator {
     private HeapPage heapPage;
     private Iterator<Tuple> iterator;
     private TransactionId tid;
+    /** The predicates the pages read may hold tuples for, by their zones. */
+    private List<Predicate> predicates;
     private int curPageId;
     private boolean closed;
     private Tuple next;
     public HeapFileIterator(HeapFile hf, TransactionId tid) {
+        this(hf, tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Creates an iterator that skips the pages whose zones show that they
+     * hold no tuple satisfying all of the given predicates.
+     *
+     * @see HeapFile#iterator(TransactionId, List)
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, List<Predicate> predicates) {
         this.heapFile = hf;
         this.tid = tid;
+        this.predicates = predicates;
         this.curPageId = 0;
         closed = true;
     }
@@ -21,10 +36,9 @@ public class HeapFileIterator implements DbFileIterator {
     @Override
     public void open() throws DbException, TransactionAbortedException {
         closed = false;
-        curPageId = 0;
-        HeapPageId pid = new HeapPageId(heapFile.getId(), curPageId);
-        heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-        iterator = heapPage.iterator();
+        next = null;
+        curPageId = -1;
+        iterator = Collections.<Tuple>emptyList().iterator();
     }
 
     @Override
@@ -37,29 +51,34 @@ public class HeapFileIterator implements DbFileIterator {
         return next != null;
     }
 
-    public Tuple fetchNext() throws DbException {
+    public Tuple fetchNext() throws DbException, TransactionAbortedException {
         if (closed) {
             return null;
         }
-        if (iterator.hasNext()) {
-            return iterator.next();
-        }
-        while (true) {
+        while (!iterator.hasNext()) {
             curPageId++;
             if (curPageId >= heapFile.numPages()) {
                 return null;
             }
+            ZoneMap zones = heapFile.getZoneMap();
+            if (!predicates.isEmpty() && !zones.mayMatch(curPageId, predicates)) {
+                continue;
+            }
             HeapPageId pid = new HeapPageId(heapFile.getId(), curPageId);
-            try {
-                heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            } catch (TransactionAbortedException | DbException e) {
-                e.printStackTrace();
+            heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            if (!predicates.isEmpty() && !zones.isKnown(curPageId) && heapPage.isDirty() == null) {
+                // the page is as it is on disk, so its zone can be stored;
+                // scans without predicates do not decode every field for it
+                try {
+                    zones.update(heapPage);
+                } catch (java.io.IOException e) {
+                    // the zone stays unknown, and the page is read by the
+                    // scans that could have skipped it
+                }
             }
             iterator = heapPage.iterator();
-            if (iterator.hasNext()) {
-                return iterator.next();
-            }
         }
+        return iterator.next();
     }
 
     @Override
@@ -2,6 +2,11 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -12,11 +17,23 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /** The bytes of a slotted page before its slot directory. */
+    static final int SLOTTED_HEADER_SIZE = 4;
+    /** The size of an entry of the slot directory of a slotted page. */
+    static final int SLOT_SIZE = 4;
+
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    /**
+     * The bytes the page was read from, which the tuples are views on, or
+     * the bytes of a slotted page, which are updated in place.
+     */
+    final byte data[];
     final Tuple tuples[];
     final int numSlots;
+    /** True for a slotted page, whose tuples vary in length. */
+    final boolean slotted;
     private TransactionId lastTid;
     private boolean isdirty;
 
@@ -35,6 +52,22 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps the bytes it was read from, and its tuples are views
+     * on them that only decode a field when it is asked for, so the bytes
+     * must not change afterwards.
+     * <p>
+     * Pages of a HeapFile created as slotted are slotted pages instead, so
+     * that each tuple only takes the space of its values: the number of
+     * entries of the slot directory and the offset of the first byte of the
+     * tuples, as 2-byte values, then the directory, with the 2-byte offset
+     * and length of the tuple in each slot, or zeroes for an empty slot. The
+     * tuples are packed at the end of the page, and each string of a tuple
+     * is stored as its length in one byte followed by its characters. Tuples
+     * are inserted as long as they fit in the free space between the
+     * directory and the tuples; when it is too small but deletes have left
+     * enough room, the tuples are first moved together again. A tuple never
+     * changes slots, so its RecordId stays valid as long as it is on the
+     * page.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
@@ -43,6 +76,16 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.slotted = file instanceof HeapFile && ((HeapFile) file).isSlotted();
+        if (slotted) {
+            this.numSlots = getMaxSlots(td, BufferPool.getPageSize());
+            this.header = new byte[0];
+            this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+            this.tuples = new Tuple[numSlots];
+            setBeforeImage();
+            return;
+        }
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -51,16 +94,12 @@ public class HeapPage implements Page {
         for (int i = 0; i < header.length; i++)
             header[i] = dis.readByte();
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
         dis.close();
 
+        // the tuples are created when they are first asked for
+        this.data = data;
+        tuples = new Tuple[numSlots];
+
         setBeforeImage();
     }
 
@@ -68,6 +107,188 @@ public class HeapPage implements Page {
         return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
+    /**
+     * @return the most slots a slotted page of the given size can have,
+     *         which is the number of the smallest possible tuples that fit
+     */
+    static int getMaxSlots(TupleDesc td, int pageSize) {
+        int minTupleSize = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            minTupleSize += td.getFieldType(i) == Type.STRING_TYPE ? 1 : td.getFieldType(i).getLen();
+        return Math.min((pageSize - SLOTTED_HEADER_SIZE) / (SLOT_SIZE + minTupleSize), 0xFFFF);
+    }
+
+    /**
+     * @return the number of bytes the given tuple takes on a slotted page,
+     *         not counting its slot
+     */
+    static int getSlottedSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 1 + stringOf(t.getField(i)).length;
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes of a string field that are stored on a slotted page:
+     *         its UTF-8 encoding, cut after the last whole character that
+     *         fits in 255 bytes
+     */
+    private static byte[] stringOf(Field f) {
+        String s = ((StringField) f).getValue();
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length <= 0xFF)
+            return b;
+        // the encoder stops before a character that does not fit whole
+        CharsetEncoder enc = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer out = ByteBuffer.allocate(0xFF);
+        enc.encode(CharBuffer.wrap(s), out, true);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Write the fields of a tuple to a slotted page at the given offset.
+     */
+    private static void writeSlotted(TupleDesc td, Tuple t, byte[] data, int pos) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                byte[] s = stringOf(f);
+                data[pos++] = (byte) s.length;
+                System.arraycopy(s, 0, data, pos, s.length);
+                pos += s.length;
+            } else {
+                int v = ((IntField) f).getValue();
+                data[pos++] = (byte) (v >>> 24);
+                data[pos++] = (byte) (v >>> 16);
+                data[pos++] = (byte) (v >>> 8);
+                data[pos++] = (byte) v;
+            }
+        }
+    }
+
+    /**
+     * Generates the bytes of a slotted page holding the given tuples, in
+     * its first slots.
+     *
+     * @throws IllegalArgumentException if they do not fit on the page
+     */
+    static byte[] createSlottedPageData(TupleDesc td, List<Tuple> tuples, int pageSize) {
+        byte[] data = new byte[pageSize];
+        if (tuples.size() > getMaxSlots(td, pageSize))
+            throw new IllegalArgumentException("too many tuples for a page");
+        int start = pageSize;
+        for (int i = 0; i < tuples.size(); i++) {
+            int size = getSlottedSize(td, tuples.get(i));
+            start -= size;
+            if (start < SLOTTED_HEADER_SIZE + tuples.size() * SLOT_SIZE)
+                throw new IllegalArgumentException("tuples overflow the page");
+            writeSlotted(td, tuples.get(i), data, start);
+            writeShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE, start);
+            writeShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE + 2, size);
+        }
+        writeShort(data, 0, tuples.size());
+        writeShort(data, 2, start);
+        return data;
+    }
+
+    private static int readShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static void writeShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >>> 8);
+        b[pos + 1] = (byte) value;
+    }
+
+    /** @return the number of entries of the slot directory of a slotted page */
+    private int directorySize() {
+        return readShort(data, 0);
+    }
+
+    /** @return the offset of the first byte of the tuples of a slotted page */
+    private int tuplesStart() {
+        int start = readShort(data, 2);
+        // the tuples of an empty page start at its end
+        return start == 0 ? data.length : start;
+    }
+
+    /** @return the offset of the tuple in slot i of a slotted page, or 0 */
+    private int slotOffset(int i) {
+        return readShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    /** @return the length of the tuple in slot i of a slotted page */
+    private int slotLength(int i) {
+        return readShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        writeShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE, offset);
+        writeShort(data, SLOTTED_HEADER_SIZE + i * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the tuple in slot i of a slotted page, decoded from its bytes
+     */
+    private Tuple readSlotted(int i) {
+        Tuple t = new Tuple(td);
+        int pos = slotOffset(i);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = data[pos] & 0xFF;
+                t.setField(j, new StringField(new String(data, pos + 1, len, StandardCharsets.UTF_8),
+                        Type.STRING_LEN));
+                pos += 1 + len;
+            } else {
+                t.setField(j, new IntField((data[pos] << 24) | ((data[pos + 1] & 0xFF) << 16)
+                        | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF)));
+                pos += 4;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the bytes of a slotted page not taken by its header, its slot
+     *         directory and its tuples, including those left between the
+     *         tuples by deletes
+     */
+    private int getFreeSpace() {
+        int used = SLOTTED_HEADER_SIZE + directorySize() * SLOT_SIZE;
+        for (int i = 0; i < directorySize(); i++)
+            used += slotLength(i);
+        return data.length - used;
+    }
+
+    /**
+     * Move the tuples of a slotted page together at the end of the page, so
+     * that the space deletes left between them is free again. The tuples
+     * keep their slots.
+     */
+    private void compact() {
+        byte[] old = data.clone();
+        int start = data.length;
+        for (int i = 0; i < directorySize(); i++) {
+            if (slotOffset(i) == 0)
+                continue;
+            int length = slotLength(i);
+            start -= length;
+            System.arraycopy(old, slotOffset(i), data, start, length);
+            setSlot(i, start, length);
+        }
+        Arrays.fill(data, SLOTTED_HEADER_SIZE + directorySize() * SLOT_SIZE, start, (byte) 0);
+        writeShort(data, 2, start);
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
@@ -105,36 +326,16 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, which must be used, created as a view on
+     * the bytes of the page if it has not been yet
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    private synchronized Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = slotted ? readSlotted(i) : new Tuple(td, data, header.length + i * td.getSize());
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
         }
-
         return t;
     }
 
@@ -150,6 +351,11 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
+        if (slotted) {
+            synchronized (this) {
+                return data.clone();
+            }
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -180,7 +386,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot, copied as it was read if the tuple has not been
+            // asked for since
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, header.length + i * td.getSize(), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j = 0; j < td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
@@ -240,9 +455,56 @@ public class HeapPage implements Page {
         if (!isSlotUsed(recordId.tupleno())) {
             throw new DbException("Slot already empty.");
         }
+        if (slotted) {
+            deleteSlotted(recordId.tupleno());
+            return;
+        }
         markSlotUsed(recordId.tupleno(), false);
     }
 
+    /**
+     * Empty slot i of a slotted page. Its bytes are only reclaimed by the
+     * next compaction, but the empty slots at the end of the directory are
+     * removed from it.
+     */
+    private synchronized void deleteSlotted(int i) {
+        setSlot(i, 0, 0);
+        tuples[i] = null;
+        int n = directorySize();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        writeShort(data, 0, n);
+        if (n == 0)
+            writeShort(data, 2, 0);
+    }
+
+    /**
+     * Add a tuple to a slotted page, in its first empty slot, compacting
+     * the page first if the tuple does not fit in its free space otherwise.
+     */
+    private synchronized void insertSlotted(Tuple t) throws DbException {
+        int slot = 0;
+        int n = directorySize();
+        while (slot < n && slotOffset(slot) != 0)
+            slot++;
+        if (slot == numSlots)
+            throw new DbException("No empty slots in HeapPage.");
+        int size = getSlottedSize(td, t);
+        int directoryEnd = SLOTTED_HEADER_SIZE + Math.max(n, slot + 1) * SLOT_SIZE;
+        if (size + (slot == n ? SLOT_SIZE : 0) > getFreeSpace())
+            throw new DbException("Not enough space in HeapPage.");
+        if (tuplesStart() - size < directoryEnd)
+            compact();
+        int start = tuplesStart() - size;
+        writeSlotted(td, t, data, start);
+        writeShort(data, 2, start);
+        if (slot == n)
+            writeShort(data, 0, n + 1);
+        setSlot(slot, start, size);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(this.pid, slot));
+    }
+
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      * that it is now stored on this page.
@@ -255,6 +517,10 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(td)) {
             throw new DbException("Mismatch td");
         }
+        if (slotted) {
+            insertSlotted(t);
+            return;
+        }
         for (int i = 0; i < this.numSlots; i++) {
             if (!isSlotUsed(i)) {
                 this.tuples[i] = t;
@@ -285,9 +551,20 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. On a slotted page, this
+     * is the number of tuples of the greatest length that can still be
+     * inserted.
      */
     public int getNumEmptySlots() {
+        if (slotted) {
+            int numUsed = 0;
+            for (int i = 0; i < numSlots; i++)
+                if (isSlotUsed(i)) numUsed++;
+            int maxSize = SLOT_SIZE;
+            for (int i = 0; i < td.numFields(); i++)
+                maxSize += td.getFieldType(i) == Type.STRING_TYPE ? 1 + Type.STRING_LEN : td.getFieldType(i).getLen();
+            return Math.min(numSlots - numUsed, getFreeSpace() / maxSize);
+        }
         int numUsed = 0;
         for (int i = 0; i < numSlots; i++) {
             numUsed += getBit(header, i);
@@ -314,10 +591,21 @@ public class HeapPage implements Page {
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
+        if (slotted)
+            return i < directorySize() && slotOffset(i) != 0;
         int bit = getBit(header, i);
         return bit != 0;
     }
 
+    /**
+     * Returns the tuple in the given slot of this page, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tupleAt(i);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -333,7 +621,7 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         ArrayList<Tuple> tupleArrayList = new ArrayList<>();
         for (int i = 0; i < numSlots; i++) {
-            if (getBit(header, i) == 1) tupleArrayList.add(tuples[i]);
+            if (isSlotUsed(i)) tupleArrayList.add(tupleAt(i));
         }
         return tupleArrayList.iterator();
     }
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.Serializable;
+
+import simpledb.Predicate.Op;
+
+/**
+ * IndexRange is an interval of the values of a field which has an index on
+ * it. Each side of the interval is either unbounded or bounded by a value,
+ * which is either included in the interval or not. A B+ tree scan of a range
+ * starts at the leaf holding one of its bounds and stops past the other, so
+ * it only reads the leaves in between.
+ *
+ * @see BTreeFile#indexIterator(TransactionId, IndexRange, boolean)
+ */
+public class IndexRange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The range of all values. */
+    public static final IndexRange ALL = new IndexRange(null, false, null, false);
+
+    private final Field low;
+    private final boolean lowInclusive;
+    private final Field high;
+    private final boolean highInclusive;
+
+    /**
+     * Constructor.
+     *
+     * @param low           the lower bound, or null if there is none
+     * @param lowInclusive  true if values equal to the lower bound are in the range
+     * @param high          the upper bound, or null if there is none
+     * @param highInclusive true if values equal to the upper bound are in the range
+     */
+    public IndexRange(Field low, boolean lowInclusive, Field high, boolean highInclusive) {
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+    }
+
+    /**
+     * @return the range of values that satisfy the index predicate, or null
+     *         if its operation does not select a range (NOT_EQUALS, LIKE)
+     */
+    public static IndexRange of(IndexPredicate ipred) {
+        Field f = ipred.getField();
+        switch (ipred.getOp()) {
+            case EQUALS:
+                return new IndexRange(f, true, f, true);
+            case GREATER_THAN:
+                return new IndexRange(f, false, null, false);
+            case GREATER_THAN_OR_EQ:
+                return new IndexRange(f, true, null, false);
+            case LESS_THAN:
+                return new IndexRange(null, false, f, false);
+            case LESS_THAN_OR_EQ:
+                return new IndexRange(null, false, f, true);
+            default:
+                return null;
+        }
+    }
+
+    public Field getLow() {
+        return low;
+    }
+
+    public boolean isLowInclusive() {
+        return lowInclusive;
+    }
+
+    public Field getHigh() {
+        return high;
+    }
+
+    public boolean isHighInclusive() {
+        return highInclusive;
+    }
+
+    /**
+     * @return the range of the values in both this range and the other
+     */
+    public IndexRange intersect(IndexRange other) {
+        Field l = low, h = high;
+        boolean li = lowInclusive, hi = highInclusive;
+        if (l == null || (other.low != null && other.low.compare(Op.GREATER_THAN, l))) {
+            l = other.low;
+            li = other.lowInclusive;
+        } else if (other.low != null && other.low.equals(l)) {
+            li &= other.lowInclusive;
+        }
+        if (h == null || (other.high != null && other.high.compare(Op.LESS_THAN, h))) {
+            h = other.high;
+            hi = other.highInclusive;
+        } else if (other.high != null && other.high.equals(h)) {
+            hi &= other.highInclusive;
+        }
+        return new IndexRange(l, li, h, hi);
+    }
+
+    /**
+     * @return true if f is less than every value of the range
+     */
+    public boolean isBelow(Field f) {
+        return low != null && (lowInclusive ? f.compare(Op.LESS_THAN, low) : f.compare(Op.LESS_THAN_OR_EQ, low));
+    }
+
+    /**
+     * @return true if f is greater than every value of the range
+     */
+    public boolean isAbove(Field f) {
+        return high != null
+                && (highInclusive ? f.compare(Op.GREATER_THAN, high) : f.compare(Op.GREATER_THAN_OR_EQ, high));
+    }
+
+    /**
+     * @return true if f is in the range
+     */
+    public boolean contains(Field f) {
+        return !isBelow(f) && !isAbove(f);
+    }
+
+    public String toString() {
+        return (low == null ? "(-inf" : (lowInclusive ? "[" : "(") + low) + ", "
+                + (high == null ? "+inf)" : high + (highInclusive ? "]" : ")"));
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A hash map from int keys to non-negative int values that stores both in
+ * flat primitive arrays (open addressing with linear probing), so lookups
+ * and inserts neither box the key nor allocate an entry object.
+ */
+public class IntIntHashMap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Value returned by {@link #get} for keys that are not in the map. */
+    public static final int NO_VALUE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys the map should hold without resizing
+     */
+    public IntIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int indexFor(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return the value mapped to key, or {@link #NO_VALUE} if there is none */
+    public int get(int key) {
+        for (int i = indexFor(key); values[i] != NO_VALUE; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Map key to value, replacing any previous mapping.
+     *
+     * @throws IllegalArgumentException if value is negative
+     */
+    public void put(int key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("IntIntHashMap values must be non-negative");
+        int i = indexFor(key);
+        while (values[i] != NO_VALUE) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length)
+            rehash();
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys, oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+    }
+}
@@ -1,16 +1,31 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Aggregates are computed incrementally: each group keeps a running count,
+ * sum, min and max in flat arrays indexed by the group's {@link GroupIndex}
+ * slot, so memory use is proportional to the number of groups rather than
+ * the number of tuples merged. {@link MultiAggregator} keeps the groups of
+ * several aggregates itself and merges values into each by slot.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private int gbField, aField;
+    private Type gbFieldType;
+    private Op what;
+    private String gbFieldName;
+    private GroupIndex groups;
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+
     /**
      * Aggregate constructor
      *
@@ -24,20 +39,21 @@ public class IntegerAggregator implements Aggregator {
      * the 0-based index of the aggregate field in the tuple
      * @param what
      * the aggregation operator
+     * @throws IllegalArgumentException if what is not one of MIN, MAX, SUM,
+     * AVG or COUNT
      */
-    private int gbField, aField;
-    private Type gbFieldType;
-    private Op what;
-    private ArrayList<Tuple> aggResult;
-    private HashMap<Field, ArrayList<Field>> aggMap;
-    private String gbFieldName;
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG)
+            throw new IllegalArgumentException("Unsupported aggregate " + what);
         this.gbField = gbfield;
-        this.gbFieldType = gbfieldtype;
+        this.gbFieldType = gbfield == Aggregator.NO_GROUPING ? null : gbfieldtype;
         this.what = what;
         this.aField = afield;
-        this.aggResult = new ArrayList<>();
-        this.aggMap = new HashMap<>();
+        this.groups = new GroupIndex(this.gbFieldType);
+        this.counts = new long[16];
+        this.sums = new long[16];
+        this.mins = new int[16];
+        this.maxs = new int[16];
     }
 
     /**
@@ -47,23 +63,78 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
+        int slot;
         if (gbField == Aggregator.NO_GROUPING) {
-            if (aggMap.isEmpty()) {
-                aggMap.put(new IntField(-1), new ArrayList<>(List.of(tup.getField(aField))));
-            } else {
-                aggMap.get(new IntField(-1)).add(tup.getField(aField));
-            }
-            return;
+            slot = groups.slotOf(null);
+        } else {
+            if (gbFieldName == null)
+                gbFieldName = tup.getTupleDesc().getFieldName(gbField);
+            slot = groups.slotOf(tup.getField(gbField));
         }
-        Field gVal = tup.getField(gbField);
-        gbFieldName = tup.getTupleDesc().getFieldName(gbField);
-        if (!aggMap.containsKey(gVal)) {
-            aggMap.put(gVal, new ArrayList<>(List.of(tup.getField(aField))));
+        merge(slot, tup.getInt(aField));
+    }
+
+    /**
+     * Merge a value into the group in the given slot, which is either a slot
+     * merged into before or the next one.
+     */
+    void merge(int slot, int v) {
+        if (slot == counts.length)
+            grow();
+        if (counts[slot] == 0) {
+            mins[slot] = v;
+            maxs[slot] = v;
         } else {
-            aggMap.get(gVal).add(tup.getField(aField));
+            if (v < mins[slot]) mins[slot] = v;
+            if (v > maxs[slot]) maxs[slot] = v;
+        }
+        counts[slot]++;
+        sums[slot] += v;
+    }
+
+    /**
+     * Merge the first size values of a column, each into the group in the
+     * slot at the same position of slots.
+     */
+    void mergeColumn(int[] slots, int[] col, int size) {
+        for (int r = 0; r < size; r++)
+            merge(slots[r], col[r]);
+    }
+
+    private void grow() {
+        int n = counts.length * 2;
+        counts = Arrays.copyOf(counts, n);
+        sums = Arrays.copyOf(sums, n);
+        mins = Arrays.copyOf(mins, n);
+        maxs = Arrays.copyOf(maxs, n);
+    }
+
+    /** @return the current value of the aggregate for the group in slot */
+    int aggregateValue(int slot) {
+        switch (what) {
+            case MIN:
+                return mins[slot];
+            case MAX:
+                return maxs[slot];
+            case SUM:
+                return (int) sums[slot];
+            case AVG:
+                return (int) (sums[slot] / counts[slot]);
+            case COUNT:
+                return (int) counts[slot];
+            default:
+                throw new IllegalStateException("impossible to reach here");
         }
     }
 
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField));
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -73,140 +144,21 @@ public class IntegerAggregator implements Aggregator {
      * the constructor.
      */
     public DbIterator iterator() {
-        aggResult.clear();
-        TupleDesc td = null;
+        TupleDesc td;
         if (gbField == Aggregator.NO_GROUPING) {
             td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"AggregateResult"});
         }
         else td = new TupleDesc(new Type[]{gbFieldType, Type.INT_TYPE}, new String[]{gbFieldName, "AggregateResult"});
-        switch (what) {
-            case MAX: {
-                if (gbField == Aggregator.NO_GROUPING) {
-                    int ans = (int) -1e8;
-                    ArrayList<Field> valList = aggMap.get(new IntField(-1));
-                    for (Field i : valList) {
-                        ans = Math.max(((IntField) i).getValue(), ans);
-                    }
-                    Tuple aggTuple = new Tuple (td);
-                    aggTuple.setField(0, new IntField(ans));
-                    aggResult.add(aggTuple);
-                } else {
-                    TupleDesc finalTd = td;
-                    aggMap.forEach((gval, gList) -> {
-                        int ans = (int) -1e8;
-                        for (Field i : gList) {
-                            ans = Math.max(ans, ((IntField) i).getValue());
-                        }
-                        Tuple aggTuple = new Tuple(finalTd);
-                        aggTuple.setField(0, gval);
-                        aggTuple.setField(1, new IntField(ans));
-                        aggResult.add(aggTuple);
-                    });
-                }
-                break;
-            }
-            case MIN: {
-                if (gbField == Aggregator.NO_GROUPING) {
-                    int ans = (int) 1e8;
-                    ArrayList<Field> valList = aggMap.get(new IntField(-1));
-                    for (Field i : valList) {
-                        ans = Math.min(((IntField) i).getValue(), ans);
-                    }
-                    Tuple aggTuple = new Tuple (td);
-                    aggTuple.setField(0, new IntField(ans));
-                    aggResult.add(aggTuple);
-
-                } else {
-                    TupleDesc finalTd1 = td;
-                    aggMap.forEach((gval, gList) -> {
-                        int ans = (int) 1e8;
-                        for (Field i : gList) {
-                            ans = Math.min(ans, ((IntField) i).getValue());
-                        }
-                        Tuple aggTuple = new Tuple(finalTd1);
-                        aggTuple.setField(0, gval);
-                        aggTuple.setField(1, new IntField(ans));
-                        aggResult.add(aggTuple);
-                    });
-                }
-                break;
-            }
-            case SUM: {
-                if (gbField == Aggregator.NO_GROUPING) {
-                    int sum = 0;
-                    ArrayList<Field> valList = aggMap.get(new IntField(-1));
-                    for (Field i : valList) {
-                        sum += ((IntField) i).getValue();
-                    }
-                    Tuple aggTuple = new Tuple(td);
-                    aggTuple.setField(0, new IntField(sum));
-                    aggResult.add(aggTuple);
-                } else {
-                    TupleDesc finalTd2 = td;
-                    aggMap.forEach((gval, gList) -> {
-                        int sum = 0;
-                        for (Field i : gList) {
-                            sum += ((IntField) i).getValue();
-                        }
-                        Tuple aggTuple = new Tuple(finalTd2);
-                        aggTuple.setField(0, gval);
-                        aggTuple.setField(1, new IntField(sum));
-                        aggResult.add(aggTuple);
-                    });
-                }
-                break;
-            }
-            case COUNT: {
-                if (gbField == Aggregator.NO_GROUPING) {
-                    ArrayList<Field> valList = aggMap.get(new IntField(-1));
-                    int ans = valList.size();
-                    Tuple aggTuple = new Tuple (td);
-                    aggTuple.setField(0, new IntField(ans));
-                    aggResult.add(aggTuple);
-
-                } else {
-                    TupleDesc finalTd3 = td;
-                    aggMap.forEach((gval, gList) -> {
-                        IntField aggValue = new IntField(gList.size());
-                        Tuple aggTuple = new Tuple(finalTd3);
-                        aggTuple.setField(0, gval);
-                        aggTuple.setField(1, aggValue);
-                        aggResult.add(aggTuple);
-                    });
-                }
-                break;
-            }
-            case SUM_COUNT: {
-                break;
-            }
-            case AVG: {
-                if (gbField == Aggregator.NO_GROUPING) {
-                    int sum = 0;
-                    ArrayList<Field> valList = aggMap.get(new IntField(-1));
-                    for (Field i : valList) {
-                        sum += ((IntField) i).getValue();
-                    }
-                    int avg = sum / valList.size();
-                    Tuple aggTuple = new Tuple(td);
-                    aggTuple.setField(0, new IntField(avg));
-                    aggResult.add(aggTuple);
-                } else {
-                    TupleDesc finalTd4 = td;
-                    aggMap.forEach((gval, gList) -> {
-                        int sum = 0;
-                        for (Field i : gList) {
-                            sum += ((IntField) i).getValue();
-                        }
-                        Tuple aggTuple = new Tuple(finalTd4);
-                        aggTuple.setField(0, gval);
-                        aggTuple.setField(1, new IntField(sum / gList.size()));
-                        aggResult.add(aggTuple);
-                    });
-                }
-            }
-            case SC_AVG: {
-                break;
+        ArrayList<Tuple> aggResult = new ArrayList<>(groups.size());
+        for (int slot = 0; slot < groups.size(); slot++) {
+            Tuple aggTuple = new Tuple(td);
+            if (gbField == Aggregator.NO_GROUPING) {
+                aggTuple.setField(0, new IntField(aggregateValue(slot)));
+            } else {
+                aggTuple.setField(0, groups.keyOf(slot));
+                aggTuple.setField(1, new IntField(aggregateValue(slot)));
             }
+            aggResult.add(aggTuple);
         }
         return new TupleIterator(td, aggResult);
     }
@@ -65,22 +65,14 @@ public class Join extends Operator {
         child1.open();
         child2.open();
         this.joinedArray.clear();
-        int lenLeftTuple = child1.getTupleDesc().numFields();
-        int lenRightTuple = child2.getTupleDesc().numFields();
+        CompiledJoinPredicate test = this.jp.compile(child1.getTupleDesc(), child2.getTupleDesc());
         while (child1.hasNext()) {
             Tuple tmpLeft = child1.next();
             child2.rewind();
             while (child2.hasNext()) {
                 Tuple tmpRight = child2.next();
-                if (this.jp.filter(tmpLeft, tmpRight)) {
-                    Tuple joinedTuple = new Tuple(this.mergedTD);
-                    for (int i = 0; i < lenLeftTuple; i++) {
-                        joinedTuple.setField(i, tmpLeft.getField(i));
-                    }
-                    for (int i = 0; i < lenRightTuple; i++) {
-                        joinedTuple.setField(i + lenLeftTuple, tmpRight.getField(i));
-                    }
-                    this.joinedArray.add(joinedTuple);
+                if (test.test(tmpLeft, tmpRight)) {
+                    this.joinedArray.add(Tuple.merge(this.mergedTD, tmpLeft, tmpRight));
                 }
             }
         }
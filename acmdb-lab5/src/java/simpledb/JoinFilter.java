@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * A JoinFilter is the Bloom filter of the join keys of the build side of a
+ * HashEquiJoin, pushed down into the scan of its probe side, so that the
+ * scan drops the tuples that cannot join before they go up the plan. It
+ * passes every tuple until the join sets its filter, and counts the tuples
+ * it checks and those it drops.
+ *
+ * @see HashEquiJoin
+ * @see SeqScan#addJoinFilter
+ */
+public class JoinFilter {
+
+    private final int field;
+    private final boolean intKey;
+    private volatile BloomFilter keys;
+    private long checked, eliminated;
+
+    /**
+     * @param field the field of the tuples of the scan that holds the key
+     * @param keyType the type of the key
+     */
+    public JoinFilter(int field, Type keyType) {
+        this.field = field;
+        this.intKey = keyType == Type.INT_TYPE;
+    }
+
+    /** @return the field of the tuples of the scan the filter tests */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Set the keys the tuples may have, or null to pass all of them.
+     */
+    public void setKeys(BloomFilter keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * @return false if the key of the tuple is not among the keys of the
+     *         filter, which only decodes the key field of a tuple on a page
+     */
+    public boolean test(Tuple t) {
+        BloomFilter k = keys;
+        if (k == null)
+            return true;
+        checked++;
+        boolean pass = intKey ? k.mightContain(t.getInt(field)) : k.mightContain(t.getField(field));
+        if (!pass)
+            eliminated++;
+        return pass;
+    }
+
+    /** @return the number of tuples the filter checked */
+    public long getChecked() {
+        return checked;
+    }
+
+    /** @return the number of tuples the filter dropped */
+    public long getEliminated() {
+        return eliminated;
+    }
+}
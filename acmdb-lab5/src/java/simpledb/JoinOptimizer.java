@@ -69,7 +69,11 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
@@ -244,6 +248,8 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+        if (joins.isEmpty())
+            return joins;
         HashSet<LogicalJoinNode> t = new HashSet<>(joins);
         for (int joinSize = 1; joinSize <= joins.size(); joinSize++) {
             for (Set<LogicalJoinNode> subset : enumerateSubsets(joins, joinSize)) {
@@ -30,13 +30,46 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. Int fields are compared
+     * without creating Fields for them.
      *
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
-        return t1.getField(field1).compare(op, t2.getField(field2));
+        return t1.compareField(field1, op, t2, field2);
+    }
+
+    /**
+     * Compiles the predicate for tuples of td1 and td2. Two int fields get
+     * an evaluator for the operator alone; other fields are compared as
+     * {@link #filter} does.
+     *
+     * @param td1 The schema of the first tuple of each pair
+     * @param td2 The schema of the second tuple of each pair
+     */
+    public CompiledJoinPredicate compile(TupleDesc td1, TupleDesc td2) {
+        final int f1 = field1, f2 = field2;
+        final Predicate.Op op = this.op;
+        if (td1.getFieldType(f1) != Type.INT_TYPE || td2.getFieldType(f2) != Type.INT_TYPE) {
+            return (t1, t2) -> t1.compareField(f1, op, t2, f2);
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+            case GREATER_THAN:
+                return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+            case LESS_THAN:
+                return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            default:
+                throw new IllegalStateException("impossible to reach here");
+        }
     }
 
     public int getField1() {
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LatchManager hands out short-duration page latches. Unlike the locks of
+ * {@link LockManager}, which belong to a transaction and are held until it
+ * completes, a latch belongs to a thread and only protects the physical
+ * contents of a page for the duration of a single operation, so it is never
+ * involved in deadlock detection or rollback.
+ * <p>
+ * Shared latches are taken and released explicitly, typically while
+ * crabbing down a tree. Exclusive latches are taken on behalf of the
+ * current operation, bracketed by {@link #beginOperation()} and
+ * {@link #endOperation()}, and all released when the operation ends.
+ * <p>
+ * A latch only exists while some thread holds or waits for it, so the
+ * latches kept do not grow with the number of pages ever touched.
+ */
+public class LatchManager {
+
+    /** The latch of a page, with the number of threads holding or waiting for it. */
+    private static class Latch {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int users;
+    }
+
+    private final ConcurrentHashMap<PageId, Latch> latches = new ConcurrentHashMap<PageId, Latch>();
+
+    /** The pages latched exclusively by the operation running on each thread. */
+    private final ThreadLocal<ArrayList<PageId>> exclusive = new ThreadLocal<ArrayList<PageId>>();
+
+    /** @return the latch of the page, created if need be, counting the caller as a user */
+    private ReentrantReadWriteLock use(PageId pid) {
+        return latches.compute(pid, (id, latch) -> {
+            if (latch == null)
+                latch = new Latch();
+            latch.users++;
+            return latch;
+        }).lock;
+    }
+
+    /** Stop counting the caller as a user of the latch, dropping it if it was the last one. */
+    private void release(PageId pid) {
+        latches.computeIfPresent(pid, (id, latch) -> --latch.users == 0 ? null : latch);
+    }
+
+    public void latchShared(PageId pid) {
+        use(pid).readLock().lock();
+    }
+
+    public void unlatchShared(PageId pid) {
+        latches.get(pid).lock.readLock().unlock();
+        release(pid);
+    }
+
+    /** @return the number of pages currently latched or waited for */
+    int numLatches() {
+        return latches.size();
+    }
+
+    /** Start an operation on the current thread. */
+    public void beginOperation() {
+        exclusive.set(new ArrayList<PageId>());
+    }
+
+    /** @return true if the current thread is inside an operation */
+    public boolean inOperation() {
+        return exclusive.get() != null;
+    }
+
+    /**
+     * Latch the page exclusively until the current operation ends. Does
+     * nothing if the operation already holds the latch.
+     *
+     * @throws IllegalStateException if the current thread is not inside an
+     *         operation
+     */
+    public void latchExclusive(PageId pid) {
+        ArrayList<PageId> held = exclusive.get();
+        if (held == null)
+            throw new IllegalStateException("exclusive latches are only taken inside an operation");
+        Latch current = latches.get(pid);
+        if (current != null && current.lock.isWriteLockedByCurrentThread())
+            return;
+        use(pid).writeLock().lock();
+        held.add(pid);
+    }
+
+    /** End the current operation, releasing all its exclusive latches. */
+    public void endOperation() {
+        ArrayList<PageId> held = exclusive.get();
+        exclusive.remove();
+        if (held == null)
+            return;
+        for (PageId pid : held) {
+            latches.get(pid).lock.writeLock().unlock();
+            release(pid);
+        }
+    }
+}
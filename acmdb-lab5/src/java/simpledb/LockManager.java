@@ -16,54 +16,51 @@ public class LockManager {
     }
 
     public synchronized void getLock(TransactionId tid, PageId pid, boolean shared) throws TransactionAbortedException {
-        Lock lock;
-        if (pidLockMap.containsKey(pid)) lock = pidLockMap.get(pid);
-        else lock = new Lock(pid, shared);
-        if (tidLockMap.containsKey(tid)) tidLockMap.get(tid).add(lock);
-        else tidLockMap.put(tid, new HashSet<>(List.of(lock)));
         long startTime = System.currentTimeMillis();
+        Lock lock;
+        while (true) {
+            // look the lock up again after every wait: it is dropped from
+            // pidLockMap once released, and another transaction may have
+            // installed a new one in the meantime
+            lock = pidLockMap.get(pid);
+            if (lock == null) {
+                lock = new Lock(pid, shared);
+                this.pidLockMap.put(pid, lock);
+            }
+            if (canGrant(lock, tid, shared)) break;
+            if (System.currentTimeMillis() - startTime > RUNTIME_LIMIT + r.nextInt(500)) {
+                throw new TransactionAbortedException();
+            }
+            try {
+                wait(WAIT_TIME);
+            } catch (Exception e) {
+                throw new TransactionAbortedException();
+            }
+        }
         if (shared) {
-            while (lock.getExLockHolders().size() != 0) {
-                if (lock.getExLockHolders().contains(tid)) {
-                    // already holds the lock
-                    lock.getExCandidates().add(tid);
-                    lock.setShared(true);
-                    break;
-                }
-                if (System.currentTimeMillis() - startTime > RUNTIME_LIMIT + r.nextInt(500)) {
-                    throw new TransactionAbortedException();
-                }
-                try {
-                    wait(WAIT_TIME);
-                } catch (Exception e) {
-                    throw new TransactionAbortedException();
-                }
+            if (lock.getExLockHolders().contains(tid)) {
+                // already holds the lock
+                lock.getExCandidates().add(tid);
+                lock.setShared(true);
             }
             lock.getSharedLockHolders().add(tid);
-            this.pidLockMap.put(pid, lock);
         } else {
-            // Exclusive Lock
-            while (lock.getSharedLockHolders().size() != 0 || lock.getExLockHolders().size() != 0) {
-                if (lock.getExLockHolders().contains(tid)) break;
-                else if (lock.getExLockHolders().isEmpty()) {
-                    if (lock.getSharedLockHolders().contains(tid) && lock.getSharedLockHolders().size() == 1) {
-                        lock.getSharedCandidates().add(tid);
-                        break;
-                    }
-                }
-                if (System.currentTimeMillis() - startTime > RUNTIME_LIMIT + r.nextInt(500)) {
-                    throw new TransactionAbortedException();
-                }
-                try {
-                    wait(WAIT_TIME);
-                } catch (Exception e) {
-                    throw new TransactionAbortedException();
-                }
+            if (!lock.getExLockHolders().contains(tid) && lock.getSharedLockHolders().contains(tid)) {
+                // upgrade
+                lock.getSharedCandidates().add(tid);
             }
             lock.getExLockHolders().add(tid);
             lock.setShared(false);
-            this.pidLockMap.put(pid, lock);
         }
+        if (tidLockMap.containsKey(tid)) tidLockMap.get(tid).add(lock);
+        else tidLockMap.put(tid, new HashSet<>(List.of(lock)));
+    }
+
+    private boolean canGrant(Lock lock, TransactionId tid, boolean shared) {
+        if (lock.getExLockHolders().contains(tid)) return true;
+        if (!lock.getExLockHolders().isEmpty()) return false;
+        HashSet<TransactionId> sharedHolders = lock.getSharedLockHolders();
+        return shared || sharedHolders.isEmpty() || (sharedHolders.size() == 1 && sharedHolders.contains(tid));
     }
 
     public synchronized void releaseLock(TransactionId tid, PageId pid) {
@@ -72,8 +69,10 @@ public class LockManager {
             if (releasedLock.getExLockHolders().contains(tid)) {
                 releasedLock.getExLockHolders().remove(tid);
                 releasedLock.getSharedLockHolders().remove(tid);
+                releasedLock.getExCandidates().remove(tid);
+                releasedLock.getSharedCandidates().remove(tid);
                 this.tidLockMap.get(tid).remove(releasedLock);
-                this.pidLockMap.remove(pid);
+                if (releasedLock.getSharedLockHolders().isEmpty()) this.pidLockMap.remove(pid);
             } else if (releasedLock.getSharedLockHolders().contains(tid)) {
                 releasedLock.getSharedLockHolders().remove(tid);
                 if (releasedLock.getSharedLockHolders().isEmpty() && releasedLock.getExLockHolders().isEmpty()) {
@@ -123,15 +122,9 @@ public class LockManager {
         return ans;
     }
 
-    public boolean holdsLock(TransactionId tid, PageId pid) {
-        if (tidLockMap.containsKey(tid)) {
-            for (Lock lock : tidLockMap.get(tid)) {
-                if (lock.pid == pid) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
+        Lock lock = pidLockMap.get(pid);
+        return lock != null && (lock.getExLockHolders().contains(tid) || lock.getSharedLockHolders().contains(tid));
     }
 
     public boolean holdsOneLock(TransactionId tid) {
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -12,9 +13,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * Any number of aggregates and group by fields are computed by a
+ * single Aggregate operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +30,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -186,36 +189,57 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Calling this several times computes several aggregates;
+        they are all computed in a single pass over the input.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by (see {@link #addGroupBy}), or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query.  Calling this several times
+        groups by the combination of all the fields, in the order added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        several times sorts on several fields; the field added first is the most significant one.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Limit the query to return at most n tuples.  When the query also has an ORDER BY, the
+        sort and the limit are fused into a single {@link TopN} operator.
+        @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -273,6 +297,8 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Each table is read with a B+ tree scan instead of a sequential scan when one of its filters
+     *   can be answered by an index more cheaply than by reading the whole table.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -289,12 +315,17 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,ArrayList<Predicate>> tableFilters = new HashMap<String,ArrayList<Predicate>>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 if (f instanceof ColumnFile)
+                     ss = new SeqScan(t, f.getId(), table.alias, referencedColumns(table.alias, f.getTupleDesc()));
+                 else
+                     ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,15 +365,40 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!tableFilters.containsKey(lf.tableAlias))
+                tableFilters.put(lf.tableAlias, new ArrayList<Predicate>());
+            tableFilters.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats are on all the fields of the table, which the scan may not read
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (Map.Entry<String, ArrayList<Predicate>> e : tableFilters.entrySet()) {
+            String alias = e.getKey();
+            ArrayList<Predicate> preds = e.getValue();
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            DbIterator subplan = chooseAccessPath(t, alias, preds, s);
+            if (subplan instanceof SeqScan && ((SeqScan) subplan).getColumns() != null) {
+                // a ColumnFile applies the predicates to its pages as it is scanned
+                SeqScan ss = (SeqScan) subplan;
+                subplan = new SeqScan(t, ss.getTableId(), alias, ss.getColumns(), new ArrayList<Predicate>(preds));
+                preds.clear();
+            } else if (subplan instanceof SeqScan && !preds.isEmpty()
+                    && Database.getCatalog().getDatabaseFile(this.getTableId(alias)) instanceof HeapFile) {
+                // a HeapFile skips the pages whose zones rule the predicates
+                // out, and the filters check the tuples of the others
+                subplan = new SeqScan(t, ((SeqScan) subplan).getTableId(), alias, new ArrayList<Predicate>(preds));
+            }
+            for (Predicate p : preds)
+                subplan = new Filter(p, subplan);
+            subplanMap.put(alias, subplan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -414,7 +470,6 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -423,19 +478,24 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + agg);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gb = groupByFields.indexOf(si.fname);
+                    if (gb < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gb);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -462,10 +522,19 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                if (gfields.length == 1 && isOrderedOn(node, gfields[0]))
+                    aggNode = new SortAggregate(node, afields, gfields, aops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,12 +544,190 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIdx = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIdx.length; i++) {
+                oByIdx[i] = orderByIndex(node.getTupleDesc(), oByFields.elementAt(i));
+                ascs[i] = oByAscs.elementAt(i);
+            }
+            DbIterator ordered = oByIdx.length == 1 ? orderedScan(t, node, oByIdx[0], ascs[0]) : null;
+            if (ordered != null)
+                // the tuples already come in order, from a scan of a B+ tree
+                node = limit >= 0 ? new Limit(limit, ordered) : ordered;
+            else if (limit >= 0)
+                node = new TopN(oByIdx, ascs, limit, node);
+            else
+                node = new OrderBy(oByIdx, ascs, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return the fields of the table scanned as alias, with the given
+     *         TupleDesc, that the query refers to, in the order of the table;
+     *         all of them if it selects *, and the first one if none, so that
+     *         the scan still returns each tuple
+     */
+    private int[] referencedColumns(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.addAll(aggFields);
+        names.addAll(groupByFields);
+        names.addAll(oByFields);
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains("null.*") || names.contains(alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
+    /**
+     * @return the index of the first aggregate op(field) of this plan, or -1
+     *         if there is none
+     */
+    private int aggregateIndex(String op, String field) {
+        for (int i = 0; i < aggFields.size(); i++) {
+            if (aggOps.elementAt(i).equals(op) && aggFields.elementAt(i).equals(field))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index in td of the ORDER BY field. After aggregation, a
+     *         field that was aggregated refers to its first aggregate.
+     */
+    private int orderByIndex(TupleDesc td, String field) throws ParsingException {
+        try {
+            return td.fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            int agg = aggFields.indexOf(field);
+            if (!hasAgg || agg < 0)
+                throw new ParsingException("Unknown field " + field + " in ORDER BY");
+            return groupByFields.size() + agg;
+        }
+    }
+
+    /**
+     * @return true if node is known to return its tuples ordered on field,
+     *         i.e. it is a (filtered) scan of a BTreeFile keyed on field.
+     */
+    private static boolean isOrderedOn(DbIterator node, int field) {
+        while (node instanceof Filter)
+            node = ((Filter) node).getChildren()[0];
+        if (node instanceof BTreeScan)
+            return ((BTreeScan) node).getKeyField() == field;
+        if (!(node instanceof SeqScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) node).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /**
+     * Pick the cheapest way to read the tuples of a table that satisfy all of
+     * the given predicates: a sequential scan, or a B+ tree scan of the range
+     * of one field that its predicates select, e.g. both bounds of a BETWEEN,
+     * on the table itself if it is a BTreeFile keyed on the field, or through
+     * a secondary index otherwise. The predicates answered by the scan are
+     * removed from the list; the caller applies the rest as filters.
+     *
+     * @param t The transaction the scan will run as a part of
+     * @param alias The alias of the table to scan
+     * @param preds The predicates on the table
+     * @param s The statistics of the table, or null if there are none, in
+     *   which case the table is scanned sequentially
+     * @return The scan to read the table with
+     */
+    private DbIterator chooseAccessPath(TransactionId t, String alias, ArrayList<Predicate> preds,
+            TableStats s) {
+        int tableid = this.getTableId(alias);
+        DbIterator scan = subplanMap.get(alias);
+        // a scan of a ColumnFile has no index to use instead
+        if (s == null || ((SeqScan) scan).getColumns() != null)
+            return scan;
+        // the range each field is restricted to by its predicates
+        HashMap<Integer, IndexRange> ranges = new HashMap<Integer, IndexRange>();
+        for (Predicate p : preds) {
+            IndexRange r = IndexRange.of(new IndexPredicate(p.getOp(), p.getOperand()));
+            if (r != null)
+                ranges.put(p.getField(), ranges.containsKey(p.getField()) ? ranges.get(p.getField()).intersect(r) : r);
+        }
+        double bestCost = s.estimateScanCost();
+        int best = -1;
+        for (Map.Entry<Integer, IndexRange> e : ranges.entrySet()) {
+            double cost = s.estimateIndexScanCost(e.getKey(), e.getValue());
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = e.getKey();
+            }
+        }
+        if (best < 0)
+            return scan;
+        Iterator<Predicate> it = preds.iterator();
+        while (it.hasNext()) {
+            Predicate p = it.next();
+            if (p.getField() == best && IndexRange.of(new IndexPredicate(p.getOp(), p.getOperand())) != null)
+                it.remove();
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == best)
+            return new BTreeScan(t, tableid, alias, ranges.get(best), false);
+        return new BTreeScan(t, Database.getCatalog().getIndex(tableid, best), alias, ranges.get(best), false);
+    }
+
+    /**
+     * Read the tuples of node in order of field, if they can come straight
+     * from a B+ tree on it: node must be a (filtered) scan of a BTreeFile
+     * keyed on field, or a B+ tree scan on field, which is turned around if
+     * it reads the tree the other way.
+     *
+     * @return a plan returning the tuples of node in the given order of
+     *         field, or null if they have to be sorted
+     */
+    private static DbIterator orderedScan(TransactionId t, DbIterator node, int field, boolean asc) {
+        if (!isOrderedOn(node, field))
+            return null;
+        Filter parent = null;
+        DbIterator scan = node;
+        while (scan instanceof Filter) {
+            parent = (Filter) scan;
+            scan = parent.getChildren()[0];
+        }
+        DbIterator reversed;
+        if (scan instanceof BTreeScan) {
+            if (((BTreeScan) scan).isDescending() != asc)
+                return node;
+            reversed = ((BTreeScan) scan).reversed();
+        } else {
+            if (asc)
+                return node;
+            SeqScan ss = (SeqScan) scan;
+            reversed = new BTreeScan(t, ss.getTableId(), ss.getAlias(), IndexRange.ALL, true);
+        }
+        if (reversed == null)
+            return null;
+        if (parent == null)
+            return reversed;
+        parent.setChildren(new DbIterator[] { reversed });
+        return node;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
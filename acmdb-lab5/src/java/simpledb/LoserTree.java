@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges k individually sorted tuple streams into one sorted
+ * stream. Internal node i of the tree remembers the loser of the match played
+ * at that node, and tree[0] holds the overall winner, so replacing the winner
+ * with the next tuple from its stream costs only log2(k) comparisons along a
+ * single leaf-to-root path.
+ * <p>
+ * Ties are broken by stream index, so merging runs that were produced in
+ * input order yields a stable merge.
+ */
+public class LoserTree extends AbstractDbFileIterator {
+
+    private final DbFileIterator[] sources;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    private final Tuple[] heads;
+    private final int[] tree;
+    private boolean open = false;
+
+    /**
+     * @param sources
+     *            the sorted input streams; they are opened and closed by this
+     *            LoserTree.
+     * @param comparator
+     *            the order the input streams are sorted in
+     */
+    public LoserTree(List<DbFileIterator> sources, Comparator<Tuple> comparator) {
+        this.sources = sources.toArray(new DbFileIterator[0]);
+        this.comparator = comparator;
+        this.k = this.sources.length;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (DbFileIterator source : sources)
+            source.open();
+        build();
+        open = true;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        for (DbFileIterator source : sources)
+            source.rewind();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        for (DbFileIterator source : sources)
+            source.close();
+        open = false;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (!open || k == 0)
+            return null;
+        int winner = tree[0];
+        Tuple result = heads[winner];
+        if (result == null)
+            return null;
+        heads[winner] = advance(winner);
+        replay(winner);
+        return result;
+    }
+
+    private Tuple advance(int i) throws DbException, TransactionAbortedException {
+        return sources[i].hasNext() ? sources[i].next() : null;
+    }
+
+    /**
+     * Play the initial tournament. Leaves are the virtual nodes k..2k-1 and
+     * internal nodes are 1..k-1, so the tree is complete for any k.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < k; i++)
+            heads[i] = advance(i);
+        if (k == 0)
+            return;
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++)
+            winners[k + i] = i;
+        for (int node = k - 1; node >= 1; node--) {
+            int left = winners[2 * node], right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+        tree[0] = k == 1 ? 0 : winners[1];
+    }
+
+    /** Re-play the matches on the path from leaf s to the root. */
+    private void replay(int s) {
+        int winner = s;
+        for (int node = (s + k) / 2; node >= 1; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int tmp = tree[node];
+                tree[node] = winner;
+                winner = tmp;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /** @return true if the head of stream a must be output before that of b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * Computes any number of aggregates over a set of tuples in one pass,
+ * grouped by any number of fields. It finds the {@link GroupIndex} slot of
+ * the group of each tuple once, and merges the field of each aggregate into
+ * the same slot of an {@link IntegerAggregator} or a {@link StringAggregator}
+ * of its own, which keep the running state of the groups.
+ * <p>
+ * Result tuples hold the group-by fields, in the order given, followed by one
+ * INT_TYPE field per aggregate; see {@link #outputTupleDesc}. Aggregates over
+ * STRING_TYPE fields only support COUNT.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc td;
+    private final int[] gbFields;
+    private final int[] aFields;
+    private final boolean[] intAgg;
+    private GroupIndex groups;
+    /** The IntegerAggregator or StringAggregator of each aggregate */
+    private final Aggregator[] aggs;
+
+    /**
+     * @param childTd
+     *            the schema of the tuples that will be merged
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields, empty if there
+     *            is no grouping
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param ops
+     *            the operator of each aggregate
+     * @throws IllegalArgumentException if an aggregate is not supported on
+     *             the type of its field
+     */
+    public MultiAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] ops) {
+        if (afields.length == 0 || afields.length != ops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        this.gbFields = gbfields.clone();
+        this.aFields = afields.clone();
+        this.intAgg = new boolean[afields.length];
+        this.aggs = new Aggregator[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            intAgg[i] = childTd.getFieldType(afields[i]) == Type.INT_TYPE;
+            if (!intAgg[i] && ops[i] != Op.COUNT)
+                throw new IllegalArgumentException("Only COUNT is supported over "
+                        + childTd.getFieldType(afields[i]) + ", not " + ops[i]);
+            // the groups are kept here, so the aggregators are not grouped
+            aggs[i] = intAgg[i]
+                    ? new IntegerAggregator(Aggregator.NO_GROUPING, null, afields[i], ops[i])
+                    : new StringAggregator(Aggregator.NO_GROUPING, null, afields[i], ops[i]);
+        }
+        Type[] gbTypes = new Type[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            gbTypes[i] = childTd.getFieldType(gbfields[i]);
+        this.td = outputTupleDesc(childTd, gbfields, afields, ops);
+        this.groups = new GroupIndex(gbTypes);
+    }
+
+    /**
+     * @return the schema of the result tuples: the group-by fields with
+     *         their names in childTd, followed by one INT_TYPE field per
+     *         aggregate named "aggName(aop) (child_td.getFieldName(afield))".
+     */
+    public static TupleDesc outputTupleDesc(TupleDesc childTd, int[] gbfields,
+            int[] afields, Op[] ops) {
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = childTd.getFieldType(gbfields[i]);
+            names[i] = childTd.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = Aggregate.nameOfAggregatorOp(ops[i])
+                    + " (" + childTd.getFieldName(afields[i]) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int slot = groups.slotOf(tup, gbFields);
+        for (int i = 0; i < aFields.length; i++) {
+            if (intAgg[i])
+                ((IntegerAggregator) aggs[i]).merge(slot, tup.getInt(aFields[i]));
+            else
+                ((StringAggregator) aggs[i]).merge(slot);
+        }
+    }
+
+    /**
+     * Merge every tuple of a batch: the slot of each tuple is looked up
+     * first, then each aggregate runs over the column of its field.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int size = batch.size();
+        int[] slots = new int[size];
+        int[] gcol = gbFields.length == 1 ? batch.intColumn(gbFields[0]) : null;
+        for (int r = 0; r < size; r++) {
+            if (gcol != null)
+                slots[r] = groups.slotOf(gcol[r]);
+            else if (gbFields.length <= 1)
+                slots[r] = groups.slotOf(gbFields.length == 0 ? null : batch.getField(r, gbFields[0]));
+            else
+                slots[r] = groups.slotOf(batch.getTuple(r), gbFields);
+        }
+        for (int i = 0; i < aFields.length; i++) {
+            if (intAgg[i]) {
+                ((IntegerAggregator) aggs[i]).mergeColumn(slots, batch.intColumn(aFields[i]), size);
+            } else {
+                StringAggregator agg = (StringAggregator) aggs[i];
+                for (int r = 0; r < size; r++)
+                    agg.merge(slots[r]);
+            }
+        }
+    }
+
+    /** @return the current value of aggregate i for the group in slot */
+    private int aggregateValue(int i, int slot) {
+        if (intAgg[i])
+            return ((IntegerAggregator) aggs[i]).aggregateValue(slot);
+        return ((StringAggregator) aggs[i]).aggregateValue(slot);
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(tup, gbFields);
+    }
+
+    /** @return the schema of the tuples returned by {@link #iterator} */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public DbIterator iterator() {
+        ArrayList<Tuple> aggResult = new ArrayList<>(groups.size());
+        for (int slot = 0; slot < groups.size(); slot++) {
+            Tuple aggTuple = new Tuple(td);
+            for (int i = 0; i < gbFields.length; i++)
+                aggTuple.setField(i, groups.keyOf(slot, i));
+            for (int i = 0; i < aFields.length; i++)
+                aggTuple.setField(gbFields.length + i, new IntField(aggregateValue(i, slot)));
+            aggResult.add(aggTuple);
+        }
+        return new TupleIterator(td, aggResult);
+    }
+
+}
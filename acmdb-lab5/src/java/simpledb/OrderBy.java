@@ -1,20 +1,36 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Sorting is done with an external k-way merge sort: tuples are read from
+ * the child into a buffer of at most <tt>memoryPages</tt> pages worth of
+ * tuples. If the whole input fits, it is sorted in memory. Otherwise each
+ * full buffer is sorted and written out as a run to a {@link TempTupleFile},
+ * runs are merged (memoryPages - 1) at a time until few enough remain, and
+ * the final merge is streamed to the parent through a {@link LoserTree}.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of pages of tuples an OrderBy may buffer in memory. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
+    private boolean[] ascs;
     private String orderByFieldName;
+    private int memoryPages;
+    private TupleComparator comparator;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private ArrayList<TempTupleFile> runs = new ArrayList<TempTupleFile>();
+    private LoserTree merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,50 +43,183 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields, using the default
+     * memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each field, true if it is sorted in ascending order.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child) {
+        this(orderbyFields, ascs, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each field, true if it is sorted in ascending order.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages of tuples this operator may hold in
+     *            memory at once; must be at least 3 (two input runs and one
+     *            output run when merging).
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child,
+            int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("need one sort order per sort field");
+        if (memoryPages < 3)
+            throw new IllegalArgumentException("OrderBy needs at least 3 pages of memory");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.memoryPages = memoryPages;
+        this.comparator = new TupleComparator(this.orderByFields, this.ascs);
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return all the fields this operator sorts on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, whether it is sorted in ascending order */
+    public boolean[] getAscs() {
+        return ascs.clone();
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the number of runs the last open() spilled to disk */
+    public int numRuns() {
+        return runs.size();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        releaseSortState();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int maxInMemory = memoryPages * TempTupleFile.tuplesPerPage(td);
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            t.materialize();
+            childTups.add(t);
+            if (childTups.size() >= maxInMemory)
+                spillRun();
+        }
+        if (runs.isEmpty()) {
+            // everything fit in memory, no need to touch the disk
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        } else {
+            if (!childTups.isEmpty())
+                spillRun();
+            int fanIn = memoryPages - 1;
+            while (runs.size() > fanIn)
+                mergeRuns(fanIn);
+            merger = openMerger();
+        }
         super.open();
     }
 
+    /** Sort the buffered tuples and write them out as a new run. */
+    private void spillRun() throws DbException {
+        Collections.sort(childTups, comparator);
+        try {
+            TempTupleFile run = new TempTupleFile(td);
+            for (Tuple t : childTups)
+                run.add(t);
+            run.finish();
+            runs.add(run);
+        } catch (IOException e) {
+            throw new DbException("failed to write sorted run: " + e.getMessage());
+        }
+        childTups.clear();
+    }
+
+    /** Merge the first fanIn runs into a single run at the end of the list. */
+    private void mergeRuns(int fanIn) throws DbException,
+            TransactionAbortedException {
+        List<TempTupleFile> inputs = new ArrayList<TempTupleFile>(runs.subList(0, fanIn));
+        runs.subList(0, fanIn).clear();
+        ArrayList<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (TempTupleFile run : inputs)
+            its.add(run.iterator());
+        LoserTree tree = new LoserTree(its, comparator);
+        tree.open();
+        runs.add(TempTupleFile.fromIterator(td, tree));
+        tree.close();
+        for (TempTupleFile run : inputs)
+            run.delete();
+    }
+
+    private LoserTree openMerger() throws DbException,
+            TransactionAbortedException {
+        ArrayList<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (TempTupleFile run : runs)
+            its.add(run.iterator());
+        LoserTree tree = new LoserTree(its, comparator);
+        tree.open();
+        return tree;
+    }
+
+    /** Drop the in-memory tuples and delete any runs from a previous open. */
+    private void releaseSortState() {
+        childTups.clear();
+        it = null;
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        for (TempTupleFile run : runs)
+            run.delete();
+        runs.clear();
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        releaseSortState();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merger != null)
+            merger.rewind();
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -82,6 +231,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merger != null) {
+            return merger.hasNext() ? merger.next() : null;
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -99,25 +251,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -71,13 +71,93 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method, or on the bytes of the page t was read from if it has not
+     * decoded the field yet, see {@link Tuple#compareField}.
      *
      * @param t The tuple to compare against
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t.getField(fieldNum).compare(op, getOperand());
+        return t.compareField(fieldNum, op, getOperand());
+    }
+
+    /**
+     * Compiles the predicate for tuples of td. An int field compared to an
+     * int operand gets an evaluator for the operator alone; other fields are
+     * compared as {@link #filter(Tuple)} does.
+     *
+     * @param td The schema of the tuples the predicate will be applied to
+     */
+    public CompiledPredicate compile(TupleDesc td) {
+        final int f = fieldNum;
+        final Op op = this.op;
+        final Field operand = comparedValue;
+        if (td.getFieldType(f) != Type.INT_TYPE || !(operand instanceof IntField)) {
+            return t -> t.compareField(f, op, operand);
+        }
+        final int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return t -> t.getInt(f) == v;
+            case NOT_EQUALS:
+                return t -> t.getInt(f) != v;
+            case GREATER_THAN:
+                return t -> t.getInt(f) > v;
+            case GREATER_THAN_OR_EQ:
+                return t -> t.getInt(f) >= v;
+            case LESS_THAN:
+                return t -> t.getInt(f) < v;
+            case LESS_THAN_OR_EQ:
+                return t -> t.getInt(f) <= v;
+            default:
+                throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Applies the predicate to every tuple of a batch. An int field is
+     * compared to an int operand in one loop over its column.
+     *
+     * @param batch The tuples to compare against
+     * @param rows  Receives the rows of the tuples for which the comparison is
+     *              true, in ascending order; at least batch.size() long
+     * @return the number of rows written to rows
+     */
+    public int filter(TupleBatch batch, int[] rows) {
+        int size = batch.size();
+        int[] col = batch.intColumn(fieldNum);
+        if (col == null || !(comparedValue instanceof IntField)) {
+            int n = 0;
+            for (int r = 0; r < size; r++) {
+                if (batch.getField(r, fieldNum).compare(op, comparedValue)) rows[n++] = r;
+            }
+            return n;
+        }
+        int v = ((IntField) comparedValue).getValue();
+        int n = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int r = 0; r < size; r++) if (col[r] == v) rows[n++] = r;
+                break;
+            case NOT_EQUALS:
+                for (int r = 0; r < size; r++) if (col[r] != v) rows[n++] = r;
+                break;
+            case GREATER_THAN:
+                for (int r = 0; r < size; r++) if (col[r] > v) rows[n++] = r;
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int r = 0; r < size; r++) if (col[r] >= v) rows[n++] = r;
+                break;
+            case LESS_THAN:
+                for (int r = 0; r < size; r++) if (col[r] < v) rows[n++] = r;
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int r = 0; r < size; r++) if (col[r] <= v) rows[n++] = r;
+                break;
+        }
+        return n;
     }
 
     /**
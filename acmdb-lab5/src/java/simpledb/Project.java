@@ -3,9 +3,11 @@ package simpledb;
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. Read a
+ * batch at a time, it returns the columns it keeps of each batch of its child
+ * without copying them.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
@@ -45,6 +47,15 @@ public class Project extends Operator {
         return td;
     }
 
+    /** @return the ids of the fields of the child that are projected out */
+    int[] fieldIds() {
+        int[] ids = new int[outFieldIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = outFieldIds.get(i);
+        }
+        return ids;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -80,6 +91,12 @@ public class Project extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = TupleBatch.next(child);
+        if (batch == null) return null;
+        return batch.project(td, fieldIds());
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushEngine runs a plan of DbIterators, as built by LogicalPlan, by pushing
+ * tuples from the scans up instead of having each operator pull them from
+ * its child. A sequential scan of a HeapFile, the Filters, Projects and the
+ * input of an Aggregate or the build or probe side of a HashEquiJoin above it
+ * fuse into one loop over the slots of each page, in which every tuple goes
+ * through a chain of {@link TupleSink}s: there is no hasNext/next per tuple
+ * and operator, and no tuple buffered between them.
+ * <p>
+ * Aggregates and the left child of a HashEquiJoin end a pipeline, which runs
+ * to completion before the pipeline reading their result starts. Any other
+ * operator is opened and read as usual, and its tuples are pushed from there.
+ * <p>
+ * As an operator, PushEngine runs the pipelines below the last one when it
+ * is opened, and the last one a page at a time as its result is read, so
+ * that only the tuples of one page are buffered.
+ */
+public class PushEngine extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator plan;
+    private transient Pipeline last;
+    private transient ArrayDeque<Tuple> buffer;
+
+    /**
+     * A pipeline that pushes its tuples a part at a time, a page of a scan
+     * or a tuple of an operator read as usual.
+     */
+    private interface Pipeline {
+
+        /**
+         * Push the next part of the tuples.
+         *
+         * @return false if there were none left
+         */
+        boolean step() throws DbException, TransactionAbortedException;
+
+        /** Close the operators opened to run the pipeline. */
+        void close();
+    }
+
+    /**
+     * @param plan the plan to run; it must not be open
+     */
+    public PushEngine(DbIterator plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Run a plan, which must not be open, and push each tuple of its result
+     * to out. The operators that are opened to run it are closed again.
+     */
+    public static void run(DbIterator plan, TupleSink out)
+            throws DbException, TransactionAbortedException {
+        drain(pipeline(plan, out));
+    }
+
+    /**
+     * Run a pipeline to completion, then close it.
+     */
+    private static void drain(Pipeline p) throws DbException, TransactionAbortedException {
+        try {
+            while (p.step()) {
+            }
+        } finally {
+            p.close();
+        }
+    }
+
+    /**
+     * @return the pipeline that pushes the tuples of node to out, once the
+     *         pipelines below it have run
+     */
+    private static Pipeline pipeline(DbIterator node, final TupleSink out)
+            throws DbException, TransactionAbortedException {
+        if (node instanceof Filter) {
+            // fuse the stack of Filters into one test, as Filter.open does
+            ArrayList<Predicate> preds = new ArrayList<>();
+            DbIterator source = node;
+            while (source instanceof Filter) {
+                preds.add(0, ((Filter) source).getPredicate());
+                source = ((Filter) source).getChildren()[0];
+            }
+            ArrayList<CompiledPredicate> compiled = new ArrayList<>();
+            for (Predicate p : preds) {
+                compiled.add(p.compile(source.getTupleDesc()));
+            }
+            final CompiledPredicate test = CompiledPredicate.and(compiled);
+            return pipeline(source, t -> {
+                if (test.test(t)) out.push(t);
+            });
+        } else if (node instanceof Project) {
+            final TupleDesc td = node.getTupleDesc();
+            final int[] ids = ((Project) node).fieldIds();
+            return pipeline(((Project) node).getChildren()[0], t -> {
+                Tuple p = new Tuple(td);
+                p.setRecordId(t.getRecordId());
+                for (int i = 0; i < ids.length; i++) {
+                    p.setField(i, t.getField(ids[i]));
+                }
+                out.push(p);
+            });
+        } else if (node instanceof Aggregate) {
+            Aggregate agg = (Aggregate) node;
+            agg.openPushed();
+            drain(pipeline(agg.getChildren()[0], agg::push));
+            agg.finishPush();
+            return pull(agg, out);
+        } else if (node instanceof HashEquiJoin) {
+            final HashEquiJoin join = (HashEquiJoin) node;
+            ArrayList<Tuple> build = new ArrayList<>();
+            drain(pipeline(join.getChildren()[0], t -> {
+                t.materialize();
+                build.add(t);
+            }));
+            join.buildTable(build);
+            final Pipeline probe = pipeline(join.getChildren()[1], t -> join.probe(t, out));
+            return new Pipeline() {
+                public boolean step() throws DbException, TransactionAbortedException {
+                    return probe.step();
+                }
+
+                public void close() {
+                    probe.close();
+                    join.close();
+                }
+            };
+        } else if (node instanceof SeqScan && Database.getCatalog()
+                .getDatabaseFile(((SeqScan) node).getTableId()) instanceof HeapFile) {
+            return scan((SeqScan) node, out);
+        } else {
+            node.open();
+            return pull(node, out);
+        }
+    }
+
+    /**
+     * @return the pipeline that pushes the tuples of an open node to out, one
+     *         per step, and closes it
+     */
+    private static Pipeline pull(final DbIterator node, final TupleSink out) {
+        return new Pipeline() {
+            public boolean step() throws DbException, TransactionAbortedException {
+                if (!node.hasNext()) return false;
+                out.push(node.next());
+                return true;
+            }
+
+            public void close() {
+                node.close();
+            }
+        };
+    }
+
+    /**
+     * @return the pipeline that pushes the tuples of a HeapFile to out, a
+     *         page per step, in one loop over the slots of each page,
+     *         skipping the pages the zones of the file rule out for the
+     *         predicates of the scan and the tuples its join filters drop
+     */
+    private static Pipeline scan(final SeqScan scan, final TupleSink out) {
+        final int tableId = scan.getTableId();
+        final HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        final List<Predicate> preds = scan.getPredicates();
+        return new Pipeline() {
+            private int pgNo = 0;
+
+            public boolean step() throws DbException, TransactionAbortedException {
+                while (pgNo < f.numPages() && !preds.isEmpty() && !f.getZoneMap().mayMatch(pgNo, preds)) {
+                    pgNo++;
+                }
+                if (pgNo >= f.numPages()) return false;
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(scan.getTransactionId(),
+                        new HeapPageId(tableId, pgNo++), Permissions.READ_ONLY);
+                for (int i = 0; i < page.numSlots; i++) {
+                    Tuple t = page.getTuple(i);
+                    if (t != null && scan.passesJoinFilters(t)) out.push(t);
+                }
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    public TupleDesc getTupleDesc() {
+        return plan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        buffer = new ArrayDeque<>();
+        last = pipeline(plan, buffer::add);
+    }
+
+    public void close() {
+        super.close();
+        if (last != null) last.close();
+        last = null;
+        buffer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        last.close();
+        buffer.clear();
+        last = pipeline(plan, buffer::add);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (buffer.isEmpty()) {
+            if (!last.step()) return null;
+        }
+        return buffer.poll();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        plan = children[0];
+    }
+}
@@ -20,6 +20,8 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    transient private boolean pushBased = false;
+    transient private DbIterator running;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -50,9 +52,18 @@ public class Query implements Serializable {
         tid = t;
     }
 
+    /**
+     * Run the physical plan with {@link PushEngine}, which pushes tuples up
+     * through fused pipelines, instead of pulling them through each operator.
+     */
+    public void setPushBased(boolean pushBased) {
+        this.pushBased = pushBased;
+    }
+
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        running = pushBased ? new PushEngine(op) : op;
+        running.open();
 
         started = true;
     }
@@ -63,7 +74,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return running.hasNext();
     }
 
     /**
@@ -82,12 +93,13 @@ public class Query implements Serializable {
             TransactionAbortedException {
         if (!started)
             throw new DbException("Database not started.");
-        return op.next();
+        return running.next();
     }
 
     /** Close the iterator */
     public void close() throws IOException {
-        op.close();
+        if (running != null)
+            running.close();
         started = false;
     }
 
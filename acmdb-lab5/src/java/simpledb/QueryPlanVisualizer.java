@@ -13,8 +13,10 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -56,6 +58,30 @@ public class QueryPlanVisualizer {
 
     }
 
+    /**
+     * Lay out the node of an operator with a single child, whose text is
+     * already set, centering its symbol over the child.
+     */
+    private void placeAboveChild(SubTreeDescriptor thisNode, String symbol,
+            int queryPlanDepth, int currentDepth, int adjustDepth,
+            DbIterator childPlan, int currentStartPosition,
+            int parentUpperBarStartShift) {
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                currentDepth + 2 + adjustDepth, childPlan,
+                currentStartPosition, upBarShift);
+        thisNode.upBarPosition = child.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(child.width,
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = child;
+        thisNode.height = currentDepth;
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
             DbIterator queryPlan, int currentStartPosition,
             int parentUpperBarStartShift) {
@@ -65,24 +91,33 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String scan, tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                scan = SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -172,14 +207,27 @@ public class QueryPlanVisualizer {
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
 
+                String aggs = "";
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
+                for (int i = 0; i < afields.length; i++) {
+                    aggs += (i == 0 ? "" : ", ") + aops[i] + "("
+                            + a.getChildren()[0].getTupleDesc().getFieldName(afields[i]) + ")";
+                }
+
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String gbs = "";
+                    int[] gfields = a.groupFields();
+                    for (int i = 0; i < gfields.length; i++) {
+                        gbs += (i == 0 ? "" : ",")
+                                + a.getChildren()[0].getTupleDesc().getFieldName(gfields[i]);
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, gbs, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -238,6 +286,23 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$s),limit:%3$d,card:%4$d",
+                        ORDERBY,
+                        children[0].getTupleDesc().getFieldName(
+                                o.getOrderByField()),o.getLimit(),o.getEstimatedCardinality());
+                this.placeAboveChild(thisNode, ORDERBY, queryPlanDepth,
+                        currentDepth, adjustDepth, children[0],
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof Limit) {
+                Limit o = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                        LIMIT, o.getLimit(), o.getEstimatedCardinality());
+                this.placeAboveChild(thisNode, LIMIT, queryPlanDepth,
+                        currentDepth, adjustDepth, children[0],
+                        currentStartPosition, parentUpperBarStartShift);
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
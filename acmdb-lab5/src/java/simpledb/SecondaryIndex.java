@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * SecondaryIndex is a non-clustered B+ tree index on one field of a HeapFile.
+ * The index is a BTreeFile keyed on its first field, holding one entry
+ * (key, page number, slot number) for every tuple of the table, so that the
+ * RecordId of each matching tuple can be rebuilt from the entry.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}; the
+ * entries are locked and logged through the buffer pool like any other page,
+ * so they commit and abort together with the table.
+ */
+public class SecondaryIndex {
+
+    private final HeapFile table;
+    private final int keyField;
+    private final BTreeFile file;
+
+    /**
+     * Creates a secondary index on the specified field of a table.
+     *
+     * @param table    - the table to index
+     * @param keyField - the field of the table the index is keyed on
+     * @param f        - the file that stores the entries of the index
+     */
+    public SecondaryIndex(HeapFile table, int keyField, File f) {
+        this.table = table;
+        this.keyField = keyField;
+        this.file = new BTreeFile(f, 0, entryDesc(table.getTupleDesc().getFieldType(keyField)));
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of an index on a field of the given type.
+     */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageno", "slot" });
+    }
+
+    /**
+     * Returns the id of the indexed table.
+     */
+    public int getTableId() {
+        return table.getId();
+    }
+
+    /**
+     * Returns the index of the field this index is keyed on.
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the BTreeFile storing the entries of this index.
+     */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the index entry pointing to the given tuple of the table.
+     */
+    private Tuple entry(Tuple t) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(keyField));
+        e.setField(1, new IntField(t.getRecordId().getPageId().pageNumber()));
+        e.setField(2, new IntField(t.getRecordId().tupleno()));
+        return e;
+    }
+
+    /**
+     * Add the entry of a tuple just inserted into the table. The tuple must have
+     * its RecordId set.
+     */
+    public void insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t));
+    }
+
+    /**
+     * Remove the entry of a tuple about to be deleted from the table.
+     *
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public void deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple target = entry(t);
+        Tuple found = null;
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, target.getField(0)));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                if (e.getField(1).equals(target.getField(1)) && e.getField(2).equals(target.getField(2))) {
+                    found = e;
+                    break;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (found == null)
+            throw new DbException("no index entry for tuple " + t.getRecordId());
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    /**
+     * Get an iterator over the tuples of the table whose key field matches the
+     * predicate, in order of the key field.
+     *
+     * @param ipred - the predicate to match on the key field
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new SecondaryIndexIterator(tid, file.indexIterator(tid, ipred));
+    }
+
+    /**
+     * Get an iterator over the tuples of the table whose key field lies in the
+     * range, in ascending or descending order of the key field.
+     *
+     * @param range      - the range of the key field to return
+     * @param descending - true to return the tuples from the greatest key down
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexRange range, boolean descending) {
+        return new SecondaryIndexIterator(tid, file.indexIterator(tid, range, descending));
+    }
+
+    /**
+     * Fill this index with an entry for every tuple of the table, using a bulk
+     * load of the sorted entries. The index must be empty and nothing else may
+     * be using it.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext())
+                entries.add(entry(it.next()));
+        } finally {
+            it.close();
+        }
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                if (a.getField(0).compare(Op.LESS_THAN, b.getField(0)))
+                    return -1;
+                return a.getField(0).equals(b.getField(0)) ? 0 : 1;
+            }
+        });
+        file.bulkLoad(new TupleIterator(file.getTupleDesc(), entries), BTreeBulkLoader.DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Follows the entries returned by an index iterator to the tuples of the table.
+     */
+    private class SecondaryIndexIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final DbFileIterator entries;
+
+        public SecondaryIndexIterator(TransactionId tid, DbFileIterator entries) {
+            this.tid = tid;
+            this.entries = entries;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (entries.hasNext()) {
+                Tuple e = entries.next();
+                HeapPageId pid = new HeapPageId(table.getId(), ((IntField) e.getField(1)).getValue());
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                Tuple t = p.getTuple(((IntField) e.getField(2)).getValue());
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            entries.rewind();
+        }
+
+        public void close() {
+            super.close();
+            entries.close();
+        }
+    }
+}
@@ -7,15 +7,24 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
     private String tableAlias;
     private int tableId;
-    private HeapFile hf;
+    private DbFile hf;
     private TransactionId tid;
     private DbFileIterator iterator;
+    /** The columns the scan reads, or null if it reads all of them. */
+    private int[] columns;
+    /**
+     * The predicates the tuples of a scan of a ColumnFile satisfy, or that
+     * a scan of a HeapFile skips pages by.
+     */
+    private List<Predicate> predicates = Collections.emptyList();
+    /** The filters of the joins above the scan its tuples must pass. */
+    private final List<JoinFilter> joinFilters = new ArrayList<JoinFilter>();
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -36,10 +45,65 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
         this.tableId = tableid;
         this.tid = tid;
-        hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        hf = Database.getCatalog().getDatabaseFile(tableid);
         iterator = hf.iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan of a table stored in a {@link HeapFile},
+     * which does not read the pages whose zones show that none of their
+     * tuples satisfy all of the given predicates. The tuples of the pages it
+     * reads are not filtered.
+     *
+     * @param predicates
+     *            the predicates, on the fields of the tuples of the table
+     * @throws IllegalArgumentException
+     *            if the table is not a HeapFile
+     * @see ZoneMap
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates) {
+        this(tid, tableid, tableAlias);
+        if (!(hf instanceof HeapFile))
+            throw new IllegalArgumentException("only the pages of a HeapFile can be skipped");
+        this.predicates = predicates;
+        iterator = ((HeapFile) hf).iterator(tid, predicates);
+    }
+
+    /**
+     * Creates a sequential scan of some of the columns of a table stored in a
+     * {@link ColumnFile}, which only reads the pages of these columns. The
+     * tuples of the scan only have these fields, in the given order.
+     *
+     * @param columns
+     *            the columns to read; there must be at least one
+     * @throws IllegalArgumentException
+     *            if the table is not a ColumnFile
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Creates a sequential scan of some of the columns of a table stored in a
+     * {@link ColumnFile}, which only returns the tuples that satisfy all of
+     * the given predicates. The file applies them to its pages.
+     *
+     * @param predicates
+     *            the predicates, on the fields of the tuples of the scan
+     * @see #SeqScan(TransactionId, int, String, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            List<Predicate> predicates) {
+        this(tid, tableid, tableAlias);
+        if (!(hf instanceof ColumnFile))
+            throw new IllegalArgumentException("only the columns of a ColumnFile can be scanned");
+        this.columns = columns;
+        this.predicates = predicates;
+        iterator = ((ColumnFile) hf).iterator(tid, columns, predicates);
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -49,6 +113,85 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the columns of the table this scan reads, or null if it reads all of them */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the predicates the tuples of this scan satisfy, for a scan of a
+     *         ColumnFile, or that it skips pages by, for a scan of a HeapFile
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Make the scan drop the tuples that do not pass the given filter of a
+     * join above it. The filter must be added before the scan is opened.
+     */
+    public void addJoinFilter(JoinFilter filter) {
+        if (joinFilters.isEmpty())
+            iterator = new JoinFilteredIterator(iterator);
+        joinFilters.add(filter);
+    }
+
+    /** @return the filters of the joins above this scan */
+    public List<JoinFilter> getJoinFilters() {
+        return joinFilters;
+    }
+
+    /** @return true if the tuple passes all of the join filters of this scan */
+    boolean passesJoinFilters(Tuple t) {
+        for (int i = 0; i < joinFilters.size(); i++) {
+            if (!joinFilters.get(i).test(t))
+                return false;
+        }
+        return true;
+    }
+
+    /** The iterator of the file, without the tuples the join filters drop. */
+    private class JoinFilteredIterator extends AbstractDbFileIterator {
+        private final DbFileIterator source;
+
+        JoinFilteredIterator(DbFileIterator source) {
+            this.source = source;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            source.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            source.rewind();
+        }
+
+        public void close() {
+            super.close();
+            source.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (source.hasNext()) {
+                Tuple t = source.next();
+                if (passesJoinFilters(t))
+                    return t;
+            }
+            return null;
+        }
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -94,7 +237,7 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        TupleDesc td = hf.getTupleDesc();
+        TupleDesc td = columns == null ? hf.getTupleDesc() : ((ColumnFile) hf).getTupleDesc(columns);
         return new TupleDesc(td, tableAlias);
     }
 
@@ -107,6 +250,15 @@ public class SeqScan implements DbIterator {
         return iterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!iterator.hasNext()) return null;
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        while (!batch.isFull() && iterator.hasNext()) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
     public void close() {
         iterator.close();
     }
@@ -4,8 +4,10 @@ import java.io.*;
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file, to a HeapFile, slotted or not, or to a ColumnFile,
+        // compressed or not
+        if(args[0].equals("convert") || args[0].equals("convertslotted")
+                || args[0].equals("convertcolumnar") || args[0].equals("convertcompressed")) {
         try {
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
@@ -43,8 +45,14 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (args[0].equals("convertcolumnar") || args[0].equals("convertcompressed"))
+                ColumnFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,
+                        args[0].equals("convertcompressed"));
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,
+                        args[0].equals("convertslotted"));
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
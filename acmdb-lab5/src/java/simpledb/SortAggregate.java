@@ -0,0 +1,99 @@
+package simpledb;
+
+/**
+ * SortAggregate computes the same result as {@link Aggregate} for input that
+ * is already ordered (or at least clustered) on the group fields, such as a
+ * scan of a {@link BTreeFile} keyed on the group field. Since all tuples of a
+ * group arrive together, it only ever holds the running state of the
+ * current group and emits each group's result as soon as the group ends, in
+ * input order.
+ */
+public class SortAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private Tuple lookahead;
+
+    /**
+     * @param child
+     *            The DbIterator that is feeding us tuples, ordered on gfield.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public SortAggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        super(child, afield, gfield, aop);
+    }
+
+    /**
+     * Creates a SortAggregate computing several aggregates at once, over
+     * input ordered on gfields.
+     */
+    public SortAggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        super(child, afields, gfields, aops);
+    }
+
+    /** Nothing to build up front: groups are aggregated as they stream by. */
+    @Override
+    protected void startAggregation() {
+        child = getChildren()[0];
+        lookahead = null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        lookahead = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        lookahead = null;
+    }
+
+    private boolean sameGroup(Tuple a, Tuple b) {
+        for (int g : gfields) {
+            if (!a.getField(g).equals(b.getField(g)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the next group of the child and returns its aggregate, or null
+     * if the child is exhausted.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (lookahead == null) {
+            if (!child.hasNext())
+                return null;
+            lookahead = child.next();
+        }
+        Aggregator agg = newAggregator(child.getTupleDesc(), afields, gfields, aops);
+        Tuple first = lookahead;
+        agg.mergeTupleIntoGroup(first);
+        lookahead = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(first, t)) {
+                lookahead = t;
+                break;
+            }
+            agg.mergeTupleIntoGroup(t);
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        Tuple result = it.next();
+        it.close();
+        return result;
+    }
+
+}
@@ -1,16 +1,27 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Only a running count per group is kept, indexed by the group's
+ * {@link GroupIndex} slot, so the aggregated strings themselves are never
+ * retained. {@link MultiAggregator} keeps the groups of several aggregates
+ * itself and counts into each by slot.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private int gbField, aField;
+    private Type gbFieldType;
+    private Op what;
+    private String gbFieldName;
+    private GroupIndex groups;
+    private long[] counts;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -19,20 +30,15 @@ public class StringAggregator implements Aggregator {
      * @param what aggregation operator to use -- only supports COUNT
      * @throws IllegalArgumentException if what != COUNT
      */
-
-    private int gbField, aField;
-    private Type gbFieldType;
-    private Op what;
-    private String gbFieldName;
-    private ArrayList<Tuple> aggResult;
-    private HashMap<Field, ArrayList<Field>> aggMap;
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what != Op.COUNT)
+            throw new IllegalArgumentException("StringAggregator only supports COUNT, not " + what);
         this.gbField = gbfield;
-        this.gbFieldType = gbfieldtype;
+        this.gbFieldType = gbfield == Aggregator.NO_GROUPING ? null : gbfieldtype;
         this.what = what;
         this.aField = afield;
-        this.aggResult = new ArrayList<>();
-        this.aggMap = new HashMap<>();
+        this.groups = new GroupIndex(this.gbFieldType);
+        this.counts = new long[16];
     }
 
     /**
@@ -40,13 +46,38 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        Field gVal = tup.getField(gbField);
-        gbFieldName = tup.getTupleDesc().getFieldName(gbField);
-        if (!aggMap.containsKey(gVal)) {
-            aggMap.put(gVal, new ArrayList<>(List.of(tup.getField(aField))));
+        int slot;
+        if (gbField == Aggregator.NO_GROUPING) {
+            slot = groups.slotOf(null);
         } else {
-            aggMap.get(gVal).add(tup.getField(aField));
+            if (gbFieldName == null)
+                gbFieldName = tup.getTupleDesc().getFieldName(gbField);
+            slot = groups.slotOf(tup.getField(gbField));
         }
+        merge(slot);
+    }
+
+    /**
+     * Count a value into the group in the given slot, which is either a slot
+     * merged into before or the next one.
+     */
+    void merge(int slot) {
+        if (slot == counts.length)
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        counts[slot]++;
+    }
+
+    /** @return the current count of the group in slot */
+    int aggregateValue(int slot) {
+        return (int) counts[slot];
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(gbField == Aggregator.NO_GROUPING ? null : tup.getField(gbField));
     }
 
     /**
@@ -58,24 +89,24 @@ public class StringAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public DbIterator iterator() {
-        switch (what) {
-            case COUNT: {
-                TupleDesc td = new TupleDesc(new Type[]{gbFieldType, Type.INT_TYPE},
-                        new String[]{gbFieldName, "CountResult"});
-                aggMap.forEach((gval, gList) -> {
-                    IntField aggValue = new IntField(gList.size());
-                    Tuple aggTuple = new Tuple(td);
-                    aggTuple.setField(0, gval);
-                    aggTuple.setField(1, aggValue);
-                    aggResult.add(aggTuple);
-                });
-                return new TupleIterator(td, aggResult);
-            }
-            default: {
-                System.err.print("Not implemented agg op");
-                return null;
+        TupleDesc td;
+        if (gbField == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"CountResult"});
+        else
+            td = new TupleDesc(new Type[]{gbFieldType, Type.INT_TYPE},
+                    new String[]{gbFieldName, "CountResult"});
+        ArrayList<Tuple> aggResult = new ArrayList<>(groups.size());
+        for (int slot = 0; slot < groups.size(); slot++) {
+            Tuple aggTuple = new Tuple(td);
+            if (gbField == Aggregator.NO_GROUPING) {
+                aggTuple.setField(0, new IntField(aggregateValue(slot)));
+            } else {
+                aggTuple.setField(0, groups.keyOf(slot));
+                aggTuple.setField(1, new IntField(aggregateValue(slot)));
             }
+            aggResult.add(aggTuple);
         }
+        return new TupleIterator(td, aggResult);
     }
 
 }
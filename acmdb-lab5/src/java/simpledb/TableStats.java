@@ -163,6 +163,59 @@ public class TableStats {
         return this.ioCostPerPage * Database.getCatalog().getDatabaseFile(this.tableid).numPages();
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy the predicate
+     * <tt>field op constant</tt> through a B+ tree on the field: the table
+     * itself if it is a BTreeFile keyed on the field, or else a secondary
+     * index on it. Finding the first match costs one page per level of the
+     * tree. A clustered scan then reads the matching fraction of the table's
+     * pages; a secondary index reads the matching fraction of its own pages,
+     * plus one table page for every matching tuple.
+     * 
+     * @return The estimated cost, or Double.POSITIVE_INFINITY if no B+ tree
+     *         on the field can answer the predicate.
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        IndexRange range = IndexRange.of(new IndexPredicate(op, constant));
+        if (range == null)
+            return Double.POSITIVE_INFINITY;
+        return estimateIndexScanCost(field, range);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples whose field lies in the range
+     * through a B+ tree, as for a single predicate.
+     *
+     * @see #estimateIndexScanCost(int, Predicate.Op, Field)
+     */
+    public double estimateIndexScanCost(int field, IndexRange range) {
+        double selectivity = estimateSelectivity(field, range);
+        DbFile table = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (table instanceof BTreeFile && ((BTreeFile) table).keyField() == field) {
+            int pages = table.numPages();
+            return this.ioCostPerPage * (treeHeight(pages, field) + Math.ceil(selectivity * pages));
+        }
+        SecondaryIndex index = Database.getCatalog().getIndex(this.tableid, field);
+        if (index == null)
+            return Double.POSITIVE_INFINITY;
+        int pages = index.getFile().numPages();
+        return this.ioCostPerPage * (treeHeight(pages, field) + Math.ceil(selectivity * pages)
+                + selectivity * this.tupleNum);
+    }
+
+    /**
+     * @return the estimated number of levels of a B+ tree of the given number
+     *         of pages, keyed on the given field
+     */
+    private int treeHeight(int pages, int field) {
+        // an internal entry is a key and a child pointer
+        int fanout = Math.max(2, BufferPool.getPageSize() / (td.getFieldType(field).getLen() + 4));
+        int height = 1;
+        for (long reach = 1; reach < pages; reach *= fanout)
+            height++;
+        return height;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -229,6 +282,30 @@ public class TableStats {
         return 1.0;
     }
 
+    /**
+     * Estimate the selectivity of a range of values of a field on the table:
+     * the fraction of tuples above its lower bound, less the fraction that is
+     * not below its upper bound.
+     * 
+     * @param field
+     *            The field over which the range ranges
+     * @param range
+     *            The range of values of the field
+     * @return The estimated selectivity of the range
+     */
+    public double estimateSelectivity(int field, IndexRange range) {
+        Field low = range.getLow(), high = range.getHigh();
+        if (low != null && high != null && low.equals(high) && range.isLowInclusive() && range.isHighInclusive())
+            return estimateSelectivity(field, Predicate.Op.EQUALS, low);
+        double above = low == null ? 1.0 : estimateSelectivity(field,
+                range.isLowInclusive() ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN, low);
+        double below = high == null ? 1.0 : estimateSelectivity(field,
+                range.isHighInclusive() ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN, high);
+        if (low == null || high == null)
+            return above * below;
+        return Math.max(0.0, above + below - 1.0);
+    }
+
     /**
      * return the total number of tuples in this table
      * */
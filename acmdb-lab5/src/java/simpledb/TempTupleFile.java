@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * TempTupleFile is a private, append-only file of tuples used by operators
+ * that need to move more tuples than fit in memory (e.g., the sorted runs of
+ * an external sort). It is not registered in the Catalog and does not go
+ * through the BufferPool.
+ * <p>
+ * The file is a sequence of pages of BufferPool.getPageSize() bytes. Each
+ * page starts with a 4 byte count of the tuples on it, followed by that many
+ * tuples serialized back to back with {@link Field#serialize}. Pages are
+ * written and read strictly sequentially, so a writer or an open iterator
+ * only ever holds a single page in memory.
+ */
+public class TempTupleFile {
+
+    private final TupleDesc td;
+    private final File f;
+    private final int tuplesPerPage;
+    private DataOutputStream out;
+    private ByteArrayOutputStream pageBuffer;
+    private DataOutputStream pageStream;
+    private int pageTuples;
+    private int numPages;
+    private long numTuples;
+
+    /**
+     * Create a new, empty temporary file for tuples of the given schema.
+     *
+     * @param td the schema of the tuples stored in this file
+     * @throws IOException if the temporary file can't be created
+     */
+    public TempTupleFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.tuplesPerPage = tuplesPerPage(td);
+        this.f = File.createTempFile("simpledb-tmp", ".dat");
+        this.f.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        resetPage();
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit on one page
+     *         of a TempTupleFile.
+     */
+    public static int tuplesPerPage(TupleDesc td) {
+        return Math.max(1, (BufferPool.getPageSize() - 4) / td.getSize());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples appended to this file so far */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages written to this file so far */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Append a tuple to the end of this file.
+     *
+     * @throws IllegalStateException if {@link #finish} was already called
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("TempTupleFile already finished");
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(pageStream);
+        }
+        pageTuples++;
+        numTuples++;
+        if (pageTuples == tuplesPerPage)
+            flushPage();
+    }
+
+    /**
+     * Flush the last partially filled page and close the file for writing.
+     * Must be called before {@link #iterator} is used.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            return;
+        if (pageTuples > 0)
+            flushPage();
+        out.close();
+        out = null;
+    }
+
+    /** Remove the underlying file from disk. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        f.delete();
+    }
+
+    private void resetPage() {
+        pageBuffer = new ByteArrayOutputStream(BufferPool.getPageSize());
+        pageStream = new DataOutputStream(pageBuffer);
+        pageTuples = 0;
+    }
+
+    private void flushPage() throws IOException {
+        pageStream.flush();
+        out.writeInt(pageTuples);
+        pageBuffer.writeTo(out);
+        int padding = BufferPool.getPageSize() - 4 - pageBuffer.size();
+        out.write(new byte[padding]);
+        numPages++;
+        resetPage();
+    }
+
+    /**
+     * @return an iterator reading the tuples back in the order they were
+     *         added. The file must have been finished.
+     */
+    public DbFileIterator iterator() {
+        if (out != null)
+            throw new IllegalStateException("TempTupleFile not finished");
+        return new TempTupleFileIterator();
+    }
+
+    private class TempTupleFileIterator extends AbstractDbFileIterator {
+
+        private DataInputStream in;
+        private DataInputStream page;
+        private int pagesRead;
+        private int leftOnPage;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("temporary tuple file is missing: " + f);
+            }
+            pagesRead = 0;
+            leftOnPage = 0;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (in == null)
+                return null;
+            try {
+                while (leftOnPage == 0) {
+                    if (pagesRead == numPages)
+                        return null;
+                    byte[] data = new byte[BufferPool.getPageSize()];
+                    in.readFully(data);
+                    pagesRead++;
+                    page = new DataInputStream(new ByteArrayInputStream(data));
+                    leftOnPage = page.readInt();
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(page));
+                }
+                leftOnPage--;
+                return t;
+            } catch (IOException | java.text.ParseException e) {
+                throw new DbException("error reading temporary tuple file: " + e.getMessage());
+            }
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            in = null;
+            page = null;
+        }
+    }
+
+    /**
+     * Convenience helper: drain it into a new, finished TempTupleFile.
+     */
+    public static TempTupleFile fromIterator(TupleDesc td, DbFileIterator it)
+            throws DbException, TransactionAbortedException, NoSuchElementException {
+        try {
+            TempTupleFile file = new TempTupleFile(td);
+            while (it.hasNext())
+                file.add(it.next());
+            file.finish();
+            return file;
+        } catch (IOException e) {
+            throw new DbException("error writing temporary tuple file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Instead of
+ * sorting its whole input like {@link OrderBy}, it keeps the best n tuples
+ * seen so far in a bounded max-heap whose root is the worst of them, so
+ * it runs in O(rows * log n) time and holds at most n tuples in memory.
+ * <p>
+ * The output is identical to that of a stable OrderBy followed by taking
+ * the first n tuples: among tuples with equal sort keys, the ones that
+ * arrived first win.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private int[] orderByFields;
+    private boolean[] ascs;
+    private int limit;
+    private ArrayList<Tuple> topTups = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each field, true if it is sorted in ascending order.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int limit, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("need one sort order per sort field");
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.limit = limit;
+    }
+
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    /** @return all the fields this operator sorts on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, whether it is sorted in ascending order */
+    public boolean[] getAscs() {
+        return ascs.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** A candidate tuple, remembering its arrival order to break ties. */
+    private static class Entry {
+        final Tuple tup;
+        final long seq;
+
+        Entry(Tuple tup, long seq) {
+            this.tup = tup;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        topTups.clear();
+        child.open();
+        if (limit > 0) {
+            final TupleComparator cmp = new TupleComparator(orderByFields, ascs);
+            final Comparator<Entry> order = new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    int c = cmp.compare(a.tup, b.tup);
+                    return c != 0 ? c : Long.compare(a.seq, b.seq);
+                }
+            };
+            // the root of the heap is the worst tuple we still keep; it
+            // grows with the tuples kept, not with the limit
+            PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(limit, 1024),
+                    Collections.reverseOrder(order));
+            long seq = 0;
+            while (child.hasNext()) {
+                Entry e = new Entry(child.next(), seq++);
+                if (heap.size() < limit) {
+                    e.tup.materialize();
+                    heap.add(e);
+                } else if (order.compare(e, heap.peek()) < 0) {
+                    heap.poll();
+                    e.tup.materialize();
+                    heap.add(e);
+                }
+            }
+            Entry[] best = heap.toArray(new Entry[0]);
+            Arrays.sort(best, order);
+            for (Entry e : best)
+                topTups.add(e.tup);
+        }
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        topTups.clear();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the best tuples in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -9,20 +8,53 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The fields are kept in an array. A tuple of only int fields (at most 64 of
+ * them) keeps their values in an int array instead, and {@link #getField}
+ * returns a new IntField for each; {@link #getInt} reads a value without one.
+ * <p>
+ * A tuple read from a page can also be a view on the bytes of the page: each
+ * of its fields is only decoded when it is first asked for, and a predicate
+ * can compare a field without decoding it at all, see {@link #compareField}.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private ArrayList<Field> tupleContents;
     private TupleDesc td;
     private RecordId rid;
+    /** The fields, or null if the tuple keeps ints. */
+    private Field[] fields;
+    /** The values of a tuple of only int fields, or null. */
+    private int[] ints;
+    /** Bit i is set if ints[i] holds the value of field i. */
+    private long intsSet;
+    /** The bytes the fields not decoded yet are read from, or null. */
+    private byte[] data;
+    private int offset;
+    private TupleDesc layout;
 
     public Tuple(TupleDesc td) {
-        tupleContents = new ArrayList<>();
-        tupleContents.addAll(Arrays.asList(new Field[td.numFields()]));
+        int n = td.numFields();
+        if (td.hasOnlyInts() && n <= 64) {
+            ints = new int[n];
+        } else {
+            fields = new Field[n];
+        }
         this.td = td;
     }
 
+    /**
+     * Create a tuple whose fields are read from data, where the tuple is
+     * stored at the given offset as a HeapPage stores it, when they are first
+     * asked for. The bytes must not change while the tuple is in use.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        this(td);
+        this.data = data;
+        this.offset = offset;
+        this.layout = td;
+    }
+
     public TupleDesc getTupleDesc() {
         return this.td;
     }
@@ -36,12 +68,179 @@ public class Tuple implements Serializable {
     }
 
     public void setField(int i, Field f) {
-        tupleContents.set(i, f);
+        if (ints != null) {
+            if (f == null) {
+                intsSet &= ~(1L << i);
+                return;
+            }
+            if (f instanceof IntField) {
+                ints[i] = ((IntField) f).getValue();
+                intsSet |= 1L << i;
+                return;
+            }
+            inflate();
+        }
+        fields[i] = f;
     }
 
     public Field getField(int i) {
-        if (i >= tupleContents.size() || i < 0) return null;
-        return tupleContents.get(i);
+        if (i >= size() || i < 0) return null;
+        if (ints != null) {
+            if (!isIntSet(i)) {
+                if (data == null) return null;
+                ints[i] = readInt(data, offset + layout.getOffset(i));
+                intsSet |= 1L << i;
+            }
+            return new IntField(ints[i]);
+        }
+        Field f = fields[i];
+        if (f == null && data != null) {
+            f = decodeField(i);
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Get the value of the ith field, which must be an int, without creating
+     * an IntField for it if the tuple keeps ints or still only has the
+     * bytes of its page.
+     */
+    public int getInt(int i) {
+        if (hasRawInt(i)) return rawInt(i);
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the number of fields of this tuple that hold a value, as
+     * opposed to those still only stored in the bytes of its page
+     */
+    int decodedFields() {
+        if (ints != null) return Long.bitCount(intsSet);
+        int n = 0;
+        for (Field f : fields) {
+            if (f != null) n++;
+        }
+        return n;
+    }
+
+    private int size() {
+        return ints != null ? ints.length : fields.length;
+    }
+
+    private boolean isIntSet(int i) {
+        return (intsSet & (1L << i)) != 0;
+    }
+
+    /**
+     * Switch from keeping ints to keeping Fields, when a field is set to
+     * something else.
+     */
+    private void inflate() {
+        fields = new Field[ints.length];
+        for (int i = 0; i < ints.length; i++) {
+            if (isIntSet(i)) fields[i] = new IntField(ints[i]);
+        }
+        ints = null;
+        intsSet = 0;
+    }
+
+    /**
+     * @return true if the ith field is an int that can be read without
+     * creating an IntField, from ints or from the bytes of the page
+     */
+    private boolean hasRawInt(int i) {
+        if (ints != null) return isIntSet(i) || data != null;
+        return fields[i] == null && data != null && layout.getFieldType(i) == Type.INT_TYPE;
+    }
+
+    private int rawInt(int i) {
+        if (ints != null && isIntSet(i)) return ints[i];
+        return readInt(data, offset + layout.getOffset(i));
+    }
+
+    private Field decodeField(int i) {
+        int pos = offset + layout.getOffset(i);
+        if (layout.getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(readInt(data, pos));
+        }
+        int len = readInt(data, pos);
+        return new StringField(new String(data, pos + 4, len), Type.STRING_LEN);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    /**
+     * Compare the ith field of this tuple to value, as
+     * {@code getField(i).compare(op, value)} does, but without creating a
+     * Field for ints, or for ASCII strings still only stored in the bytes of
+     * the page.
+     *
+     * @see Field#compare
+     */
+    public boolean compareField(int i, Predicate.Op op, Field value) {
+        int cmp;
+        if (value instanceof IntField && hasRawInt(i)) {
+            cmp = Integer.compare(rawInt(i), ((IntField) value).getValue());
+        } else if (value instanceof StringField && op != Predicate.Op.LIKE && fields != null
+                && fields[i] == null && data != null && layout.getFieldType(i) == Type.STRING_TYPE) {
+            int pos = offset + layout.getOffset(i);
+            String s = ((StringField) value).getValue();
+            int len = readInt(data, pos);
+            cmp = 0;
+            for (int k = 0; k < Math.min(len, s.length()) && cmp == 0; k++) {
+                byte b = data[pos + 4 + k];
+                if (b < 0) {
+                    // not ASCII, so bytes and chars do not correspond
+                    return getField(i).compare(op, value);
+                }
+                cmp = (char) b - s.charAt(k);
+            }
+            if (cmp == 0) cmp = len - s.length();
+        } else {
+            return getField(i).compare(op, value);
+        }
+        return matches(op, cmp);
+    }
+
+    /**
+     * Compare the ith field of this tuple to the jth field of other, as
+     * {@code getField(i).compare(op, other.getField(j))} does, but without
+     * creating Fields for ints.
+     *
+     * @see Field#compare
+     */
+    public boolean compareField(int i, Predicate.Op op, Tuple other, int j) {
+        if (hasRawInt(i) && other.hasRawInt(j)) {
+            return matches(op, Integer.compare(rawInt(i), other.rawInt(j)));
+        }
+        return getField(i).compare(op, other.getField(j));
+    }
+
+    /**
+     * @return the result of op on two values that compare as cmp, where LIKE
+     * is equality as for ints
+     */
+    static boolean matches(Predicate.Op op, int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+            default:
+                return false;
+        }
     }
 
     /**
@@ -54,24 +253,74 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Field field : tupleContents) {
-            sb.append(field.toString()).append("\t");
+        for (int i = 0; i < size(); i++) {
+            sb.append(getField(i).toString()).append("\t");
         }
         return sb.toString();
     }
 
     public Iterator<Field> fields() {
-        return tupleContents.iterator();
+        Field[] all = new Field[size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = getField(i);
+        }
+        return Arrays.asList(all).iterator();
     }
 
     public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
         Tuple merged = new Tuple(td);
-        merged.tupleContents.clear();
-        merged.tupleContents.addAll(t1.tupleContents);
-        merged.tupleContents.addAll(t2.tupleContents);
+        int n1 = t1.size(), n2 = t2.size();
+        if (merged.ints != null && t1.ints != null && t2.ints != null && n1 + n2 == merged.ints.length) {
+            t1.decodeInts();
+            t2.decodeInts();
+            System.arraycopy(t1.ints, 0, merged.ints, 0, n1);
+            System.arraycopy(t2.ints, 0, merged.ints, n1, n2);
+            merged.intsSet = t1.intsSet | (t2.intsSet << n1);
+            return merged;
+        }
+        merged.ints = null;
+        merged.fields = new Field[n1 + n2];
+        for (int i = 0; i < n1; i++) {
+            merged.fields[i] = t1.getField(i);
+        }
+        for (int i = 0; i < n2; i++) {
+            merged.fields[n1 + i] = t2.getField(i);
+        }
         return merged;
     }
 
+    /**
+     * Read the values of an int tuple that are still only in the bytes of
+     * its page into ints.
+     */
+    private void decodeInts() {
+        if (data == null) return;
+        for (int i = 0; i < ints.length; i++) {
+            if (!isIntSet(i)) {
+                ints[i] = readInt(data, offset + layout.getOffset(i));
+            }
+        }
+        intsSet = ints.length == 64 ? -1L : (1L << ints.length) - 1;
+    }
+
+    /**
+     * Read every field that is still only in the bytes of its page and let
+     * go of them, so that an operator can keep the tuple after the page has
+     * left the buffer pool or changed.
+     */
+    void materialize() {
+        if (data == null) return;
+        if (ints != null) {
+            decodeInts();
+        } else {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == null) fields[i] = decodeField(i);
+            }
+        }
+        data = null;
+        layout = null;
+    }
+
     public void resetTupleDesc(TupleDesc td) {
         this.td = td;
     }
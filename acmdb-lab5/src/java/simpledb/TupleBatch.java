@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of tuples of one schema in column
+ * vectors: an int array for each INT_TYPE field and a Field array for each
+ * other field, plus the RecordId of each tuple, if it has one. Operators that
+ * implement {@link BatchIterator} pass these between each other instead of
+ * single tuples.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of tuples a batch holds unless another capacity is given. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final RecordId[] rids;
+    private int size;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        rids = new RecordId[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, int[][] ints, Field[][] fields, RecordId[] rids, int size) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.rids = rids;
+        this.size = size;
+    }
+
+    /**
+     * Returns the next batch of it: the batch it returns if it is a
+     * {@link BatchIterator}, or otherwise a batch of the tuples read from it
+     * one by one.
+     *
+     * @return the next batch, or null if it has no more tuples
+     */
+    public static TupleBatch next(DbIterator it) throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator) {
+            return ((BatchIterator) it).nextBatch();
+        }
+        return fromRows(it);
+    }
+
+    /**
+     * @return a batch of the next tuples of it, read one by one, or null if
+     *         it has no more tuples
+     */
+    public static TupleBatch fromRows(DbIterator it) throws DbException, TransactionAbortedException {
+        if (!it.hasNext()) return null;
+        TupleBatch batch = new TupleBatch(it.getTupleDesc());
+        while (!batch.isFull() && it.hasNext()) {
+            batch.add(it.next());
+        }
+        return batch;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in this batch */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return rids.length;
+    }
+
+    public boolean isFull() {
+        return size == rids.length;
+    }
+
+    /**
+     * @return the values of field i, which is an INT_TYPE field, in the
+     *         first size() entries, or null if field i is of another type
+     */
+    public int[] intColumn(int i) {
+        return ints[i];
+    }
+
+    /** @return field i of the tuple in the given row */
+    public Field getField(int row, int i) {
+        return ints[i] != null ? new IntField(ints[i][row]) : fields[i][row];
+    }
+
+    /** @return the RecordId of the tuple in the given row, or null */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /** @return the tuple in the given row */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(row, i));
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Append a tuple to this batch, which must not be full.
+     */
+    public void add(Tuple t) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = t.getInt(i);
+            } else {
+                fields[i][size] = t.getField(i);
+            }
+        }
+        rids[size++] = t.getRecordId();
+    }
+
+    /**
+     * Append the tuple made of the fields of left followed by those of the
+     * given row of right, as {@link Tuple#merge} does. This batch must not be
+     * full.
+     */
+    public void addJoined(Tuple left, TupleBatch right, int row) {
+        int n1 = ints.length - right.ints.length;
+        for (int i = 0; i < n1; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = left.getInt(i);
+            } else {
+                fields[i][size] = left.getField(i);
+            }
+        }
+        for (int i = n1; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][size] = right.ints[i - n1][row];
+            } else {
+                fields[i][size] = right.getField(row, i - n1);
+            }
+        }
+        rids[size++] = null;
+    }
+
+    /**
+     * Keep only the given rows of this batch, which move to the front in
+     * the given order.
+     *
+     * @param rows the rows to keep, in ascending order
+     * @param n the number of rows to keep, the first n entries of rows
+     */
+    public void select(int[] rows, int n) {
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                int[] col = ints[i];
+                for (int k = 0; k < n; k++) col[k] = col[rows[k]];
+            } else {
+                Field[] col = fields[i];
+                for (int k = 0; k < n; k++) col[k] = col[rows[k]];
+                Arrays.fill(col, n, size, null);
+            }
+        }
+        for (int k = 0; k < n; k++) rids[k] = rids[rows[k]];
+        Arrays.fill(rids, n, size, null);
+        size = n;
+    }
+
+    /**
+     * @return a batch of the given fields of this batch, with schema td.
+     *         It shares the column vectors of this batch.
+     */
+    public TupleBatch project(TupleDesc td, int[] fieldIds) {
+        int[][] pints = new int[fieldIds.length][];
+        Field[][] pfields = new Field[fieldIds.length][];
+        for (int i = 0; i < fieldIds.length; i++) {
+            pints[i] = ints[fieldIds[i]];
+            pfields[i] = fields[fieldIds[i]];
+        }
+        return new TupleBatch(td, pints, pfields, rids, size);
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on a list of fields, each in ascending or descending
+ * order, as OrderBy and TopN sort them.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int[] fields;
+    boolean[] ascs;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] ascs) {
+        this.fields = fields;
+        this.ascs = ascs;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return ascs[i] ? 1 : -1;
+            else
+                return ascs[i] ? -1 : 1;
+        }
+        return 0;
+    }
+}
@@ -41,6 +41,8 @@ public class TupleDesc implements Serializable {
     }
 
     private ArrayList<TDItem> tdContents;
+    private transient int[] offsets;
+    private transient Boolean onlyInts;
 
     /**
      * @return An iterator which iterates over all the field TDItems
@@ -163,6 +165,38 @@ public class TupleDesc implements Serializable {
     }
 
 
+    /**
+     * @param i the index of a field
+     * @return the offset (in bytes) of the ith field in a tuple corresponding
+     * to this TupleDesc as it is stored in a page
+     */
+    public int getOffset(int i) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[numFields()];
+            for (int j = 1; j < o.length; j++) {
+                o[j] = o[j - 1] + getFieldType(j - 1).getLen();
+            }
+            offsets = o;
+        }
+        return o[i];
+    }
+
+    /**
+     * @return true if all the fields of this TupleDesc are ints
+     */
+    public boolean hasOnlyInts() {
+        Boolean b = onlyInts;
+        if (b == null) {
+            b = true;
+            for (TDItem item : tdContents) {
+                b &= item.fieldType == Type.INT_TYPE;
+            }
+            onlyInts = b;
+        }
+        return b;
+    }
+
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
         ArrayList<TDItem> itemList = new ArrayList<>(td1.tdContents);
         itemList.addAll(td2.tdContents);
@@ -0,0 +1,13 @@
+package simpledb;
+
+/**
+ * TupleSink receives the tuples of a pipeline run by {@link PushEngine}, one
+ * call per tuple.
+ */
+public interface TupleSink {
+
+    /**
+     * Receive the next tuple.
+     */
+    public void push(Tuple t) throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and the largest value of each field of the
+ * tuples of each page of a HeapFile, so that a scan with predicates can skip
+ * the pages none of whose tuples can satisfy them, without reading them.
+ * <p>
+ * The zones are stored in a file next to the HeapFile, with one entry per
+ * page: a byte that is 0 if the zone of the page is not known, 1 if the
+ * page holds no tuples and 2 otherwise, followed in the last case by the
+ * smallest and the largest value of each field, as {@link Field#serialize}
+ * writes them. The zone of a page is widened in memory as tuples are
+ * inserted into it, and computed again from the page and written before
+ * the page itself is, so the stored zone of a page always covers what is
+ * on disk. The zones of pages that were written by something other than
+ * their HeapFile are not known until a scan with predicates reads the pages.
+ *
+ * @see HeapFile
+ */
+public class ZoneMap {
+
+    private static final byte UNKNOWN = 0, EMPTY = 1, RANGE = 2;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int entrySize;
+
+    /** The state, smallest and largest values of each page, read lazily. */
+    private ArrayList<Byte> states;
+    private ArrayList<Field[]> mins, maxs;
+
+    /**
+     * @param f the file the zones are stored in
+     * @param td the TupleDesc of the tuples of the HeapFile
+     */
+    public ZoneMap(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.entrySize = 1 + 2 * td.getSize();
+    }
+
+    /**
+     * @return the file the zones of the given HeapFile are stored in, which
+     *         must be deleted whenever the HeapFile is written by something
+     *         else than the HeapFile itself
+     */
+    public static File zoneFile(File heapFile) {
+        return new File(heapFile.getPath() + ".zones");
+    }
+
+    /** Read the zones of the file, if they have not been yet. */
+    private void load() {
+        if (states != null)
+            return;
+        states = new ArrayList<Byte>();
+        mins = new ArrayList<Field[]>();
+        maxs = new ArrayList<Field[]>();
+        if (!f.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            for (long n = f.length() / entrySize; n > 0; n--) {
+                byte state = in.readByte();
+                Field[] min = new Field[td.numFields()];
+                Field[] max = new Field[td.numFields()];
+                for (int i = 0; i < td.numFields(); i++) {
+                    min[i] = td.getFieldType(i).parse(in);
+                    max[i] = td.getFieldType(i).parse(in);
+                }
+                states.add(state);
+                mins.add(state == RANGE ? min : null);
+                maxs.add(state == RANGE ? max : null);
+            }
+        } catch (IOException | java.text.ParseException e) {
+            // the zones that could not be read are not known, and are
+            // computed again as their pages are read or written
+        }
+    }
+
+    private void ensurePage(int pgNo) {
+        while (states.size() <= pgNo) {
+            states.add(UNKNOWN);
+            mins.add(null);
+            maxs.add(null);
+        }
+    }
+
+    /** Write the entry of a page to the file. */
+    private void store(int pgNo) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(states.get(pgNo));
+        for (int i = 0; i < td.numFields(); i++) {
+            if (states.get(pgNo) == RANGE) {
+                mins.get(pgNo)[i].serialize(dos);
+                maxs.get(pgNo)[i].serialize(dos);
+            } else {
+                dos.write(new byte[2 * td.getFieldType(i).getLen()]);
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) pgNo * entrySize);
+            raf.write(baos.toByteArray());
+        }
+    }
+
+    /**
+     * @return true if the zone of the given page is known
+     */
+    public synchronized boolean isKnown(int pgNo) {
+        load();
+        return pgNo < states.size() && states.get(pgNo) != UNKNOWN;
+    }
+
+    /**
+     * Widen the zone of a page, if it is known, to take in a tuple inserted
+     * into the page.
+     */
+    public synchronized void include(int pgNo, Tuple t) {
+        load();
+        if (!isKnown(pgNo))
+            return;
+        if (states.get(pgNo) == EMPTY) {
+            Field[] min = new Field[td.numFields()];
+            Field[] max = new Field[td.numFields()];
+            for (int i = 0; i < td.numFields(); i++) {
+                min[i] = t.getField(i);
+                max[i] = t.getField(i);
+            }
+            states.set(pgNo, RANGE);
+            mins.set(pgNo, min);
+            maxs.set(pgNo, max);
+            return;
+        }
+        Field[] min = mins.get(pgNo);
+        Field[] max = maxs.get(pgNo);
+        for (int i = 0; i < td.numFields(); i++) {
+            Field v = t.getField(i);
+            if (v.compare(Predicate.Op.LESS_THAN, min[i]))
+                min[i] = v;
+            if (v.compare(Predicate.Op.GREATER_THAN, max[i]))
+                max[i] = v;
+        }
+    }
+
+    /**
+     * Set the zone of a page to the values of the tuples on it and write it
+     * to the file. If it cannot be written, the zone of the page is not
+     * known any more.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        load();
+        int pgNo = page.getId().pageNumber();
+        ensurePage(pgNo);
+        states.set(pgNo, EMPTY);
+        mins.set(pgNo, null);
+        maxs.set(pgNo, null);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            include(pgNo, it.next());
+        try {
+            store(pgNo);
+        } catch (IOException e) {
+            states.set(pgNo, UNKNOWN);
+            mins.set(pgNo, null);
+            maxs.set(pgNo, null);
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if no tuple of the given page can satisfy all of the
+     *         given predicates, according to its zone, and true if some may
+     *         or the zone is not known
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        if (!isKnown(pgNo))
+            return true;
+        if (states.get(pgNo) == EMPTY)
+            return false;
+        for (Predicate p : predicates) {
+            if (!mayMatch(mins.get(pgNo)[p.getField()], maxs.get(pgNo)[p.getField()], p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if some value between min and max may satisfy the
+     *         comparison with operand
+     */
+    private static boolean mayMatch(Field min, Field max, Predicate.Op op, Field operand) {
+        switch (op) {
+            case LIKE:
+                // a string pattern may match values out of the range
+                if (!(operand instanceof IntField))
+                    return true;
+                return mayMatch(min, max, Predicate.Op.EQUALS, operand);
+            case EQUALS:
+                return min.compare(Predicate.Op.LESS_THAN_OR_EQ, operand)
+                        && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+            case NOT_EQUALS:
+                return !min.equals(operand) || !max.equals(operand);
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return min.compare(op, operand);
+            default:
+                return max.compare(op, operand);
+        }
+    }
+}
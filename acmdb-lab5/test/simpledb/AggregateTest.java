@@ -88,9 +88,16 @@ public class AggregateTest extends SimpleDbTestBase {
   @Test public void getTupleDesc() {
     Aggregate op = new Aggregate(scan1, 0, 0,
         Aggregator.Op.MIN);
-    TupleDesc expected = Utility.getTupleDesc(2);
+    // the fields of TestUtil.createTupleList have empty names
+    TupleDesc expected = new TupleDesc(Utility.getTypes(2),
+        new String[] { "", "min ()" });
     TupleDesc actual = op.getTupleDesc();
     assertEquals(expected, actual);
+
+    op = new Aggregate(scan3, new int[] { 1, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    assertEquals(new TupleDesc(Utility.getTypes(2),
+        new String[] { "sum ()", "count ()" }), op.getTupleDesc());
   }
 
   /**
@@ -176,6 +183,121 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Aggregate with more groups than fit in its memory budget spills
+   * partitions and still returns every group exactly once
+   */
+  @Test public void spilledAggregate() throws Exception {
+    int groups = 5000;
+    int[] data = new int[groups * 3 * width1];
+    for (int i = 0; i < groups * 3; i++) {
+      data[2 * i] = (i * 7919) % groups;
+      data[2 * i + 1] = i % 3;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0,
+        Aggregator.Op.SUM, 1);
+    op.open();
+    assertTrue(op.numSpills() > 0);
+    boolean[] seen = new boolean[groups];
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int g = ((IntField) t.getField(0)).getValue();
+      assertTrue(!seen[g]);
+      seen[g] = true;
+      assertEquals(3, ((IntField) t.getField(1)).getValue());
+      n++;
+    }
+    assertEquals(groups, n);
+    op.rewind();
+    n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(groups, n);
+    op.close();
+  }
+
+  /**
+   * SortAggregate over input ordered on the group field
+   */
+  @Test public void sortAggregate() throws Exception {
+    Aggregate op = new SortAggregate(scan1, 1, 0,
+        Aggregator.Op.SUM);
+    op.open();
+    sum.open();
+    TestUtil.matchAllTuples(sum, op);
+    op.rewind();
+    sum.rewind();
+    TestUtil.matchAllTuples(sum, op);
+    op.close();
+
+    DbIterator avgstring = TestUtil.createTupleList(width1,
+        new Object[] { "a", 4, "b", 4, "c", 7 });
+    op = new SortAggregate(scan3, 1, 0, Aggregator.Op.AVG);
+    op.open();
+    avgstring.open();
+    TestUtil.matchAllTuples(avgstring, op);
+  }
+
+  /**
+   * Several aggregates computed in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 12, 2, 6, 3,
+                    3, 12, 2, 6, 3,
+                    5, 7, 7, 7, 1 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+
+    // COUNT over a string field next to an int aggregate, no grouping
+    op = new Aggregate(scan2, new int[] { 1, 0 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.AVG });
+    expected = TestUtil.createTupleList(2, new int[] { 7, 2 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Grouping by a combination of fields, in memory and spilled
+   */
+  @Test public void compositeGroupBy() throws Exception {
+    int[] data = new int[600 * 3];
+    for (int i = 0; i < 600; i++) {
+      data[3 * i] = i % 30;
+      data[3 * i + 1] = i % 20;
+      data[3 * i + 2] = i;
+    }
+    // (i % 30, i % 20) has lcm(30, 20) = 60 distinct values, 10 rows each
+    for (int memoryPages : new int[] { Aggregate.DEFAULT_MEMORY_PAGES, 1 }) {
+      // tiny pages, so that one page holds only a few groups
+      if (memoryPages == 1)
+        BufferPool.setPageSize(64);
+      Aggregate op = new Aggregate(TestUtil.createTupleList(3, data), new int[] { 2 },
+          new int[] { 0, 1 }, new Aggregator.Op[] { Aggregator.Op.COUNT }, memoryPages);
+      op.open();
+      assertEquals(memoryPages == 1, op.numSpills() > 0);
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertEquals(3, t.getTupleDesc().numFields());
+        assertEquals(10, ((IntField) t.getField(2)).getValue());
+        groups++;
+      }
+      assertEquals(60, groups);
+      op.close();
+    }
+    BufferPool.resetPageSize();
+  }
+
   /**
    * JUnit suite target
    */
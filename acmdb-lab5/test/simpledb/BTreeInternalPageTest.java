@@ -116,6 +116,46 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.setRightSiblingId()
+	 */
+	@Test public void setRightSiblingId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(null, page.getRightSiblingId());
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.INTERNAL);
+		page.setRightSiblingId(id);
+		assertEquals(id, page.getRightSiblingId());
+
+		id = new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF);
+		try {
+			page.setRightSiblingId(id);
+			throw new Exception("should not be able to set rightSiblingId to a leaf node; expected DbException");
+		} catch (DbException e) {
+			// explicitly ignored
+		}
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.getHighKey() and movesRight()
+	 */
+	@Test public void highKey() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(null, page.getHighKey());
+		assertFalse(page.movesRight(new IntField(70000)));
+
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.INTERNAL);
+		page.setRightSiblingId(id);
+		page.setHighKey(new IntField(62778));
+		assertFalse(page.movesRight(null));
+		assertFalse(page.movesRight(new IntField(62778)));
+		assertTrue(page.movesRight(new IntField(62779)));
+
+		// the right link and high key survive a round trip to disk
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(id, copy.getRightSiblingId());
+		assertEquals(new IntField(62778), copy.getHighKey());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.iterator()
 	 */
@@ -171,7 +211,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 	 */
 	@Test public void getNumEmptySlots() throws Exception {
 		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
-		assertEquals(483, page.getNumEmptySlots());
+		assertEquals(482, page.getNumEmptySlots());
 	}
 
 	/**
@@ -238,7 +278,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		int free = page.getNumEmptySlots();
 
 		// NOTE(ghuo): this nested loop existence check is slow, but it
-		// shouldn't make a difference for n = 503 slots.
+		// shouldn't make a difference for n = 502 slots.
 
 		for (int i = 0; i < free; ++i) {
 			BTreeEntry addition = BTreeUtility.getBTreeEntry(i+21, 70000+i, pid.getTableId());
@@ -313,6 +353,47 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), lowerBound() and
+	 * getEntryAt(), compared against a linear scan of the entries
+	 */
+	@Test public void binarySearch() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		assertEquals(entries.size(), page.getNumEntries());
+
+		for (int i = 0; i < entries.size(); i++) {
+			BTreeEntry e = page.getEntryAt(i);
+			assertEquals(entries.get(i).getKey(), e.getKey());
+			assertEquals(entries.get(i).getLeftChild(), e.getLeftChild());
+			assertEquals(entries.get(i).getRightChild(), e.getRightChild());
+			assertEquals(entries.get(i).getRecordId(), e.getRecordId());
+			assertEquals(e.getLeftChild(), page.getChildAt(i));
+			// the example page reuses some child page numbers
+			assertEquals(e.getLeftChild(), page.getChildAt(page.indexOfChild(e.getLeftChild())));
+		}
+
+		assertEquals(entries.get(0).getLeftChild(), page.findChild(null));
+		for (int f = 0; f < 70000; f += 97) {
+			IntField key = new IntField(f);
+			BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+			for (BTreeEntry e : entries) {
+				if (e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, key)) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals(expected, page.findChild(key));
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			assertEquals(i, page.lowerBound(entries.get(i).getKey()));
+			assertEquals(i + 1, page.upperBound(entries.get(i).getKey()));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
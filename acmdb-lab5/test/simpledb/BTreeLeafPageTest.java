@@ -158,6 +158,29 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.getHighKey() and movesRight()
+	 */
+	@Test public void highKey() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(null, page.getHighKey());
+
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF);
+		page.setRightSiblingId(id);
+		page.setHighKey(new IntField(70000));
+		assertFalse(page.movesRight(null));
+		assertFalse(page.movesRight(new IntField(70000)));
+		assertTrue(page.movesRight(new IntField(70001)));
+
+		// the high key survives a round trip to disk
+		BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData(), 0);
+		assertEquals(new IntField(70000), copy.getHighKey());
+
+		// a page without a right sibling has no high key
+		copy.setRightSiblingId(null);
+		assertEquals(null, copy.getHighKey());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.iterator()
 	 */
@@ -336,6 +359,47 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.lowerBound() and upperBound(), before and
+	 * after deletions leave holes between the used slots
+	 */
+	@Test public void binarySearch() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		int[] keys = new int[EXAMPLE_VALUES.length];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = EXAMPLE_VALUES[i][0];
+		Arrays.sort(keys);
+
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(i, page.lowerBound(new IntField(keys[i])));
+			assertEquals(i + 1, page.upperBound(new IntField(keys[i])));
+			assertEquals(i + 1, page.lowerBound(new IntField(keys[i] + 1)));
+			assertEquals(new IntField(keys[i]), page.getTupleAt(i).getField(0));
+		}
+		assertEquals(0, page.lowerBound(new IntField(0)));
+		assertEquals(keys.length, page.upperBound(new IntField(Integer.MAX_VALUE)));
+
+		// delete every third tuple
+		ArrayList<Tuple> left = new ArrayList<Tuple>();
+		Iterator<Tuple> it = page.iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			Tuple t = it.next();
+			if (i % 3 == 0)
+				page.deleteTuple(t);
+			else
+				left.add(t);
+		}
+		assertEquals(left.size(), page.getNumTuples());
+		for (int i = 0; i < left.size(); i++) {
+			Field key = left.get(i).getField(0);
+			assertEquals(i, page.lowerBound(key));
+			assertEquals(i + 1, page.upperBound(key));
+			Iterator<Tuple> from = page.iterator(i);
+			assertEquals(key, from.next().getField(0));
+		}
+		assertFalse(page.iterator(left.size()).hasNext());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
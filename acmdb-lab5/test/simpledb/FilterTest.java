@@ -2,13 +2,18 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -120,6 +125,69 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for stacked Filters, which fuse into the top one, read a tuple
+   * at a time and a batch at a time
+   */
+  @Test public void stackedFilters() throws Exception {
+    Filter op = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)),
+        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+            new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+                scan)));
+    op.open();
+    for (int i = -2; i < 3; i++) {
+      if (i == 0)
+        continue;
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    TupleBatch batch = op.nextBatch();
+    assertEquals(4, batch.size());
+    assertEquals(-2, batch.intColumn(2)[0]);
+    assertEquals(1, batch.intColumn(2)[2]);
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Scan and filter a table, and count the fields of its tuples that were
+   * decoded: a page only decodes the fields of the tuples that pass the
+   * filter, and only when they are read.
+   */
+  @Test public void filterDecodesOnlyWhatIsRead() throws Exception {
+    final int columns = 10, rows = 20000;
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(columns, rows, 1000, null, tuples);
+    // keep all the pages, and the tuples the scan saw, in memory
+    Database.resetBufferPool(table.numPages());
+    TransactionId tid = new TransactionId();
+    Filter op = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+        new SeqScan(tid, table.getId(), ""));
+    int matches = 0;
+    op.open();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      for (int i = 0; i < columns; i++)
+        assertNotNull(t.getField(i));
+      matches++;
+    }
+    op.close();
+
+    int decoded = 0;
+    for (int p = 0; p < table.numPages(); p++) {
+      HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+          new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+      Iterator<Tuple> it = page.iterator();
+      while (it.hasNext())
+        decoded += it.next().decodedFields();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertTrue(matches > 0);
+    assertEquals(matches * columns, decoded);
+  }
+
   /**
    * JUnit suite target
    */
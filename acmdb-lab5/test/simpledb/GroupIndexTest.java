@@ -0,0 +1,75 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupIndexTest extends SimpleDbTestBase {
+
+  /**
+   * Int group values get dense slots in order of first appearance, and
+   * survive the hash table growing several times
+   */
+  @Test public void intSlots() {
+    GroupIndex gi = new GroupIndex(Type.INT_TYPE);
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 1000; i++)
+        assertEquals(i, gi.slotOf(new IntField(i * 7 - 500)));
+    }
+    assertEquals(1000, gi.size());
+    for (int i = 0; i < 1000; i++)
+      assertEquals(new IntField(i * 7 - 500), gi.keyOf(i));
+  }
+
+  /**
+   * String group values use the generic path
+   */
+  @Test public void stringSlots() {
+    GroupIndex gi = new GroupIndex(Type.STRING_TYPE);
+    assertEquals(0, gi.slotOf(new StringField("a", Type.STRING_LEN)));
+    assertEquals(1, gi.slotOf(new StringField("b", Type.STRING_LEN)));
+    assertEquals(0, gi.slotOf(new StringField("a", Type.STRING_LEN)));
+    assertEquals(2, gi.size());
+    assertEquals(new StringField("b", Type.STRING_LEN), gi.keyOf(1));
+    gi.clear();
+    assertEquals(0, gi.size());
+  }
+
+  /**
+   * Without grouping there is only ever slot 0, once something is merged
+   */
+  @Test public void noGrouping() {
+    GroupIndex gi = new GroupIndex((Type) null);
+    assertEquals(0, gi.size());
+    assertEquals(0, gi.slotOf(null));
+    assertEquals(0, gi.slotOf(null));
+    assertEquals(1, gi.size());
+    assertNull(gi.keyOf(0));
+  }
+
+  /**
+   * IntIntHashMap lookups of missing keys and overwrites
+   */
+  @Test public void intIntHashMap() {
+    IntIntHashMap m = new IntIntHashMap();
+    assertEquals(IntIntHashMap.NO_VALUE, m.get(3));
+    for (int i = 0; i < 100; i++)
+      m.put(i << 16, i);
+    m.put(5 << 16, 42);
+    assertEquals(100, m.size());
+    assertEquals(42, m.get(5 << 16));
+    assertEquals(99, m.get(99 << 16));
+    assertEquals(IntIntHashMap.NO_VALUE, m.get(100 << 16));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GroupIndexTest.class);
+  }
+}
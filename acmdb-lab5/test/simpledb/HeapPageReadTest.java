@@ -120,6 +120,70 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for the tuples of a HeapPage decoding only the fields that
+     * are asked for, and predicates comparing int fields on the page bytes
+     */
+    @Test public void lazyFields() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        IntField value = new IntField(EXAMPLE_VALUES[10][0]);
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            for (Predicate.Op op : Predicate.Op.values()) {
+                boolean expected = new IntField(EXAMPLE_VALUES[row][0]).compare(op, value);
+                assertEquals(expected, new Predicate(0, op, value).filter(tup));
+            }
+            assertEquals(0, tup.decodedFields());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(1, tup.decodedFields());
+            row++;
+        }
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for predicates comparing string fields on the page bytes
+     */
+    @Test public void lazyStringFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId spid = new HeapPageId(-2, 0);
+        String[] values = { "", "a", "ab", "abc", "b", "ba", "\u00e9t\u00e9" };
+        HeapPage page = new HeapPage(spid, HeapPage.createEmptyPageData());
+        for (String v : values) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(v, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        byte[] data = page.getPageData();
+        page = new HeapPage(spid, data);
+        // the fields as another copy of the page decodes them
+        HeapPage decoded = new HeapPage(spid, data);
+
+        // LIKE decodes the field, so it comes last
+        Predicate.Op[] ops = Predicate.Op.values();
+        Arrays.sort(ops, new Comparator<Predicate.Op>() {
+            public int compare(Predicate.Op a, Predicate.Op b) {
+                return Boolean.compare(a == Predicate.Op.LIKE, b == Predicate.Op.LIKE);
+            }
+        });
+        for (Predicate.Op op : ops) {
+            for (int i = 0; i < values.length; i++) {
+                Field field = decoded.getTuple(i).getField(0);
+                for (String v : values) {
+                    StringField value = new StringField(v, Type.STRING_LEN);
+                    assertEquals(field.compare(op, value), new Predicate(0, op, value).filter(page.getTuple(i)));
+                }
+                // only the string that is not ASCII had to be decoded
+                if (op != Predicate.Op.LIKE)
+                    assertEquals(i == 6 ? 1 : 0, page.getTuple(i).decodedFields());
+            }
+        }
+        assertEquals(values[3], ((StringField) page.getTuple(3).getField(0)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
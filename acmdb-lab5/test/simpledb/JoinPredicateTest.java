@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -56,6 +57,24 @@ public class JoinPredicateTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Unit test for JoinPredicate.compile(): the compiled predicate agrees
+   * with JoinPredicate.filter() for every operator
+   */
+  @Test public void compile() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 1);
+      CompiledJoinPredicate c = p.compile(Utility.getTupleDesc(1), Utility.getTupleDesc(2));
+      for (int i = -1; i <= 1; i++) {
+        for (int j = -1; j <= 1; j++) {
+          Tuple t1 = Utility.getHeapTuple(i);
+          Tuple t2 = Utility.getHeapTuple(new int[] { 0, j });
+          assertEquals(p.filter(t1, t2), c.test(t1, t2));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
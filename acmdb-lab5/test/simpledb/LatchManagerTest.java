@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LatchManagerTest extends SimpleDbTestBase {
+
+  /**
+   * Latches are dropped once no thread holds them, so crabbing over many
+   * pages does not leave one latch behind per page
+   */
+  @Test public void latchesAreDropped() {
+    LatchManager latches = new LatchManager();
+    PageId parent = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+    for (int i = 2; i < 1000; i++) {
+      PageId child = new BTreePageId(1, i, BTreePageId.LEAF);
+      latches.latchShared(parent);
+      latches.latchShared(child);
+      latches.unlatchShared(parent);
+      assertEquals(1, latches.numLatches());
+      latches.unlatchShared(child);
+    }
+    assertEquals(0, latches.numLatches());
+  }
+
+  /**
+   * Exclusive latches taken twice by an operation are held once, and all
+   * released when it ends
+   */
+  @Test public void exclusiveLatchesEndWithTheOperation() throws Exception {
+    final LatchManager latches = new LatchManager();
+    final PageId pid = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+    latches.beginOperation();
+    latches.latchExclusive(pid);
+    latches.latchExclusive(pid);
+    latches.latchExclusive(new BTreePageId(1, 2, BTreePageId.INTERNAL));
+    assertEquals(2, latches.numLatches());
+
+    // another thread waits for the latch until the operation ends
+    final boolean[] latched = new boolean[1];
+    Thread t = new Thread() {
+      public void run() {
+        latches.latchShared(pid);
+        latched[0] = true;
+        latches.unlatchShared(pid);
+      }
+    };
+    t.start();
+    t.join(100);
+    assertTrue(!latched[0]);
+    latches.endOperation();
+    t.join();
+    assertTrue(latched[0]);
+    assertEquals(0, latches.numLatches());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LatchManagerTest.class);
+  }
+}
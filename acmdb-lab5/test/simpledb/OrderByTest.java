@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    // enough tuples that 3 pages of memory force several merge passes
+    Random rand = new Random(42);
+    data = new int[20000 * width];
+    for (int i = 0; i < data.length; i++)
+      data[i] = rand.nextInt(100);
+  }
+
+  private ArrayList<int[]> drain(DbIterator it) throws Exception {
+    ArrayList<int[]> out = new ArrayList<int[]>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int[] row = new int[width];
+      for (int i = 0; i < width; i++)
+        row[i] = ((IntField) t.getField(i)).getValue();
+      out.add(row);
+    }
+    return out;
+  }
+
+  private void checkSorted(ArrayList<int[]> rows, int[] fields, boolean[] ascs) {
+    assertEquals(data.length / width, rows.size());
+    for (int r = 1; r < rows.size(); r++) {
+      for (int f = 0; f < fields.length; f++) {
+        int a = rows.get(r - 1)[fields[f]], b = rows.get(r)[fields[f]];
+        if (a == b)
+          continue;
+        assertTrue("rows out of order at " + r, ascs[f] ? a < b : a > b);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Unit test for OrderBy.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * Sorting an input that fits in memory should not spill any runs
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = new OrderBy(1, false, TestUtil.createTupleList(width, data));
+    op.open();
+    assertEquals(0, op.numRuns());
+    checkSorted(drain(op), new int[] { 1 }, new boolean[] { false });
+    op.close();
+  }
+
+  /**
+   * Sorting with a tiny memory budget spills runs and merges them
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+        TestUtil.createTupleList(width, data), 3);
+    op.open();
+    assertTrue(op.numRuns() > 0);
+    assertTrue(op.numRuns() <= 2);
+    checkSorted(drain(op), new int[] { 0 }, new boolean[] { true });
+    op.close();
+  }
+
+  /**
+   * Multi-column sort keys, with mixed directions
+   */
+  @Test public void multiColumnSort() throws Exception {
+    int[] fields = new int[] { 0, 1 };
+    boolean[] ascs = new boolean[] { true, false };
+    OrderBy op = new OrderBy(fields, ascs, TestUtil.createTupleList(width, data), 4);
+    op.open();
+    checkSorted(drain(op), fields, ascs);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind() on a spilled sort
+   */
+  @Test public void rewind() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+        TestUtil.createTupleList(width, data), 3);
+    op.open();
+    ArrayList<int[]> first = drain(op);
+    op.rewind();
+    ArrayList<int[]> second = drain(op);
+    assertEquals(first.size(), second.size());
+    for (int i = 0; i < first.size(); i++)
+      assertEquals(first.get(i)[0], second.get(i)[0]);
+    op.close();
+  }
+
+  /**
+   * Re-opening after close should not return the input twice
+   */
+  @Test public void reopen() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    op.open();
+    drain(op);
+    op.close();
+    op.open();
+    checkSorted(drain(op), new int[] { 0 }, new boolean[] { true });
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +56,29 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.compile(): the compiled predicate agrees with
+   * Predicate.filter() for every operator, on int and string fields
+   */
+  @Test public void compile() {
+    TupleDesc std = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = -1; i <= 1; i++) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(i));
+        CompiledPredicate c = p.compile(Utility.getTupleDesc(1));
+        Predicate sp = new Predicate(0, op, new StringField("b" + i, Type.STRING_LEN));
+        CompiledPredicate sc = sp.compile(std);
+        for (int j = -2; j <= 2; j++) {
+          Tuple t = Utility.getHeapTuple(j);
+          assertEquals(p.filter(t), c.test(t));
+          Tuple st = new Tuple(std);
+          st.setField(0, new StringField("b" + j, Type.STRING_LEN));
+          assertEquals(sp.filter(st), sc.test(st));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int width = 2;
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    Random rand = new Random(7);
+    data = new int[2000 * width];
+    for (int i = 0; i < data.length; i++)
+      data[i] = rand.nextInt(50);
+  }
+
+  /**
+   * TopN must return exactly the first k tuples a stable OrderBy returns
+   */
+  private void checkAgainstOrderBy(int[] fields, boolean[] ascs, int k) throws Exception {
+    TopN top = new TopN(fields, ascs, k, TestUtil.createTupleList(width, data));
+    OrderBy sorted = new OrderBy(fields, ascs, TestUtil.createTupleList(width, data));
+    top.open();
+    sorted.open();
+    for (int i = 0; i < Math.min(k, data.length / width); i++) {
+      assertTrue(top.hasNext());
+      assertTrue(TestUtil.compareTuples(sorted.next(), top.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(top));
+    top.close();
+    sorted.close();
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 10, TestUtil.createTupleList(width, data));
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  @Test public void topAscending() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, 25);
+  }
+
+  @Test public void topDescending() throws Exception {
+    checkAgainstOrderBy(new int[] { 1 }, new boolean[] { false }, 100);
+  }
+
+  @Test public void topMultiColumn() throws Exception {
+    checkAgainstOrderBy(new int[] { 0, 1 }, new boolean[] { false, true }, 60);
+  }
+
+  @Test public void limitLargerThanInput() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, 5000);
+  }
+
+  @Test public void hugeLimit() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, Integer.MAX_VALUE);
+  }
+
+  @Test public void limitZero() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, 0);
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(0, true, 10, TestUtil.createTupleList(width, data));
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    TopN expected = new TopN(0, true, 10, TestUtil.createTupleList(width, data));
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for the plain Limit operator
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, new TestUtil.MockScan(0, 10, width));
+    op.open();
+    for (int i = 0; i < 3; i++)
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, width), op.next()));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * The parser cuts the LIMIT clause off before handing the query to Zql
+   */
+  @Test public void stripLimit() throws Exception {
+    Parser.LimitedStatement ls = Parser.stripLimit("SELECT * FROM t ORDER BY t.a limit 20;");
+    assertEquals("SELECT * FROM t ORDER BY t.a;", ls.text);
+    assertEquals(20, ls.limit);
+    ls = Parser.stripLimit("SELECT * FROM t;");
+    assertEquals("SELECT * FROM t;", ls.text);
+    assertEquals(-1, ls.limit);
+  }
+
+  @Test(expected = ParsingException.class) public void limitOutOfRange() throws Exception {
+    Parser.stripLimit("SELECT * FROM t limit 99999999999;");
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
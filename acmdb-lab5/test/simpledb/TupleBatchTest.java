@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    /** A SeqScan that counts how it is read. */
+    private static class CountingScan extends SeqScan {
+        private static final long serialVersionUID = 1L;
+        int batches, rows;
+
+        CountingScan(TransactionId tid, int tableId) {
+            super(tid, tableId, "");
+        }
+
+        public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+            TupleBatch batch = super.nextBatch();
+            if (batch != null) batches++;
+            return batch;
+        }
+
+        public Tuple next() throws TransactionAbortedException, DbException {
+            rows++;
+            return super.next();
+        }
+    }
+
+    /**
+     * Unit test for the columns of a batch read from a row iterator, and
+     * for TupleBatch.select() and TupleBatch.project()
+     */
+    @Test public void rowsAndColumns() throws Exception {
+        Object[] data = new Object[2 * 3000];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = i;
+            data[2 * i + 1] = "s" + i;
+        }
+        DbIterator it = TestUtil.createTupleList(2, data);
+        TupleBatch batch = TupleBatch.next(it);
+        assertEquals(TupleBatch.DEFAULT_CAPACITY, batch.size());
+        assertTrue(batch.isFull());
+        assertEquals(5, batch.intColumn(0)[5]);
+        assertNull(batch.intColumn(1));
+        assertEquals(new StringField("s7", Type.STRING_LEN), batch.getField(7, 1));
+        assertTrue(TestUtil.compareTuples(batch.getTuple(9), batch.getTuple(9)));
+        assertEquals(new IntField(9), batch.getTuple(9).getField(0));
+
+        batch.select(new int[] { 2, 10, 1000 }, 3);
+        assertEquals(3, batch.size());
+        assertEquals(10, batch.intColumn(0)[1]);
+        assertEquals(new StringField("s1000", Type.STRING_LEN), batch.getField(2, 1));
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        TupleBatch projected = batch.project(td, new int[] { 1 });
+        assertEquals(3, projected.size());
+        assertEquals(new StringField("s2", Type.STRING_LEN), projected.getTuple(0).getField(0));
+
+        // the rest of the rows come in the following batches
+        int rows = 0;
+        while ((batch = TupleBatch.next(it)) != null)
+            rows += batch.size();
+        assertEquals(3000 - TupleBatch.DEFAULT_CAPACITY, rows);
+    }
+
+    /**
+     * Scan, filter and aggregate a table: the scan is only read a batch at a
+     * time, and the result is the same as tuple by tuple.
+     */
+    @Test public void scanFilterAggregate() throws Exception {
+        final int rows = 5000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, 100, null, tuples);
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50) {
+                Integer s = sums.get(t.get(2));
+                sums.put(t.get(2), (s == null ? 0 : s) + t.get(1));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        CountingScan scan = new CountingScan(tid, table.getId());
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)), scan);
+        Aggregate agg = new Aggregate(filter, 1, 2, Aggregator.Op.SUM);
+        agg.open();
+        HashMap<Integer, Integer> actual = new HashMap<Integer, Integer>();
+        TupleBatch batch;
+        while ((batch = agg.nextBatch()) != null) {
+            for (int r = 0; r < batch.size(); r++)
+                actual.put(batch.intColumn(0)[r], batch.intColumn(1)[r]);
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(sums, actual);
+        assertEquals(0, scan.rows);
+        assertEquals((rows + TupleBatch.DEFAULT_CAPACITY - 1) / TupleBatch.DEFAULT_CAPACITY, scan.batches);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.nextBatch() on int and string keys, with
+     * more joined tuples than fit in a batch
+     */
+    @Test public void hashJoinBatches() throws Exception {
+        int[] left = new int[2 * 100];
+        for (int i = 0; i < 100; i++) {
+            left[2 * i] = i % 10;
+            left[2 * i + 1] = i;
+        }
+        int[] right = new int[300];
+        for (int i = 0; i < 300; i++)
+            right[i] = i % 20;
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, left), TestUtil.createTupleList(1, right));
+        join.open();
+        int n = 0, batches = 0;
+        TupleBatch batch;
+        while ((batch = join.nextBatch()) != null) {
+            batches++;
+            for (int r = 0; r < batch.size(); r++) {
+                assertEquals(batch.intColumn(0)[r], batch.intColumn(2)[r]);
+                assertEquals(batch.intColumn(0)[r], batch.intColumn(1)[r] % 10);
+            }
+            n += batch.size();
+        }
+        // each of the 150 right tuples with a key below 10 joins 10 left ones
+        assertEquals(1500, n);
+        assertEquals(2, batches);
+        // read tuple by tuple after a rewind, the same tuples come out
+        join.rewind();
+        n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        assertEquals(1500, n);
+        join.close();
+
+        Object[] names = new Object[] { "a", 1, "b", 2, "a", 3 };
+        join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, names), TestUtil.createTupleList(2, names));
+        join.open();
+        n = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            n++;
+        }
+        assertEquals(5, n);
+        join.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -1,8 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
@@ -57,6 +63,88 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for a tuple of only int fields, which keeps them as ints
+     */
+    @Test public void intFields() {
+        Tuple tup = new Tuple(Utility.getTupleDesc(3));
+        assertNull(tup.getField(0));
+        assertEquals(0, tup.decodedFields());
+        tup.setField(0, new IntField(-5));
+        tup.setField(2, new IntField(Integer.MAX_VALUE));
+        assertEquals(2, tup.decodedFields());
+        assertEquals(-5, tup.getInt(0));
+        assertEquals(new IntField(Integer.MAX_VALUE), tup.getField(2));
+        assertNull(tup.getField(1));
+
+        tup.setField(0, null);
+        assertNull(tup.getField(0));
+        assertEquals(1, tup.decodedFields());
+
+        // a field set to something other than an int still works
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+        assertEquals(new IntField(Integer.MAX_VALUE), tup.getField(2));
+        assertEquals(Integer.MAX_VALUE, tup.getInt(2));
+    }
+
+    /**
+     * Unit test for Tuple.merge()
+     */
+    @Test public void merge() {
+        Tuple a = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple b = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.merge(a.getTupleDesc(), b.getTupleDesc());
+        Tuple m = Tuple.merge(td, a, b);
+        assertEquals(td, m.getTupleDesc());
+        for (int i = 0; i < 5; i++)
+            assertEquals(new IntField(i + 1), m.getField(i));
+
+        TupleDesc std = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Tuple s = new Tuple(std);
+        s.setField(0, new StringField("x", Type.STRING_LEN));
+        m = Tuple.merge(TupleDesc.merge(a.getTupleDesc(), std), a, s);
+        assertEquals(new IntField(2), m.getField(1));
+        assertEquals(new StringField("x", Type.STRING_LEN), m.getField(2));
+    }
+
+    /**
+     * Unit test for Tuple.compareField() between two tuples
+     */
+    @Test public void compareFieldOfTuples() {
+        Tuple a = Utility.getHeapTuple(new int[] { 1, 7 });
+        Tuple b = Utility.getHeapTuple(new int[] { 7, 1 });
+        assertTrue(a.compareField(1, Predicate.Op.EQUALS, b, 0));
+        assertFalse(a.compareField(0, Predicate.Op.NOT_EQUALS, b, 1));
+        assertTrue(a.compareField(0, Predicate.Op.LESS_THAN, b, 0));
+        assertTrue(a.compareField(1, Predicate.Op.GREATER_THAN_OR_EQ, b, 1));
+        assertFalse(a.compareField(1, Predicate.Op.LESS_THAN_OR_EQ, b, 1));
+    }
+
+    /**
+     * Unit test for Tuple.materialize()
+     */
+    @Test public void materialize() {
+        TupleDesc itd = Utility.getTupleDesc(2);
+        byte[] data = ByteBuffer.allocate(itd.getSize()).putInt(3).putInt(4).array();
+        Tuple ints = new Tuple(itd, data, 0);
+        assertEquals(3, ints.getInt(0));
+        ints.materialize();
+        Arrays.fill(data, (byte) 0);
+        assertEquals(3, ints.getInt(0));
+        assertEquals(new IntField(4), ints.getField(1));
+
+        TupleDesc std = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        data = new byte[std.getSize()];
+        ByteBuffer.wrap(data).putInt(1).put((byte) 'x').putInt(std.getOffset(1), 5);
+        Tuple mixed = new Tuple(std, data, 0);
+        mixed.materialize();
+        Arrays.fill(data, (byte) 0);
+        assertEquals(new StringField("x", Type.STRING_LEN), mixed.getField(0));
+        assertTrue(mixed.compareField(0, Predicate.Op.EQUALS, new StringField("x", Type.STRING_LEN)));
+        assertEquals(5, mixed.getInt(1));
+    }
+
     /**
      * JUnit suite target
      */
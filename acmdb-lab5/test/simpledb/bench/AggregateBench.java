@@ -0,0 +1,44 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Random;
+
+/**
+ * Grouped and ungrouped aggregates over a table of a million rows in a
+ * thousand groups, and the aggregator itself fed the same tuples.
+ */
+class AggregateBench implements Benchmark.Measurement {
+
+    private static final int ROWS = 1000000;
+    private static final int GROUPS = 1000;
+
+    public void run(Benchmark b) throws Exception {
+        final Random r = new Random(28);
+        // c0 is the group, c1 the value
+        final HeapFile table = Benchmark.intTable(ROWS, 2,
+                (row, field) -> field == 0 ? row % GROUPS : r.nextInt(1000000));
+        Database.resetBufferPool(table.numPages() + 10);
+        final TransactionId tid = new TransactionId();
+
+        b.time("SUM(c1) GROUP BY c0", () -> Benchmark.count(
+                new Aggregate(new SeqScan(tid, table.getId()), 1, 0, Aggregator.Op.SUM)));
+        b.time("AVG(c1) GROUP BY c0", () -> Benchmark.count(
+                new Aggregate(new SeqScan(tid, table.getId()), 1, 0, Aggregator.Op.AVG)));
+        b.time("MAX(c1)", () -> Benchmark.count(
+                new Aggregate(new SeqScan(tid, table.getId()), 1, Aggregator.NO_GROUPING, Aggregator.Op.MAX)));
+
+        final Tuple[] tuples = new Tuple[GROUPS * 100];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = Utility.getHeapTuple(new int[] { i % GROUPS, r.nextInt(1000000) });
+        }
+        b.time("IntegerAggregator, " + tuples.length + " tuples", () -> {
+            IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+            for (Tuple t : tuples)
+                agg.mergeTupleIntoGroup(t);
+            Benchmark.count(agg.iterator());
+        });
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Point lookups in B+ trees of two, three and four levels, built with small
+ * pages so that they stay small, with every page in the buffer pool.
+ */
+class BTreeSearchBench implements Benchmark.Measurement {
+
+    private static final int PAGE_SIZE = 256;
+    private static final int LOOKUPS = 20000;
+
+    /** @return the number of levels of the tree, the leaves included */
+    private static int height(BTreeFile f, TransactionId tid) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+        BTreePageId pid = rootPtr.getRootId();
+        int height = 1;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            Iterator<BTreeEntry> it = ((BTreeInternalPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_ONLY)).iterator();
+            pid = it.next().getLeftChild();
+            height++;
+        }
+        return height;
+    }
+
+    public void run(Benchmark b) throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        try {
+            for (int rows : new int[] { 500, 20000, 60000 }) {
+                Database.reset();
+                final int maxKey = 4 * rows;
+                final BTreeFile f = BTreeUtility.createRandomBTreeFile(2, rows, maxKey, null, null, 0);
+                Database.resetBufferPool(f.numPages() + 10);
+                final TransactionId tid = new TransactionId();
+                final int[] keys = new int[LOOKUPS];
+                Random r = new Random(31);
+                for (int i = 0; i < keys.length; i++)
+                    keys[i] = r.nextInt(maxKey);
+
+                String label = "height " + height(f, tid) + ", " + rows + " rows";
+                double ms = b.time(label + ", " + LOOKUPS + " lookups", () -> {
+                    for (int k : keys) {
+                        DbFileIterator it = f.indexIterator(tid,
+                                new IndexPredicate(Predicate.Op.EQUALS, new IntField(k)));
+                        it.open();
+                        while (it.hasNext())
+                            it.next();
+                        it.close();
+                    }
+                });
+                b.report(label + ", per lookup", String.format("%.2f us", ms * 1000 / LOOKUPS));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Random;
+
+/**
+ * Scan-filter-aggregate queries run a batch at a time, and a row at a time
+ * by hiding the batches of the scan and the filter behind {@link Rows}.
+ */
+class BatchBench implements Benchmark.Measurement {
+
+    private static final int ROWS = 1000000;
+
+    /** A DbIterator that only returns the tuples of another one as rows. */
+    private static class Rows implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final DbIterator it;
+
+        Rows(DbIterator it) {
+            this.it = it;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return it.getTupleDesc();
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+
+    /**
+     * @return the plan of SELECT c2, op(c1) FROM t WHERE c0 < 500 GROUP BY
+     *         c2, read a row at a time unless batched
+     */
+    private static DbIterator plan(TransactionId tid, HeapFile t, Aggregator.Op op, boolean batched) {
+        DbIterator scan = new SeqScan(tid, t.getId());
+        if (!batched) scan = new Rows(scan);
+        DbIterator filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)), scan);
+        if (!batched) filter = new Rows(filter);
+        return new Aggregate(filter, 1, 2, op);
+    }
+
+    public void run(Benchmark b) throws Exception {
+        final Random r = new Random(43);
+        final HeapFile table = Benchmark.intTable(ROWS, 3, (row, field) -> r.nextInt(1000));
+        Database.resetBufferPool(table.numPages() + 10);
+        final TransactionId tid = new TransactionId();
+
+        for (final Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+            String query = "SELECT c2, " + op + "(c1) FROM t WHERE c0 < 500 GROUP BY c2";
+            double rows = b.time(query + ", rows", () -> Benchmark.count(plan(tid, table, op, false)));
+            double batches = b.time(query + ", batches", () -> Benchmark.count(plan(tid, table, op, true)));
+            b.report(query + ", speedup", String.format("%.1fx", rows / batches));
+        }
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
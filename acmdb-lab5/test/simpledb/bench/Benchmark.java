@@ -0,0 +1,130 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmark runs the performance measurements of SimpleDb, which are kept
+ * out of the JUnit suites. Each measurement builds its tables, then times
+ * its workloads: every workload runs once to warm up and {@link #RUNS} more
+ * times, and the average time of a run is printed.
+ * <p>
+ * Run them all with {@code ant bench}, or some of them by name with
+ * {@code ant bench -Dbench="aggregate ..."}.
+ */
+public class Benchmark {
+
+    /** The number of timed runs of each workload. */
+    public static final int RUNS = 5;
+
+    /** A measurement, which reports its results through a Benchmark. */
+    public interface Measurement {
+        void run(Benchmark b) throws Exception;
+    }
+
+    /** Some work to time. */
+    public interface Workload {
+        void run() throws Exception;
+    }
+
+    /** The value of a field of a generated table. */
+    public interface Generator {
+        int value(int row, int field);
+    }
+
+    private static final LinkedHashMap<String, Measurement> MEASUREMENTS = new LinkedHashMap<>();
+
+    static {
+        MEASUREMENTS.put("aggregate", new AggregateBench());
+        MEASUREMENTS.put("btree-search", new BTreeSearchBench());
+        MEASUREMENTS.put("concurrent-insert", new ConcurrentInsertBench());
+        MEASUREMENTS.put("int-tuples", new IntTupleBench());
+        MEASUREMENTS.put("batch", new BatchBench());
+        MEASUREMENTS.put("push-engine", new PushEngineBench());
+        MEASUREMENTS.put("join-filter", new JoinFilterBench());
+    }
+
+    private final String name;
+
+    private Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Time a workload and report the average time of a run.
+     *
+     * @return the average time of a run, in ms
+     */
+    public double time(String label, Workload w) throws Exception {
+        w.run();
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            w.run();
+            total += System.nanoTime() - start;
+        }
+        double ms = total / 1e6 / RUNS;
+        report(label, String.format("%.1f ms", ms));
+        return ms;
+    }
+
+    /** Print a result of the measurement. */
+    public void report(String label, String value) {
+        System.out.println(name + ": " + label + ": " + value);
+    }
+
+    /**
+     * @return a new HeapFile of rows tuples of the given number of int
+     *         fields, named c0, c1, ..., with the values of gen, added to
+     *         the catalog
+     */
+    public static HeapFile intTable(int rows, int columns, Generator gen) throws IOException {
+        File text = File.createTempFile("bench", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(text))) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) w.write(',');
+                    w.write(Integer.toString(gen.value(r, c)));
+                }
+                w.write('\n');
+            }
+        }
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        ZoneMap.zoneFile(f).deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), columns);
+        text.delete();
+        return Utility.openHeapFile(columns, "c", f);
+    }
+
+    /** @return the number of tuples of a plan, which is opened and closed */
+    public static int count(DbIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    /**
+     * Run the measurements named in args, or all of them if there are none.
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> names = args.length == 0
+                ? new ArrayList<>(MEASUREMENTS.keySet()) : Arrays.asList(args);
+        for (String n : names) {
+            if (!MEASUREMENTS.containsKey(n))
+                throw new IllegalArgumentException("no benchmark " + n + ", only " + MEASUREMENTS.keySet());
+        }
+        for (String n : names) {
+            Database.reset();
+            MEASUREMENTS.get(n).run(new Benchmark(n));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writers inserting into disjoint key ranges of a B+ tree, one transaction
+ * per tuple, with one to eight threads.
+ */
+class ConcurrentInsertBench implements Benchmark.Measurement {
+
+    private static final int ROWS = 10000;
+    private static final int INSERTS = 4000;
+
+    public void run(Benchmark b) throws Exception {
+        for (final int threads : new int[] { 1, 2, 4, 8 }) {
+            Database.reset();
+            final BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ROWS, null, null, 0);
+            Database.resetBufferPool(1000);
+            final int perThread = INSERTS / threads;
+            final AtomicInteger nextRange = new AtomicInteger();
+            final AtomicInteger aborts = new AtomicInteger();
+            final AtomicReference<Exception> error = new AtomicReference<>();
+
+            double ms = b.time(threads + " threads, " + INSERTS + " inserts", () -> {
+                ArrayList<Thread> writers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    // above all the random keys, and a new range per thread and run
+                    final int base = BTreeUtility.MAX_RAND_VALUE + nextRange.getAndIncrement() * perThread;
+                    Thread writer = new Thread(() -> {
+                        try {
+                            for (int j = 0; j < perThread; j++) {
+                                while (true) {
+                                    TransactionId tid = new TransactionId();
+                                    try {
+                                        Database.getBufferPool().insertTuple(tid, bf.getId(),
+                                                BTreeUtility.getBTreeTuple(new int[] { base + j, j }));
+                                        Database.getBufferPool().transactionComplete(tid);
+                                        break;
+                                    } catch (TransactionAbortedException e) {
+                                        aborts.incrementAndGet();
+                                        Database.getBufferPool().transactionComplete(tid, false);
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            error.set(e);
+                        }
+                    });
+                    writers.add(writer);
+                    writer.start();
+                }
+                for (Thread writer : writers)
+                    writer.join();
+                if (error.get() != null)
+                    throw error.get();
+            });
+            b.report(threads + " threads, inserts/s", String.format("%.0f", INSERTS * 1000 / ms));
+            b.report(threads + " threads, aborts per run", String.valueOf(aborts.get() / (Benchmark.RUNS + 1)));
+        }
+    }
+}
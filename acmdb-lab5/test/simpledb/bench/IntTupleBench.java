@@ -0,0 +1,59 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Random;
+
+/**
+ * Joins and an aggregate over tables of int fields, which make and merge a
+ * tuple per row, and the making and merging of tuples on their own.
+ */
+class IntTupleBench implements Benchmark.Measurement {
+
+    private static final int FACTS = 200000;
+    private static final int DIMS = 10000;
+    private static final int COLUMNS = 10;
+
+    /** Keeps the merged tuples from being optimized away. */
+    private static volatile int sink;
+
+    public void run(Benchmark b) throws Exception {
+        final Random r = new Random(42);
+        final HeapFile facts = Benchmark.intTable(FACTS, COLUMNS, (row, field) -> r.nextInt(DIMS));
+        final HeapFile dims = Benchmark.intTable(DIMS, COLUMNS,
+                (row, field) -> field == 0 ? row : r.nextInt(1000));
+        Database.resetBufferPool(facts.numPages() + dims.numPages() + 10);
+        final TransactionId tid = new TransactionId();
+
+        double ms = b.time("hash join, " + FACTS + " x " + DIMS + " rows", () -> Benchmark.count(
+                new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, dims.getId()), new SeqScan(tid, facts.getId()))));
+        b.report("hash join, rows/ms", String.format("%.0f", FACTS / ms));
+        b.time("nested loop join, 2000 x 2000 rows", () -> Benchmark.count(
+                new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2000)),
+                                new SeqScan(tid, dims.getId())),
+                        new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2000)),
+                                new SeqScan(tid, dims.getId())))));
+        ms = b.time("SUM(c9) GROUP BY c0, " + FACTS + " rows", () -> Benchmark.count(
+                new Aggregate(new SeqScan(tid, facts.getId()), COLUMNS - 1, 0, Aggregator.Op.SUM)));
+        b.report("aggregate, rows/ms", String.format("%.0f", FACTS / ms));
+
+        final TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        final TupleDesc merged = TupleDesc.merge(td, td);
+        b.time("make and merge " + FACTS + " tuples", () -> {
+            Tuple left = new Tuple(td);
+            int sum = 0;
+            for (int i = 0; i < FACTS; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < COLUMNS; j++)
+                    t.setField(j, new IntField(i + j));
+                sum += Tuple.merge(merged, t, left).getInt(0);
+                left = t;
+            }
+            sink = sum;
+        });
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
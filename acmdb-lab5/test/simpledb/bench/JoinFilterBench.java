@@ -0,0 +1,63 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Random;
+
+/**
+ * A star join of a fact table with two filtered dimension tables, with and
+ * without the runtime filters the hash joins push into the scan of the fact
+ * table.
+ */
+class JoinFilterBench implements Benchmark.Measurement {
+
+    private static final int ROWS = 500000;
+    private static final int KEYS = 1000;
+
+    /**
+     * @return the plan of SELECT * FROM a, b, f WHERE a.c1 < 5 AND b.c1 < 10
+     *         AND a.c0 = f.c0 AND b.c0 = f.c1, with the fact table on the
+     *         probe side of both joins
+     */
+    private static HashEquiJoin star(TransactionId tid, HeapFile fact, HeapFile dim1, HeapFile dim2,
+            boolean filtered) {
+        DbIterator a = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(5)),
+                new SeqScan(tid, dim1.getId(), "a"));
+        DbIterator b = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, dim2.getId(), "b"));
+        HashEquiJoin inner = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), a,
+                new SeqScan(tid, fact.getId(), "f"));
+        // f.c1 is the fourth field of a joined with f
+        HashEquiJoin outer = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 3), b, inner);
+        inner.setRuntimeFilter(filtered);
+        outer.setRuntimeFilter(filtered);
+        return outer;
+    }
+
+    public void run(Benchmark b) throws Exception {
+        final Random r = new Random(50);
+        // the first two fields of the facts are keys of the dimensions, whose
+        // second field is a category
+        final HeapFile fact = Benchmark.intTable(ROWS, 3, (row, field) -> field < 2 ? r.nextInt(KEYS) : row);
+        final HeapFile dim1 = Benchmark.intTable(KEYS, 2, (row, field) -> field == 0 ? row : row % 100);
+        final HeapFile dim2 = Benchmark.intTable(KEYS, 2, (row, field) -> field == 0 ? row : row % 100);
+        Database.resetBufferPool(fact.numPages() + dim1.numPages() + dim2.numPages() + 10);
+        final TransactionId tid = new TransactionId();
+
+        double plain = b.time("star join, " + ROWS + " fact rows, no filters",
+                () -> Benchmark.count(star(tid, fact, dim1, dim2, false)));
+        double filtered = b.time("star join, " + ROWS + " fact rows, runtime filters",
+                () -> Benchmark.count(star(tid, fact, dim1, dim2, true)));
+        b.report("speedup", String.format("%.1fx", plain / filtered));
+
+        HashEquiJoin plan = star(tid, fact, dim1, dim2, true);
+        Benchmark.count(plan);
+        long eliminated = 0;
+        HashEquiJoin inner = (HashEquiJoin) plan.getChildren()[1];
+        for (JoinFilter f : ((SeqScan) inner.getChildren()[1]).getJoinFilters())
+            eliminated += f.getEliminated();
+        b.report("fact rows eliminated", eliminated + " of " + ROWS);
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
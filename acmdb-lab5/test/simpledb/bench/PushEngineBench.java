@@ -0,0 +1,55 @@
+package simpledb.bench;
+
+import simpledb.*;
+
+import java.util.Random;
+
+/**
+ * A scan-filter-aggregate query and a hash join, run by pulling tuples
+ * through the operators and by {@link PushEngine}.
+ */
+class PushEngineBench implements Benchmark.Measurement {
+
+    private static final int ROWS = 1000000;
+
+    private static void compare(Benchmark b, String label, final TransactionId tid, final LogicalPlan lp)
+            throws Exception {
+        double pull = b.time(label + ", pull", () -> Benchmark.count(
+                lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+        double push = b.time(label + ", push", () -> PushEngine.run(
+                lp.physicalPlan(tid, TableStats.getStatsMap(), false), t -> { }));
+        b.report(label + ", rows/ms", String.format("pull %.0f, push %.0f", ROWS / pull, ROWS / push));
+    }
+
+    public void run(Benchmark b) throws Exception {
+        final Random r = new Random(45);
+        final HeapFile table = Benchmark.intTable(ROWS, 3, (row, field) -> r.nextInt(1000));
+        final HeapFile other = Benchmark.intTable(2000, 2, (row, field) -> r.nextInt(1000));
+        TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+                new TableStats(table.getId(), 71));
+        TableStats.setTableStats(Database.getCatalog().getTableName(other.getId()),
+                new TableStats(other.getId(), 71));
+        Database.resetBufferPool(table.numPages() + other.numPages() + 10);
+        final TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "500");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("t.c2", null);
+        lp.addProjectField("t.c1", "SUM");
+        lp.addAggregate("SUM", "t.c1", null);
+        lp.addGroupBy("t.c2");
+        compare(b, "SELECT t.c2, SUM(t.c1) FROM t WHERE t.c0 < 500 AND t.c1 > 100 GROUP BY t.c2", tid, lp);
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addScan(other.getId(), "o");
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "100");
+        lp.addJoin("t.c0", "o.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("t.c0", "COUNT");
+        lp.addAggregate("COUNT", "t.c0", null);
+        compare(b, "SELECT COUNT(t.c0) FROM t, o WHERE t.c0 = o.c0 AND t.c1 < 100", tid, lp);
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
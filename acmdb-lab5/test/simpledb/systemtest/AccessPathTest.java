@@ -0,0 +1,258 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class AccessPathTest extends SimpleDbTestBase {
+	private static final int IO_COST = 71;
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Create a B+ tree table of random tuples, returned in the list, keyed on
+	 * its first field and with statistics registered for the planner.
+	 */
+	private BTreeFile createBTreeTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 40000, 40000, null, tuples, "c");
+		File f = File.createTempFile("access", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.openBTreeFile(3, "c", f, 0);
+		bf.bulkLoad(new OrderBy(new int[] { 0 }, new boolean[] { true },
+				new SeqScan(tid, hf.getId(), "t")), 1.0);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		computeStats(bf.getId());
+		return bf;
+	}
+
+	private void computeStats(int tableid) {
+		TableStats.setTableStats(Database.getCatalog().getTableName(tableid),
+				new TableStats(tableid, IO_COST));
+	}
+
+	/**
+	 * Plan <tt>SELECT * FROM table t WHERE t.c[field] op value</tt> for each
+	 * of the given filters.
+	 */
+	private DbIterator plan(int tableid, int[] fields, Op[] ops, int[] values) throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(tableid, "t");
+		for (int i = 0; i < fields.length; i++)
+			lp.addFilter("t.c" + fields[i], ops[i], "" + values[i]);
+		lp.addProjectField("*", null);
+		return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+	}
+
+	private DbIterator plan(int tableid, int field, Op op, int value) throws Exception {
+		return plan(tableid, new int[] { field }, new Op[] { op }, new int[] { value });
+	}
+
+	/**
+	 * @return the scan at the bottom of a plan over a single table
+	 */
+	private DbIterator scanOf(DbIterator plan) {
+		while (plan instanceof Operator)
+			plan = ((Operator) plan).getChildren()[0];
+		return plan;
+	}
+
+	private int countFilters(DbIterator plan) {
+		int count = 0;
+		while (plan instanceof Operator) {
+			if (plan instanceof Filter)
+				count++;
+			plan = ((Operator) plan).getChildren()[0];
+		}
+		return count;
+	}
+
+	/**
+	 * Run the plan and check it returns the tuples matching all filters.
+	 */
+	private void checkResult(DbIterator plan, ArrayList<ArrayList<Integer>> tuples, int[] fields,
+			Op[] ops, int[] values) throws Exception {
+		ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+		for (ArrayList<Integer> t : tuples) {
+			boolean match = true;
+			for (int i = 0; i < fields.length; i++)
+				match &= new IntField(t.get(fields[i])).compare(ops[i], new IntField(values[i]));
+			if (match)
+				expected.add(t);
+		}
+		ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(SystemTestUtil.tupleToList(plan.next()));
+		plan.close();
+		Comparator<List<Integer>> c = new Comparator<List<Integer>>() {
+			public int compare(List<Integer> a, List<Integer> b) {
+				for (int i = 0; i < a.size(); i++) {
+					int d = Integer.compare(a.get(i), b.get(i));
+					if (d != 0)
+						return d;
+				}
+				return 0;
+			}
+		};
+		Collections.sort(expected, c);
+		Collections.sort(actual, c);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * @return the number of pages of the table the transaction holds a lock on
+	 */
+	private int lockedPages(DbFile f, int pgcateg) {
+		int count = 0;
+		for (int i = 0; i <= f.numPages(); i++) {
+			PageId pid = f instanceof BTreeFile ? new BTreePageId(f.getId(), i, pgcateg)
+					: new HeapPageId(f.getId(), i);
+			if (Database.getBufferPool().holdsLock(tid, pid))
+				count++;
+		}
+		return count;
+	}
+
+	@Test public void clusteredIndex() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = createBTreeTable(tuples);
+		int key = tuples.get(1234).get(0);
+
+		// a point lookup goes through the index
+		DbIterator p = plan(bf.getId(), 0, Op.EQUALS, key);
+		assertTrue(scanOf(p) instanceof BTreeScan);
+		assertEquals(0, countFilters(p));
+		checkResult(p, tuples, new int[] { 0 }, new Op[] { Op.EQUALS }, new int[] { key });
+		int pointLeaves = lockedPages(bf, BTreePageId.LEAF);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// reading almost everything is cheaper without it
+		p = plan(bf.getId(), 0, Op.GREATER_THAN, 100);
+		assertTrue(scanOf(p) instanceof SeqScan);
+		assertEquals(1, countFilters(p));
+		checkResult(p, tuples, new int[] { 0 }, new Op[] { Op.GREATER_THAN }, new int[] { 100 });
+		int scanLeaves = lockedPages(bf, BTreePageId.LEAF);
+
+		// the lookup reads one leaf below a root-to-leaf path; the scan reads
+		// them all
+		assertTrue(pointLeaves <= 2);
+		assertTrue(scanLeaves > 50 * pointLeaves);
+
+		// a predicate on another field cannot use the index
+		p = plan(bf.getId(), 1, Op.EQUALS, key);
+		assertTrue(scanOf(p) instanceof SeqScan);
+	}
+
+	@Test public void rangeAndOrder() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = createBTreeTable(tuples);
+
+		// both bounds of a BETWEEN are answered by one range scan, which reads
+		// only the leaves holding the range
+		int[] fields = new int[] { 0, 0 };
+		Op[] ops = new Op[] { Op.GREATER_THAN_OR_EQ, Op.LESS_THAN };
+		int[] values = new int[] { 20000, 21000 };
+		DbIterator p = plan(bf.getId(), fields, ops, values);
+		assertTrue(scanOf(p) instanceof BTreeScan);
+		assertEquals(0, countFilters(p));
+		checkResult(p, tuples, fields, ops, values);
+		// 1000 of 40000 tuples fill three or four of the 120 or so leaves,
+		// and the leaf after the range is locked too
+		assertTrue(lockedPages(bf, BTreePageId.LEAF) <= 5);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// ordering by the key in either direction reads the tree in that
+		// direction instead of sorting
+		for (boolean asc : new boolean[] { true, false }) {
+			LogicalPlan lp = new LogicalPlan();
+			lp.addScan(bf.getId(), "t");
+			lp.addFilter("t.c1", Op.GREATER_THAN, "30000");
+			lp.addProjectField("*", null);
+			lp.addOrderBy("t.c0", asc);
+			p = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+			DbIterator op = p;
+			while (op instanceof Operator) {
+				assertFalse(op instanceof OrderBy || op instanceof TopN);
+				op = ((Operator) op).getChildren()[0];
+			}
+			ArrayList<Integer> keys = new ArrayList<Integer>();
+			p.open();
+			while (p.hasNext())
+				keys.add(((IntField) p.next().getField(0)).getValue());
+			p.close();
+			ArrayList<Integer> sorted = new ArrayList<Integer>(keys);
+			Collections.sort(sorted);
+			if (!asc)
+				Collections.reverse(sorted);
+			assertEquals(sorted, keys);
+			checkResult(p, tuples, new int[] { 1 }, new Op[] { Op.GREATER_THAN }, new int[] { 30000 });
+		}
+	}
+
+	@Test public void secondaryIndex() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 40000, 20000, null, tuples, "c");
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex index = new SecondaryIndex(hf, 1, f);
+		Database.getCatalog().addIndex(index);
+		index.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		computeStats(hf.getId());
+		int key = tuples.get(777).get(1);
+
+		// a selective predicate on the indexed field uses the index, and the
+		// other filters are applied to what it returns
+		int[] fields = new int[] { 0, 1 };
+		Op[] ops = new Op[] { Op.GREATER_THAN, Op.EQUALS };
+		int[] values = new int[] { 5000, key };
+		DbIterator p = plan(hf.getId(), fields, ops, values);
+		assertTrue(scanOf(p) instanceof BTreeScan);
+		assertEquals(1, ((BTreeScan) scanOf(p)).getKeyField());
+		assertEquals(1, countFilters(p));
+		checkResult(p, tuples, fields, ops, values);
+		int pointPages = lockedPages(hf, 0);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// every matching tuple costs a random read, so a wide range is
+		// cheaper to scan
+		p = plan(hf.getId(), 1, Op.LESS_THAN, 15000);
+		assertTrue(scanOf(p) instanceof SeqScan);
+		checkResult(p, tuples, new int[] { 1 }, new Op[] { Op.LESS_THAN }, new int[] { 15000 });
+		int scanPages = lockedPages(hf, 0);
+
+		assertTrue(pointPages < 10);
+		assertEquals(hf.numPages(), scanPages);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AccessPathTest.class);
+	}
+}
@@ -0,0 +1,184 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private BTreeFile createEmptyBTreeFile() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	/**
+	 * Sort the heap file on the first field with an external sort small enough
+	 * to spill, and load the result into the B+ tree.
+	 */
+	private void bulkLoad(BTreeFile bf, HeapFile hf, double fillFactor) throws Exception {
+		OrderBy sorted = new OrderBy(new int[] { 0 }, new boolean[] { true },
+				new SeqScan(tid, hf.getId(), "t"), 8);
+		bf.bulkLoad(sorted, fillFactor);
+	}
+
+	@Test public void loadSortedHeapFile() throws Exception {
+		// 124 tuples per leaf page and 124 children per internal page, so
+		// this needs two levels of internal pages
+		BufferPool.setPageSize(1024);
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 40000, 5000, null, tuples);
+		BTreeFile bf = createEmptyBTreeFile();
+		bulkLoad(bf, hf, 1.0);
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		SystemTestUtil.matchTuples(bf, tid, tuples);
+
+		// 321 full leaves, and two more sharing the 196 tuples left, under 3
+		// internal pages and the root
+		assertEquals(327, bf.numPages());
+
+		// the tuples come back in order and can be found through the index
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		Tuple prev = null;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (prev != null)
+				assertTrue(t.getField(0).compare(Op.GREATER_THAN_OR_EQ, prev.getField(0)));
+			prev = t;
+		}
+		it.close();
+		for (int i = 0; i < 100; i++) {
+			ArrayList<Integer> tuple = tuples.get(i * 397);
+			IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(tuple.get(0)));
+			DbFileIterator fit = bf.indexIterator(tid, ipred);
+			fit.open();
+			boolean found = false;
+			while (fit.hasNext()) {
+				if (SystemTestUtil.tupleToList(fit.next()).equals(tuple)) {
+					found = true;
+					break;
+				}
+			}
+			fit.close();
+			assertTrue(found);
+		}
+	}
+
+	@Test public void fillFactor() throws Exception {
+		BufferPool.setPageSize(1024);
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+		BTreeFile full = createEmptyBTreeFile();
+		bulkLoad(full, hf, 1.0);
+		BTreeFile sparse = createEmptyBTreeFile();
+		bulkLoad(sparse, hf, 0.6);
+
+		BTreeChecker.checkRep(sparse, tid, new HashMap<PageId, Page>(), true);
+		assertTrue(sparse.numPages() > full.numPages() * 3 / 2);
+
+		// pages loaded with room to spare take inserts without splitting
+		Database.resetBufferPool(500); // we need more pages for this test
+		int pages = sparse.numPages();
+		Random rand = new Random();
+		for (int i = 0; i < 100; i++) {
+			Database.getBufferPool().insertTuple(tid, sparse.getId(),
+					BTreeUtility.getBTreeTuple(rand.nextInt(BTreeUtility.MAX_RAND_VALUE), 2));
+		}
+		assertEquals(pages, sparse.numPages());
+		BTreeChecker.checkRep(sparse, tid, new HashMap<PageId, Page>(), true);
+	}
+
+	@Test public void loadSinglePage() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 300, null, tuples);
+		BTreeFile bf = createEmptyBTreeFile();
+		bulkLoad(bf, hf, 1.0);
+
+		assertEquals(1, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		SystemTestUtil.matchTuples(bf, tid, tuples);
+	}
+
+	@Test public void loadNothing() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		BTreeFile bf = createEmptyBTreeFile();
+		bulkLoad(bf, hf, 1.0);
+		assertEquals(0, bf.numPages());
+
+		// the tree can still be inserted into as usual
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+	}
+
+	@Test public void unsortedInput() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+		BTreeFile bf = createEmptyBTreeFile();
+		try {
+			bf.bulkLoad(new SeqScan(tid, hf.getId(), "t"), 1.0);
+			fail("loaded unsorted tuples");
+		} catch (DbException e) {
+			// expected
+		}
+
+		// the tree is still empty, and can be inserted into as usual
+		assertEquals(0, bf.numPages());
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		SystemTestUtil.matchTuples(bf, tid, Arrays.asList(new ArrayList<Integer>(Arrays.asList(1, 1))));
+	}
+
+	@Test public void uncommittedInserts() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+		BTreeFile bf = createEmptyBTreeFile();
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		try {
+			bulkLoad(bf, hf, 1.0);
+			fail("loaded a tree with an uncommitted insert");
+		} catch (DbException e) {
+			// expected
+		}
+		SystemTestUtil.matchTuples(bf, tid, Arrays.asList(new ArrayList<Integer>(Arrays.asList(1, 1))));
+	}
+
+	@Test(expected = DbException.class)
+	public void nonEmptyTree() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+		bulkLoad(bf, hf, 1.0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
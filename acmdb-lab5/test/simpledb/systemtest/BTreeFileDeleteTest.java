@@ -104,7 +104,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 				tid, rootPtrId, Permissions.READ_ONLY);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(501, root.getNumEmptySlots());
 		BTreeEntry e = root.iterator().next();
 		BTreeLeafPage leftChild = (BTreeLeafPage) Database.getBufferPool().getPage(
 				tid, e.getLeftChild(), Permissions.READ_ONLY);
@@ -181,6 +181,86 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 		BTreeChecker.checkRep(threeLeafPageFile, tid, new HashMap<PageId, Page>(), true);
 	}
 
+	@Test
+	public void testDeferredMerging() throws Exception {
+		// this should create a B+ tree with 20 full leaf pages
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20 * 502, null, null, 0);
+		assertEquals(21, bf.numPages());
+		bf.setDeferredMerging(true);
+
+		// delete nine out of every ten tuples: the leaves are left underfull
+		// and no page is freed
+		ArrayList<Tuple> victims = new ArrayList<Tuple>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for (int i = 0; it.hasNext(); i++) {
+			Tuple t = it.next();
+			if (i % 10 != 0)
+				victims.add(t);
+		}
+		it.close();
+		for (Tuple t : victims)
+			Database.getBufferPool().deleteTuple(tid, t);
+		assertEquals(21, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		int remaining = 20 * 502 - victims.size();
+		assertEquals(remaining, countTuples(bf));
+
+		// one pass merges them, and the pages it frees are used again by
+		// the leaves the next inserts split off
+		Database.getBufferPool().compact(tid, bf.getId());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(remaining, countTuples(bf));
+		for (int i = 0; i < 5 * 502; ++i) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(),
+					BTreeUtility.getBTreeTuple(i, 2));
+		}
+		// the 21 pages and one header page
+		assertEquals(22, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+	}
+
+	@Test
+	public void testDeferredMergingRollback() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20 * 502, null, null, 0);
+		bf.setDeferredMerging(true);
+		ArrayList<Tuple> victims = new ArrayList<Tuple>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		for (int i = 0; it.hasNext(); i++) {
+			Tuple t = it.next();
+			if (i % 10 != 0)
+				victims.add(t);
+		}
+		it.close();
+		for (Tuple t : victims)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the merges of a compact that rolls back are undone, and the leaves
+		// are merged by the next one
+		tid = new TransactionId();
+		Database.getBufferPool().compact(tid, bf.getId());
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		Database.getBufferPool().compact(tid, bf.getId());
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(20 * 502 - victims.size(), countTuples(bf));
+	}
+
+	private int countTuples(BTreeFile bf) throws Exception {
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
 	@Test
 	public void testRedistributeInternalPages() throws Exception {
 		// This should create a B+ tree with two nodes in the second tier
@@ -195,7 +275,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(501, root.getNumEmptySlots());
 
 		BTreeEntry rootEntry = root.iterator().next();
 		BTreeInternalPage leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
@@ -218,7 +298,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 
 		// deleting a page of tuples should bring the internal page below minimum 
 		// occupancy and cause the entries to be redistributed
-		assertEquals(252, rightChild.getNumEmptySlots());
+		assertEquals(251, rightChild.getNumEmptySlots());
 		count = 0;
 		while(it.hasNext() && count < 502) {
 			BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, 
@@ -229,7 +309,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 			count++;
 		}
 		assertTrue(leftChild.getNumEmptySlots() > 203);
-		assertTrue(rightChild.getNumEmptySlots() <= 252);
+		assertTrue(rightChild.getNumEmptySlots() <= 251);
 		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
 
 		// sanity check that the entries make sense
@@ -251,8 +331,8 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 		
 		// This should create a B+ tree with three nodes in the second tier
 		// and 252 nodes in the third tier
-    	// (124 entries per internal/leaf page, 125 children per internal page ->
-    	// 251*124 + 1 = 31125)
+    	// (124 tuples per leaf page, 123 entries and 124 children per internal
+    	// page -> 251*124 + 1 = 31125)
 		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 31125,
 				null, null, 0);
 
@@ -264,7 +344,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 				tid, BTreeRootPtrPage.getId(bigFile.getId()), Permissions.READ_ONLY);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(122, root.getNumEmptySlots());
+		assertEquals(121, root.getNumEmptySlots());
 
 		BTreeEntry e = root.iterator().next();
 		BTreeInternalPage leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
@@ -300,6 +380,18 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 
 		BTreeChecker.checkRep(bigFile, tid, new HashMap<PageId, Page>(), true);
 
+		// an internal page holds an odd number of entries, so the right-hand page
+		// keeps the one left over
+		assertEquals(62, leftChild.getNumEmptySlots());
+		assertEquals(61, rightChild.getNumEmptySlots());
+
+		// deleting another page of tuples should bring the page below minimum occupancy
+		// again, and since its sibling still has an entry to spare, redistribute once more
+		for(int i = 0; i < 124; ++i) {
+			Database.getBufferPool().deleteTuple(tid, it.next());
+			it.rewind();
+		}
+		assertEquals(121, root.getNumEmptySlots());
 		assertEquals(62, leftChild.getNumEmptySlots());
 		assertEquals(62, rightChild.getNumEmptySlots());
 
@@ -311,18 +403,18 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 		}
 
 		// confirm that the pages have merged
-		assertEquals(123, root.getNumEmptySlots());
+		assertEquals(122, root.getNumEmptySlots());
 		e = root.iterator().next();
 		leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, e.getLeftChild(), Permissions.READ_ONLY);
 		rightChild = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, e.getRightChild(), Permissions.READ_ONLY);
-		assertEquals(0, leftChild.getNumEmptySlots());
+		assertEquals(1, leftChild.getNumEmptySlots());
 		assertTrue(e.getKey().compare(Op.LESS_THAN_OR_EQ, rightChild.iterator().next().getKey()));
 
 		// Delete tuples causing leaf pages to merge until the first internal page 
-		// gets below minimum occupancy and causes the entries to be redistributed
-		count = 0;
+		// gets to minimum occupancy
+		count = 1;
 		while(count < 62) {
 			assertEquals(count, leftChild.getNumEmptySlots());
 			for(int i = 0; i < 124; ++i) {
@@ -332,6 +424,18 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 			count++;
 		}
 
+		// the right sibling has two entries to spare, so the next two pages of tuples
+		// deleted bring the page below minimum occupancy and are redistributed
+		assertEquals(60, rightChild.getNumEmptySlots());
+		for(int j = 0; j < 2; ++j) {
+			for(int i = 0; i < 124; ++i) {
+				Database.getBufferPool().deleteTuple(tid, it.next());
+				it.rewind();
+			}
+			assertEquals(62, leftChild.getNumEmptySlots());
+			assertEquals(61 + j, rightChild.getNumEmptySlots());
+		}
+
 		// deleting another page of tuples should bring the page below minimum occupancy 
 		// and cause it to merge with the right sibling to replace the root
 		for(int i = 0; i < 124; ++i) {
@@ -347,7 +451,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 		assertTrue(rootPtr.getRootId().pgcateg() == BTreePageId.INTERNAL);
 		root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(0, root.getNumEmptySlots());
+		assertEquals(1, root.getNumEmptySlots());
 		assertTrue(root.getParentId().equals(rootPtrId));
 
 		it.close();
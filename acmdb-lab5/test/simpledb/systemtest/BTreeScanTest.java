@@ -283,6 +283,80 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** @return the keys the scan returns, in the order it returns them */
+    private ArrayList<Integer> scanKeys(BTreeScan scan) throws DbException, TransactionAbortedException {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext())
+            keys.add(((IntField) scan.next().getField(scan.getKeyField())).getValue());
+        scan.close();
+        return keys;
+    }
+
+    /** Test that range scans return the keys in the range, in either order. */
+    @Test public void testRangeScans() throws Exception {
+        // few distinct keys, so that runs of equal keys span several leaves
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, 500, null, tuples, 0);
+        ArrayList<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tup : tuples)
+            sorted.add(tup.get(0));
+        Collections.sort(sorted);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> reversed = new ArrayList<Integer>(sorted);
+        Collections.reverse(reversed);
+        assertEquals(reversed, scanKeys(new BTreeScan(tid, f.getId(), "table", IndexRange.ALL, true)));
+
+        for (int i = 0; i < 40; i++) {
+            int low = r.nextInt(520) - 10;
+            int high = low + r.nextInt(100);
+            IndexRange range = new IndexRange(i % 5 == 0 ? null : new IntField(low), r.nextBoolean(),
+                    i % 7 == 0 ? null : new IntField(high), r.nextBoolean());
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (int key : sorted) {
+                if (range.contains(new IntField(key)))
+                    expected.add(key);
+            }
+            BTreeScan scan = new BTreeScan(tid, f.getId(), "table", range, false);
+            assertEquals(range.toString(), expected, scanKeys(scan));
+            Collections.reverse(expected);
+            assertEquals(range.toString(), expected, scanKeys(scan.reversed()));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that a range scan reads only the leaves holding the range */
+    @Test public void testRangeReadPage() throws Exception {
+        final int LEAF_PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, 0);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (boolean descending : new boolean[] { false, true }) {
+            int low = 1 + r.nextInt(LEAF_PAGES*502 - 3000);
+            IndexRange range = new IndexRange(new IntField(low), true, new IntField(low + 2000), false);
+            ArrayList<ArrayList<Integer>> tuplesFiltered = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> tup : tuples) {
+                if (range.contains(new IntField(tup.get(0))))
+                    tuplesFiltered.add(tup);
+            }
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            table.readCount = 0;
+            BTreeScan scan = new BTreeScan(tid, f.getId(), "table", range, descending);
+            SystemTestUtil.matchTuples(scan, tuplesFiltered);
+            // root pointer page + root + the 4 or 5 leaves holding the range,
+            // and the leaf past its end
+            assertTrue("read " + table.readCount, table.readCount <= 2 + 2000/502 + 2 + 1);
+            Database.getBufferPool().transactionComplete(tid);
+            tid = new TransactionId();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
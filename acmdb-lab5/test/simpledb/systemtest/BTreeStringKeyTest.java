@@ -0,0 +1,252 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+			new String[] { "key", "value" });
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private BTreeFile createEmptyBTreeFile() throws Exception {
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
+	/**
+	 * Keys that share a long prefix, like the ids of most real tables.
+	 */
+	private static String key(int i) {
+		return String.format("customer/account-%08d", i);
+	}
+
+	private static Tuple tuple(int i) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, new StringField(key(i), Type.STRING_LEN));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	/**
+	 * The widest an internal page would be if it stored every key in the full
+	 * width of a string field.
+	 */
+	private static int fullWidthFanout() {
+		int entryBits = (Type.STRING_TYPE.getLen() + 4) * 8 + 1;
+		int extraBits = 3 * 4 * 8 + 8 + Type.STRING_TYPE.getLen() * 8 + 1;
+		return (BufferPool.getPageSize() * 8 - extraBits) / entryBits + 1;
+	}
+
+	/**
+	 * The most tuples a leaf page would take if it stored every string in
+	 * the full width of a string field.
+	 */
+	private static int fullWidthTuplesPerPage() {
+		int tupleBits = (Type.STRING_TYPE.getLen() + 4) * 8 + 1;
+		int extraBits = (3 * 4 + Type.STRING_TYPE.getLen()) * 8;
+		return (BufferPool.getPageSize() * 8 - extraBits) / tupleBits;
+	}
+
+	/**
+	 * @return the internal pages on each level of the tree, from the root down
+	 */
+	private ArrayList<ArrayList<BTreeInternalPage>> internalLevels(BTreeFile bf) throws Exception {
+		ArrayList<ArrayList<BTreeInternalPage>> levels = new ArrayList<ArrayList<BTreeInternalPage>>();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			ArrayList<BTreeInternalPage> level = new ArrayList<BTreeInternalPage>();
+			BTreePageId first = pid;
+			while (pid != null) {
+				BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid,
+						Permissions.READ_ONLY);
+				level.add(p);
+				pid = p.getRightSiblingId();
+			}
+			levels.add(level);
+			BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(tid, first,
+					Permissions.READ_ONLY);
+			pid = p.getChildAt(0);
+		}
+		return levels;
+	}
+
+	private int lookup(BTreeFile bf, int i) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, new StringField(key(i), Type.STRING_LEN)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertEquals(i, ((IntField) it.next().getField(1)).getValue());
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	@Test public void bulkLoadedTreeIsShallower() throws Exception {
+		BTreeFile bf = createEmptyBTreeFile();
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < 60000; i++)
+			tuples.add(tuple(1000 * i));
+		bf.bulkLoad(new TupleIterator(TD, tuples), 1.0);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// about 2000 leaves of full-width tuples would need three levels of
+		// full-width keys, but the leaves take the tuples in their real
+		// length, and the separators are cut short and stored without their
+		// shared prefix
+		ArrayList<ArrayList<BTreeInternalPage>> levels = internalLevels(bf);
+		assertEquals(2, levels.size());
+		int pages = 0, entries = 0;
+		for (BTreeInternalPage p : levels.get(1)) {
+			pages++;
+			entries += p.getNumEntries();
+			for (Field k : p.keyList())
+				assertTrue(((StringField) k).getValue().length() < key(0).length());
+		}
+		assertTrue(entries / pages > 5 * fullWidthFanout());
+
+		// the pages read back from disk find every key
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		tid = new TransactionId();
+		Random r = new Random(37);
+		for (int i = 0; i < 200; i++) {
+			int k = r.nextInt(60000);
+			assertEquals(1, lookup(bf, 1000 * k));
+			assertEquals(0, lookup(bf, 1000 * k + 1));
+		}
+	}
+
+	@Test public void insertAndDelete() throws Exception {
+		// small pages, so that internal pages split and merge
+		BufferPool.setPageSize(1024);
+		Database.resetBufferPool(4000);
+		BTreeFile bf = createEmptyBTreeFile();
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < 8000; i++)
+			keys.add(i);
+		Collections.shuffle(keys, new Random(11));
+		for (int k : keys)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		// with only 6 tuples per full-width leaf and 7 children per
+		// full-width internal page, the 1600 or so leaves would need four
+		// levels above them. The leaves take the tuples in their real length
+		// instead, and the internal pages many more of the truncated keys.
+		assertEquals(6, fullWidthTuplesPerPage());
+		assertEquals(7, fullWidthFanout());
+		ArrayList<ArrayList<BTreeInternalPage>> levels = internalLevels(bf);
+		assertEquals(2, levels.size());
+		int internalPages = levels.get(1).size();
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// delete most of the tuples, so that the internal pages merge
+		Collections.shuffle(keys, new Random(12));
+		HashSet<Integer> deleted = new HashSet<Integer>(keys.subList(0, 7000));
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		ArrayList<Tuple> victims = new ArrayList<Tuple>();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (deleted.contains(((IntField) t.getField(1)).getValue()))
+				victims.add(t);
+		}
+		it.close();
+		for (Tuple t : victims)
+			Database.getBufferPool().deleteTuple(tid, t);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		for (int i = 0; i < 8000; i += 7)
+			assertEquals(deleted.contains(i) ? 0 : 1, lookup(bf, i));
+		levels = internalLevels(bf);
+		assertTrue(levels.get(levels.size() - 1).size() < internalPages);
+	}
+
+	@Test public void slottedLeafPage() throws Exception {
+		BTreeFile bf = createEmptyBTreeFile();
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+		BTreeLeafPage page = new BTreeLeafPage(pid, BTreeLeafPage.createEmptyPageData(), 0);
+
+		// insert in descending order, so that each tuple goes before all the
+		// others, until no tuple of the longest length fits any more
+		int n = 0;
+		while (page.getNumEmptySlots() > 0)
+			page.insertTuple(tuple(100000 - n++));
+		assertTrue(n > 3 * fullWidthTuplesPerPage());
+		assertTrue(page.getCapacity() - page.getUsedSpace() < page.getMaxTupleSpace());
+		try {
+			Tuple t = new Tuple(TD);
+			t.setField(0, new StringField(new String(new char[Type.STRING_LEN]).replace('\0', 'x'),
+					Type.STRING_LEN));
+			t.setField(1, new IntField(0));
+			page.insertTuple(t);
+			fail("a tuple of the longest length should not fit");
+		} catch (DbException e) {
+			// expected
+		}
+
+		// delete every other tuple, then read the page back: the tuples that
+		// are left are in key order in the first slots
+		ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+		for (int i = 0; i < n; i += 2)
+			deleted.add(page.getTupleAt(i));
+		for (Tuple t : deleted)
+			page.deleteTuple(t);
+		BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData(), 0);
+		assertEquals(page.getNumTuples(), copy.getNumTuples());
+		assertEquals(page.getUsedSpace(), copy.getUsedSpace());
+		for (int i = 0; i < copy.getNumTuples(); i++) {
+			assertEquals(page.getTupleAt(i).getField(0), copy.getTupleAt(i).getField(0));
+			assertEquals(page.getTupleAt(i).getField(1), copy.getTupleAt(i).getField(1));
+			assertEquals(i, copy.getTupleAt(i).getRecordId().tupleno());
+		}
+
+		// the space the deletes freed is used again
+		for (Tuple t : deleted)
+			copy.insertTuple(tuple(((IntField) t.getField(1)).getValue()));
+		assertEquals(n, copy.getNumTuples());
+		copy.checkRep(0, null, null, false, 0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
@@ -8,11 +8,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Test;
@@ -220,6 +222,76 @@ public class BTreeTest extends SimpleDbTestBase {
 		
     }
 
+    /**
+     * Many writers inserting into disjoint key ranges, one transaction per
+     * tuple. Inserts that do not split a leaf only lock that leaf, so the
+     * writers contend on the pages they restructure rather than on the root.
+     */
+    @Test public void testConcurrentDisjointInserts() throws Exception {
+		final BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000,
+				null, null, 0);
+		Database.resetBufferPool(500);
+
+		final int numThreads = 8;
+		final int perThread = 500;
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		ArrayList<Thread> writers = new ArrayList<Thread>();
+		for(int i = 0; i < numThreads; i++) {
+			// above all the random keys, and one range per thread
+			final int base = BTreeUtility.MAX_RAND_VALUE + i * perThread;
+			Thread writer = new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < perThread; j++) {
+							while(true) {
+								TransactionId tid = new TransactionId();
+								try {
+									Database.getBufferPool().insertTuple(tid, bf.getId(),
+											BTreeUtility.getBTreeTuple(new int[]{base + j, j}));
+									Database.getBufferPool().transactionComplete(tid);
+									break;
+								} catch (TransactionAbortedException e) {
+									Database.getBufferPool().transactionComplete(tid, false);
+								}
+							}
+						}
+					} catch (Exception e) {
+						error.set(e);
+					}
+				}
+			};
+			writers.add(writer);
+			writer.start();
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+		assertNull(error.get());
+
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		Field prev = null;
+		int count = 0;
+		int inserted = 0;
+		it.open();
+		while(it.hasNext()) {
+			Field key = it.next().getField(bf.keyField());
+			if(prev != null) {
+				assertTrue(key.compare(Op.GREATER_THAN_OR_EQ, prev));
+			}
+			if(((IntField) key).getValue() >= BTreeUtility.MAX_RAND_VALUE) {
+				inserted++;
+			}
+			prev = key;
+			count++;
+		}
+		it.close();
+		assertEquals(numThreads * perThread, inserted);
+		assertEquals(10000 + numThreads * perThread, count);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeTest.class);
@@ -0,0 +1,203 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+	private static final int COLUMNS = 20;
+	private static final int ROWS = 5000;
+
+	private TransactionId tid;
+	private ArrayList<ArrayList<Integer>> tuples;
+	private CountingFiles.Column table;
+
+	@Before
+	public void setUp() throws Exception {
+		tuples = new ArrayList<ArrayList<Integer>>();
+		SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1000, null, tuples);
+		File f = File.createTempFile("columns", ".dat");
+		f.deleteOnExit();
+		ColumnFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+		table = new CountingFiles.Column(f, Utility.getTupleDesc(COLUMNS, "c"));
+		Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** @return the number of row groups of the table */
+	private int groups() {
+		int rows = ColumnFileEncoder.rowsPerGroup(table.getTupleDesc(), BufferPool.getPageSize(), false);
+		return (ROWS + rows - 1) / rows;
+	}
+
+	@Test
+	public void scanAllColumns() throws Exception {
+		// several row groups, the last of which is not full
+		int rows = ColumnFileEncoder.rowsPerGroup(table.getTupleDesc(), BufferPool.getPageSize(), false);
+		assertTrue(ROWS > rows);
+		assertTrue(ROWS % rows != 0);
+		SystemTestUtil.matchTuples(table, tuples);
+		assertEquals(table.numPages(), table.reads);
+	}
+
+	@Test
+	public void scanSomeColumns() throws Exception {
+		ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+		for (ArrayList<Integer> t : tuples)
+			expected.add(new ArrayList<Integer>(Arrays.asList(t.get(7), t.get(2))));
+		SeqScan scan = new SeqScan(tid, table.getId(), "t", new int[] { 7, 2 });
+		assertEquals("t.c7", scan.getTupleDesc().getFieldName(0));
+		SystemTestUtil.matchTuples(scan, expected);
+		// the header and one page of each int column per row group
+		assertEquals(3 * groups(), table.reads);
+	}
+
+	@Test
+	public void planReadsReferencedColumns() throws Exception {
+		TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+				new TableStats(table.getId(), 71));
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		table.reads = 0;
+		// SELECT AVG(t.c4) FROM t WHERE t.c9 < 500
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addFilter("t.c9", Predicate.Op.LESS_THAN, "500");
+		lp.addProjectField("t.c4", "AVG");
+		lp.addAggregate("AVG", "t.c4", null);
+		DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		int sum = 0, count = 0;
+		for (ArrayList<Integer> t : tuples) {
+			if (t.get(9) < 500) {
+				sum += t.get(4);
+				count++;
+			}
+		}
+		plan.open();
+		assertTrue(plan.hasNext());
+		assertEquals(new IntField(sum / count), plan.next().getField(0));
+		assertFalse(plan.hasNext());
+		plan.close();
+		assertEquals(3 * groups(), table.reads);
+	}
+
+	@Test
+	public void catalogAndTextConversion() throws Exception {
+		File dir = File.createTempFile("catalog", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		File txt = new File(dir, "people.txt");
+		txt.deleteOnExit();
+		PrintWriter w = new PrintWriter(new FileWriter(txt));
+		for (int i = 0; i < 100; i++)
+			w.println(i + ",name" + i);
+		w.close();
+		File dat = new File(dir, "people.dat");
+		dat.deleteOnExit();
+		ColumnFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2,
+				new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+		File schema = new File(dir, "catalog.txt");
+		schema.deleteOnExit();
+		w = new PrintWriter(new FileWriter(schema));
+		w.println("people (id int, name string) columnar");
+		w.close();
+		Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+		int id = Database.getCatalog().getTableId("people");
+		DbFile f = Database.getCatalog().getDatabaseFile(id);
+		assertTrue(f instanceof ColumnFile);
+		SeqScan scan = new SeqScan(tid, id, "p", new int[] { 1 });
+		scan.open();
+		int n = 0;
+		while (scan.hasNext())
+			assertEquals(new StringField("name" + n++, Type.STRING_LEN), scan.next().getField(0));
+		scan.close();
+		assertEquals(100, n);
+
+		Tuple t = new Tuple(f.getTupleDesc());
+		t.setField(0, new IntField(100));
+		t.setField(1, new StringField("name100", Type.STRING_LEN));
+		try {
+			Database.getBufferPool().insertTuple(tid, id, t);
+			fail("a ColumnFile is read-only");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void compressedPages() throws Exception {
+		// a sorted column, a column of small ints, a column of random ints
+		// and a column of a few distinct strings
+		TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+				new String[] { "sorted", "small", "random", "name" });
+		ArrayList<Tuple> rows = new ArrayList<Tuple>();
+		Random r = new Random(47);
+		for (int i = 0; i < 20000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i / 100));
+			t.setField(1, new IntField(r.nextInt(16)));
+			t.setField(2, new IntField(r.nextInt()));
+			t.setField(3, new StringField("name" + r.nextInt(7), Type.STRING_LEN));
+			rows.add(t);
+		}
+		File plain = File.createTempFile("plain", ".dat");
+		plain.deleteOnExit();
+		ColumnFileEncoder.convert(rows.iterator(), td, plain, BufferPool.getPageSize(), false);
+		File compressed = File.createTempFile("compressed", ".dat");
+		compressed.deleteOnExit();
+		ColumnFileEncoder.convert(rows.iterator(), td, compressed, BufferPool.getPageSize(), true);
+		assertTrue(compressed.length() * 10 < plain.length());
+
+		ColumnFile f = new ColumnFile(compressed, td);
+		Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+		HashSet<ColumnPage.Encoding> encodings = new HashSet<ColumnPage.Encoding>();
+		for (int i = 0; i < f.numPages(); i++)
+			encodings.add(((ColumnPage) f.readPage(new HeapPageId(f.getId(), i))).encoding());
+		assertTrue(encodings.containsAll(Arrays.asList(ColumnPage.Encoding.INT_RUNS,
+				ColumnPage.Encoding.INT_FRAME, ColumnPage.Encoding.STRING_DICTIONARY)));
+
+		// the predicates on each encoding select the same tuples as a Filter
+		List<Predicate> preds = Arrays.asList(
+				new Predicate(0, Predicate.Op.LESS_THAN, new IntField(150)),
+				new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(4)),
+				new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(0)),
+				new Predicate(3, Predicate.Op.EQUALS, new StringField("name2", Type.STRING_LEN)));
+		ArrayList<String> expected = new ArrayList<String>();
+		for (Tuple t : rows) {
+			boolean all = true;
+			for (Predicate p : preds)
+				all &= p.filter(t);
+			if (all)
+				expected.add(t.toString());
+		}
+		assertFalse(expected.isEmpty());
+		SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 0, 1, 2, 3 }, preds);
+		ArrayList<String> actual = new ArrayList<String>();
+		scan.open();
+		while (scan.hasNext())
+			actual.add(scan.next().toString());
+		scan.close();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ColumnFileTest.class);
+	}
+}
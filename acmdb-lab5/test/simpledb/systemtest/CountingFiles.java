@@ -0,0 +1,39 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.File;
+
+/**
+ * DbFiles that count the pages read from them, for the tests that check
+ * which pages a scan reads. Set reads to 0 to start counting again.
+ */
+public class CountingFiles {
+	/** A HeapFile that counts the pages read from it. */
+	public static class Heap extends HeapFile {
+		public int reads;
+
+		public Heap(File f, TupleDesc td) {
+			super(f, td);
+		}
+
+		public Page readPage(PageId pid) {
+			reads++;
+			return super.readPage(pid);
+		}
+	}
+
+	/** A ColumnFile that counts the pages read from it. */
+	public static class Column extends ColumnFile {
+		public int reads;
+
+		public Column(File f, TupleDesc td) {
+			super(f, td);
+		}
+
+		public Page readPage(PageId pid) {
+			reads++;
+			return super.readPage(pid);
+		}
+	}
+}
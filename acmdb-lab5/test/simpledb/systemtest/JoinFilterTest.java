@@ -0,0 +1,167 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinFilterTest extends SimpleDbTestBase {
+	private static final int ROWS = 50000;
+	private static final int KEYS = 1000;
+
+	private TransactionId tid;
+	private HeapFile fact, dim1, dim2;
+
+	/** @return a table of the given tuples, with fields c0, c1, ... */
+	private static HeapFile create(ArrayList<ArrayList<Integer>> tuples, int columns) throws IOException {
+		File f = File.createTempFile("star", ".dat");
+		f.deleteOnExit();
+		ZoneMap.zoneFile(f).deleteOnExit();
+		HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(columns, "c"));
+		Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+		TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+				new TableStats(table.getId(), 71));
+		return table;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		// a star schema: a fact table whose first two fields are the keys of
+		// two dimension tables, whose second field is a category
+		Random r = new Random(50);
+		ArrayList<ArrayList<Integer>> facts = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < ROWS; i++)
+			facts.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(KEYS), r.nextInt(KEYS), i)));
+		ArrayList<ArrayList<Integer>> dims = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < KEYS; i++)
+			dims.add(new ArrayList<Integer>(Arrays.asList(i, i % 100)));
+		fact = create(facts, 3);
+		dim1 = create(dims, 2);
+		dim2 = create(dims, 2);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * @return the plan of SELECT * FROM a, b, f WHERE a.c1 < 5 AND b.c1 < 10
+	 *         AND a.c0 = f.c0 AND b.c0 = f.c1, with the fact table on the
+	 *         probe side of both joins
+	 */
+	private HashEquiJoin star() throws Exception {
+		DbIterator a = new Filter(new Predicate(1, Op.LESS_THAN, new IntField(5)),
+				new SeqScan(tid, dim1.getId(), "a"));
+		DbIterator b = new Filter(new Predicate(1, Op.LESS_THAN, new IntField(10)),
+				new SeqScan(tid, dim2.getId(), "b"));
+		DbIterator f = new SeqScan(tid, fact.getId(), "f");
+		HashEquiJoin inner = new HashEquiJoin(new JoinPredicate(0, Op.EQUALS, 0), a, f);
+		// f.c1 is the fourth field of a joined with f
+		return new HashEquiJoin(new JoinPredicate(0, Op.EQUALS, 3), b, inner);
+	}
+
+	private static void setRuntimeFilters(HashEquiJoin outer, boolean enabled) {
+		outer.setRuntimeFilter(enabled);
+		((HashEquiJoin) outer.getChildren()[1]).setRuntimeFilter(enabled);
+	}
+
+	/** @return the tuples of the plan, run without runtime filters */
+	private ArrayList<ArrayList<Integer>> expected() throws Exception {
+		HashEquiJoin plan = star();
+		setRuntimeFilters(plan, false);
+		ArrayList<ArrayList<Integer>> result = SystemTestUtil.pullTuples(plan);
+		assertNull(plan.getJoinFilter());
+		// about ROWS / 20 / 10 tuples
+		assertTrue(result.size() > 0);
+		return result;
+	}
+
+	@Test
+	public void filtersAreEliminatingFactRows() throws Exception {
+		ArrayList<ArrayList<Integer>> expected = expected();
+		HashEquiJoin plan = star();
+		SystemTestUtil.matchTuples(plan, expected);
+
+		// both joins pushed their keys into the scan of the fact table, each
+		// on its own key field
+		HashEquiJoin inner = (HashEquiJoin) plan.getChildren()[1];
+		SeqScan f = (SeqScan) inner.getChildren()[1];
+		assertEquals(2, f.getJoinFilters().size());
+		assertTrue(f.getJoinFilters().contains(plan.getJoinFilter()));
+		assertTrue(f.getJoinFilters().contains(inner.getJoinFilter()));
+		assertEquals(1, plan.getJoinFilter().getField());
+		assertEquals(0, inner.getJoinFilter().getField());
+
+		// the outer join builds its table and pushes its filter first, which
+		// drops about 90% of the fact rows, and the inner one about 95% of
+		// the rest
+		JoinFilter first = f.getJoinFilters().get(0);
+		JoinFilter second = f.getJoinFilters().get(1);
+		assertSame(plan.getJoinFilter(), first);
+		assertEquals(ROWS, first.getChecked());
+		assertTrue(first.getEliminated() > ROWS * 8 / 10);
+		assertEquals(first.getChecked() - first.getEliminated(), second.getChecked());
+		assertTrue(second.getEliminated() > second.getChecked() * 9 / 10);
+	}
+
+	@Test
+	public void rewindAndPushEngine() throws Exception {
+		ArrayList<ArrayList<Integer>> expected = expected();
+		HashEquiJoin plan = star();
+		plan.open();
+		while (plan.hasNext())
+			plan.next();
+		plan.rewind();
+		ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+		while (plan.hasNext())
+			again.add(SystemTestUtil.tupleToList(plan.next()));
+		plan.close();
+		assertEquals(expected.size(), again.size());
+		assertTrue(again.containsAll(expected));
+
+		plan = star();
+		ArrayList<ArrayList<Integer>> pushed = SystemTestUtil.pushTuples(plan);
+		assertEquals(expected.size(), pushed.size());
+		assertTrue(pushed.containsAll(expected));
+		assertTrue(plan.getJoinFilter().getEliminated() > 0);
+	}
+
+	@Test
+	public void plannerFiltersFactRows() throws Exception {
+		ArrayList<ArrayList<Integer>> expected = expected();
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(dim1.getId(), "a");
+		lp.addScan(dim2.getId(), "b");
+		lp.addScan(fact.getId(), "f");
+		lp.addFilter("a.c1", Op.LESS_THAN, "5");
+		lp.addFilter("b.c1", Op.LESS_THAN, "10");
+		lp.addJoin("a.c0", "f.c0", Op.EQUALS);
+		lp.addJoin("b.c0", "f.c1", Op.EQUALS);
+		lp.addProjectField("f.c2", null);
+		DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		ArrayList<ArrayList<Integer>> actual = SystemTestUtil.pullTuples(plan);
+		assertEquals(expected.size(), actual.size());
+		HashSet<ArrayList<Integer>> ids = new HashSet<ArrayList<Integer>>();
+		for (ArrayList<Integer> t : expected)
+			ids.add(new ArrayList<Integer>(t.subList(6, 7)));
+		assertEquals(ids, new HashSet<ArrayList<Integer>>(actual));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(JoinFilterTest.class);
+	}
+}
@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PushEngineTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private TransactionId tid;
+	private HeapFile table, other;
+
+	/** Builds a fresh copy of the plan under test. */
+	private interface PlanBuilder {
+		DbIterator build() throws Exception;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+		other = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, new ArrayList<ArrayList<Integer>>(), "d");
+		TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+				new TableStats(table.getId(), 71));
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static void sort(ArrayList<ArrayList<Integer>> tuples) {
+		Collections.sort(tuples, new Comparator<List<Integer>>() {
+			public int compare(List<Integer> a, List<Integer> b) {
+				for (int i = 0; i < a.size(); i++) {
+					int d = Integer.compare(a.get(i), b.get(i));
+					if (d != 0)
+						return d;
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Check that both engines return the same tuples for the plan, in the
+	 * same order if ordered is true.
+	 */
+	private void checkSame(PlanBuilder builder, boolean ordered) throws Exception {
+		ArrayList<ArrayList<Integer>> expected = SystemTestUtil.pullTuples(builder.build());
+		ArrayList<ArrayList<Integer>> actual = SystemTestUtil.pushTuples(builder.build());
+		assertFalse(expected.isEmpty());
+		if (!ordered) {
+			sort(expected);
+			sort(actual);
+		}
+		assertEquals(expected, actual);
+	}
+
+	/** SELECT t.c2, SUM(t.c1) FROM t WHERE t.c0 < 500 AND t.c1 > 100 GROUP BY t.c2 */
+	private DbIterator groupedSum() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addFilter("t.c0", Op.LESS_THAN, "500");
+		lp.addFilter("t.c1", Op.GREATER_THAN, "100");
+		lp.addProjectField("t.c2", null);
+		lp.addProjectField("t.c1", "SUM");
+		lp.addAggregate("SUM", "t.c1", null);
+		lp.addGroupBy("t.c2");
+		return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+	}
+
+	@Test
+	public void scanFilterAggregate() throws Exception {
+		checkSame(new PlanBuilder() {
+			public DbIterator build() throws Exception {
+				return groupedSum();
+			}
+		}, false);
+	}
+
+	@Test
+	public void projectOrderLimit() throws Exception {
+		// SELECT t.c0, t.c2 FROM t WHERE t.c1 <= 300 ORDER BY t.c0 LIMIT 50:
+		// the sort is pulled, its input pushed
+		checkSame(new PlanBuilder() {
+			public DbIterator build() throws Exception {
+				LogicalPlan lp = new LogicalPlan();
+				lp.addScan(table.getId(), "t");
+				lp.addFilter("t.c1", Op.LESS_THAN_OR_EQ, "300");
+				lp.addProjectField("t.c0", null);
+				lp.addProjectField("t.c2", null);
+				lp.addOrderBy("t.c0", true);
+				lp.addLimit(50);
+				return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+			}
+		}, true);
+	}
+
+	@Test
+	public void hashJoinAndSpillingAggregate() throws Exception {
+		// join a filtered table with another one, and count the joined tuples
+		// per value of c2 with a single page of memory, so that groups spill
+		checkSame(new PlanBuilder() {
+			public DbIterator build() throws Exception {
+				DbIterator left = new Filter(new Predicate(1, Op.LESS_THAN, new IntField(200)),
+						new SeqScan(tid, table.getId(), "t"));
+				DbIterator join = new HashEquiJoin(new JoinPredicate(0, Op.EQUALS, 0), left,
+						new SeqScan(tid, other.getId(), "o"));
+				return new Aggregate(join, 3, 2, Aggregator.Op.COUNT, 1);
+			}
+		}, false);
+	}
+
+	@Test
+	public void asOperator() throws Exception {
+		// the join is read a page of the probe side at a time, and run again
+		// when rewound
+		DbIterator left = new Filter(new Predicate(1, Op.LESS_THAN, new IntField(200)),
+				new SeqScan(tid, table.getId(), "t"));
+		DbIterator plan = new HashEquiJoin(new JoinPredicate(0, Op.EQUALS, 0), left,
+				new SeqScan(tid, other.getId(), "o"));
+		ArrayList<ArrayList<Integer>> expected = SystemTestUtil.pushTuples(plan);
+		assertFalse(expected.isEmpty());
+		PushEngine engine = new PushEngine(plan);
+		engine.open();
+		assertTrue(engine.hasNext());
+		engine.next();
+		engine.rewind();
+		ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+		while (engine.hasNext())
+			actual.add(SystemTestUtil.tupleToList(engine.next()));
+		engine.close();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PushEngineTest.class);
+	}
+}
@@ -0,0 +1,204 @@
+package simpledb.systemtest;
+
+import simpledb.Predicate.Op;
+import simpledb.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private SecondaryIndex createIndex(HeapFile hf, int field) throws Exception {
+		File f = File.createTempFile("index", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex index = new SecondaryIndex(hf, field, f);
+		Database.getCatalog().addIndex(index);
+		return index;
+	}
+
+	/**
+	 * Collect the tuples the index returns for the predicate, as lists.
+	 */
+	private ArrayList<ArrayList<Integer>> lookup(SecondaryIndex index, IndexPredicate ipred)
+			throws Exception {
+		ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+		DbFileIterator it = index.iterator(tid, ipred);
+		it.open();
+		while (it.hasNext())
+			found.add(SystemTestUtil.tupleToList(it.next()));
+		it.close();
+		return found;
+	}
+
+	/**
+	 * The tuples in the list whose field matches the predicate.
+	 */
+	private ArrayList<ArrayList<Integer>> matching(List<ArrayList<Integer>> tuples, int field,
+			IndexPredicate ipred) {
+		ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+		for (ArrayList<Integer> t : tuples) {
+			if (new IntField(t.get(field)).compare(ipred.getOp(), ipred.getField()))
+				expected.add(t);
+		}
+		return expected;
+	}
+
+	private void assertSameTuples(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+		Comparator<List<Integer>> c = new Comparator<List<Integer>>() {
+			public int compare(List<Integer> a, List<Integer> b) {
+				for (int i = 0; i < a.size(); i++) {
+					int d = Integer.compare(a.get(i), b.get(i));
+					if (d != 0)
+						return d;
+				}
+				return 0;
+			}
+		};
+		ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+		ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+		Collections.sort(e, c);
+		Collections.sort(a, c);
+		assertEquals(e, a);
+	}
+
+	@Test public void buildAndLookup() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+		SecondaryIndex index = createIndex(hf, 1);
+		index.build(tid);
+		BTreeChecker.checkRep(index.getFile(), tid, new HashMap<PageId, Page>(), true);
+
+		// point lookups
+		for (int i = 0; i < 50; i++) {
+			IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(tuples.get(i * 97).get(1)));
+			assertSameTuples(matching(tuples, 1, ipred), lookup(index, ipred));
+		}
+
+		// range lookups come back in order of the key
+		IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(900));
+		ArrayList<ArrayList<Integer>> found = lookup(index, ipred);
+		assertSameTuples(matching(tuples, 1, ipred), found);
+		for (int i = 1; i < found.size(); i++)
+			assertTrue(found.get(i - 1).get(1) <= found.get(i).get(1));
+		ipred = new IndexPredicate(Op.LESS_THAN_OR_EQ, new IntField(50));
+		assertSameTuples(matching(tuples, 1, ipred), lookup(index, ipred));
+	}
+
+	@Test public void maintainedByBufferPool() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, tuples);
+		SecondaryIndex index = createIndex(hf, 0);
+		index.build(tid);
+
+		// inserted tuples get index entries
+		for (int i = 0; i < 200; i++) {
+			Tuple t = BTreeUtility.getBTreeTuple(new int[] { 100 + i % 20, i });
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+			tuples.add(SystemTestUtil.tupleToList(t));
+		}
+		IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(100));
+		assertEquals(200, lookup(index, ipred).size());
+		ipred = new IndexPredicate(Op.EQUALS, new IntField(105));
+		assertSameTuples(matching(tuples, 0, ipred), lookup(index, ipred));
+
+		// deleted tuples lose theirs
+		DbFileIterator it = index.iterator(tid, ipred);
+		it.open();
+		ArrayList<Tuple> victims = new ArrayList<Tuple>();
+		while (it.hasNext())
+			victims.add(it.next());
+		it.close();
+		for (Tuple t : victims)
+			Database.getBufferPool().deleteTuple(tid, t);
+		assertEquals(0, lookup(index, ipred).size());
+		ipred = new IndexPredicate(Op.LESS_THAN, new IntField(100));
+		assertSameTuples(matching(tuples, 0, ipred), lookup(index, ipred));
+		BTreeChecker.checkRep(index.getFile(), tid, new HashMap<PageId, Page>(), true);
+
+		// the heap agrees with the index
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(1000 + 200 - victims.size(), lookup(index,
+				new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0))).size());
+		SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+		scan.open();
+		int count = 0;
+		while (scan.hasNext()) {
+			scan.next();
+			count++;
+		}
+		scan.close();
+		assertEquals(1000 + 200 - victims.size(), count);
+	}
+
+	@Test public void abortRollsBackEntries() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, null);
+		SecondaryIndex index = createIndex(hf, 0);
+		index.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+
+		TransactionId t1 = new TransactionId();
+		for (int i = 0; i < 10; i++)
+			Database.getBufferPool().insertTuple(t1, hf.getId(), BTreeUtility.getBTreeTuple(500, 2));
+		Database.getBufferPool().transactionComplete(t1, false);
+
+		tid = new TransactionId();
+		assertEquals(0, lookup(index, new IndexPredicate(Op.EQUALS, new IntField(500))).size());
+		assertEquals(1000, lookup(index, new IndexPredicate(Op.LESS_THAN, new IntField(500))).size());
+	}
+
+	@Test public void declaredInSchema() throws Exception {
+		File dir = Files.createTempDirectory("schema").toFile();
+		dir.deleteOnExit();
+		File dat = new File(dir, "emp.dat");
+		dat.deleteOnExit();
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 300; i++)
+			tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 30)));
+		HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+		File schema = new File(dir, "schema.txt");
+		schema.deleteOnExit();
+		PrintWriter out = new PrintWriter(schema);
+		out.println("emp (id int pk, dept int idx)");
+		out.close();
+
+		Database.getCatalog().loadSchema(schema.getAbsolutePath());
+		new File(dir, "emp.dept.idx").deleteOnExit();
+		int tableid = Database.getCatalog().getTableId("emp");
+		List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableid);
+		assertEquals(1, indexes.size());
+		assertEquals(1, indexes.get(0).keyField());
+		assertEquals("id", Database.getCatalog().getPrimaryKey(tableid));
+
+		// the index was built from the existing rows
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(7));
+		assertSameTuples(matching(tuples, 1, ipred), lookup(indexes.get(0), ipred));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
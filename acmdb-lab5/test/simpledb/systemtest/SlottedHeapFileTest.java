@@ -0,0 +1,182 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+
+	private TransactionId tid;
+	private TupleDesc td;
+	private HeapFile table;
+
+	@Before
+	public void setUp() throws Exception {
+		td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+		File f = File.createTempFile("slotted", ".dat");
+		f.deleteOnExit();
+		table = new HeapFile(f, td, true);
+		Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private Tuple tuple(int id, String name) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(id));
+		t.setField(1, new StringField(name, Type.STRING_LEN));
+		return t;
+	}
+
+	/** @return the tuples of the table, as strings, by their record ids */
+	private HashMap<RecordId, String> scan() throws Exception {
+		HashMap<RecordId, String> tuples = new HashMap<RecordId, String>();
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertNull(tuples.put(t.getRecordId(), t.toString()));
+		}
+		it.close();
+		return tuples;
+	}
+
+	@Test
+	public void shortStringsPackMoreTuples() throws Exception {
+		for (int i = 0; i < ROWS; i++)
+			Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i, "name" + i));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// a fixed-slot page holds as many tuples as fit with 128-byte strings
+		int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+		assertTrue(ROWS / table.numPages() >= 3 * fixed);
+
+		// the tuples come back from disk as they were inserted
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		HashMap<RecordId, String> tuples = scan();
+		assertEquals(ROWS, tuples.size());
+		HashSet<String> expected = new HashSet<String>();
+		for (int i = 0; i < ROWS; i++)
+			expected.add(tuple(i, "name" + i).toString());
+		assertEquals(expected, new HashSet<String>(tuples.values()));
+	}
+
+	@Test
+	public void deletesAreCompactedAndSlotsStay() throws Exception {
+		HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+			Tuple t = tuple(i, i % 2 == 0 ? "a" : "a much longer name, " + i);
+			page.insertTuple(t);
+			inserted.add(t);
+		}
+		// delete the long tuples, which leaves holes between the short ones
+		HashMap<RecordId, String> kept = new HashMap<RecordId, String>();
+		for (Tuple t : inserted) {
+			if (((IntField) t.getField(0)).getValue() % 2 == 1)
+				page.deleteTuple(t);
+			else
+				kept.put(t.getRecordId(), t.toString());
+		}
+		// the space of the holes takes more short tuples than the page had
+		// room for before them, so inserting them compacts the page
+		int before = page.getNumEmptySlots();
+		int added = 0;
+		while (true) {
+			try {
+				page.insertTuple(tuple(-1, "b"));
+			} catch (DbException e) {
+				break;
+			}
+			added++;
+		}
+		assertTrue(added > before);
+
+		// the kept tuples are in the same slots, in memory and on disk
+		HeapPage read = new HeapPage(page.getId(), page.getPageData());
+		for (HeapPage p : new HeapPage[] { page, read }) {
+			for (Map.Entry<RecordId, String> e : kept.entrySet())
+				assertEquals(e.getValue(), p.getTuple(e.getKey().tupleno()).toString());
+		}
+		assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+	}
+
+	@Test
+	public void multibyteStrings() throws Exception {
+		char[] accents = new char[Type.STRING_LEN];
+		Arrays.fill(accents, '\u00e9');
+		String[] names = { "na\u00efve \u65e5\u672c", new String(accents) };
+		HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+		for (int i = 0; i < names.length; i++)
+			page.insertTuple(tuple(i, names[i]));
+		HeapPage read = new HeapPage(page.getId(), page.getPageData());
+		assertEquals(new StringField(names[0], Type.STRING_LEN), read.getTuple(0).getField(1));
+		// 128 two-byte characters do not fit in 255 bytes: the last one is
+		// dropped whole
+		assertEquals(new StringField(names[1].substring(1), Type.STRING_LEN), read.getTuple(1).getField(1));
+	}
+
+	@Test
+	public void catalogAndTextConversion() throws Exception {
+		File dir = File.createTempFile("catalog", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		File txt = new File(dir, "people.txt");
+		txt.deleteOnExit();
+		PrintWriter w = new PrintWriter(new FileWriter(txt));
+		for (int i = 0; i < ROWS; i++)
+			w.println(i + ",name" + i);
+		w.close();
+		File dat = new File(dir, "people.dat");
+		dat.deleteOnExit();
+		HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2,
+				new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',', true);
+		File schema = new File(dir, "catalog.txt");
+		schema.deleteOnExit();
+		w = new PrintWriter(new FileWriter(schema));
+		w.println("people (id int, name string idx) slotted");
+		w.close();
+		new File(dir, "people.name.idx").deleteOnExit();
+		Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+		int id = Database.getCatalog().getTableId("people");
+		table = (HeapFile) Database.getCatalog().getDatabaseFile(id);
+		assertTrue(table.isSlotted());
+		HashMap<RecordId, String> tuples = scan();
+		assertEquals(ROWS, tuples.size());
+
+		// the index finds the tuples by the slots they were written to
+		SecondaryIndex index = Database.getCatalog().getIndexes(id).get(0);
+		DbFileIterator it = index.iterator(tid,
+				new IndexPredicate(Predicate.Op.EQUALS, new StringField("name1234", Type.STRING_LEN)));
+		it.open();
+		assertTrue(it.hasNext());
+		Tuple t = it.next();
+		assertEquals(new IntField(1234), t.getField(0));
+		assertEquals(tuples.get(t.getRecordId()), t.toString());
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+	}
+}
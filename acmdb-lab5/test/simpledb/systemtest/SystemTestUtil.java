@@ -81,6 +81,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.zoneFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -94,6 +95,33 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * @return the tuples of a plan, read with hasNext and next, as lists;
+     *         the plan is opened and closed
+     */
+    public static ArrayList<ArrayList<Integer>> pullTuples(DbIterator plan) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(tupleToList(plan.next()));
+        plan.close();
+        return result;
+    }
+
+    /**
+     * @return the tuples of a plan, which must not be open, run by
+     *         {@link PushEngine}, as lists
+     */
+    public static ArrayList<ArrayList<Integer>> pushTuples(DbIterator plan) throws Exception {
+        final ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        PushEngine.run(plan, new TupleSink() {
+            public void push(Tuple t) {
+                result.add(tupleToList(t));
+            }
+        });
+        return result;
+    }
+
     public static void matchTuples(DbFile f, List<ArrayList<Integer>> tuples)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
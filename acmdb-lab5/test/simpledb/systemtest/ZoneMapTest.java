@@ -0,0 +1,172 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private TransactionId tid;
+	private File file;
+	private CountingFiles.Heap table;
+
+	@Before
+	public void setUp() throws Exception {
+		// a table in the order of its first field, like a table of events
+		// appended as they happen
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		Random r = new Random(49);
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(new ArrayList<Integer>(Arrays.asList(i, r.nextInt(1000))));
+		file = File.createTempFile("events", ".dat");
+		file.deleteOnExit();
+		ZoneMap.zoneFile(file).deleteOnExit();
+		HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+		table = open();
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** @return the table, opened again, with an empty buffer pool */
+	private CountingFiles.Heap open() {
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		CountingFiles.Heap f = new CountingFiles.Heap(file, Utility.getTupleDesc(2, "c"));
+		Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+		return f;
+	}
+
+	/** @return the values of the first field of the tuples of the plan */
+	private static ArrayList<Integer> run(DbIterator plan) throws Exception {
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		plan.open();
+		while (plan.hasNext())
+			values.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		return values;
+	}
+
+	/** @return the values of the first field between from and to, filtered */
+	private ArrayList<Integer> range(int from, int to) throws Exception {
+		ArrayList<Predicate> preds = new ArrayList<Predicate>();
+		preds.add(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from)));
+		preds.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to)));
+		DbIterator plan = new SeqScan(tid, table.getId(), "t", preds);
+		for (Predicate p : preds)
+			plan = new Filter(p, plan);
+		return run(plan);
+	}
+
+	@Test
+	public void scansLearnAndSkipPages() throws Exception {
+		// the encoder wrote no zones, so the first scan reads every page
+		assertEquals(ROWS, range(0, ROWS).size());
+		assertEquals(table.numPages(), table.reads);
+
+		// the zones it stored let a scan of the same file, opened again,
+		// read only the two pages holding the range
+		table = open();
+		ArrayList<Integer> values = range(5000, 5200);
+		assertEquals(200, values.size());
+		assertEquals(5000, (int) values.get(0));
+		assertTrue(table.reads <= 2);
+	}
+
+	@Test
+	public void zonesFollowInsertsAndDeletes() throws Exception {
+		range(0, ROWS);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// delete a tuple from the first page and insert one far out of the
+		// range of the first page, which it goes to; the transaction sees it
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		Tuple first = it.next();
+		it.close();
+		Database.getBufferPool().deleteTuple(tid, first);
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(-5));
+		t.setField(1, new IntField(0));
+		Database.getBufferPool().insertTuple(tid, table.getId(), t);
+		assertEquals(0, t.getRecordId().getPageId().pageNumber());
+		assertEquals(Arrays.asList(-5), range(-10, 0));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// the zone written with the page takes the insert in
+		table = open();
+		assertEquals(Arrays.asList(-5), range(-10, 0));
+		assertEquals(1, table.reads);
+		assertEquals(0, range(ROWS, 2 * ROWS).size());
+		assertEquals(1, table.reads);
+	}
+
+	@Test
+	public void plansSkipPages() throws Exception {
+		range(0, ROWS);
+		table = open();
+		TableStats.setTableStats(Database.getCatalog().getTableName(table.getId()),
+				new TableStats(table.getId(), 71));
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		table.reads = 0;
+		// SELECT t.c0 FROM t WHERE t.c0 >= 19990 AND t.c1 >= 0
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, String.valueOf(ROWS - 10));
+		lp.addFilter("t.c1", Predicate.Op.GREATER_THAN_OR_EQ, "0");
+		lp.addProjectField("t.c0", null);
+		DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		ArrayList<Integer> values = run(plan);
+		assertEquals(10, values.size());
+		assertEquals(1, table.reads);
+
+		// the push engine skips the same pages
+		table.reads = 0;
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		final ArrayList<Tuple> pushed = new ArrayList<Tuple>();
+		PushEngine.run(lp.physicalPlan(tid, TableStats.getStatsMap(), false), new TupleSink() {
+			public void push(Tuple t) {
+				pushed.add(t);
+			}
+		});
+		assertEquals(10, pushed.size());
+		assertEquals(1, table.reads);
+	}
+
+	@Test
+	public void unreadableZones() throws Exception {
+		// a directory in place of the zone file: no zone can be read or
+		// stored, so the scans read every page and stay correct
+		File zones = ZoneMap.zoneFile(file);
+		zones.delete();
+		assertTrue(zones.mkdir());
+		try {
+			table = open();
+			assertEquals(200, range(5000, 5200).size());
+			assertEquals(table.numPages(), table.reads);
+			assertFalse(table.getZoneMap().isKnown(0));
+		} finally {
+			zones.delete();
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ZoneMapTest.class);
+	}
+}